@@ -0,0 +1,48 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link BenchmarkStore} over the plugin's {@link AppendLog}, compacting on its own thread as in
+ * the app.
+ */
+final class AppendLogStore implements BenchmarkStore {
+
+    private final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "benchmark-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AppendLog log;
+
+    AppendLogStore(File file) throws IOException {
+        log = new AppendLog(file, compactionExecutor);
+    }
+
+    @Override
+    public Object get(String key) {
+        return log.get(key);
+    }
+
+    @Override
+    public void write(Map<String, Object> changes, boolean sync) throws IOException {
+        AppendLog.Batch batch = new AppendLog.Batch();
+        batch.changes.putAll(changes);
+        log.append(batch, sync);
+    }
+
+    @Override
+    public Map<String, Object> getAll() {
+        return log.snapshot();
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.close();
+        compactionExecutor.shutdown();
+    }
+}
@@ -0,0 +1,44 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Storage of one widget group as the benchmarks see it.
+ *
+ * Each backend the plugin can run on gets an implementation, so the same scenarios measure all of
+ * them. Add a backend here and to {@link #BACKENDS} to include it in every storage benchmark.
+ */
+interface BenchmarkStore extends Closeable {
+
+    /** Stand-in for {@code SharedPreferences}: the whole group is rewritten on every commit. */
+    String FILE_PREFERENCES = "filePreferences";
+    /** The plugin's {@link AppendLog}: every commit appends the changed entries. */
+    String APPEND_LOG = "appendLog";
+
+    String[] BACKENDS = { FILE_PREFERENCES, APPEND_LOG };
+
+    Object get(String key);
+
+    /**
+     * Writes the changes in one commit; a {@code null} value removes the key.
+     *
+     * @param sync whether the commit must reach the storage device before returning
+     */
+    void write(Map<String, Object> changes, boolean sync) throws IOException;
+
+    Map<String, Object> getAll();
+
+    static BenchmarkStore open(String backend, File file) throws IOException {
+        switch (backend) {
+            case FILE_PREFERENCES:
+                return new FilePreferencesStore(file);
+            case APPEND_LOG:
+                return new AppendLogStore(file);
+            default:
+                throw new IllegalArgumentException("Unknown backend: " + backend);
+        }
+    }
+}
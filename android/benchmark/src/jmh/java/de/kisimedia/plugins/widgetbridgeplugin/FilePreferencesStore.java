@@ -0,0 +1,125 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link BenchmarkStore} that writes like {@code SharedPreferencesImpl}: values live in a map
+ * behind one lock, and every commit serializes the whole map as XML to a new file that replaces
+ * the old one. Reads never touch the file.
+ */
+final class FilePreferencesStore implements BenchmarkStore {
+
+    private final File file;
+    private final File backup;
+    private final Map<String, Object> values = new HashMap<>();
+    private final Object writeLock = new Object();
+
+    FilePreferencesStore(File file) {
+        this.file = file;
+        this.backup = new File(file.getPath() + ".bak");
+    }
+
+    @Override
+    public synchronized Object get(String key) {
+        return values.get(key);
+    }
+
+    @Override
+    public void write(Map<String, Object> changes, boolean sync) throws IOException {
+        Map<String, Object> snapshot;
+        synchronized (this) {
+            for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                if (entry.getValue() == null) {
+                    values.remove(entry.getKey());
+                } else {
+                    values.put(entry.getKey(), entry.getValue());
+                }
+            }
+            snapshot = new HashMap<>(values);
+        }
+        synchronized (writeLock) {
+            writeToFile(snapshot, sync);
+        }
+    }
+
+    @Override
+    public synchronized Map<String, Object> getAll() {
+        return new HashMap<>(values);
+    }
+
+    private void writeToFile(Map<String, Object> snapshot, boolean sync) throws IOException {
+        if (file.exists() && !backup.exists() && !file.renameTo(backup)) {
+            throw new IOException("Cannot back up " + file);
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.write("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+            for (Map.Entry<String, Object> entry : snapshot.entrySet()) {
+                writeEntry(writer, entry.getKey(), entry.getValue());
+            }
+            writer.write("</map>\n");
+            writer.flush();
+            if (sync) {
+                out.getFD().sync();
+            }
+        }
+        backup.delete();
+    }
+
+    private static void writeEntry(Writer writer, String key, Object value) throws IOException {
+        String name = escape(key);
+        if (value instanceof String) {
+            writer.write("    <string name=\"" + name + "\">" + escape((String) value) + "</string>\n");
+        } else if (value instanceof Set) {
+            writer.write("    <set name=\"" + name + "\">\n");
+            for (Object item : (Set<?>) value) {
+                writer.write("        <string>" + escape(String.valueOf(item)) + "</string>\n");
+            }
+            writer.write("    </set>\n");
+        } else {
+            String tag = value instanceof Integer ? "int"
+                : value instanceof Long ? "long"
+                : value instanceof Float ? "float"
+                : "boolean";
+            writer.write("    <" + tag + " name=\"" + name + "\" value=\"" + value + "\" />\n");
+        }
+    }
+
+    private static String escape(String text) {
+        StringBuilder out = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '"':
+                    out.append("&quot;");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    @Override
+    public void close() {
+        // Nothing is held open between commits.
+    }
+}
@@ -0,0 +1,131 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Finding the providers to reload after a write and building their updates, which runs on every
+ * {@code setItem} and {@code reloadAllTimelines}.
+ *
+ * Each provider depends on a few exact keys and one prefix of its own group, as declared with
+ * {@code setWidgetDependencies}, and has three widgets on the home screen. The fan-out
+ * benchmarks go on to merge the requests and build one update per provider through
+ * {@link ReloadFanOut}; the {@code Contended} variants run them on several threads sharing one
+ * scheduler, as concurrent writes to different groups do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ReloadBenchmark {
+
+    private static final int GROUPS = 4;
+    private static final int WIDGETS = 3;
+    private static final int CONTENDING_THREADS = 4;
+
+    @Param({ "1", "20", "200" })
+    public int providers;
+
+    private JSONArray dependencies;
+    private DependencyIndex index;
+    private Collection<String> exactKeys;
+    private Collection<String> prefixedKeys;
+    private Map<String, int[]> widgetIds;
+    private Set<String> changed;
+    private ReloadFanOut fanOut;
+
+    @Setup
+    public void setUp() throws JSONException {
+        dependencies = new JSONArray();
+        for (int i = 0; i < providers; i++) {
+            dependencies.put(new JSONObject()
+                .put("provider", "com.example.Widget" + i)
+                .put("group", "group" + (i % GROUPS))
+                .put("keys", new JSONArray(Arrays.asList("title" + i, "subtitle" + i, "items" + i + ".*"))));
+        }
+        index = DependencyIndex.fromJson(dependencies);
+        exactKeys = Collections.singletonList("title0");
+        prefixedKeys = Arrays.asList("items0.count", "items0.first", "unrelated");
+        // Widget ids are cached per provider after warm-up, so the lookup is a map read.
+        widgetIds = new LinkedHashMap<>();
+        for (int i = 0; i < providers; i++) {
+            int[] ids = new int[WIDGETS];
+            for (int w = 0; w < WIDGETS; w++) {
+                ids[w] = i * WIDGETS + w;
+            }
+            widgetIds.put("com.example.Widget" + i, ids);
+        }
+        changed = new TreeSet<>(prefixedKeys);
+        fanOut = new ReloadFanOut();
+    }
+
+    @Benchmark
+    public Set<String> exactKey() {
+        return index.providersFor("group0", exactKeys);
+    }
+
+    @Benchmark
+    public Set<String> prefixedKeys() {
+        return index.providersFor("group0", prefixedKeys);
+    }
+
+    /**
+     * Rebuilding the index, as {@code setWidgetDependencies} and process start do.
+     */
+    @Benchmark
+    public DependencyIndex build() throws JSONException {
+        return DependencyIndex.fromJson(dependencies);
+    }
+
+    /**
+     * {@code reloadAllTimelines}: a full update of every registered provider.
+     */
+    @Benchmark
+    public int reloadAll(Blackhole blackhole) {
+        for (Map.Entry<String, int[]> entry : widgetIds.entrySet()) {
+            fanOut.request(entry.getKey(), entry.getValue(), null);
+        }
+        return fanOut.flush(blackhole::consume);
+    }
+
+    @Benchmark
+    @Threads(CONTENDING_THREADS)
+    public int reloadAllContended(Blackhole blackhole) {
+        return reloadAll(blackhole);
+    }
+
+    /**
+     * A {@code setItem} of keys under a prefix: a partial update of the providers that render them.
+     */
+    @Benchmark
+    public int changedKeys(Blackhole blackhole) {
+        for (String provider : index.providersFor("group0", prefixedKeys)) {
+            fanOut.request(provider, widgetIds.get(provider), changed);
+        }
+        return fanOut.flush(blackhole::consume);
+    }
+
+    @Benchmark
+    @Threads(CONTENDING_THREADS)
+    public int changedKeysContended(Blackhole blackhole) {
+        return changedKeys(blackhole);
+    }
+}
@@ -0,0 +1,92 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * Stand-in for the plugin's {@code ReloadScheduler} and {@code WidgetProviderRegistry.sendUpdate},
+ * which need a {@code Handler}, {@code Intent} and {@code AppWidgetManager}.
+ *
+ * Requests are merged per provider under one lock as the scheduler does, and a flush builds one
+ * update per provider with the same extras the plugin puts on its intent. Updates are handed to a
+ * sink instead of being broadcast, so the binder call of {@code sendBroadcast} is not part of the
+ * measurement.
+ */
+final class ReloadFanOut {
+
+    static final String ACTION_UPDATE = "android.appwidget.action.APPWIDGET_UPDATE";
+    static final String ACTION_PARTIAL_UPDATE = "de.kisimedia.plugins.widgetbridgeplugin.PARTIAL_UPDATE";
+    static final String EXTRA_CHANGED_KEYS = "de.kisimedia.plugins.widgetbridgeplugin.CHANGED_KEYS";
+    static final String EXTRA_APPWIDGET_IDS = "appWidgetIds";
+
+    private static final class Pending {
+
+        final Set<Integer> ids = new TreeSet<>();
+        final Set<String> keys = new TreeSet<>();
+        boolean full;
+    }
+
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+
+    /**
+     * @param keys the keys that changed, or {@code null} for a full update
+     */
+    synchronized void request(String provider, int[] ids, Set<String> keys) {
+        Pending p = pending.get(provider);
+        if (p == null) {
+            p = new Pending();
+            pending.put(provider, p);
+        }
+        for (int id : ids) {
+            p.ids.add(id);
+        }
+        if (keys == null) {
+            p.full = true;
+        } else {
+            p.keys.addAll(keys);
+        }
+    }
+
+    /**
+     * Sends everything that is pending to {@code sink}.
+     *
+     * @return the number of updates sent
+     */
+    int flush(Consumer<Map<String, Object>> sink) {
+        List<Map.Entry<String, Pending>> batch;
+        synchronized (this) {
+            batch = new ArrayList<>(pending.entrySet());
+            pending.clear();
+        }
+        int sent = 0;
+        for (Map.Entry<String, Pending> entry : batch) {
+            Pending p = entry.getValue();
+            if (p.ids.isEmpty()) {
+                continue;
+            }
+            int[] ids = new int[p.ids.size()];
+            int i = 0;
+            for (Integer id : p.ids) {
+                ids[i++] = id;
+            }
+            Map<String, Object> update = new HashMap<>();
+            update.put("component", entry.getKey());
+            if (p.full) {
+                update.put("action", ACTION_UPDATE);
+            } else {
+                update.put("action", ACTION_PARTIAL_UPDATE);
+                update.put(EXTRA_CHANGED_KEYS, p.keys.toArray(new String[0]));
+            }
+            update.put(EXTRA_APPWIDGET_IDS, ids);
+            sink.accept(update);
+            sent++;
+        }
+        return sent;
+    }
+}
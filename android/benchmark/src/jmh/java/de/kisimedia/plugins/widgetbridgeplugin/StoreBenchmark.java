@@ -0,0 +1,120 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Mixed reads and writes on one group, the path every {@code setItem} and widget update takes.
+ *
+ * Each operation reads a random key or writes a random key, {@code readRatio} deciding which.
+ * The {@code Contended} variant runs the same mix on several threads sharing the group.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StoreBenchmark {
+
+    private static final int CONTENDING_THREADS = 4;
+
+    @Param({ BenchmarkStore.FILE_PREFERENCES, BenchmarkStore.APPEND_LOG })
+    public String backend;
+
+    @Param({ "10", "500" })
+    public int keyCount;
+
+    @Param({ "64", "4096" })
+    public int valueSize;
+
+    @Param({ "0.9", "0.5" })
+    public double readRatio;
+
+    private File directory;
+    private BenchmarkStore store;
+    private String[] keys;
+    private String[] values;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("widget-bridge-bench").toFile();
+        store = BenchmarkStore.open(backend, new File(directory, "group"));
+        keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "key" + i;
+        }
+        // A few distinct values, so consecutive writes of a key actually change it.
+        values = new String[8];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Values.json(valueSize, i);
+        }
+        for (int i = 0; i < keyCount; i++) {
+            store.write(Collections.singletonMap(keys[i], values[i % values.length]), false);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * One read or one {@code apply()}-style write.
+     */
+    @Benchmark
+    public void readOrWrite(Blackhole blackhole) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String key = keys[random.nextInt(keys.length)];
+        if (random.nextDouble() < readRatio) {
+            blackhole.consume(store.get(key));
+        } else {
+            store.write(Collections.singletonMap(key, values[random.nextInt(values.length)]), false);
+        }
+    }
+
+    @Benchmark
+    @Threads(CONTENDING_THREADS)
+    public void readOrWriteContended(Blackhole blackhole) throws IOException {
+        readOrWrite(blackhole);
+    }
+
+    /**
+     * One {@code commit()}-style write that reaches the storage device before returning.
+     */
+    @Benchmark
+    public void durableWrite() throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Map<String, Object> change = Collections.singletonMap(keys[random.nextInt(keys.length)], values[random.nextInt(values.length)]);
+        store.write(change, true);
+    }
+
+    /**
+     * The copy a widget provider takes of the whole group in {@code onUpdate}.
+     */
+    @Benchmark
+    public Map<String, Object> snapshot() {
+        return store.getAll();
+    }
+}
@@ -0,0 +1,49 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reading one field of a stored JSON value, as a widget does when it renders.
+ *
+ * Compares the {@link WidgetValue} field index with parsing the whole value into a
+ * {@link JSONObject}, by value size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ValueBenchmark {
+
+    @Param({ "256", "16384", "262144" })
+    public int valueSize;
+
+    private String json;
+    private String lastField;
+
+    @Setup
+    public void setUp() throws JSONException {
+        json = Values.json(valueSize, 0);
+        JSONObject parsed = new JSONObject(json);
+        lastField = "field" + (parsed.length() - 1);
+    }
+
+    @Benchmark
+    public String widgetValueField() throws IOException {
+        return WidgetValue.wrap(json).getString(lastField);
+    }
+
+    @Benchmark
+    public String jsonObjectField() throws JSONException {
+        return new JSONObject(json).getString(lastField);
+    }
+}
@@ -0,0 +1,25 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+/**
+ * Widget payloads of a given size, shaped like what apps store: a JSON object of short fields.
+ */
+final class Values {
+
+    private Values() {}
+
+    /**
+     * A JSON object of about {@code size} bytes; {@code variant} changes the field values only.
+     */
+    static String json(int size, int variant) {
+        StringBuilder json = new StringBuilder(size + 32).append('{');
+        int field = 0;
+        while (json.length() < size) {
+            if (field > 0) {
+                json.append(',');
+            }
+            json.append("\"field").append(field).append("\":\"value ").append(field).append('-').append(variant).append('"');
+            field++;
+        }
+        return json.append('}').toString();
+    }
+}
@@ -0,0 +1,461 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only key/value log for one widget group.
+ *
+ * Every commit appends a single checksummed record holding only the changed entries, so a write
+ * costs the size of the delta instead of the size of the group. The current values are kept in
+ * memory. When dead records outgrow {@link #compactionMinDeadBytes} and {@link #compactionDeadRatio}
+ * of the file, the live entries are rewritten to a new file on the compaction executor and swapped
+ * in with an atomic rename. A torn or corrupt tail, for example after the process died mid-write,
+ * is cut off when the log is opened; every record before it stays intact.
+ *
+ * This class has no Android dependencies.
+ */
+final class AppendLog implements Closeable {
+
+    static final long DEFAULT_COMPACTION_MIN_DEAD_BYTES = 64 * 1024;
+    static final float DEFAULT_COMPACTION_DEAD_RATIO = 0.5f;
+
+    private static final byte[] MAGIC = { 'W', 'B', 'L', '1' };
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    private static final byte OP_STRING = 1;
+    private static final byte OP_INT = 2;
+    private static final byte OP_LONG = 3;
+    private static final byte OP_FLOAT = 4;
+    private static final byte OP_BOOLEAN = 5;
+    private static final byte OP_STRING_SET = 6;
+    private static final byte OP_REMOVE = 7;
+    private static final byte OP_CLEAR = 8;
+
+    /**
+     * Changes of one commit. A {@code null} value removes the key; {@code clear} empties the log
+     * before the other changes apply, matching {@code SharedPreferences.Editor}.
+     */
+    static final class Batch {
+
+        final Map<String, Object> changes = new LinkedHashMap<>();
+        boolean clear;
+    }
+
+    private final File file;
+    private final File compactFile;
+    private final Executor compactionExecutor;
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+    private final Map<String, Integer> liveBytes = new HashMap<>();
+    private final Object compactionLock = new Object();
+
+    private long compactionMinDeadBytes = DEFAULT_COMPACTION_MIN_DEAD_BYTES;
+    private float compactionDeadRatio = DEFAULT_COMPACTION_DEAD_RATIO;
+
+    private FileChannel channel;
+    private long totalBytes;
+    private long totalLiveBytes;
+    private boolean compacting;
+    private List<byte[]> compactionBacklog;
+    private long recoveredBytes;
+
+    AppendLog(File file, Executor compactionExecutor) throws IOException {
+        this.file = file;
+        this.compactFile = new File(file.getPath() + ".compact");
+        this.compactionExecutor = compactionExecutor;
+
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        // A leftover from a compaction that died before its rename; the log itself is still complete.
+        if (compactFile.exists()) {
+            compactFile.delete();
+        }
+        open();
+    }
+
+    synchronized void setCompactionThreshold(long minDeadBytes, float deadRatio) {
+        this.compactionMinDeadBytes = minDeadBytes;
+        this.compactionDeadRatio = deadRatio;
+    }
+
+    Object get(String key) {
+        return values.get(key);
+    }
+
+    boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    Map<String, Object> snapshot() {
+        return new HashMap<>(values);
+    }
+
+    synchronized long getFileBytes() {
+        return totalBytes;
+    }
+
+    synchronized long getDeadBytes() {
+        return totalBytes - totalLiveBytes;
+    }
+
+    /**
+     * Number of bytes cut off a torn tail when the log was opened.
+     */
+    synchronized long getRecoveredBytes() {
+        return recoveredBytes;
+    }
+
+    /**
+     * Applies a batch in memory and appends it to the file.
+     *
+     * @param sync whether to force the record to the storage device before returning
+     * @return the keys whose value changed, not counting keys dropped by {@code clear}
+     */
+    synchronized List<String> append(Batch batch, boolean sync) throws IOException {
+        List<String> changed = new ArrayList<>();
+        ByteArrayOutputStream ops = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(ops);
+        int opCount = 0;
+
+        if (batch.clear) {
+            out.writeByte(OP_CLEAR);
+            opCount++;
+            values.clear();
+            liveBytes.clear();
+            totalLiveBytes = 0;
+        }
+
+        for (Map.Entry<String, Object> change : batch.changes.entrySet()) {
+            String key = change.getKey();
+            Object value = change.getValue();
+            Object previous = values.get(key);
+            if (value == null ? previous == null : value.equals(previous)) {
+                continue;
+            }
+            int start = out.size();
+            writeOp(out, key, value);
+            opCount++;
+            changed.add(key);
+            applyInMemory(key, value, out.size() - start);
+        }
+
+        if (opCount == 0) {
+            return changed;
+        }
+
+        byte[] record = encodeRecord(opCount, ops.toByteArray());
+        writeRecord(record, sync);
+        if (compacting) {
+            compactionBacklog.add(record);
+        }
+        maybeScheduleCompaction();
+        return changed;
+    }
+
+    /**
+     * Rewrites the live entries into a fresh file. Normally called on the compaction executor.
+     */
+    void compact() throws IOException {
+        synchronized (compactionLock) {
+            compactLocked();
+        }
+    }
+
+    private void compactLocked() throws IOException {
+        Map<String, Object> live;
+        synchronized (this) {
+            live = new HashMap<>(values);
+            compactionBacklog = new ArrayList<>();
+            compacting = true;
+        }
+
+        try {
+            ByteArrayOutputStream ops = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(ops);
+            for (Map.Entry<String, Object> entry : live.entrySet()) {
+                writeOp(out, entry.getKey(), entry.getValue());
+            }
+
+            try (FileOutputStream stream = new FileOutputStream(compactFile)) {
+                stream.write(MAGIC);
+                if (!live.isEmpty()) {
+                    stream.write(encodeRecord(live.size(), ops.toByteArray()));
+                }
+                stream.getFD().sync();
+            }
+
+            synchronized (this) {
+                try (FileOutputStream stream = new FileOutputStream(compactFile, true)) {
+                    for (byte[] record : compactionBacklog) {
+                        stream.write(record);
+                    }
+                    stream.getFD().sync();
+                }
+                channel.close();
+                if (!compactFile.renameTo(file)) {
+                    open();
+                    throw new IOException("Cannot replace " + file);
+                }
+                channel = new RandomAccessFile(file, "rw").getChannel();
+                totalBytes = channel.size();
+                channel.position(totalBytes);
+            }
+        } finally {
+            synchronized (this) {
+                compacting = false;
+                compactionBacklog = null;
+            }
+            compactFile.delete();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void open() throws IOException {
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        values.clear();
+        liveBytes.clear();
+        totalLiveBytes = 0;
+
+        long size = channel.size();
+        if (size < MAGIC.length) {
+            channel.truncate(0);
+            channel.write(ByteBuffer.wrap(MAGIC), 0);
+            totalBytes = MAGIC.length;
+            recoveredBytes = size;
+            channel.position(totalBytes);
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+            // Keep reading until the whole file is in memory.
+        }
+        buffer.flip();
+
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a widget bridge log: " + file);
+        }
+
+        long good = buffer.position();
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length < 4 || length > buffer.remaining()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            try {
+                replay(ByteBuffer.wrap(payload));
+            } catch (RuntimeException e) {
+                break;
+            }
+            good = buffer.position();
+        }
+
+        recoveredBytes = size - good;
+        if (recoveredBytes > 0) {
+            channel.truncate(good);
+            channel.force(false);
+        }
+        totalBytes = good;
+        channel.position(good);
+    }
+
+    private void replay(ByteBuffer payload) {
+        // Decode the whole record first so a record that fails halfway changes nothing.
+        int opCount = payload.getInt();
+        boolean clear = false;
+        Map<String, Object> changes = new LinkedHashMap<>();
+        Map<String, Integer> sizes = new HashMap<>();
+        for (int i = 0; i < opCount; i++) {
+            int start = payload.position();
+            byte op = payload.get();
+            if (op == OP_CLEAR) {
+                clear = true;
+                changes.clear();
+                sizes.clear();
+                continue;
+            }
+            String key = readString(payload);
+            Object value = readValue(op, payload);
+            changes.put(key, value);
+            sizes.put(key, payload.position() - start);
+        }
+
+        if (clear) {
+            values.clear();
+            liveBytes.clear();
+            totalLiveBytes = 0;
+        }
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            applyInMemory(change.getKey(), change.getValue(), sizes.get(change.getKey()));
+        }
+    }
+
+    private void applyInMemory(String key, Object value, int opBytes) {
+        Integer previousBytes = liveBytes.remove(key);
+        if (previousBytes != null) {
+            totalLiveBytes -= previousBytes;
+        }
+        if (value == null) {
+            values.remove(key);
+        } else {
+            values.put(key, value);
+            liveBytes.put(key, opBytes);
+            totalLiveBytes += opBytes;
+        }
+    }
+
+    private void writeRecord(byte[] record, boolean sync) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (sync) {
+            channel.force(false);
+        }
+        totalBytes += record.length;
+    }
+
+    private void maybeScheduleCompaction() {
+        long dead = totalBytes - totalLiveBytes;
+        if (compacting || compactionExecutor == null || dead < compactionMinDeadBytes || dead < totalBytes * compactionDeadRatio) {
+            return;
+        }
+        compacting = true;
+        compactionBacklog = new ArrayList<>();
+        compactionExecutor.execute(() -> {
+            try {
+                compact();
+            } catch (IOException ignored) {
+                // The old file is still complete; the next write will try again.
+            }
+        });
+    }
+
+    private static byte[] encodeRecord(int opCount, byte[] ops) {
+        ByteBuffer payload = ByteBuffer.allocate(4 + ops.length);
+        payload.putInt(opCount);
+        payload.put(ops);
+        CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, payload.capacity());
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.capacity());
+        record.putInt(payload.capacity());
+        record.putInt((int) crc.getValue());
+        record.put(payload.array());
+        return record.array();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeOp(DataOutputStream out, String key, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(OP_REMOVE);
+            writeString(out, key);
+        } else if (value instanceof String) {
+            out.writeByte(OP_STRING);
+            writeString(out, key);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(OP_INT);
+            writeString(out, key);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(OP_LONG);
+            writeString(out, key);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(OP_FLOAT);
+            writeString(out, key);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(OP_BOOLEAN);
+            writeString(out, key);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Set) {
+            Set<String> set = (Set<String>) value;
+            out.writeByte(OP_STRING_SET);
+            writeString(out, key);
+            out.writeInt(set.size());
+            for (String item : set) {
+                writeString(out, item);
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported value type: " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(byte op, ByteBuffer in) {
+        switch (op) {
+            case OP_REMOVE:
+                return null;
+            case OP_STRING:
+                return readString(in);
+            case OP_INT:
+                return in.getInt();
+            case OP_LONG:
+                return in.getLong();
+            case OP_FLOAT:
+                return in.getFloat();
+            case OP_BOOLEAN:
+                return in.get() != 0;
+            case OP_STRING_SET:
+                int count = in.getInt();
+                Set<String> set = new HashSet<>();
+                for (int i = 0; i < count; i++) {
+                    set.add(readString(in));
+                }
+                return Collections.unmodifiableSet(set);
+            default:
+                throw new IllegalStateException("Unknown op " + op);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,212 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.getcapacitor.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * {@link SharedPreferences} view of an {@link AppendLog}.
+ *
+ * {@code apply()} appends the delta on the calling thread without waiting for the storage device;
+ * {@code commit()} also forces it to disk. Listeners are called on the main thread, like the
+ * framework implementation does.
+ */
+class AppendLogPreferences implements SharedPreferences {
+
+    private static final String TAG = "WidgetBridgeStore";
+    private static final Object PRESENT = new Object();
+
+    private final AppendLog log;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<OnSharedPreferenceChangeListener, Object> listeners = new WeakHashMap<>();
+
+    AppendLogPreferences(AppendLog log) {
+        this.log = log;
+    }
+
+    AppendLog getLog() {
+        return log;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return log.snapshot();
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        String value = (String) log.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Set<String> values = (Set<String>) log.get(key);
+        return values != null ? values : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Integer value = (Integer) log.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Long value = (Long) log.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Float value = (Float) log.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Boolean value = (Boolean) log.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return log.contains(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new EditorImpl();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (listeners) {
+            listeners.put(listener, PRESENT);
+        }
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * Copies values from another store, used when a group moves over from {@link SharedPreferences}.
+     */
+    void importAll(Map<String, ?> values) {
+        EditorImpl editor = new EditorImpl();
+        editor.batch.changes.putAll(values);
+        editor.commit();
+    }
+
+    private boolean write(AppendLog.Batch batch, boolean sync) {
+        List<String> changed;
+        try {
+            changed = log.append(batch, sync);
+        } catch (IOException e) {
+            Logger.error(TAG, "Failed to write widget data", e);
+            return false;
+        }
+        if (batch.clear || !changed.isEmpty()) {
+            notifyListeners(batch.clear, changed);
+        }
+        return true;
+    }
+
+    private void notifyListeners(boolean cleared, List<String> keys) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            mainHandler.post(() -> notifyListeners(cleared, keys));
+            return;
+        }
+        List<OnSharedPreferenceChangeListener> targets;
+        synchronized (listeners) {
+            targets = new ArrayList<>(listeners.keySet());
+        }
+        for (OnSharedPreferenceChangeListener listener : targets) {
+            if (cleared) {
+                listener.onSharedPreferenceChanged(this, null);
+            }
+            for (String key : keys) {
+                listener.onSharedPreferenceChanged(this, key);
+            }
+        }
+    }
+
+    private final class EditorImpl implements Editor {
+
+        private final AppendLog.Batch batch = new AppendLog.Batch();
+
+        @Override
+        public Editor putString(String key, String value) {
+            batch.changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            batch.changes.put(key, values != null ? Collections.unmodifiableSet(new HashSet<>(values)) : null);
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            batch.changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            batch.changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            batch.changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            batch.changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            batch.changes.put(key, null);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            batch.clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return write(batch, true);
+        }
+
+        @Override
+        public void apply() {
+            write(batch, false);
+        }
+    }
+}
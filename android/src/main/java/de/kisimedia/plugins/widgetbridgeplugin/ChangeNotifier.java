@@ -0,0 +1,67 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects key changes and hands them out in batches, at most one batch per group per window.
+ *
+ * The first change after a quiet period starts the window; changes that arrive before it closes
+ * are merged, keeping only the newest version of each key.
+ */
+class ChangeNotifier {
+
+    static final long DEFAULT_WINDOW_MS = 100;
+
+    interface Dispatcher {
+        void dispatch(String group, Map<String, Long> changes);
+    }
+
+    private final Handler handler;
+    private final Dispatcher dispatcher;
+    private final Runnable flushRunnable = this::flush;
+    private final Map<String, Map<String, Long>> pending = new LinkedHashMap<>();
+
+    private long windowMs = DEFAULT_WINDOW_MS;
+
+    ChangeNotifier(Handler handler, Dispatcher dispatcher) {
+        this.handler = handler;
+        this.dispatcher = dispatcher;
+    }
+
+    synchronized void setWindowMs(long windowMs) {
+        this.windowMs = Math.max(0, windowMs);
+    }
+
+    synchronized void onChanged(String group, String key, long version) {
+        boolean idle = pending.isEmpty();
+        Map<String, Long> changes = pending.get(group);
+        if (changes == null) {
+            changes = new LinkedHashMap<>();
+            pending.put(group, changes);
+        }
+        changes.put(key, version);
+        if (idle) {
+            handler.postDelayed(flushRunnable, windowMs);
+        }
+    }
+
+    /**
+     * Sends everything that is pending right now.
+     */
+    void flush() {
+        List<Map.Entry<String, Map<String, Long>>> batch;
+        synchronized (this) {
+            handler.removeCallbacks(flushRunnable);
+            batch = new ArrayList<>(pending.entrySet());
+            pending.clear();
+        }
+        for (Map.Entry<String, Map<String, Long>> entry : batch) {
+            dispatcher.dispatch(entry.getKey(), entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps group/key pairs to the widget providers that render them, or to the JavaScript
+ * subscriptions that watch them.
+ *
+ * A key pattern is either an exact key or a prefix ending in {@code *}; a lone {@code *} matches
+ * every key of the group. Instances are immutable, so the plugin can swap in a new index while
+ * writes on other threads keep reading the old one.
+ *
+ * This class has no Android dependencies.
+ */
+class DependencyIndex {
+
+    static final DependencyIndex EMPTY = new DependencyIndex(new HashMap<>(), new HashMap<>());
+
+    private static final String WILDCARD = "*";
+
+    /** group -> exact key -> providers */
+    private final Map<String, Map<String, Set<String>>> exact;
+    /** group -> prefix -> providers */
+    private final Map<String, Map<String, Set<String>>> prefixes;
+
+    private DependencyIndex(Map<String, Map<String, Set<String>>> exact, Map<String, Map<String, Set<String>>> prefixes) {
+        this.exact = exact;
+        this.prefixes = prefixes;
+    }
+
+    static final class Builder {
+
+        private final Map<String, Map<String, Set<String>>> exact = new HashMap<>();
+        private final Map<String, Map<String, Set<String>>> prefixes = new HashMap<>();
+
+        Builder add(String provider, String group, String pattern) {
+            if (pattern.endsWith(WILDCARD)) {
+                DependencyIndex.add(prefixes, group, pattern.substring(0, pattern.length() - 1), provider);
+            } else {
+                DependencyIndex.add(exact, group, pattern, provider);
+            }
+            return this;
+        }
+
+        /**
+         * Adds {@code [{ provider, group, keys: [...] }]}.
+         */
+        Builder addAll(JSONArray dependencies) throws JSONException {
+            for (int i = 0; i < dependencies.length(); i++) {
+                JSONObject dependency = dependencies.getJSONObject(i);
+                String provider = dependency.getString("provider");
+                String group = dependency.getString("group");
+                JSONArray keys = dependency.getJSONArray("keys");
+
+                for (int k = 0; k < keys.length(); k++) {
+                    add(provider, group, keys.getString(k));
+                }
+            }
+            return this;
+        }
+
+        DependencyIndex build() {
+            return new DependencyIndex(exact, prefixes);
+        }
+    }
+
+    /**
+     * Builds an index from {@code [{ provider, group, keys: [...] }]}.
+     */
+    static DependencyIndex fromJson(JSONArray dependencies) throws JSONException {
+        return new Builder().addAll(dependencies).build();
+    }
+
+    boolean isEmpty() {
+        return exact.isEmpty() && prefixes.isEmpty();
+    }
+
+    /**
+     * Returns the providers that depend on at least one of the changed keys, in a stable order.
+     */
+    Set<String> providersFor(String group, Collection<String> changedKeys) {
+        Set<String> result = new LinkedHashSet<>();
+        Map<String, Set<String>> exactKeys = exact.get(group);
+        Map<String, Set<String>> prefixKeys = prefixes.get(group);
+        if (exactKeys == null && prefixKeys == null) {
+            return result;
+        }
+
+        for (String key : changedKeys) {
+            if (exactKeys != null) {
+                Set<String> providers = exactKeys.get(key);
+                if (providers != null) {
+                    result.addAll(providers);
+                }
+            }
+            if (prefixKeys != null) {
+                for (Map.Entry<String, Set<String>> entry : prefixKeys.entrySet()) {
+                    if (key.startsWith(entry.getKey())) {
+                        result.addAll(entry.getValue());
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void add(Map<String, Map<String, Set<String>>> target, String group, String key, String provider) {
+        Map<String, Set<String>> keys = target.get(group);
+        if (keys == null) {
+            keys = new HashMap<>();
+            target.put(group, keys);
+        }
+        Set<String> providers = keys.get(key);
+        if (providers == null) {
+            providers = new LinkedHashSet<>();
+            keys.put(key, providers);
+        }
+        providers.add(provider);
+    }
+}
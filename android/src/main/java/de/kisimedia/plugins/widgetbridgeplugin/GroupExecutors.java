@@ -0,0 +1,187 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serial lanes over a shared thread pool: one lane per widget group plus one for provider work.
+ *
+ * Tasks of the same lane run one at a time in submission order, so writes to a group keep their
+ * order. Different lanes run in parallel, so loading a large group never delays calls for another.
+ * A group lane is dropped once it has no task left, so the lanes of per-instance groups do not
+ * pile up as widgets come and go.
+ */
+class GroupExecutors {
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static volatile GroupExecutors shared;
+
+    private final Executor pool;
+    /**
+     * Busy group lanes. Each lane only locks itself; a lane that ran out of tasks is retired under
+     * its own lock before it leaves the map, so a task never lands on a lane that will not run it.
+     */
+    private final ConcurrentHashMap<String, SerialExecutor> lanes = new ConcurrentHashMap<>();
+    private final SerialExecutor providerLane;
+
+    GroupExecutors(Executor pool) {
+        this.pool = pool;
+        this.providerLane = new SerialExecutor(pool, null);
+    }
+
+    /**
+     * The lanes of this process, used by the plugin and {@link WidgetBridgeContentProvider} alike so
+     * their writes to a group keep one order.
+     */
+    static GroupExecutors shared() {
+        GroupExecutors result = shared;
+        if (result == null) {
+            synchronized (GroupExecutors.class) {
+                result = shared;
+                if (result == null) {
+                    result = createDefault();
+                    shared = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    static GroupExecutors createDefault() {
+        int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "WidgetBridge-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+            threads,
+            threads,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            factory
+        );
+        pool.allowCoreThreadTimeOut(true);
+        return new GroupExecutors(pool);
+    }
+
+    /**
+     * Lane of a group. The lane is looked up for every task, so the executor stays valid after the
+     * lane it last used was dropped.
+     */
+    Executor forGroup(String group) {
+        return task -> {
+            while (true) {
+                SerialExecutor lane = lanes.get(group);
+                if (lane == null) {
+                    SerialExecutor created = new SerialExecutor(pool, group);
+                    lane = lanes.putIfAbsent(group, created);
+                    if (lane == null) {
+                        lane = created;
+                    }
+                }
+                if (lane.offer(task)) {
+                    return;
+                }
+                // The lane retired between the lookup and the offer; the next lookup replaces it.
+            }
+        };
+    }
+
+    /**
+     * Number of group lanes with queued or running tasks.
+     */
+    int laneCount() {
+        return lanes.size();
+    }
+
+    /**
+     * Lane for provider registry work and reload broadcasts.
+     */
+    Executor forProviders() {
+        return providerLane;
+    }
+
+    /**
+     * Runs {@code task} on {@code target} once every group task submitted before this call has
+     * finished. Lanes are not blocked while they wait for each other.
+     */
+    void executeAfterPendingWrites(Executor target, Runnable task) {
+        SerialExecutor[] busy = lanes.values().toArray(new SerialExecutor[0]);
+        if (busy.length == 0) {
+            target.execute(task);
+            return;
+        }
+        AtomicInteger remaining = new AtomicInteger(busy.length);
+        Runnable barrier = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                target.execute(task);
+            }
+        };
+        for (SerialExecutor lane : busy) {
+            if (!lane.offer(barrier)) {
+                // Retired since the snapshot, so its tasks have finished.
+                barrier.run();
+            }
+        }
+    }
+
+    private final class SerialExecutor implements Executor {
+
+        private final Executor delegate;
+        /** The group whose lane this is, or {@code null} for a lane that never retires. */
+        private final String group;
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private Runnable active;
+        private boolean retired;
+
+        SerialExecutor(Executor delegate, String group) {
+            this.delegate = delegate;
+            this.group = group;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            offer(task);
+        }
+
+        /**
+         * Queues a task unless the lane has retired.
+         */
+        synchronized boolean offer(Runnable task) {
+            if (retired) {
+                return false;
+            }
+            tasks.offer(() -> {
+                try {
+                    task.run();
+                } finally {
+                    scheduleNext();
+                }
+            });
+            if (active == null) {
+                scheduleNext();
+            }
+            return true;
+        }
+
+        private synchronized void scheduleNext() {
+            active = tasks.poll();
+            if (active != null) {
+                delegate.execute(active);
+            } else if (group != null) {
+                retired = true;
+                lanes.remove(group, this);
+            }
+        }
+    }
+}
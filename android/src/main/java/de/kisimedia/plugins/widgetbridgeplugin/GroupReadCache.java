@@ -0,0 +1,244 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Typed in-memory view of one widget group.
+ *
+ * The group is copied once when the cache is created. After that the plugin writes through
+ * {@link #put} and {@link #remove}, and changes made by anyone else in the process (widget
+ * providers, click handlers) arrive through {@link SharedPreferences.OnSharedPreferenceChangeListener}.
+ * Lookups never copy the whole map again.
+ *
+ * Keys are also kept in a sorted index that every change updates, so a range of keys can be
+ * listed page by page without sorting or copying the group.
+ *
+ * Every change also gets a version from a process-wide counter, so callers can tell whether a key
+ * changed since they last read it. The counter starts at the current time in microseconds, which
+ * keeps versions increasing across process restarts. The listener uses the versions too: a value it
+ * read is dropped if a {@link #put} changed the key meanwhile, since that put wrote a newer value.
+ */
+class GroupReadCache implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    private static final AtomicLong versionClock = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    /**
+     * Told about every change the cache sees, after it has been applied.
+     */
+    interface ChangeListener {
+        void onChanged(String key, long version);
+    }
+
+    private final SharedPreferences prefs;
+    private final ChangeListener changeListener;
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+    private final NavigableSet<String> sortedKeys = new ConcurrentSkipListSet<>();
+    /** Versions of the keys changed since the last full load, including removed ones. */
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
+    private volatile long loadVersion;
+
+    GroupReadCache(SharedPreferences prefs) {
+        this(prefs, null);
+    }
+
+    GroupReadCache(SharedPreferences prefs, ChangeListener changeListener) {
+        this.prefs = prefs;
+        this.changeListener = changeListener;
+        // SharedPreferences only keeps a weak reference to the listener, so the owner of this
+        // cache must keep it reachable for as long as it wants updates.
+        prefs.registerOnSharedPreferenceChangeListener(this);
+        reload(false);
+    }
+
+    Object get(String key) {
+        return values.get(key);
+    }
+
+    Set<String> keys() {
+        return Collections.unmodifiableSet(values.keySet());
+    }
+
+    /**
+     * The sorted index of the keys, kept current by every change. Callers must not modify it.
+     */
+    NavigableSet<String> sortedKeys() {
+        return sortedKeys;
+    }
+
+    /**
+     * Lists keys in sorted order.
+     *
+     * @param from first key to consider, or {@code null} to start at the beginning
+     * @param fromInclusive whether {@code from} itself may be listed
+     * @param to key to stop before, or {@code null} to run to the end
+     * @param limit most keys to return
+     */
+    List<String> keys(String from, boolean fromInclusive, String to, int limit) {
+        NavigableSet<String> range = from != null ? sortedKeys.tailSet(from, fromInclusive) : sortedKeys;
+        if (to != null) {
+            range = range.headSet(to, false);
+        }
+        List<String> result = new ArrayList<>(Math.min(limit, 64));
+        for (String key : range) {
+            if (result.size() == limit) {
+                break;
+            }
+            result.add(key);
+        }
+        return result;
+    }
+
+    /**
+     * Smallest string greater than every string starting with {@code prefix}, or {@code null} if
+     * there is none.
+     */
+    static String prefixEnd(String prefix) {
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+        if (end == 0) {
+            return null;
+        }
+        return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+    }
+
+    /**
+     * Version of the last change to {@code key}; keys never changed since the group was loaded
+     * share the load version.
+     */
+    long getVersion(String key) {
+        Long version = versions.get(key);
+        return version != null ? version : loadVersion;
+    }
+
+    void put(String key, Object value) {
+        long version;
+        synchronized (this) {
+            version = apply(key, value);
+        }
+        notifyChanged(key, version);
+    }
+
+    /**
+     * @return the new version of the key, or {@code 0} if its value did not change
+     */
+    private long apply(String key, Object value) {
+        Object previous = value == null ? values.remove(key) : values.put(key, value);
+        if (value == null) {
+            sortedKeys.remove(key);
+        } else {
+            sortedKeys.add(key);
+        }
+        if (value == null ? previous == null : value.equals(previous)) {
+            return 0;
+        }
+        long version = versionClock.incrementAndGet();
+        versions.put(key, version);
+        return version;
+    }
+
+    private void notifyChanged(String key, long version) {
+        if (version != 0 && changeListener != null) {
+            changeListener.onChanged(key, version);
+        }
+    }
+
+    void remove(String key) {
+        put(key, null);
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if (key == null) {
+            // Editor.clear() is reported with a null key on API 30+.
+            reload(true);
+            return;
+        }
+        // Read through our own view: the backend reports a flushed value after the fact, and a
+        // newer write may already be waiting in the plugin's write buffer.
+        long seen = getVersion(key);
+        Object value = readTyped(prefs, key);
+        long version;
+        synchronized (this) {
+            if (getVersion(key) != seen) {
+                // The plugin changed the key while we read it; its value is the newer one.
+                return;
+            }
+            version = apply(key, value);
+        }
+        notifyChanged(key, version);
+    }
+
+    private void reload(boolean notify) {
+        Set<String> affected;
+        long version;
+        synchronized (this) {
+            Map<String, ?> all = prefs.getAll();
+            affected = notify && changeListener != null ? new HashSet<>(values.keySet()) : null;
+            values.keySet().retainAll(all.keySet());
+            values.putAll(all);
+            sortedKeys.retainAll(all.keySet());
+            sortedKeys.addAll(all.keySet());
+            version = versionClock.incrementAndGet();
+            versions.clear();
+            loadVersion = version;
+            if (affected != null) {
+                affected.addAll(all.keySet());
+            }
+        }
+        if (affected != null) {
+            for (String key : affected) {
+                changeListener.onChanged(key, version);
+            }
+        }
+    }
+
+    /**
+     * Reads a single value without knowing its type up front. The typed getters throw a
+     * {@link ClassCastException} on a mismatch, which is cheaper than copying the group with
+     * {@code getAll()} just to look at one entry.
+     */
+    static Object readTyped(SharedPreferences prefs, String key) {
+        if (!prefs.contains(key)) {
+            return null;
+        }
+        try {
+            return prefs.getString(key, null);
+        } catch (ClassCastException ignored) {
+            // Not a String.
+        }
+        try {
+            return prefs.getInt(key, 0);
+        } catch (ClassCastException ignored) {
+            // Not an Integer.
+        }
+        try {
+            return prefs.getLong(key, 0L);
+        } catch (ClassCastException ignored) {
+            // Not a Long.
+        }
+        try {
+            return prefs.getFloat(key, 0f);
+        } catch (ClassCastException ignored) {
+            // Not a Float.
+        }
+        try {
+            return prefs.getBoolean(key, false);
+        } catch (ClassCastException ignored) {
+            // Not a Boolean.
+        }
+        return prefs.getStringSet(key, null);
+    }
+}
@@ -0,0 +1,267 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Expiry times, sizes and recency of the keys of one group, used to drop keys that are stale or
+ * push the group over its quota.
+ *
+ * Expiry times are stored in their own preferences file next to the group, so they survive
+ * restarts. Recency is tracked per process: keys not read or written since the process started
+ * count as least recently used. Sizes are estimates of what the group holds in memory, counting
+ * a large value with the size of its file.
+ */
+class GroupRetention {
+
+    private static final String EXPIRY_PREFS_PREFIX = "de.kisimedia.plugins.widgetbridgeplugin.expiry.";
+
+    /**
+     * Wall time in milliseconds, which expiry times are measured in.
+     */
+    interface Clock {
+        long now();
+    }
+
+    static final Clock SYSTEM_CLOCK = System::currentTimeMillis;
+
+    private final Clock clock;
+
+    private final SharedPreferences expiryPrefs;
+    private final Map<String, Long> expiresAt = new HashMap<>();
+    /** Estimated bytes per key, in access order. */
+    private final LinkedHashMap<String, Integer> sizes = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    /** No key expires before this; may lag behind after keys are removed. */
+    private long nextExpiry = Long.MAX_VALUE;
+
+    private int maxEntries;
+    private long maxBytes;
+
+    private long expired;
+    private long evicted;
+
+    GroupRetention(SharedPreferences expiryPrefs) {
+        this(expiryPrefs, SYSTEM_CLOCK);
+    }
+
+    GroupRetention(SharedPreferences expiryPrefs, Clock clock) {
+        this.expiryPrefs = expiryPrefs;
+        this.clock = clock;
+        for (Map.Entry<String, ?> entry : expiryPrefs.getAll().entrySet()) {
+            if (entry.getValue() instanceof Long) {
+                long time = (Long) entry.getValue();
+                expiresAt.put(entry.getKey(), time);
+                nextExpiry = Math.min(nextExpiry, time);
+            }
+        }
+    }
+
+    /**
+     * The file holding the expiry times of a group.
+     */
+    static SharedPreferences expiryPrefs(Context context, String group) {
+        return context.getSharedPreferences(EXPIRY_PREFS_PREFIX + WidgetBridgeStore.fileName(group), Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Whether the expiry time of a key has passed. The plugin removes such keys on its next read of
+     * the group or its next sweep; readers outside the plugin check this so they never show them
+     * in the meantime.
+     */
+    static boolean isExpired(Context context, String group, String key, long now) {
+        long time = expiryPrefs(context, group).getLong(key, 0);
+        return time > 0 && time <= now;
+    }
+
+    /**
+     * {@code values} without the keys whose expiry time has passed.
+     */
+    static <V> Map<String, V> withoutExpired(Context context, String group, Map<String, V> values, long now) {
+        Map<String, ?> expiry = expiryPrefs(context, group).getAll();
+        if (expiry.isEmpty()) {
+            return values;
+        }
+        Map<String, V> current = null;
+        for (Map.Entry<String, ?> entry : expiry.entrySet()) {
+            if (entry.getValue() instanceof Long && (Long) entry.getValue() <= now && values.containsKey(entry.getKey())) {
+                if (current == null) {
+                    current = new LinkedHashMap<>(values);
+                }
+                current.remove(entry.getKey());
+            }
+        }
+        return current != null ? current : values;
+    }
+
+    /**
+     * Records the current value of a key after any change; {@code null} means it was removed.
+     */
+    synchronized void onChanged(String key, Object value) {
+        Integer previous = value != null ? sizes.put(key, estimateSize(key, value)) : sizes.remove(key);
+        if (previous != null) {
+            totalBytes -= previous;
+        }
+        if (value != null) {
+            totalBytes += sizes.get(key);
+        } else if (expiresAt.remove(key) != null) {
+            expiryPrefs.edit().remove(key).apply();
+        }
+    }
+
+    /**
+     * Marks a key as just used.
+     */
+    synchronized void touch(String key) {
+        sizes.get(key);
+    }
+
+    /**
+     * Sets when {@code keys} expire; {@code 0} makes them permanent again.
+     */
+    synchronized void setExpiry(Collection<String> keys, long time) {
+        SharedPreferences.Editor editor = null;
+        for (String key : keys) {
+            Long previous = time > 0 ? expiresAt.put(key, time) : expiresAt.remove(key);
+            if (previous == null ? time == 0 : previous == time) {
+                continue;
+            }
+            if (editor == null) {
+                editor = expiryPrefs.edit();
+            }
+            if (time > 0) {
+                editor.putLong(key, time);
+            } else {
+                editor.remove(key);
+            }
+        }
+        if (editor != null) {
+            editor.apply();
+        }
+        if (time > 0) {
+            nextExpiry = Math.min(nextExpiry, time);
+        }
+    }
+
+    /**
+     * Lets {@code keys} expire {@code ttlMs} from now.
+     */
+    void expireAfter(Collection<String> keys, long ttlMs) {
+        setExpiry(keys, clock.now() + ttlMs);
+    }
+
+    synchronized boolean hasExpiringKeys() {
+        return !expiresAt.isEmpty();
+    }
+
+    /**
+     * Keys whose expiry time has passed by the clock. Cheap when none is due.
+     */
+    List<String> expiredKeys() {
+        return expiredKeys(clock.now());
+    }
+
+    /**
+     * Keys whose expiry time has passed at {@code now}. Cheap when none is due.
+     */
+    synchronized List<String> expiredKeys(long now) {
+        if (now < nextExpiry) {
+            return Collections.emptyList();
+        }
+        List<String> keys = new ArrayList<>();
+        long next = Long.MAX_VALUE;
+        for (Map.Entry<String, Long> entry : expiresAt.entrySet()) {
+            if (entry.getValue() <= now) {
+                keys.add(entry.getKey());
+            } else {
+                next = Math.min(next, entry.getValue());
+            }
+        }
+        nextExpiry = next;
+        return keys;
+    }
+
+    synchronized void setQuota(int maxEntries, long maxBytes) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    synchronized boolean hasQuota() {
+        return maxEntries > 0 || maxBytes > 0;
+    }
+
+    /**
+     * Least recently used keys to remove to bring the group back within its quota. Keys in
+     * {@code keep} are never picked.
+     */
+    synchronized List<String> overQuota(Set<String> keep) {
+        int entries = sizes.size();
+        long bytes = totalBytes;
+        List<String> victims = new ArrayList<>();
+        Iterator<Map.Entry<String, Integer>> it = sizes.entrySet().iterator();
+        while ((maxEntries > 0 && entries > maxEntries || maxBytes > 0 && bytes > maxBytes) && it.hasNext()) {
+            Map.Entry<String, Integer> entry = it.next();
+            if (keep.contains(entry.getKey())) {
+                continue;
+            }
+            victims.add(entry.getKey());
+            entries--;
+            bytes -= entry.getValue();
+        }
+        return victims;
+    }
+
+    synchronized void recordExpired(int count) {
+        expired += count;
+    }
+
+    synchronized void recordEvicted(int count) {
+        evicted += count;
+    }
+
+    synchronized JSObject getStats() {
+        return new JSObject()
+            .put("entries", sizes.size())
+            .put("bytes", totalBytes)
+            .put("expiring", expiresAt.size())
+            .put("expired", expired)
+            .put("evicted", evicted)
+            .put("maxEntries", maxEntries)
+            .put("maxBytes", maxBytes);
+    }
+
+    /**
+     * Rough in-memory size of an entry: UTF-16 strings plus the width of primitives.
+     */
+    static int estimateSize(String key, Object value) {
+        long size = 2L * key.length();
+        if (LargeValueStore.isReference(value)) {
+            size += Math.max(0, LargeValueStore.lengthOf((String) value));
+        } else if (value instanceof String) {
+            size += 2L * ((String) value).length();
+        } else if (value instanceof Set) {
+            for (Object item : (Set<?>) value) {
+                size += 2L * String.valueOf(item).length();
+            }
+        } else if (value instanceof Long) {
+            size += 8;
+        } else if (value instanceof Boolean) {
+            size += 1;
+        } else {
+            size += 4;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+}
@@ -0,0 +1,136 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Image files of the widget groups, one directory per group.
+ *
+ * Files are replaced with an atomic rename, so a provider never decodes a half-written image. Each
+ * group is kept under {@code maxGroupBytes}: when a write pushes it over, the least recently written
+ * images of that group are deleted until it fits again.
+ */
+final class ImageStore {
+
+    static final long DEFAULT_MAX_GROUP_BYTES = 8 * 1024 * 1024;
+
+    private static final String DIRECTORY = "widget_bridge/images";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File root;
+    private volatile long maxGroupBytes = DEFAULT_MAX_GROUP_BYTES;
+
+    ImageStore(File root) {
+        this.root = root;
+    }
+
+    static ImageStore forContext(Context context) {
+        return new ImageStore(new File(context.getFilesDir(), DIRECTORY));
+    }
+
+    void setMaxGroupBytes(long maxGroupBytes) {
+        this.maxGroupBytes = maxGroupBytes;
+    }
+
+    long getMaxGroupBytes() {
+        return maxGroupBytes;
+    }
+
+    /**
+     * Writes an image and evicts older images of the group that no longer fit.
+     *
+     * @return the files of the evicted images
+     * @throws IllegalArgumentException when the image alone is larger than the group limit
+     */
+    List<File> write(String group, String name, byte[] bytes) throws IOException {
+        if (bytes.length > maxGroupBytes) {
+            throw new IllegalArgumentException("Image is larger than the group limit of " + maxGroupBytes + " bytes");
+        }
+        File file = fileFor(group, name);
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File tmp = new File(dir, file.getName() + TMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(bytes);
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+        return evict(dir, file);
+    }
+
+    boolean delete(String group, String name) {
+        return fileFor(group, name).delete();
+    }
+
+    File fileFor(String group, String name) {
+        return new File(new File(root, WidgetBridgeStore.fileName(group)), WidgetBridgeStore.fileName(name));
+    }
+
+    long groupBytes(String group) {
+        File[] files = new File(root, WidgetBridgeStore.fileName(group)).listFiles();
+        long total = 0;
+        if (files != null) {
+            for (File file : files) {
+                total += file.length();
+            }
+        }
+        return total;
+    }
+
+    private List<File> evict(File dir, File keep) {
+        List<File> evicted = new ArrayList<>();
+        File[] files = dir.listFiles((parent, fileName) -> !fileName.endsWith(TMP_SUFFIX));
+        if (files == null) {
+            return evicted;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxGroupBytes) {
+            return evicted;
+        }
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (total <= maxGroupBytes) {
+                break;
+            }
+            if (file.equals(keep)) {
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                evicted.add(file);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * The name an image was stored under. Names too long for a file name were hashed and come back
+     * as the hash.
+     */
+    static String nameOf(File file) {
+        try {
+            return URLDecoder.decode(file.getName(), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
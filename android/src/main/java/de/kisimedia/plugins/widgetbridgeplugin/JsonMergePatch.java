@@ -0,0 +1,154 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Applies JSON merge patches (RFC 7386), so a small change to a large document does not have to
+ * cross the bridge as the whole document.
+ *
+ * A patch object sets its members on the target, {@code null} members delete them, and nested
+ * objects are merged recursively. Any other patch value, arrays included, replaces the target.
+ */
+final class JsonMergePatch {
+
+    private JsonMergePatch() {}
+
+    /**
+     * Returns the patched value. Objects of {@code target} are updated in place.
+     *
+     * @param target the parsed document, or {@code null} if there is none
+     * @return the new document, {@link JSONObject#NULL} if the patch deletes it
+     */
+    static Object apply(Object target, Object patch) throws JSONException {
+        if (!(patch instanceof JSONObject)) {
+            return patch;
+        }
+        JSONObject result = target instanceof JSONObject ? (JSONObject) target : new JSONObject();
+        JSONObject members = (JSONObject) patch;
+        Iterator<String> names = members.keys();
+        while (names.hasNext()) {
+            String name = names.next();
+            Object value = members.get(name);
+            if (value == JSONObject.NULL) {
+                result.remove(name);
+            } else {
+                result.put(name, apply(result.opt(name), value));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Applies a patch to a document stored flattened by {@link TypedValues#flatten}, touching only
+     * the leaves the patch reaches. Replaced and deleted subtrees are added to {@code removals}, new
+     * leaves to {@code values}; a key in both ends up set. An object patch on a stored leaf or array
+     * replaces it, as RFC 7386 merges a non-object target as {@code {}}.
+     *
+     * @param path the key the document is stored under
+     * @param existing every key currently stored in the group, sorted, so the keys below a path are
+     *     one range instead of a scan of the group
+     */
+    static void applyFlattened(String path, Object patch, NavigableSet<String> existing,
+                               Map<String, Object> values, Collection<String> removals) {
+        if (!(patch instanceof JSONObject)) {
+            removeSubtree(path, existing, removals);
+            TypedValues.flatten(path, patch, values);
+            return;
+        }
+        // A leaf or array where the patch expects an object is replaced by that object, starting
+        // from an empty one.
+        NavigableSet<String> current = existing;
+        if (existing.contains(path) || isArray(path, existing)) {
+            removeSubtree(path, existing, removals);
+            current = new TreeSet<>();
+        }
+        JSONObject members = (JSONObject) patch;
+        Iterator<String> names = members.keys();
+        while (names.hasNext()) {
+            String name = names.next();
+            applyFlattened(path + TypedValues.SEPARATOR + name, members.opt(name), current, values, removals);
+        }
+    }
+
+    /**
+     * Whether {@code path} holds a flattened array: a {@code length} key and only index segments
+     * below it.
+     */
+    private static boolean isArray(String path, NavigableSet<String> existing) {
+        String prefix = path + TypedValues.SEPARATOR;
+        if (!existing.contains(prefix + TypedValues.LENGTH)) {
+            return false;
+        }
+        for (String key : below(prefix, existing)) {
+            int end = key.indexOf(TypedValues.SEPARATOR, prefix.length());
+            String segment = key.substring(prefix.length(), end < 0 ? key.length() : end);
+            if (!segment.equals(TypedValues.LENGTH) && !isIndex(segment)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isIndex(String segment) {
+        if (segment.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            if (!Character.isDigit(segment.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void removeSubtree(String path, NavigableSet<String> existing, Collection<String> removals) {
+        if (existing.contains(path)) {
+            removals.add(path);
+        }
+        removals.addAll(below(path + TypedValues.SEPARATOR, existing));
+    }
+
+    /**
+     * The keys starting with {@code prefix}, which ends with the separator.
+     */
+    private static NavigableSet<String> below(String prefix, NavigableSet<String> existing) {
+        // The separator is never the largest char, so bumping it bounds the range.
+        int last = prefix.length() - 1;
+        String end = prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+        return existing.subSet(prefix, true, end, false);
+    }
+
+    /**
+     * Parses a stored document. Android's tokener accepts unquoted words and trailing content,
+     * which would let a plain string pass for JSON, so both are rejected here.
+     */
+    static Object parse(String json) throws JSONException {
+        JSONTokener tokener = new JSONTokener(json);
+        Object value = tokener.nextValue();
+        if (value instanceof String && !json.trim().startsWith("\"")) {
+            throw new JSONException("Unquoted string");
+        }
+        if (tokener.nextClean() != 0) {
+            throw new JSONException("Unexpected content after the value");
+        }
+        return value;
+    }
+
+    /**
+     * Serializes a patched document back to JSON text.
+     */
+    static String toJson(Object value) {
+        if (value instanceof String) {
+            return JSONObject.quote((String) value);
+        }
+        return String.valueOf(value);
+    }
+}
@@ -0,0 +1,117 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Files for string values too large to keep in a group.
+ *
+ * The group keeps a short reference in place of the value, so change listeners, dependencies and
+ * identical-write detection keep working on the key. The reference carries the length and SHA-256
+ * of the value, which makes writing the same large value twice a no-op while different values
+ * never compare equal. Files are replaced with an
+ * atomic rename, so a reader never maps a half-written value.
+ */
+final class LargeValueStore {
+
+    static final int DEFAULT_THRESHOLD = 16 * 1024;
+
+    /** References written before v2 carried a CRC32; they still resolve but never match a new one. */
+    private static final String REFERENCE_PREFIX = "widgetbridge:large:";
+    private static final String REFERENCE_VERSION = "v2:";
+    private static final String DIRECTORY = "widget_bridge/large";
+    private static final String SUFFIX = ".wbv";
+
+    private final File root;
+
+    LargeValueStore(File root) {
+        this.root = root;
+    }
+
+    static LargeValueStore forContext(Context context) {
+        return new LargeValueStore(new File(context.getFilesDir(), DIRECTORY));
+    }
+
+    static boolean isReference(Object value) {
+        return value instanceof String && ((String) value).startsWith(REFERENCE_PREFIX);
+    }
+
+    /**
+     * Whether {@code value} belongs in a file. Strings that look like a reference always do, so a
+     * stored reference is never ambiguous.
+     */
+    static boolean isLarge(String value, int threshold) {
+        return (threshold > 0 && value.length() >= threshold) || value.startsWith(REFERENCE_PREFIX);
+    }
+
+    static String referenceFor(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        StringBuilder reference = new StringBuilder(REFERENCE_PREFIX).append(REFERENCE_VERSION)
+            .append(bytes.length).append(':');
+        try {
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                reference.append(String.format("%02x", b));
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        return reference.toString();
+    }
+
+    /**
+     * Size in bytes of the value a reference points to, or -1 if the reference is malformed.
+     */
+    static long lengthOf(String reference) {
+        int start = reference.indexOf(':', REFERENCE_PREFIX.length()) + 1;
+        int end = reference.indexOf(':', start);
+        try {
+            return Long.parseLong(reference.substring(start, end));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    void write(String group, String key, String value) throws IOException {
+        File file = fileFor(group, key);
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File tmp = new File(dir, file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(WidgetValue.write(value));
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    /**
+     * Maps the value of a key, or returns {@code null} when it has no file.
+     */
+    WidgetValue open(String group, String key) throws IOException {
+        File file = fileFor(group, key);
+        return file.isFile() ? WidgetValue.map(file) : null;
+    }
+
+    String read(String group, String key) throws IOException {
+        WidgetValue value = open(group, key);
+        return value != null ? value.asString() : null;
+    }
+
+    void delete(String group, String key) {
+        fileFor(group, key).delete();
+    }
+
+    File fileFor(String group, String key) {
+        return new File(new File(root, WidgetBridgeStore.fileName(group)), WidgetBridgeStore.fileName(key) + SUFFIX);
+    }
+}
@@ -0,0 +1,174 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Merges bursts of timeline reloads into one update broadcast per provider.
+ *
+ * A request waits until no further request arrived for {@code debounceMs}, but never longer than
+ * {@code maxLatencyMs} after the oldest pending request. All requests for the same provider that
+ * are pending at that point go out as a single broadcast carrying the union of their widget ids.
+ * The default window of 150 ms merges the reloads of a burst of writes while staying well below
+ * what a user notices; with a window of zero every request is dispatched right away.
+ *
+ * A request may name the keys that changed, which lets providers update only the affected views.
+ * Merged requests carry the union of their keys; if any of them asked for a full update, the
+ * broadcast does too.
+ */
+class ReloadScheduler {
+
+    static final long DEFAULT_DEBOUNCE_MS = 150;
+    static final long DEFAULT_MAX_LATENCY_MS = 1000;
+
+    interface Dispatcher {
+        /**
+         * @param keys the keys that changed, or {@code null} for a full update
+         */
+        void dispatch(WidgetProviderRegistry.Entry entry, int[] ids, Set<String> keys);
+    }
+
+    private static final class Pending {
+
+        final WidgetProviderRegistry.Entry entry;
+        final Set<Integer> ids = new TreeSet<>();
+        final Set<String> keys = new TreeSet<>();
+        boolean full;
+        int requests;
+
+        Pending(WidgetProviderRegistry.Entry entry) {
+            this.entry = entry;
+        }
+    }
+
+    private final Handler handler;
+    private final Dispatcher dispatcher;
+    private final Runnable flushRunnable = this::flush;
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+
+    private long debounceMs = DEFAULT_DEBOUNCE_MS;
+    private long maxLatencyMs = DEFAULT_MAX_LATENCY_MS;
+    private long oldestRequestAt;
+
+    private long requested;
+    private long broadcasts;
+    private long coalesced;
+
+    ReloadScheduler(Handler handler, Dispatcher dispatcher) {
+        this.handler = handler;
+        this.dispatcher = dispatcher;
+    }
+
+    synchronized void configure(long debounceMs, long maxLatencyMs) {
+        this.debounceMs = Math.max(0, debounceMs);
+        this.maxLatencyMs = Math.max(this.debounceMs, maxLatencyMs);
+    }
+
+    synchronized long getDebounceMs() {
+        return debounceMs;
+    }
+
+    synchronized long getMaxLatencyMs() {
+        return maxLatencyMs;
+    }
+
+    void request(WidgetProviderRegistry.Entry entry, int[] ids) {
+        request(entry, ids, null);
+    }
+
+    /**
+     * @param keys the keys that changed, or {@code null} for a full update
+     */
+    void request(WidgetProviderRegistry.Entry entry, int[] ids, Set<String> keys) {
+        synchronized (this) {
+            requested++;
+            if (debounceMs > 0 || !pending.isEmpty()) {
+                enqueue(entry, ids, keys);
+                return;
+            }
+            if (ids.length == 0) {
+                return;
+            }
+            broadcasts++;
+        }
+        dispatcher.dispatch(entry, ids, keys);
+    }
+
+    /**
+     * Sends everything that is pending right now.
+     */
+    void flush() {
+        List<Pending> batch;
+        synchronized (this) {
+            handler.removeCallbacks(flushRunnable);
+            batch = new ArrayList<>(pending.values());
+            pending.clear();
+            for (Pending p : batch) {
+                coalesced += p.requests - 1;
+                if (!p.ids.isEmpty()) {
+                    broadcasts++;
+                }
+            }
+        }
+        for (Pending p : batch) {
+            if (p.ids.isEmpty()) {
+                continue;
+            }
+            int[] ids = new int[p.ids.size()];
+            int i = 0;
+            for (Integer id : p.ids) {
+                ids[i++] = id;
+            }
+            dispatcher.dispatch(p.entry, ids, p.full ? null : p.keys);
+        }
+    }
+
+    synchronized JSObject getStats() {
+        int pendingRequests = 0;
+        for (Pending p : pending.values()) {
+            pendingRequests += p.requests;
+        }
+        return new JSObject()
+            .put("requested", requested)
+            .put("broadcasts", broadcasts)
+            .put("coalesced", coalesced)
+            .put("pending", pendingRequests)
+            .put("debounceMs", debounceMs)
+            .put("maxLatencyMs", maxLatencyMs);
+    }
+
+    private void enqueue(WidgetProviderRegistry.Entry entry, int[] ids, Set<String> keys) {
+        long now = SystemClock.uptimeMillis();
+        if (pending.isEmpty()) {
+            oldestRequestAt = now;
+        }
+        String key = entry.componentName.getClassName();
+        Pending p = pending.get(key);
+        if (p == null) {
+            p = new Pending(entry);
+            pending.put(key, p);
+        }
+        p.requests++;
+        for (int id : ids) {
+            p.ids.add(id);
+        }
+        if (keys == null) {
+            p.full = true;
+        } else {
+            p.keys.addAll(keys);
+        }
+
+        long flushAt = Math.min(now + debounceMs, oldestRequestAt + maxLatencyMs);
+        handler.removeCallbacks(flushRunnable);
+        handler.postAtTime(flushRunnable, flushAt);
+    }
+}
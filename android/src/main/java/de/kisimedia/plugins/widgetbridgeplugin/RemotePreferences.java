@@ -0,0 +1,330 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link SharedPreferences} view of a group held by {@link WidgetBridgeContentProvider} in another
+ * process.
+ *
+ * The whole group is fetched in one call and kept until the provider announces a change, so
+ * repeated reads cost no IPC. A refetch sends the version of the copy; if nothing changed since,
+ * the provider answers without the values. Editors send all their changes in one call;
+ * {@code apply()} updates the copy right away and sends them in the background.
+ *
+ * No lock is held during a call to the provider. A fetch only replaces the copy if the provider
+ * answered with a newer version than the copy has and no {@code apply()} changed the copy while
+ * it ran, so a slow fetch never overwrites a newer state.
+ */
+class RemotePreferences implements SharedPreferences {
+
+    private static final Executor writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "WidgetBridge-remote");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ContentResolver resolver;
+    private final Uri uri;
+    private final String group;
+    private final Map<OnSharedPreferenceChangeListener, Boolean> listeners = new WeakHashMap<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** Guarded by this. */
+    private Map<String, Object> values;
+    private long version = -1;
+    private boolean stale = true;
+    private long fetches;
+    /** Applied edits, and those of them not yet sent, which the copy holds ahead of the provider. */
+    private long applies;
+    private int pendingApplies;
+
+    RemotePreferences(Context context, String group) {
+        this.resolver = context.getContentResolver();
+        this.uri = WidgetBridgeContentProvider.groupUri(context, group);
+        this.group = group;
+        resolver.registerContentObserver(uri, false, new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onRemoteChange();
+            }
+        });
+    }
+
+    private void onRemoteChange() {
+        boolean notify;
+        synchronized (this) {
+            stale = true;
+            notify = !listeners.isEmpty();
+        }
+        if (notify) {
+            Map<String, Object> before = snapshot();
+            Map<String, Object> after = refresh();
+            notifyListeners(changedKeys(before, after));
+        }
+    }
+
+    private synchronized Map<String, Object> snapshot() {
+        return values != null ? values : Collections.emptyMap();
+    }
+
+    /**
+     * The current copy of the group, fetched again if the provider announced a change.
+     */
+    private Map<String, Object> refresh() {
+        long ifVersion;
+        long appliesBefore;
+        synchronized (this) {
+            if (!stale && values != null) {
+                return values;
+            }
+            // Cleared before the call, so a change announced while it runs triggers another fetch.
+            stale = false;
+            ifVersion = values != null ? version : -1;
+            appliesBefore = applies;
+        }
+        Bundle extras = new Bundle();
+        extras.putLong(WidgetBridgeContentProvider.EXTRA_IF_VERSION, ifVersion);
+        Bundle result = resolver.call(uri, WidgetBridgeContentProvider.METHOD_READ, group, extras);
+        synchronized (this) {
+            fetches++;
+            if (result == null) {
+                stale = true;
+                return snapshot();
+            }
+            long fetched = result.getLong(WidgetBridgeContentProvider.EXTRA_VERSION);
+            boolean modified = result.getBoolean(WidgetBridgeContentProvider.EXTRA_MODIFIED);
+            // Publish only over the state the fetch started from; otherwise keep what is newer.
+            if (modified && fetched > version && applies == appliesBefore && pendingApplies == 0) {
+                values = Collections.unmodifiableMap(WidgetBridgeContentProvider.getValues(result));
+                version = fetched;
+            }
+            return snapshot();
+        }
+    }
+
+    /**
+     * Number of calls made to the provider to read the group.
+     */
+    synchronized long fetchCount() {
+        return fetches;
+    }
+
+    private Object get(String key) {
+        return refresh().get(key);
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return new HashMap<>(refresh());
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        Object value = get(key);
+        return value != null ? (String) value : defValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Object value = get(key);
+        return value != null ? Collections.unmodifiableSet((Set<String>) value) : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Object value = get(key);
+        return value != null ? (Integer) value : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Object value = get(key);
+        return value != null ? (Long) value : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Object value = get(key);
+        return value != null ? (Float) value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Object value = get(key);
+        return value != null ? (Boolean) value : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return refresh().containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new EditorImpl();
+    }
+
+    @Override
+    public synchronized void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.put(listener, Boolean.TRUE);
+    }
+
+    @Override
+    public synchronized void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    private static Set<String> changedKeys(Map<String, Object> before, Map<String, Object> after) {
+        Set<String> changed = new LinkedHashSet<>();
+        for (Map.Entry<String, Object> entry : after.entrySet()) {
+            if (!Objects.equals(entry.getValue(), before.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        for (String key : before.keySet()) {
+            if (!after.containsKey(key)) {
+                changed.add(key);
+            }
+        }
+        return changed;
+    }
+
+    private void notifyListeners(Set<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        mainHandler.post(() -> {
+            ArrayList<OnSharedPreferenceChangeListener> targets;
+            synchronized (this) {
+                targets = new ArrayList<>(listeners.keySet());
+            }
+            for (String key : keys) {
+                for (OnSharedPreferenceChangeListener listener : targets) {
+                    listener.onSharedPreferenceChanged(this, key);
+                }
+            }
+        });
+    }
+
+    /**
+     * Collects changes and sends them to the provider in one call.
+     */
+    private final class EditorImpl implements Editor {
+
+        private final Map<String, Object> values = new HashMap<>();
+        private final Set<String> removals = new HashSet<>();
+        private boolean clear;
+
+        private Editor put(String key, Object value) {
+            removals.remove(key);
+            values.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            return value != null ? put(key, value) : remove(key);
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            return values != null ? put(key, new HashSet<>(values)) : remove(key);
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor remove(String key) {
+            values.remove(key);
+            removals.add(key);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        private Bundle extras() {
+            Bundle extras = new Bundle();
+            WidgetBridgeContentProvider.putValues(extras, values);
+            extras.putStringArray(WidgetBridgeContentProvider.EXTRA_REMOVE, removals.toArray(new String[0]));
+            extras.putBoolean(WidgetBridgeContentProvider.EXTRA_CLEAR, clear);
+            return extras;
+        }
+
+        @Override
+        public boolean commit() {
+            Bundle result = resolver.call(uri, WidgetBridgeContentProvider.METHOD_WRITE, group, extras());
+            synchronized (RemotePreferences.this) {
+                stale = true;
+            }
+            return result != null && result.getBoolean(WidgetBridgeContentProvider.EXTRA_MODIFIED);
+        }
+
+        @Override
+        public void apply() {
+            Bundle extras = extras();
+            synchronized (RemotePreferences.this) {
+                Map<String, Object> updated = clear || RemotePreferences.this.values == null
+                    ? new HashMap<>()
+                    : new HashMap<>(RemotePreferences.this.values);
+                updated.keySet().removeAll(removals);
+                updated.putAll(values);
+                RemotePreferences.this.values = Collections.unmodifiableMap(updated);
+                applies++;
+                pendingApplies++;
+            }
+            writer.execute(() -> {
+                try {
+                    resolver.call(uri, WidgetBridgeContentProvider.METHOD_WRITE, group, extras);
+                } finally {
+                    synchronized (RemotePreferences.this) {
+                        pendingApplies--;
+                        // The provider holds the edit now; its state replaces the local one on the next read.
+                        stale = true;
+                    }
+                }
+            });
+        }
+    }
+}
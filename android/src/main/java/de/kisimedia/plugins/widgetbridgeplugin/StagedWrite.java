@@ -0,0 +1,110 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The changes one write makes to a group, in the form the group stores them.
+ *
+ * Shared by the plugin and {@link WidgetBridgeContentProvider}, so every writer spills large
+ * values to their own file, compresses strings of groups that have compression enabled and skips
+ * values that did not change in the same way.
+ */
+final class StagedWrite {
+
+    /**
+     * The value a group currently stores for a key, or {@code null}.
+     */
+    interface Current {
+        Object get(String key);
+    }
+
+    /** The keys whose stored value changes. */
+    final List<String> changed = new ArrayList<>();
+    /** The new stored value of each changed key; {@code null} removes it. */
+    final Map<String, Object> stored = new HashMap<>();
+    /** Keys whose large-value file is no longer referenced once the write is persisted. */
+    final List<String> orphaned = new ArrayList<>();
+    /** Whether the write must reach the backend right away instead of being buffered. */
+    boolean writeThrough;
+
+    private StagedWrite() {}
+
+    /**
+     * Stages {@code values} and {@code removals} against the current state of a group. Values
+     * equal to the current ones and removals of absent keys are dropped. A key present in both
+     * {@code values} and {@code removals} ends up set. Strings from {@code threshold} up are
+     * written to their own file before this returns, so the group never points at a missing file.
+     */
+    static StagedWrite stage(
+        String group,
+        Map<String, ?> values,
+        Collection<String> removals,
+        Current current,
+        int threshold,
+        LargeValueStore largeValues,
+        ValueCompression compression
+    ) {
+        StagedWrite write = new StagedWrite();
+
+        for (String key : removals) {
+            Object previous = current.get(key);
+            if (values.containsKey(key) || previous == null) {
+                continue;
+            }
+            write.changed.add(key);
+            write.stored.put(key, null);
+            if (LargeValueStore.isReference(previous)) {
+                write.orphaned.add(key);
+            }
+        }
+
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            Object previous = current.get(key);
+            boolean large = value instanceof String && LargeValueStore.isLarge((String) value, threshold);
+            if (large) {
+                value = LargeValueStore.referenceFor((String) value);
+            } else if (value instanceof String) {
+                value = compression.encode(group, (String) value);
+            }
+            if (value.equals(previous)) {
+                continue;
+            }
+            if (large) {
+                // The file is in place before the group points at it.
+                try {
+                    largeValues.write(group, key, (String) entry.getValue());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                write.writeThrough = true;
+            }
+            write.changed.add(key);
+            write.stored.put(key, value);
+            if (!large && LargeValueStore.isReference(previous)) {
+                write.orphaned.add(key);
+            }
+        }
+
+        if (!write.orphaned.isEmpty()) {
+            write.writeThrough = true;
+        }
+        return write;
+    }
+
+    /**
+     * Deletes the files of large values this write replaced or removed. Call once the write is persisted.
+     */
+    void deleteOrphaned(String group, LargeValueStore largeValues) {
+        for (String key : orphaned) {
+            largeValues.delete(group, key);
+        }
+    }
+}
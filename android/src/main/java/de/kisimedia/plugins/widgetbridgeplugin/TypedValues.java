@@ -0,0 +1,167 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Converts values coming from JavaScript into the types {@code SharedPreferences} stores natively,
+ * so providers can call {@code getInt} or {@code getBoolean} instead of parsing strings.
+ *
+ * JSON objects are flattened into one typed key per leaf: {@code {"a": {"b": 1}}} under key
+ * {@code k} becomes {@code k.a.b = 1}. Arrays use the index as a path segment and also store
+ * their size as {@code <path>.length}.
+ */
+final class TypedValues {
+
+    static final String TYPE_STRING = "string";
+    static final String TYPE_INT = "int";
+    static final String TYPE_LONG = "long";
+    static final String TYPE_FLOAT = "float";
+    static final String TYPE_BOOLEAN = "boolean";
+    static final String TYPE_STRING_SET = "stringSet";
+    static final String TYPE_JSON = "json";
+
+    static final String SEPARATOR = ".";
+    static final String LENGTH = "length";
+
+    /** JavaScript numbers stay exact up to 2^53. */
+    private static final double MAX_SAFE_INTEGER = 9007199254740991d;
+
+    private TypedValues() {}
+
+    /**
+     * Converts a value for a single key. Without a type, strings, booleans, numbers and arrays of
+     * strings are stored as the closest native type.
+     *
+     * @throws IllegalArgumentException when the value does not fit the type, or is an object
+     *     without {@code type: "json"}
+     */
+    static Object convert(Object value, String type) {
+        if (type == null) {
+            return infer(value);
+        }
+        switch (type) {
+            case TYPE_STRING:
+                if (value instanceof String) {
+                    return value;
+                }
+                break;
+            case TYPE_INT:
+                if (isIntegral(value) && ((Number) value).doubleValue() >= Integer.MIN_VALUE
+                    && ((Number) value).doubleValue() <= Integer.MAX_VALUE) {
+                    return ((Number) value).intValue();
+                }
+                break;
+            case TYPE_LONG:
+                if (isIntegral(value)) {
+                    return ((Number) value).longValue();
+                }
+                break;
+            case TYPE_FLOAT:
+                if (value instanceof Number) {
+                    return ((Number) value).floatValue();
+                }
+                break;
+            case TYPE_BOOLEAN:
+                if (value instanceof Boolean) {
+                    return value;
+                }
+                break;
+            case TYPE_STRING_SET:
+                Set<String> set = toStringSet(value);
+                if (set != null) {
+                    return set;
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown type: " + type);
+        }
+        throw new IllegalArgumentException("Value does not match type " + type);
+    }
+
+    /**
+     * Flattens a JSON object or array into {@code out}, keyed below {@code prefix}. {@code null}
+     * leaves are left out.
+     */
+    static void flatten(String prefix, Object value, Map<String, Object> out) {
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String name = keys.next();
+                flatten(prefix + SEPARATOR + name, object.opt(name), out);
+            }
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            for (int i = 0; i < array.length(); i++) {
+                flatten(prefix + SEPARATOR + i, array.opt(i), out);
+            }
+            out.put(prefix + SEPARATOR + LENGTH, array.length());
+        } else if (value != null && value != JSONObject.NULL) {
+            out.put(prefix, inferScalar(value));
+        }
+    }
+
+    private static Object infer(Object value) {
+        if (value instanceof JSONArray) {
+            Set<String> set = toStringSet(value);
+            if (set != null) {
+                return set;
+            }
+            throw new IllegalArgumentException("Only arrays of strings can be stored without type json");
+        }
+        if (value instanceof JSONObject) {
+            throw new IllegalArgumentException("Objects need type json");
+        }
+        return inferScalar(value);
+    }
+
+    private static Object inferScalar(Object value) {
+        if (value instanceof String || value instanceof Boolean) {
+            return value;
+        }
+        if (value instanceof Number) {
+            double number = ((Number) value).doubleValue();
+            if (isIntegral(value)) {
+                if (number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE) {
+                    return ((Number) value).intValue();
+                }
+                return ((Number) value).longValue();
+            }
+            return ((Number) value).floatValue();
+        }
+        throw new IllegalArgumentException("Unsupported value: " + value);
+    }
+
+    private static boolean isIntegral(Object value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return true;
+        }
+        if (!(value instanceof Number)) {
+            return false;
+        }
+        double number = ((Number) value).doubleValue();
+        return number == Math.rint(number) && Math.abs(number) <= MAX_SAFE_INTEGER;
+    }
+
+    private static Set<String> toStringSet(Object value) {
+        if (!(value instanceof JSONArray)) {
+            return null;
+        }
+        JSONArray array = (JSONArray) value;
+        Set<String> set = new HashSet<>();
+        for (int i = 0; i < array.length(); i++) {
+            Object item = array.opt(i);
+            if (!(item instanceof String)) {
+                return null;
+            }
+            set.add((String) item);
+        }
+        return set;
+    }
+}
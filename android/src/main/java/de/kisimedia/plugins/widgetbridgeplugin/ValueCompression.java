@@ -0,0 +1,459 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Debug;
+import android.util.Base64;
+
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Logger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of string values that groups keep inline, for groups that turned it on.
+ *
+ * A compressed value is stored as {@code widgetbridge:deflate:v1:<dictionary>:<length>:<base64>},
+ * so any reader can tell it apart from a plain string and knows which preset dictionary it needs.
+ * Dictionaries are trained from sample values, named by a SHA-256 prefix of their bytes and
+ * persisted next to the group settings, so widget providers decode values without the plugin having run. A dictionary
+ * stays on disk after a group switches to another one, since older values still point at it.
+ *
+ * Values that would not get smaller are stored as they are. Strings that happen to start with the
+ * compressed prefix are always compressed, so a stored value is never ambiguous.
+ */
+final class ValueCompression {
+
+    static final String PREFS_NAME = "de.kisimedia.plugins.widgetbridgeplugin.compression";
+    static final int DEFAULT_DICTIONARY_BYTES = 16 * 1024;
+    /** Deflate only looks back this far, so a larger dictionary would never be used. */
+    static final int MAX_DICTIONARY_BYTES = 32 * 1024;
+
+    private static final String TAG = "ValueCompression";
+    private static final String PREFIX = "widgetbridge:deflate:v1:";
+    private static final String NO_DICTIONARY = "0";
+    private static final String KEY_GROUP_PREFIX = "group:";
+    static final String KEY_DICTIONARY_PREFIX = "dictionary:";
+    /** Hex digits of the SHA-256 of a dictionary that name it. */
+    private static final int DICTIONARY_ID_LENGTH = 32;
+
+    /** Length of the byte sequences whose frequency scores a dictionary segment. */
+    private static final int DMER = 8;
+    private static final int SEGMENT = 64;
+    private static final int SEGMENT_STRIDE = 16;
+    private static final int MAX_SAMPLE_BYTES = 1024 * 1024;
+
+    private static volatile ValueCompression instance;
+
+    private final SharedPreferences prefs;
+    private final Map<String, byte[]> dictionaries = new ConcurrentHashMap<>();
+    private final Map<String, Settings> settings = new ConcurrentHashMap<>();
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * Compression of one group; a threshold of {@code 0} turns it off.
+     */
+    static final class Settings {
+
+        static final Settings OFF = new Settings(0, NO_DICTIONARY);
+
+        final int threshold;
+        final String dictionary;
+
+        Settings(int threshold, String dictionary) {
+            this.threshold = threshold;
+            this.dictionary = dictionary;
+        }
+    }
+
+    private static final class Stats {
+
+        final AtomicLong compressed = new AtomicLong();
+        final AtomicLong rawBytes = new AtomicLong();
+        final AtomicLong storedBytes = new AtomicLong();
+        final AtomicLong compressNanos = new AtomicLong();
+        final AtomicLong decompressed = new AtomicLong();
+        final AtomicLong decompressNanos = new AtomicLong();
+    }
+
+    static ValueCompression getInstance(Context context) {
+        ValueCompression result = instance;
+        if (result == null) {
+            synchronized (ValueCompression.class) {
+                result = instance;
+                if (result == null) {
+                    Context app = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+                    result = new ValueCompression(app.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    static void resetForTesting() {
+        synchronized (ValueCompression.class) {
+            instance = null;
+        }
+    }
+
+    ValueCompression(SharedPreferences prefs) {
+        this.prefs = prefs;
+    }
+
+    static boolean isCompressed(Object value) {
+        return value instanceof String && ((String) value).startsWith(PREFIX);
+    }
+
+    /**
+     * Turns compression of a group on from {@code threshold} characters up, or off with {@code 0}.
+     * With samples, a preset dictionary of at most {@code dictionaryBytes} is trained from them.
+     * Applies to values written from now on.
+     *
+     * @return the size of the trained dictionary, {@code 0} without samples
+     */
+    int configure(String group, int threshold, List<String> samples, int dictionaryBytes) {
+        String dictionaryId = NO_DICTIONARY;
+        int size = 0;
+        if (threshold > 0 && samples != null && !samples.isEmpty()) {
+            byte[] dictionary = train(samples, Math.max(0, Math.min(MAX_DICTIONARY_BYTES, dictionaryBytes)));
+            if (dictionary.length > 0) {
+                dictionaryId = idOf(dictionary);
+                byte[] existing = dictionary(dictionaryId);
+                if (existing != null && !Arrays.equals(existing, dictionary)) {
+                    // Values already stored with this id would no longer decode.
+                    throw new IllegalStateException("Compression dictionary " + dictionaryId + " exists with different content");
+                }
+                dictionaries.put(dictionaryId, dictionary);
+                prefs.edit().putString(KEY_DICTIONARY_PREFIX + dictionaryId, Base64.encodeToString(dictionary, Base64.NO_WRAP)).apply();
+                size = dictionary.length;
+            }
+        }
+        Settings updated = threshold > 0 ? new Settings(threshold, dictionaryId) : Settings.OFF;
+        SharedPreferences.Editor editor = prefs.edit();
+        if (threshold > 0) {
+            try {
+                editor.putString(KEY_GROUP_PREFIX + group, new JSONObject().put("threshold", threshold).put("dictionary", dictionaryId).toString());
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            editor.remove(KEY_GROUP_PREFIX + group);
+        }
+        editor.apply();
+        settings.put(group, updated);
+        return size;
+    }
+
+    Settings settingsFor(String group) {
+        Settings result = settings.get(group);
+        if (result == null) {
+            result = Settings.OFF;
+            String stored = prefs.getString(KEY_GROUP_PREFIX + group, null);
+            if (stored != null) {
+                try {
+                    JSONObject json = new JSONObject(stored);
+                    result = new Settings(json.getInt("threshold"), json.getString("dictionary"));
+                } catch (JSONException e) {
+                    Logger.warn(TAG, "Ignoring unreadable compression settings of " + group);
+                }
+            }
+            settings.put(group, result);
+        }
+        return result;
+    }
+
+    /**
+     * The form in which a group stores {@code value}: compressed when the group compresses values
+     * of its length and that makes it smaller, the value itself otherwise.
+     */
+    String encode(String group, String value) {
+        Settings current = settingsFor(group);
+        boolean ambiguous = value.startsWith(PREFIX);
+        if (!ambiguous && (current.threshold <= 0 || value.length() < current.threshold)) {
+            return value;
+        }
+        long start = cpuNanos();
+        byte[] raw = value.getBytes(StandardCharsets.UTF_8);
+        String dictionaryId = current.threshold > 0 ? current.dictionary : NO_DICTIONARY;
+        byte[] dictionary = NO_DICTIONARY.equals(dictionaryId) ? null : dictionary(dictionaryId);
+        if (dictionary == null) {
+            dictionaryId = NO_DICTIONARY;
+        }
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+        String encoded = PREFIX + dictionaryId + ":" + raw.length + ":" + Base64.encodeToString(out.toByteArray(), Base64.NO_WRAP);
+
+        Stats groupStats = stats(group);
+        groupStats.compressNanos.addAndGet(cpuNanos() - start);
+        if (!ambiguous && encoded.length() >= value.length()) {
+            return value;
+        }
+        groupStats.compressed.incrementAndGet();
+        groupStats.rawBytes.addAndGet(raw.length);
+        groupStats.storedBytes.addAndGet(encoded.length());
+        return encoded;
+    }
+
+    /**
+     * Restores a value stored by {@link #encode}; other values are returned unchanged.
+     *
+     * @throws IOException when the value is corrupt or its dictionary is missing
+     */
+    String decode(String group, String stored) throws IOException {
+        if (!isCompressed(stored)) {
+            return stored;
+        }
+        long start = cpuNanos();
+        int dictionaryEnd = stored.indexOf(':', PREFIX.length());
+        int lengthEnd = dictionaryEnd > 0 ? stored.indexOf(':', dictionaryEnd + 1) : -1;
+        if (lengthEnd < 0) {
+            throw new IOException("Malformed compressed value");
+        }
+        String dictionaryId = stored.substring(PREFIX.length(), dictionaryEnd);
+        byte[] raw;
+        try {
+            raw = new byte[Integer.parseInt(stored.substring(dictionaryEnd + 1, lengthEnd))];
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed compressed value", e);
+        }
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(Base64.decode(stored.substring(lengthEnd + 1), Base64.NO_WRAP));
+            int read = 0;
+            while (read < raw.length && !inflater.finished()) {
+                int n = inflater.inflate(raw, read, raw.length - read);
+                if (n == 0 && inflater.needsDictionary()) {
+                    byte[] dictionary = dictionary(dictionaryId);
+                    if (dictionary == null) {
+                        throw new IOException("Missing compression dictionary " + dictionaryId);
+                    }
+                    inflater.setDictionary(dictionary);
+                } else if (n == 0 && !inflater.finished()) {
+                    throw new IOException("Truncated compressed value");
+                }
+                read += n;
+            }
+            if (read < raw.length) {
+                throw new IOException("Truncated compressed value");
+            }
+        } catch (DataFormatException | IllegalArgumentException e) {
+            throw new IOException("Corrupt compressed value", e);
+        } finally {
+            inflater.end();
+        }
+
+        Stats groupStats = stats(group);
+        groupStats.decompressed.incrementAndGet();
+        groupStats.decompressNanos.addAndGet(cpuNanos() - start);
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    private byte[] dictionary(String id) {
+        byte[] dictionary = dictionaries.get(id);
+        if (dictionary == null) {
+            String stored = prefs.getString(KEY_DICTIONARY_PREFIX + id, null);
+            if (stored == null) {
+                return null;
+            }
+            dictionary = Base64.decode(stored, Base64.NO_WRAP);
+            dictionaries.put(id, dictionary);
+        }
+        return dictionary;
+    }
+
+    private Stats stats(String group) {
+        Stats result = stats.get(group);
+        if (result == null) {
+            Stats created = new Stats();
+            result = stats.putIfAbsent(group, created);
+            if (result == null) {
+                result = created;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Settings and counters of a group in this process. The ratio is raw over stored bytes of the
+     * values compressed so far.
+     */
+    JSObject getStats(String group) {
+        Settings current = settingsFor(group);
+        Stats groupStats = stats(group);
+        long raw = groupStats.rawBytes.get();
+        long stored = groupStats.storedBytes.get();
+        byte[] dictionary = NO_DICTIONARY.equals(current.dictionary) ? null : dictionary(current.dictionary);
+        return new JSObject()
+            .put("threshold", current.threshold)
+            .put("dictionaryBytes", dictionary != null ? dictionary.length : 0)
+            .put("compressed", groupStats.compressed.get())
+            .put("rawBytes", raw)
+            .put("storedBytes", stored)
+            .put("ratio", stored > 0 ? (double) raw / stored : 0)
+            .put("compressCpuMs", groupStats.compressNanos.get() / 1_000_000.0)
+            .put("decompressed", groupStats.decompressed.get())
+            .put("decompressCpuMs", groupStats.decompressNanos.get() / 1_000_000.0);
+    }
+
+    /**
+     * CPU time of the current thread, or wall time where the platform does not report it.
+     */
+    private static long cpuNanos() {
+        long nanos = Debug.threadCpuTimeNanos();
+        return nanos >= 0 ? nanos : System.nanoTime();
+    }
+
+    static String idOf(byte[] dictionary) {
+        StringBuilder id = new StringBuilder(DICTIONARY_ID_LENGTH);
+        try {
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(dictionary)) {
+                if (id.length() == DICTIONARY_ID_LENGTH) {
+                    break;
+                }
+                id.append(String.format("%02x", b));
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        return id.toString();
+    }
+
+    /**
+     * Builds a preset dictionary from the byte segments that share the most content with the
+     * samples. Each 8-byte sequence scores by the number of samples containing it; segments are
+     * picked greedily by the score of the sequences not yet covered. The best segments go last,
+     * where Deflate reaches them with the shortest distances.
+     */
+    static byte[] train(List<String> samples, int maxBytes) {
+        List<byte[]> data = new ArrayList<>();
+        int total = 0;
+        for (String sample : samples) {
+            if (total >= MAX_SAMPLE_BYTES) {
+                break;
+            }
+            byte[] bytes = sample.getBytes(StandardCharsets.UTF_8);
+            data.add(bytes);
+            total += bytes.length;
+        }
+
+        Map<Long, Integer> frequency = new HashMap<>();
+        for (byte[] bytes : data) {
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + DMER <= bytes.length; i++) {
+                seen.add(dmer(bytes, i));
+            }
+            for (Long dmer : seen) {
+                Integer count = frequency.get(dmer);
+                frequency.put(dmer, count != null ? count + 1 : 1);
+            }
+        }
+
+        PriorityQueue<long[]> candidates = new PriorityQueue<>((a, b) -> Long.compare(b[0], a[0]));
+        Set<Long> covered = new HashSet<>();
+        for (int s = 0; s < data.size(); s++) {
+            byte[] bytes = data.get(s);
+            for (int start = 0; start + DMER <= bytes.length; start += SEGMENT_STRIDE) {
+                int length = Math.min(SEGMENT, bytes.length - start);
+                long score = score(bytes, start, length, frequency, covered);
+                if (score > 0) {
+                    candidates.add(new long[] { score, s, start, length });
+                }
+            }
+        }
+
+        List<byte[]> picked = new ArrayList<>();
+        int size = 0;
+        while (!candidates.isEmpty() && size + DMER <= maxBytes) {
+            long[] best = candidates.poll();
+            byte[] bytes = data.get((int) best[1]);
+            int start = (int) best[2];
+            int length = (int) Math.min(best[3], maxBytes - size);
+            // Scores only drop as segments get covered, so a candidate whose score still holds
+            // after a recount beats every candidate behind it.
+            long score = score(bytes, start, length, frequency, covered);
+            if (score <= 0) {
+                continue;
+            }
+            if (!candidates.isEmpty() && score < candidates.peek()[0]) {
+                candidates.add(new long[] { score, best[1], start, best[3] });
+                continue;
+            }
+            byte[] segment = new byte[length];
+            System.arraycopy(bytes, start, segment, 0, length);
+            picked.add(segment);
+            size += length;
+            for (int i = start; i + DMER <= start + length; i++) {
+                covered.add(dmer(bytes, i));
+            }
+        }
+
+        byte[] dictionary = new byte[size];
+        int offset = 0;
+        for (int i = picked.size() - 1; i >= 0; i--) {
+            byte[] segment = picked.get(i);
+            System.arraycopy(segment, 0, dictionary, offset, segment.length);
+            offset += segment.length;
+        }
+        return dictionary;
+    }
+
+    /**
+     * Sum of the frequencies of the uncovered sequences of a segment that occur in more than one sample.
+     */
+    private static long score(byte[] bytes, int start, int length, Map<Long, Integer> frequency, Set<Long> covered) {
+        long score = 0;
+        Set<Long> counted = new HashSet<>();
+        for (int i = start; i + DMER <= start + length; i++) {
+            Long dmer = dmer(bytes, i);
+            Integer count = frequency.get(dmer);
+            if (count != null && count > 1 && !covered.contains(dmer) && counted.add(dmer)) {
+                score += count;
+            }
+        }
+        return score;
+    }
+
+    private static long dmer(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < DMER; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+}
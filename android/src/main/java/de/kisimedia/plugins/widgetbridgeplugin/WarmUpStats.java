@@ -0,0 +1,73 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.os.SystemClock;
+
+import com.getcapacitor.JSObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Milestones of a cold start, in milliseconds since the plugin loaded: when each warmed-up group
+ * was in memory, when the providers were resolved, and when the first values reached JavaScript.
+ * {@code -1} marks a milestone not reached yet.
+ */
+final class WarmUpStats {
+
+    private final long loadedAt;
+    private final Map<String, Long> groups = new ConcurrentHashMap<>();
+    private volatile long providersMs = -1;
+    private volatile int providers;
+    private volatile long firstDataMs = -1;
+
+    WarmUpStats(long loadedAt) {
+        this.loadedAt = loadedAt;
+    }
+
+    static WarmUpStats startingNow() {
+        return new WarmUpStats(SystemClock.elapsedRealtime());
+    }
+
+    private long elapsed() {
+        return SystemClock.elapsedRealtime() - loadedAt;
+    }
+
+    void onGroupReady(String group) {
+        groups.put(group, elapsed());
+    }
+
+    void onProvidersReady(int resolved) {
+        providers = resolved;
+        providersMs = elapsed();
+    }
+
+    /**
+     * Records the first call that hands stored values to JavaScript; later calls are ignored.
+     */
+    void onDataResolved() {
+        if (firstDataMs < 0) {
+            synchronized (this) {
+                if (firstDataMs < 0) {
+                    firstDataMs = elapsed();
+                }
+            }
+        }
+    }
+
+    long getFirstDataMs() {
+        return firstDataMs;
+    }
+
+    JSObject toJson() {
+        JSObject groupTimes = new JSObject();
+        for (Map.Entry<String, Long> entry : new TreeMap<>(groups).entrySet()) {
+            groupTimes.put(entry.getKey(), (long) entry.getValue());
+        }
+        return new JSObject()
+            .put("groups", groupTimes)
+            .put("providersMs", providersMs)
+            .put("providers", providers)
+            .put("firstDataMs", firstDataMs);
+    }
+}
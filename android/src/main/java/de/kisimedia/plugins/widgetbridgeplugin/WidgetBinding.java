@@ -0,0 +1,259 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.view.View;
+import android.widget.RemoteViews;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IllegalFormatException;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Declarative layout of a widget: which group keys go into which views of a layout, and how they
+ * are formatted.
+ *
+ * A binding is compiled once from its JSON spec. Resource names are resolved to ids and format
+ * patterns are checked at that point, so rendering is a lookup per view and never touches the
+ * WebView or JavaScript. Compiled bindings are immutable.
+ */
+final class WidgetBinding {
+
+    static final String ATTRIBUTE_TEXT = "text";
+    static final String ATTRIBUTE_VISIBILITY = "visibility";
+    static final String ATTRIBUTE_IMAGE = "image";
+    static final String ATTRIBUTE_PROGRESS = "progress";
+
+    private static final int DEFAULT_PROGRESS_MAX = 100;
+    private static final int DEFAULT_IMAGE_SIZE = 300;
+
+    final String provider;
+    final String group;
+    final boolean perInstance;
+    private final String layoutPackage;
+    private final int layoutId;
+    private final ViewBinding[] views;
+    private final Set<String> keys;
+
+    /**
+     * One view of the layout and the key it shows.
+     */
+    static final class ViewBinding {
+
+        final int viewId;
+        final String key;
+        final String attribute;
+        final String format;
+        final String fallback;
+        final int max;
+
+        ViewBinding(int viewId, String key, String attribute, String format, String fallback, int max) {
+            this.viewId = viewId;
+            this.key = key;
+            this.attribute = attribute;
+            this.format = format;
+            this.fallback = fallback;
+            this.max = max;
+        }
+    }
+
+    private WidgetBinding(String provider, String group, boolean perInstance, String layoutPackage, int layoutId, ViewBinding[] views) {
+        this.provider = provider;
+        this.group = group;
+        this.perInstance = perInstance;
+        this.layoutPackage = layoutPackage;
+        this.layoutId = layoutId;
+        this.views = views;
+        Set<String> bound = new LinkedHashSet<>();
+        for (ViewBinding view : views) {
+            bound.add(view.key);
+        }
+        this.keys = Collections.unmodifiableSet(bound);
+    }
+
+    /**
+     * Compiles {@code { provider, group, layout, perInstance?, views: [{ view, key, attribute?, format?, fallback?, max? }] }}.
+     *
+     * @throws JSONException when a required field is missing
+     * @throws IllegalArgumentException when a resource does not exist, an attribute is unknown or a
+     *     format pattern is invalid
+     */
+    static WidgetBinding compile(Context context, JSONObject spec) throws JSONException {
+        Resources resources = context.getResources();
+        String provider = spec.getString("provider");
+        int layoutId = resolve(context, spec.getString("layout"), "layout");
+        JSONArray viewSpecs = spec.getJSONArray("views");
+
+        ViewBinding[] views = new ViewBinding[viewSpecs.length()];
+        for (int i = 0; i < views.length; i++) {
+            JSONObject view = viewSpecs.getJSONObject(i);
+            String attribute = view.optString("attribute", ATTRIBUTE_TEXT);
+            if (!isAttribute(attribute)) {
+                throw new IllegalArgumentException("Unknown attribute: " + attribute);
+            }
+            String format = view.has("format") ? view.getString("format") : null;
+            if (format != null) {
+                // Catches malformed patterns now instead of on every render.
+                String.format(Locale.ROOT, format, (Object) null);
+            }
+            views[i] = new ViewBinding(
+                resolve(context, view.getString("view"), "id"),
+                view.getString("key"),
+                attribute,
+                format,
+                view.has("fallback") ? view.getString("fallback") : null,
+                view.optInt("max", DEFAULT_PROGRESS_MAX)
+            );
+        }
+        return new WidgetBinding(
+            provider,
+            spec.getString("group"),
+            spec.optBoolean("perInstance", false),
+            resources.getResourcePackageName(layoutId),
+            layoutId,
+            views
+        );
+    }
+
+    /**
+     * Resolves {@code name} in the app package, or a qualified {@code package:type/name}.
+     */
+    private static int resolve(Context context, String name, String type) {
+        int id = context.getResources().getIdentifier(name, type, context.getPackageName());
+        if (id == 0) {
+            throw new IllegalArgumentException("Unknown " + type + " resource: " + name);
+        }
+        return id;
+    }
+
+    private static boolean isAttribute(String attribute) {
+        return ATTRIBUTE_TEXT.equals(attribute)
+            || ATTRIBUTE_VISIBILITY.equals(attribute)
+            || ATTRIBUTE_IMAGE.equals(attribute)
+            || ATTRIBUTE_PROGRESS.equals(attribute);
+    }
+
+    /**
+     * The keys the binding reads.
+     */
+    Set<String> keys() {
+        return keys;
+    }
+
+    /**
+     * The group the widget with {@code appWidgetId} reads from.
+     */
+    String groupFor(int appWidgetId) {
+        return perInstance ? WidgetBridgeStore.instanceGroup(group, appWidgetId) : group;
+    }
+
+    /**
+     * Reads the bound keys that are in {@code changedKeys}, or every bound key when it is
+     * {@code null}. Keys of the group that no view shows are never read.
+     */
+    Map<String, Object> read(SharedPreferences prefs, Collection<String> changedKeys) {
+        Map<String, Object> values = new HashMap<>();
+        for (String key : keys) {
+            if (changedKeys == null || changedKeys.contains(key)) {
+                Object value = GroupReadCache.readTyped(prefs, key);
+                if (value != null) {
+                    values.put(key, value);
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Renders the views bound to {@code changedKeys}, or every view when it is {@code null}.
+     *
+     * @param values the bound keys of the group, as returned by {@link #read}
+     */
+    RemoteViews render(Context context, String source, Map<String, ?> values, Collection<String> changedKeys) {
+        RemoteViews remoteViews = new RemoteViews(layoutPackage, layoutId);
+        for (ViewBinding view : views) {
+            if (changedKeys == null || changedKeys.contains(view.key)) {
+                apply(context, source, remoteViews, view, values.get(view.key));
+            }
+        }
+        return remoteViews;
+    }
+
+    private void apply(Context context, String source, RemoteViews remoteViews, ViewBinding view, Object value) {
+        if (LargeValueStore.isReference(value) || ValueCompression.isCompressed(value)) {
+            value = readStored(context, source, view.key);
+        }
+        switch (view.attribute) {
+            case ATTRIBUTE_VISIBILITY:
+                remoteViews.setViewVisibility(view.viewId, isTruthy(value) ? View.VISIBLE : View.GONE);
+                break;
+            case ATTRIBUTE_IMAGE:
+                Bitmap bitmap = value != null
+                    ? WidgetImages.load(context, WidgetBridgeStore.baseGroupOf(source), String.valueOf(value), DEFAULT_IMAGE_SIZE, DEFAULT_IMAGE_SIZE)
+                    : null;
+                if (bitmap != null) {
+                    remoteViews.setImageViewBitmap(view.viewId, bitmap);
+                }
+                break;
+            case ATTRIBUTE_PROGRESS:
+                int progress = value instanceof Number ? ((Number) value).intValue() : 0;
+                remoteViews.setProgressBar(view.viewId, view.max, Math.max(0, Math.min(view.max, progress)), false);
+                break;
+            default:
+                remoteViews.setTextViewText(view.viewId, format(view, value));
+                break;
+        }
+    }
+
+    static CharSequence format(ViewBinding view, Object value) {
+        if (value == null) {
+            return view.fallback != null ? view.fallback : "";
+        }
+        if (view.format != null) {
+            try {
+                return String.format(Locale.getDefault(), view.format, value);
+            } catch (IllegalFormatException e) {
+                // The pattern does not fit the stored type, e.g. %d for a string.
+                return String.valueOf(value);
+            }
+        }
+        return String.valueOf(value);
+    }
+
+    static boolean isTruthy(Object value) {
+        if (value == null) {
+            return false;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue() != 0;
+        }
+        if (value instanceof Collection) {
+            return !((Collection<?>) value).isEmpty();
+        }
+        return !String.valueOf(value).isEmpty();
+    }
+
+    private static String readStored(Context context, String source, String key) {
+        try {
+            WidgetValue value = WidgetBridgeStore.readValue(context, source, key);
+            return value != null ? value.asString() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.appwidget.AppWidgetManager;
+import android.content.Context;
+import android.widget.RemoteViews;
+
+import com.getcapacitor.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Widget provider that renders the binding registered for it with {@code setWidgetBindings}.
+ *
+ * Extend it with an empty class per widget and declare that class in the manifest:
+ *
+ * <pre>
+ * public class WeatherWidget extends WidgetBindingProvider {}
+ * </pre>
+ *
+ * Updates read only the bound keys straight from the store, so they work while the app is in the
+ * background without starting the WebView. Partial updates only set the views of the changed keys.
+ */
+public class WidgetBindingProvider extends WidgetBridgeAppWidgetProvider {
+
+    private static final String TAG = "WidgetBindingProvider";
+
+    @Override
+    public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        WidgetBinding binding = getBinding(context);
+        if (binding == null) {
+            return;
+        }
+        // Widgets sharing a group share one snapshot of it.
+        Map<String, Map<String, ?>> snapshots = new HashMap<>();
+        for (int appWidgetId : appWidgetIds) {
+            String group = binding.groupFor(appWidgetId);
+            Map<String, ?> values = snapshots.get(group);
+            if (values == null) {
+                values = read(context, binding, group, null);
+                snapshots.put(group, values);
+            }
+            appWidgetManager.updateAppWidget(appWidgetId, binding.render(context, group, values, null));
+        }
+    }
+
+    @Override
+    protected RemoteViews onPartialUpdate(Context context, AppWidgetManager appWidgetManager, int appWidgetId, Set<String> changedKeys) {
+        WidgetBinding binding = getBinding(context);
+        if (binding == null || changedKeys.isEmpty()) {
+            return null;
+        }
+        String group = binding.groupFor(appWidgetId);
+        return binding.render(context, group, read(context, binding, group, changedKeys), changedKeys);
+    }
+
+    /**
+     * The bound values of a group, without keys whose TTL has passed but the plugin has not removed yet.
+     */
+    private static Map<String, ?> read(Context context, WidgetBinding binding, String group, Set<String> changedKeys) {
+        Map<String, Object> values = binding.read(WidgetBridgeStore.open(context, group), changedKeys);
+        return GroupRetention.withoutExpired(context, group, values, System.currentTimeMillis());
+    }
+
+    private WidgetBinding getBinding(Context context) {
+        WidgetBinding binding = WidgetProviderRegistry.getInstance(context).getBinding(getClass().getName());
+        if (binding == null) {
+            Logger.warn(TAG, "No binding registered for " + getClass().getName());
+        }
+        return binding;
+    }
+}
@@ -0,0 +1,86 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.widget.RemoteViews;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Base class for widget providers that are reloaded through the plugin.
+ *
+ * It forwards the app widget host broadcasts (enabled, deleted, disabled, restored and updates for
+ * new ids) to {@link WidgetProviderRegistry}, which lets the registry cache the provider's widget
+ * ids instead of asking {@code AppWidgetManager} on every reload, and keeps the timeline alarm
+ * alive across reboots. Subclasses implement
+ * {@code onUpdate} and the other callbacks exactly as with a plain {@link AppWidgetProvider}.
+ *
+ * When the plugin knows which keys changed it sends {@link #ACTION_PARTIAL_UPDATE} instead of a
+ * full update. Override {@link #onPartialUpdate} to return just the views those keys affect; they
+ * are applied with {@link AppWidgetManager#partiallyUpdateAppWidget}. By default every widget in
+ * the broadcast goes through {@code onUpdate} as usual.
+ */
+public abstract class WidgetBridgeAppWidgetProvider extends AppWidgetProvider {
+
+    public static final String ACTION_PARTIAL_UPDATE = "de.kisimedia.plugins.widgetbridgeplugin.PARTIAL_UPDATE";
+    public static final String EXTRA_CHANGED_KEYS = "de.kisimedia.plugins.widgetbridgeplugin.CHANGED_KEYS";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (ACTION_PARTIAL_UPDATE.equals(intent.getAction())) {
+            int[] ids = intent.getIntArrayExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS);
+            String[] keys = intent.getStringArrayExtra(EXTRA_CHANGED_KEYS);
+            if (ids != null) {
+                Set<String> changedKeys = keys != null
+                    ? Collections.unmodifiableSet(new HashSet<>(Arrays.asList(keys)))
+                    : Collections.<String>emptySet();
+                dispatchPartialUpdate(context, AppWidgetManager.getInstance(context), ids, changedKeys);
+            }
+            return;
+        }
+        WidgetProviderRegistry.getInstance(context).onProviderBroadcast(new ComponentName(context, getClass()), intent);
+        if (AppWidgetManager.ACTION_APPWIDGET_UPDATE.equals(intent.getAction())) {
+            // Hosts update every widget after a reboot, which also cleared the timeline alarm.
+            WidgetTimeline.getInstance(context).resume(System.currentTimeMillis());
+        }
+        super.onReceive(context, intent);
+    }
+
+    /**
+     * Builds the views of one widget that depend on {@code changedKeys}.
+     *
+     * @param changedKeys the keys written since the last update; for keys of a single widget
+     *     instance these are the keys of its instance group
+     * @return the views to merge into the widget, or {@code null} to rebuild it with {@code onUpdate}
+     */
+    protected RemoteViews onPartialUpdate(Context context, AppWidgetManager appWidgetManager, int appWidgetId, Set<String> changedKeys) {
+        return null;
+    }
+
+    private void dispatchPartialUpdate(Context context, AppWidgetManager appWidgetManager, int[] ids, Set<String> changedKeys) {
+        List<Integer> full = new ArrayList<>();
+        for (int id : ids) {
+            RemoteViews views = onPartialUpdate(context, appWidgetManager, id, changedKeys);
+            if (views != null) {
+                appWidgetManager.partiallyUpdateAppWidget(id, views);
+            } else {
+                full.add(id);
+            }
+        }
+        if (!full.isEmpty()) {
+            int[] fullIds = new int[full.size()];
+            for (int i = 0; i < fullIds.length; i++) {
+                fullIds[i] = full.get(i);
+            }
+            onUpdate(context, appWidgetManager, fullIds);
+        }
+    }
+}
@@ -0,0 +1,604 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.getcapacitor.Logger;
+
+import org.json.JSONArray;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gives widget providers in other processes of the app coherent access to the store.
+ *
+ * {@link SharedPreferences} do not see writes made by another process, so a widget running in a
+ * separate process reads through this provider instead, which lives in the app's main process.
+ * Use {@link WidgetBridgeStore#openRemote}, which caches each group and only asks the provider
+ * again after it announced a change. Other readers can use the provider directly:
+ *
+ * <ul>
+ *   <li>{@code query(content://<package>.widgetbridge/groups/<group>)} returns one row per key
+ *   ({@code key}, {@code type}, {@code value}); {@code selectionArgs} limit it to those keys.</li>
+ *   <li>{@code insert} and {@code update} write every entry of the {@code ContentValues} in one
+ *   edit, {@code null} removes the key; {@code delete} removes the keys in {@code selectionArgs},
+ *   or every key.</li>
+ *   <li>{@code applyBatch} writes all operations of a group in one edit.</li>
+ *   <li>The group URI is notified once per change, after all keys of the edit are written.</li>
+ * </ul>
+ *
+ * Values are served as they were written: strings the group stores compressed are decompressed.
+ * References to large values are passed on; read those with {@link WidgetBridgeStore#readValue}.
+ * Writes take the plugin's write path on the lane of their group, so large values get their own
+ * file, strings are compressed where the group has compression enabled, expiry times are cleared
+ * and unchanged values are skipped, in order with the app's own writes. While the plugin is not
+ * loaded, the provider applies the same steps itself.
+ *
+ * Each group has a version that grows with every change, so a reader holding a copy can ask
+ * whether it is still current without transferring the values. Groups are tracked from the moment
+ * the plugin writes to them in this process, so changes made before the provider first served a
+ * group after a restart are announced too.
+ */
+public class WidgetBridgeContentProvider extends ContentProvider {
+
+    private static final String TAG = "WidgetBridgeContentProvider";
+
+    static final String AUTHORITY_SUFFIX = ".widgetbridge";
+    static final String PATH_GROUPS = "groups";
+
+    static final String METHOD_READ = "read";
+    static final String METHOD_WRITE = "write";
+
+    static final String EXTRA_VERSION = "version";
+    static final String EXTRA_IF_VERSION = "ifVersion";
+    static final String EXTRA_MODIFIED = "modified";
+    static final String EXTRA_VALUES = "values";
+    static final String EXTRA_TYPES = "types";
+    static final String EXTRA_KEYS = "keys";
+    static final String EXTRA_REMOVE = "remove";
+    static final String EXTRA_CLEAR = "clear";
+
+    static final String COLUMN_KEY = "key";
+    static final String COLUMN_TYPE = "type";
+    static final String COLUMN_VALUE = "value";
+
+    /**
+     * Groups tracked in this process. The map keeps the listeners reachable; preferences only hold
+     * them weakly.
+     */
+    static final Map<String, GroupState> groups = new ConcurrentHashMap<>();
+
+    /**
+     * Shared by all groups. Like {@link GroupReadCache}, it starts at the clock in microseconds, so
+     * a version handed out before a restart is never handed out again for a different state.
+     */
+    private static final AtomicLong versionClock = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    /** The loaded plugin, which applies writes so its caches stay current. */
+    private static volatile Writer writer;
+
+    /**
+     * Applies writes made through the provider.
+     */
+    interface Writer {
+
+        /**
+         * The lane writes to {@code group} run on.
+         */
+        Executor laneOf(String group);
+
+        /**
+         * Sets {@code values} and removes {@code removals} on the group's lane.
+         *
+         * @return the keys whose stored value changed
+         */
+        List<String> write(String group, Map<String, ?> values, Collection<String> removals);
+    }
+
+    /**
+     * The writes of one call or of one group in a batch. Later operations on a key replace earlier ones.
+     */
+    static final class Edit {
+
+        final Map<String, Object> values = new HashMap<>();
+        final Set<String> removals = new HashSet<>();
+        boolean clear;
+
+        void put(String key, Object value) {
+            if (value == null) {
+                remove(key);
+                return;
+            }
+            removals.remove(key);
+            values.put(key, value);
+        }
+
+        void remove(String key) {
+            values.remove(key);
+            removals.add(key);
+        }
+
+        void clear() {
+            values.clear();
+            removals.clear();
+            clear = true;
+        }
+    }
+
+    /**
+     * Version and change notification of one group.
+     */
+    static final class GroupState implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+        final Context context;
+        final Uri uri;
+        private final Handler handler = new Handler(Looper.getMainLooper());
+        volatile long version = versionClock.incrementAndGet();
+        private boolean notifyPending;
+
+        GroupState(Context context, Uri uri) {
+            this.context = context;
+            this.uri = uri;
+        }
+
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+            version = versionClock.incrementAndGet();
+            synchronized (this) {
+                if (notifyPending) {
+                    return;
+                }
+                notifyPending = true;
+            }
+            // Listeners run once per key; readers only need to hear about the edit once.
+            handler.post(() -> {
+                synchronized (this) {
+                    notifyPending = false;
+                }
+                context.getContentResolver().notifyChange(uri, null);
+            });
+        }
+    }
+
+    /**
+     * The URI of a group, for queries, writes and change notifications.
+     */
+    public static Uri groupUri(Context context, String group) {
+        return new Uri.Builder()
+            .scheme("content")
+            .authority(context.getPackageName() + AUTHORITY_SUFFIX)
+            .appendPath(PATH_GROUPS)
+            .appendPath(group)
+            .build();
+    }
+
+    /**
+     * Routes writes through the plugin from now on; {@code null} lets the provider apply them itself.
+     */
+    static void setWriter(Writer plugin) {
+        writer = plugin;
+    }
+
+    /**
+     * Stops routing writes through {@code plugin}, unless another plugin took over already.
+     */
+    static void clearWriter(Writer plugin) {
+        if (writer == plugin) {
+            writer = null;
+        }
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    private String groupOf(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2 || !PATH_GROUPS.equals(segments.get(0))) {
+            throw new IllegalArgumentException("Unknown URI: " + uri);
+        }
+        return segments.get(1);
+    }
+
+    /**
+     * Opens a group and starts tracking its version.
+     */
+    private SharedPreferences open(String group) {
+        SharedPreferences prefs = WidgetBridgeStore.open(getContext(), group);
+        track(getContext(), group, prefs);
+        return prefs;
+    }
+
+    /**
+     * Starts tracking the version of a group and announcing its changes, unless it is tracked
+     * already. Called for every group the plugin writes to.
+     */
+    static GroupState track(Context context, String group, SharedPreferences prefs) {
+        GroupState state = groups.get(group);
+        if (state == null) {
+            synchronized (groups) {
+                state = groups.get(group);
+                if (state == null) {
+                    Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+                    state = new GroupState(appContext, groupUri(appContext, group));
+                    prefs.registerOnSharedPreferenceChangeListener(state);
+                    groups.put(group, state);
+                }
+            }
+        }
+        return state;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        String group = groupOf(uri);
+        Map<String, ?> values = read(group, open(group), selectionArgs != null ? Arrays.asList(selectionArgs) : null);
+        MatrixCursor cursor = new MatrixCursor(new String[] { COLUMN_KEY, COLUMN_TYPE, COLUMN_VALUE }, values.size());
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            Object value = entry.getValue();
+            String type = typeOf(value);
+            if (value instanceof Set) {
+                value = new JSONArray((Collection<?>) value).toString();
+            } else if (value instanceof Boolean) {
+                value = (Boolean) value ? 1 : 0;
+            }
+            cursor.addRow(new Object[] { entry.getKey(), type, value });
+        }
+        return cursor;
+    }
+
+    /**
+     * {@code read}: the values of a group, or of {@code keys}, unless the group still has
+     * {@code ifVersion}. {@code write}: sets {@code values} and removes {@code remove} in one edit,
+     * after dropping every key with {@code clear}.
+     */
+    @Override
+    public Bundle call(String method, String group, Bundle extras) {
+        if (group == null) {
+            throw new IllegalArgumentException("Missing group");
+        }
+        SharedPreferences prefs = open(group);
+        GroupState state = track(getContext(), group, prefs);
+        Bundle result = new Bundle();
+        switch (method) {
+            case METHOD_READ: {
+                // Read the version first: a change racing with the read only makes the copy look older.
+                long version = state.version;
+                result.putLong(EXTRA_VERSION, version);
+                if (extras != null && extras.getLong(EXTRA_IF_VERSION, -1) == version) {
+                    result.putBoolean(EXTRA_MODIFIED, false);
+                    return result;
+                }
+                String[] keys = extras != null ? extras.getStringArray(EXTRA_KEYS) : null;
+                result.putBoolean(EXTRA_MODIFIED, true);
+                putValues(result, read(group, prefs, keys != null ? Arrays.asList(keys) : null));
+                return result;
+            }
+            case METHOD_WRITE: {
+                Edit edit = new Edit();
+                if (extras != null && extras.getBoolean(EXTRA_CLEAR)) {
+                    edit.clear();
+                }
+                String[] remove = extras != null ? extras.getStringArray(EXTRA_REMOVE) : null;
+                if (remove != null) {
+                    for (String key : remove) {
+                        edit.remove(key);
+                    }
+                }
+                if (extras != null) {
+                    for (Map.Entry<String, Object> entry : getValues(extras).entrySet()) {
+                        edit.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                write(group, edit);
+                result.putBoolean(EXTRA_MODIFIED, true);
+                result.putLong(EXTRA_VERSION, state.version);
+                return result;
+            }
+            default:
+                return super.call(method, group, extras);
+        }
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        update(uri, values, null, null);
+        return uri;
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        Edit edit = new Edit();
+        put(edit, values);
+        write(groupOf(uri), edit);
+        return values.size();
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        Edit edit = new Edit();
+        if (selectionArgs == null) {
+            edit.clear();
+        } else {
+            for (String key : selectionArgs) {
+                edit.remove(key);
+            }
+        }
+        return write(groupOf(uri), edit).size();
+    }
+
+    /**
+     * Applies the operations of each group in one edit instead of one edit per operation.
+     * Back-references are resolved as usual.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) {
+        Map<String, Edit> edits = new LinkedHashMap<>();
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        for (int i = 0; i < operations.size(); i++) {
+            ContentProviderOperation operation = operations.get(i);
+            Uri uri = operation.getUri();
+            String group = groupOf(uri);
+            Edit edit = edits.get(group);
+            if (edit == null) {
+                edit = new Edit();
+                edits.put(group, edit);
+            }
+            if (operation.isDelete()) {
+                String[] keys = operation.resolveSelectionArgsBackReferences(results, i);
+                if (keys == null) {
+                    edit.clear();
+                } else {
+                    for (String key : keys) {
+                        edit.remove(key);
+                    }
+                }
+                results[i] = new ContentProviderResult(keys != null ? keys.length : 0);
+            } else {
+                ContentValues values = operation.resolveValueBackReferences(results, i);
+                put(edit, values);
+                results[i] = operation.isInsert() ? new ContentProviderResult(uri) : new ContentProviderResult(values.size());
+            }
+        }
+        for (Map.Entry<String, Edit> entry : edits.entrySet()) {
+            write(entry.getKey(), entry.getValue());
+        }
+        return results;
+    }
+
+    private static void put(Edit edit, ContentValues values) {
+        for (String key : values.keySet()) {
+            Object value = values.get(key);
+            if (value instanceof Double) {
+                edit.put(key, ((Double) value).floatValue());
+            } else if (value instanceof Short || value instanceof Byte) {
+                edit.put(key, ((Number) value).intValue());
+            } else if (value instanceof byte[]) {
+                throw new IllegalArgumentException("Byte arrays cannot be stored: " + key);
+            } else {
+                edit.put(key, value);
+            }
+        }
+    }
+
+    /**
+     * Applies an edit on the lane of its group and waits for it, so the caller sees its own write.
+     *
+     * @return the keys whose stored value changed
+     */
+    private List<String> write(String group, Edit edit) {
+        Context context = getContext();
+        open(group);
+        Writer target = writer;
+        Writer applied = target != null ? target : new StoreWriter(context);
+        FutureTask<List<String>> task = new FutureTask<>(() -> {
+            Collection<String> removals = edit.removals;
+            if (edit.clear) {
+                removals = new HashSet<>(WidgetBridgeStore.open(context, group).getAll().keySet());
+            }
+            return applied.write(group, edit.values, removals);
+        });
+        applied.laneOf(group).execute(task);
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing " + group, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Cannot write " + group, e.getCause());
+        }
+    }
+
+    /**
+     * Applies writes while the plugin is not loaded: the plugin's steps without its caches.
+     */
+    static final class StoreWriter implements Writer {
+
+        private final Context context;
+
+        StoreWriter(Context context) {
+            this.context = context;
+        }
+
+        @Override
+        public Executor laneOf(String group) {
+            return GroupExecutors.shared().forGroup(group);
+        }
+
+        @Override
+        public List<String> write(String group, Map<String, ?> values, Collection<String> removals) {
+            WriteBehindPreferences prefs = WidgetBridgeStore.openBuffered(context, group);
+            LargeValueStore largeValues = LargeValueStore.forContext(context);
+            StagedWrite write = StagedWrite.stage(
+                group,
+                values,
+                removals,
+                key -> GroupReadCache.readTyped(prefs, key),
+                WidgetBridgeStore.getLargeValueThreshold(context),
+                largeValues,
+                ValueCompression.getInstance(context)
+            );
+            if (write.changed.isEmpty()) {
+                return write.changed;
+            }
+            prefs.write(write.stored, true);
+            write.deleteOrphaned(group, largeValues);
+            // Written without a TTL, like a setItem call without one.
+            SharedPreferences expiryPrefs = GroupRetention.expiryPrefs(context, group);
+            SharedPreferences.Editor editor = null;
+            for (String key : write.changed) {
+                if (expiryPrefs.contains(key)) {
+                    editor = editor != null ? editor : expiryPrefs.edit();
+                    editor.remove(key);
+                }
+            }
+            if (editor != null) {
+                editor.apply();
+            }
+            return write.changed;
+        }
+    }
+
+    /**
+     * The values of a group, or of {@code keys}. Keys whose TTL has passed are left out even before
+     * the plugin removed them.
+     */
+    private Map<String, ?> read(String group, SharedPreferences prefs, Collection<String> keys) {
+        Map<String, Object> selected = new LinkedHashMap<>();
+        if (keys == null) {
+            for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+                putDecompressed(selected, group, entry.getKey(), entry.getValue());
+            }
+        } else {
+            for (String key : keys) {
+                Object value = GroupReadCache.readTyped(prefs, key);
+                if (value != null) {
+                    putDecompressed(selected, group, key, value);
+                }
+            }
+        }
+        return GroupRetention.withoutExpired(getContext(), group, selected, System.currentTimeMillis());
+    }
+
+    private void putDecompressed(Map<String, Object> values, String group, String key, Object stored) {
+        try {
+            values.put(key, WidgetBridgeStore.decompress(getContext(), group, stored));
+        } catch (IOException e) {
+            Logger.warn(TAG, "Cannot decompress " + key + " of " + group + ": " + e.getMessage());
+        }
+    }
+
+    static String typeOf(Object value) {
+        if (value instanceof Integer) {
+            return TypedValues.TYPE_INT;
+        } else if (value instanceof Long) {
+            return TypedValues.TYPE_LONG;
+        } else if (value instanceof Float) {
+            return TypedValues.TYPE_FLOAT;
+        } else if (value instanceof Boolean) {
+            return TypedValues.TYPE_BOOLEAN;
+        } else if (value instanceof Set) {
+            return TypedValues.TYPE_STRING_SET;
+        }
+        return TypedValues.TYPE_STRING;
+    }
+
+    /**
+     * Puts values into {@link #EXTRA_VALUES} and their types into {@link #EXTRA_TYPES}, so the
+     * receiver can read each one with its typed getter.
+     */
+    @SuppressWarnings("unchecked")
+    static void putValues(Bundle extras, Map<String, ?> values) {
+        Bundle bundle = new Bundle();
+        Bundle types = new Bundle();
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (value instanceof Integer) {
+                bundle.putInt(key, (Integer) value);
+            } else if (value instanceof Long) {
+                bundle.putLong(key, (Long) value);
+            } else if (value instanceof Float) {
+                bundle.putFloat(key, (Float) value);
+            } else if (value instanceof Boolean) {
+                bundle.putBoolean(key, (Boolean) value);
+            } else if (value instanceof Set) {
+                bundle.putStringArrayList(key, new ArrayList<>((Set<String>) value));
+            } else if (value != null) {
+                bundle.putString(key, String.valueOf(value));
+            } else {
+                continue;
+            }
+            types.putString(key, typeOf(value));
+        }
+        extras.putBundle(EXTRA_VALUES, bundle);
+        extras.putBundle(EXTRA_TYPES, types);
+    }
+
+    /**
+     * The values written by {@link #putValues}, in their stored form: string lists become string sets.
+     */
+    static Map<String, Object> getValues(Bundle extras) {
+        Map<String, Object> values = new HashMap<>();
+        Bundle bundle = extras.getBundle(EXTRA_VALUES);
+        Bundle types = extras.getBundle(EXTRA_TYPES);
+        if (bundle == null || types == null) {
+            return values;
+        }
+        for (String key : bundle.keySet()) {
+            String type = types.getString(key, TypedValues.TYPE_STRING);
+            Object value;
+            if (TypedValues.TYPE_INT.equals(type)) {
+                value = bundle.getInt(key);
+            } else if (TypedValues.TYPE_LONG.equals(type)) {
+                value = bundle.getLong(key);
+            } else if (TypedValues.TYPE_FLOAT.equals(type)) {
+                value = bundle.getFloat(key);
+            } else if (TypedValues.TYPE_BOOLEAN.equals(type)) {
+                value = bundle.getBoolean(key);
+            } else if (TypedValues.TYPE_STRING_SET.equals(type)) {
+                ArrayList<String> list = bundle.getStringArrayList(key);
+                value = list != null ? new HashSet<>(list) : null;
+            } else {
+                value = bundle.getString(key);
+            }
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,337 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide counters of what the plugin does: latency and payload sizes of every plugin call,
+ * writes to the storage backend and update broadcasts per provider.
+ *
+ * Recording is off by default and every record method returns after reading one volatile flag
+ * while it is. When on, calls also show up as {@link Trace} sections named
+ * {@code WidgetBridge#<method>} in system traces, asynchronous ones from Android 10. Payload sizes
+ * cost one JSON serialization per call, so large payloads are slower to pass while recording.
+ *
+ * Histograms and counters only use atomic updates, so recording never blocks the group lanes.
+ */
+final class WidgetBridgeMetrics {
+
+    static final String TRACE_PREFIX = "WidgetBridge#";
+
+    private static final WidgetBridgeMetrics instance = new WidgetBridgeMetrics();
+
+    private volatile boolean enabled;
+    private volatile long since = System.currentTimeMillis();
+
+    private final ConcurrentHashMap<String, MethodStats> methods = new ConcurrentHashMap<>();
+    /** Start time of each call in flight, by identity. */
+    private final ConcurrentHashMap<PluginCall, Long> started = new ConcurrentHashMap<>();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong writtenKeys = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final ConcurrentHashMap<String, AtomicLong> broadcasts = new ConcurrentHashMap<>();
+
+    static WidgetBridgeMetrics getInstance() {
+        return instance;
+    }
+
+    private WidgetBridgeMetrics() {}
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            // Calls still in flight would never be ended.
+            abandonStarted();
+        }
+    }
+
+    void reset() {
+        methods.clear();
+        abandonStarted();
+        writes.set(0);
+        writtenKeys.set(0);
+        writtenBytes.set(0);
+        broadcasts.clear();
+        since = System.currentTimeMillis();
+    }
+
+    /**
+     * Number of calls begun and not yet ended.
+     */
+    int inFlight() {
+        return started.size();
+    }
+
+    /**
+     * Forgets the calls in flight and closes their trace sections, so none stays open in a trace.
+     */
+    private void abandonStarted() {
+        for (PluginCall call : started.keySet()) {
+            if (started.remove(call) != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.endAsyncSection(TRACE_PREFIX + call.getMethodName(), System.identityHashCode(call));
+            }
+        }
+    }
+
+    /**
+     * Marks the start of a plugin call. Kept-alive calls resolve any number of times and are
+     * never ended, so they are not recorded.
+     */
+    void begin(PluginCall call) {
+        if (!enabled || call.isKeptAlive()) {
+            return;
+        }
+        String method = call.getMethodName();
+        started.put(call, SystemClock.elapsedRealtimeNanos());
+        stats(method).requestBytes.addAndGet(utf8Length(call.getData().toString()));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(TRACE_PREFIX + method, System.identityHashCode(call));
+        }
+    }
+
+    /**
+     * Marks the end of a plugin call started with {@link #begin}.
+     *
+     * @param result the resolved data, or {@code null} when the call was rejected
+     */
+    void end(PluginCall call, JSObject result) {
+        if (!enabled) {
+            return;
+        }
+        Long start = started.remove(call);
+        if (start == null) {
+            return;
+        }
+        String method = call.getMethodName();
+        MethodStats stats = stats(method);
+        stats.latency.record((SystemClock.elapsedRealtimeNanos() - start) / 1000);
+        if (result != null) {
+            stats.responseBytes.addAndGet(utf8Length(result.toString()));
+        } else {
+            stats.errors.incrementAndGet();
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(TRACE_PREFIX + method, System.identityHashCode(call));
+        }
+    }
+
+    /**
+     * Opens a trace section on the current thread.
+     *
+     * @return whether a section was opened and must be closed with {@link #endSection}
+     */
+    boolean beginSection(String name) {
+        if (!enabled) {
+            return false;
+        }
+        Trace.beginSection(TRACE_PREFIX + name);
+        return true;
+    }
+
+    void endSection(boolean begun) {
+        if (begun) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Counts one edit of the storage backend. A value that is not a stored type, such as
+     * {@code null}, is a removal.
+     */
+    void recordWrite(Map<String, ?> values) {
+        if (!enabled) {
+            return;
+        }
+        long bytes = 0;
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            Object value = entry.getValue();
+            boolean stored = value instanceof String || value instanceof Number || value instanceof Boolean || value instanceof Set;
+            bytes += stored ? GroupRetention.estimateSize(entry.getKey(), value) : 2L * entry.getKey().length();
+        }
+        writes.incrementAndGet();
+        writtenKeys.addAndGet(values.size());
+        writtenBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Counts one update broadcast to a provider.
+     */
+    void recordBroadcast(String provider) {
+        if (!enabled) {
+            return;
+        }
+        AtomicLong count = broadcasts.get(provider);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = broadcasts.putIfAbsent(provider, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private MethodStats stats(String method) {
+        MethodStats stats = methods.get(method);
+        if (stats == null) {
+            MethodStats created = new MethodStats();
+            stats = methods.putIfAbsent(method, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    JSObject toJson() {
+        JSObject calls = new JSObject();
+        for (Map.Entry<String, MethodStats> entry : new TreeMap<>(methods).entrySet()) {
+            calls.put(entry.getKey(), entry.getValue().toJson());
+        }
+        JSObject reloads = new JSObject();
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(broadcasts).entrySet()) {
+            reloads.put(entry.getKey(), entry.getValue().get());
+        }
+        return new JSObject()
+            .put("enabled", enabled)
+            .put("since", since)
+            .put("calls", calls)
+            .put("writes", new JSObject()
+                .put("count", writes.get())
+                .put("keys", writtenKeys.get())
+                .put("bytes", writtenBytes.get()))
+            .put("broadcasts", reloads);
+    }
+
+    /**
+     * Number of bytes {@code text} takes in UTF-8, the encoding of bridge messages.
+     */
+    static long utf8Length(String text) {
+        long bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    private static final class MethodStats {
+
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong requestBytes = new AtomicLong();
+        final AtomicLong responseBytes = new AtomicLong();
+
+        JSObject toJson() {
+            return latency.toJson()
+                .put("errors", errors.get())
+                .put("requestBytes", requestBytes.get())
+                .put("responseBytes", responseBytes.get());
+        }
+    }
+
+    /**
+     * Latencies in microseconds, in buckets a quarter of a power of two wide, so percentiles are
+     * within 25% of the recorded values.
+     */
+    static final class LatencyHistogram {
+
+        private static final int SUB_BUCKETS = 4;
+        /** Covers up to 2^40 µs, about 12 days. */
+        private static final int BUCKETS = 40 * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long micros) {
+            long value = Math.max(0, micros);
+            buckets.incrementAndGet(bucketOf(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >> (exponent - 2)) & (SUB_BUCKETS - 1);
+            return Math.min(BUCKETS - 1, (exponent - 1) * SUB_BUCKETS + sub);
+        }
+
+        /**
+         * Smallest value that falls into the bucket.
+         */
+        static long lowerBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + 1;
+            return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 2);
+        }
+
+        /**
+         * Upper bound of the bucket holding the given quantile, capped at the largest value.
+         */
+        long percentile(double quantile) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(max.get(), i + 1 < BUCKETS ? lowerBound(i + 1) - 1 : Long.MAX_VALUE);
+                }
+            }
+            return max.get();
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        JSObject toJson() {
+            long total = count.get();
+            return new JSObject()
+                .put("count", total)
+                .put("meanUs", total > 0 ? sum.get() / total : 0)
+                .put("p50Us", percentile(0.5))
+                .put("p90Us", percentile(0.9))
+                .put("p99Us", percentile(0.99))
+                .put("maxUs", max.get());
+        }
+    }
+}
@@ -2,17 +2,24 @@ package de.kisimedia.plugins.widgetbridgeplugin;
 
 import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProviderInfo;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.net.Uri;
+import android.util.Base64;
 
 import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
+import com.getcapacitor.Logger;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
+import com.getcapacitor.PluginConfig;
 import com.getcapacitor.PluginMethod;
 import android.content.Intent;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 
 import androidx.annotation.RequiresApi;
 
@@ -21,8 +28,25 @@ import com.getcapacitor.annotation.CapacitorPlugin;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 @CapacitorPlugin(name = "WidgetBridgePlugin")
@@ -30,163 +54,1191 @@ public class WidgetBridgePlugin extends Plugin {
 
     private static final String KEY_GROUP = "group";
     private static final String KEY_RESULTS = "results";
+    private static final String KEY_KEYS = "keys";
+    private static final String KEY_VALUES = "values";
+    private static final String KEY_REMOVE = "remove";
+    private static final String KEY_DEBOUNCE_MS = "debounceMs";
+    private static final String KEY_MAX_LATENCY_MS = "maxLatencyMs";
+    private static final String KEY_DEPENDENCIES = "dependencies";
+    private static final String KEY_BINDINGS = "bindings";
+    private static final String KEY_PROVIDER = "provider";
+    private static final String KEY_ENTRIES = "entries";
+    private static final String KEY_REPLACE = "replace";
+    private static final String KEY_ENABLED = "enabled";
+    private static final String KEY_NAME = "name";
+    private static final String KEY_TYPE = "type";
+    private static final String KEY_IF_VERSION = "ifVersion";
+    private static final String KEY_IF_NONE_MATCH = "ifNoneMatch";
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_NOT_MODIFIED = "notModified";
+    private static final String KEY_ID = "id";
+    private static final String KEY_CHANGES = "changes";
+    private static final String KEY_SUBSCRIPTIONS = "subscriptions";
+    private static final String EVENT_ITEMS_CHANGED = "itemsChanged";
+    private static final String KEY_DATA = "data";
+    private static final String KEY_PATH = "path";
+    private static final String KEY_PATCH = "patch";
+    private static final String KEY_MODE = "mode";
+    private static final String KEY_PREFIX = "prefix";
+    private static final String KEY_START = "start";
+    private static final String KEY_END = "end";
+    private static final String KEY_CURSOR = "cursor";
+    private static final String KEY_LIMIT = "limit";
+    private static final String KEY_TTL_MS = "ttlMs";
+    private static final String KEY_MAX_ENTRIES = "maxEntries";
+    private static final String KEY_MAX_BYTES = "maxBytes";
+    private static final String KEY_APP_WIDGET_ID = "appWidgetId";
+    private static final String KEY_APP_WIDGET_IDS = "appWidgetIds";
+    private static final String KEY_FLUSH_MS = "flushMs";
+    private static final String KEY_MAX_PENDING_KEYS = "maxPendingKeys";
+    private static final String KEY_THRESHOLD = "threshold";
+    private static final String KEY_SAMPLES = "samples";
+    private static final String KEY_DICTIONARY_BYTES = "dictionaryBytes";
+    static final int DEFAULT_PAGE_LIMIT = 100;
+    static final int MAX_PAGE_LIMIT = 1000;
+    private static final String CONFIG_RELOAD_DEBOUNCE_MS = "reloadDebounceMs";
+    private static final String CONFIG_RELOAD_MAX_LATENCY_MS = "reloadMaxLatencyMs";
+    private static final String CONFIG_AUTO_RELOAD = "autoReload";
+    private static final String CONFIG_STORAGE = "storage";
+    private static final String CONFIG_LARGE_VALUE_THRESHOLD = "largeValueThreshold";
+    private static final String CONFIG_IMAGE_GROUP_MAX_BYTES = "imageGroupMaxBytes";
+    private static final String CONFIG_CHANGE_EVENT_WINDOW_MS = "changeEventWindowMs";
+    private static final String CONFIG_WRITE_MODE = "writeMode";
+    private static final String CONFIG_WRITE_FLUSH_MS = "writeFlushMs";
+    private static final String CONFIG_WRITE_MAX_PENDING_KEYS = "writeMaxPendingKeys";
+    private static final String CONFIG_EXPIRY_SWEEP_MS = "expirySweepMs";
+    private static final String CONFIG_METRICS = "metrics";
+    private static final String CONFIG_WARM_UP_GROUPS = "warmUpGroups";
+    private static final String CONFIG_WARM_UP_PROVIDERS = "warmUpProviders";
+    static final long DEFAULT_EXPIRY_SWEEP_MS = 60000;
 
-    private String[] registeredWidgetProviders = new String[]{};
+    private final Map<String, GroupReadCache> readCaches = new ConcurrentHashMap<>();
 
-    private SharedPreferences getPrefs(String group) {
-        return getContext().getSharedPreferences(group, Context.MODE_PRIVATE);
+    private final ReloadScheduler reloadScheduler =
+        new ReloadScheduler(new Handler(Looper.getMainLooper()), this::sendUpdateBroadcast);
+
+    private volatile boolean autoReload;
+
+    private final ChangeNotifier changeNotifier =
+        new ChangeNotifier(new Handler(Looper.getMainLooper()), this::sendChangeEvent);
+
+    /** Subscription id -> group and key patterns; guarded by itself. */
+    private final Map<String, Subscription> subscriptions = new LinkedHashMap<>();
+    private int lastSubscriptionId;
+    private volatile DependencyIndex subscriptionIndex = DependencyIndex.EMPTY;
+
+    private volatile int largeValueThreshold = LargeValueStore.DEFAULT_THRESHOLD;
+
+    private LargeValueStore largeValues;
+
+    private volatile long imageGroupMaxBytes = ImageStore.DEFAULT_MAX_GROUP_BYTES;
+
+    private ImageStore images;
+
+    private volatile String writeMode = WriteBehindPreferences.MODE_APPLY;
+    private volatile long writeFlushMs = WriteBehindPreferences.DEFAULT_FLUSH_MS;
+    private volatile int writeMaxPendingKeys = WriteBehindPreferences.DEFAULT_MAX_PENDING_KEYS;
+    /** Runs timed flushes and expiry sweeps. */
+    private final Handler timerHandler = new Handler(Looper.getMainLooper());
+    /** Groups with a timed flush posted to {@link #timerHandler}. */
+    private final Set<String> scheduledFlushes = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    /** Only groups that use expiry or a quota have an entry. */
+    private final Map<String, GroupRetention> retentions = new ConcurrentHashMap<>();
+    private volatile long expirySweepMs = DEFAULT_EXPIRY_SWEEP_MS;
+    private final AtomicBoolean sweepScheduled = new AtomicBoolean();
+    private final Runnable expirySweep = this::sweepExpired;
+
+    private final WidgetBridgeMetrics metrics = WidgetBridgeMetrics.getInstance();
+    private final WarmUpStats warmUpStats = WarmUpStats.startingNow();
+
+    private final GroupExecutors executors;
+    /** Measures TTLs. */
+    private final GroupRetention.Clock clock;
+
+    /** Applies writes made through {@link WidgetBridgeContentProvider}, like a {@code setItems} call without TTL. */
+    private final WidgetBridgeContentProvider.Writer remoteWriter = new WidgetBridgeContentProvider.Writer() {
+        @Override
+        public Executor laneOf(String group) {
+            return executors.forGroup(group);
+        }
+
+        @Override
+        public List<String> write(String group, Map<String, ?> values, Collection<String> removals) {
+            List<String> changed = writeItems(group, values, removals);
+            setExpiry(group, values.keySet(), null);
+            return changed;
+        }
+    };
+
+    public WidgetBridgePlugin() {
+        this(GroupExecutors.shared());
+    }
+
+    WidgetBridgePlugin(GroupExecutors executors) {
+        this(executors, GroupRetention.SYSTEM_CLOCK);
+    }
+
+    WidgetBridgePlugin(GroupExecutors executors, GroupRetention.Clock clock) {
+        this.executors = executors;
+        this.clock = clock;
+    }
+
+    @Override
+    public void load() {
+        PluginConfig config = getConfig();
+        reloadScheduler.configure(
+            config.getInt(CONFIG_RELOAD_DEBOUNCE_MS, (int) ReloadScheduler.DEFAULT_DEBOUNCE_MS),
+            config.getInt(CONFIG_RELOAD_MAX_LATENCY_MS, (int) ReloadScheduler.DEFAULT_MAX_LATENCY_MS)
+        );
+        autoReload = config.getBoolean(CONFIG_AUTO_RELOAD, false);
+
+        largeValueThreshold = config.getInt(CONFIG_LARGE_VALUE_THRESHOLD, LargeValueStore.DEFAULT_THRESHOLD);
+        WidgetBridgeStore.setLargeValueThreshold(getContext(), largeValueThreshold);
+        changeNotifier.setWindowMs(config.getInt(CONFIG_CHANGE_EVENT_WINDOW_MS, (int) ChangeNotifier.DEFAULT_WINDOW_MS));
+        imageGroupMaxBytes = config.getInt(CONFIG_IMAGE_GROUP_MAX_BYTES, (int) ImageStore.DEFAULT_MAX_GROUP_BYTES);
+
+        String mode = config.getString(CONFIG_WRITE_MODE, WriteBehindPreferences.MODE_APPLY);
+        if (WriteBehindPreferences.isMode(mode)) {
+            writeMode = mode;
+        } else {
+            Logger.warn(getLogTag(), "Unknown write mode: " + mode);
+        }
+        writeFlushMs = config.getInt(CONFIG_WRITE_FLUSH_MS, (int) WriteBehindPreferences.DEFAULT_FLUSH_MS);
+        writeMaxPendingKeys = config.getInt(CONFIG_WRITE_MAX_PENDING_KEYS, WriteBehindPreferences.DEFAULT_MAX_PENDING_KEYS);
+        expirySweepMs = Math.max(1000, config.getInt(CONFIG_EXPIRY_SWEEP_MS, (int) DEFAULT_EXPIRY_SWEEP_MS));
+        metrics.setEnabled(config.getBoolean(CONFIG_METRICS, false));
+
+        String storage = config.getString(CONFIG_STORAGE, WidgetBridgeStore.BACKEND_SHARED_PREFERENCES);
+        try {
+            WidgetBridgeStore.setBackend(getContext(), storage);
+        } catch (IllegalArgumentException e) {
+            Logger.warn(getLogTag(), e.getMessage());
+            WidgetBridgeStore.setBackend(getContext(), WidgetBridgeStore.BACKEND_SHARED_PREFERENCES);
+        }
+
+        WidgetBridgeContentProvider.setWriter(remoteWriter);
+
+        String[] warmUpGroups = config.getArray(CONFIG_WARM_UP_GROUPS, new String[0]);
+        warmUp(Arrays.asList(warmUpGroups), config.getBoolean(CONFIG_WARM_UP_PROVIDERS, false));
+
+        // Last, so due entries are written to the backend chosen above.
+        getTimeline().resume(System.currentTimeMillis());
+    }
+
+    /**
+     * Loads groups and resolves the registered providers in the background. The work is queued
+     * first on the lanes the bridge calls use, so an early call waits for it and then finds
+     * everything in memory instead of loading it again. Group names the bridge calls would reject
+     * are skipped.
+     */
+    void warmUp(List<String> groups, boolean providers) {
+        for (String group : groups) {
+            if (group.contains(WidgetBridgeStore.INSTANCE_SEPARATOR)) {
+                Logger.warn(getLogTag(), "Warm-up skips " + group + ": group names cannot contain " + WidgetBridgeStore.INSTANCE_SEPARATOR);
+                continue;
+            }
+            executors.forGroup(group).execute(() -> {
+                try {
+                    getReadCache(group);
+                    warmUpStats.onGroupReady(group);
+                } catch (RuntimeException e) {
+                    Logger.warn(getLogTag(), "Warm-up of " + group + " failed: " + e.getMessage());
+                }
+            });
+        }
+        if (providers) {
+            executors.forProviders().execute(() -> {
+                try {
+                    warmUpStats.onProvidersReady(getRegistry().warmUp());
+                } catch (RuntimeException e) {
+                    Logger.warn(getLogTag(), "Warm-up of providers failed: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    @Override
+    protected void handleOnPause() {
+        // The process may be killed any time after this, so buffered writes must not wait.
+        WidgetBridgeStore.flushAll(false);
+        super.handleOnPause();
+    }
+
+    @Override
+    protected void handleOnDestroy() {
+        WidgetBridgeContentProvider.clearWriter(remoteWriter);
+        WidgetBridgeStore.flushAll(true);
+        reloadScheduler.flush();
+        super.handleOnDestroy();
+    }
+
+    private WriteBehindPreferences getPrefs(String group) {
+        return WidgetBridgeStore.openBuffered(getContext(), group);
+    }
+
+    /**
+     * Only called from the group's own lane, so the first load of a group never holds a lock that
+     * other groups could be waiting on.
+     */
+    private GroupReadCache getReadCache(String group) {
+        GroupReadCache cache = readCaches.get(group);
+        if (cache == null) {
+            cache = new GroupReadCache(getPrefs(group), (key, version) -> onCacheChanged(group, key, version));
+            readCaches.put(group, cache);
+            // Expiry times set in an earlier process keep counting down.
+            SharedPreferences expiryPrefs = getExpiryPrefs(group);
+            if (!expiryPrefs.getAll().isEmpty()) {
+                createRetention(group, cache, expiryPrefs);
+            }
+        }
+        return cache;
+    }
+
+    private SharedPreferences getExpiryPrefs(String group) {
+        return GroupRetention.expiryPrefs(getContext(), group);
+    }
+
+    /**
+     * Only called from the group's own lane.
+     */
+    private GroupRetention getRetention(String group) {
+        GroupRetention retention = retentions.get(group);
+        if (retention == null) {
+            retention = createRetention(group, getReadCache(group), getExpiryPrefs(group));
+        }
+        return retention;
+    }
+
+    private GroupRetention createRetention(String group, GroupReadCache cache, SharedPreferences expiryPrefs) {
+        GroupRetention retention = new GroupRetention(expiryPrefs, clock);
+        for (String key : cache.keys(null, true, null, Integer.MAX_VALUE)) {
+            retention.onChanged(key, cache.get(key));
+        }
+        retentions.put(group, retention);
+        if (retention.hasExpiringKeys()) {
+            scheduleExpirySweep();
+        }
+        return retention;
+    }
+
+    private LargeValueStore getLargeValues() {
+        LargeValueStore store = largeValues;
+        if (store == null) {
+            store = LargeValueStore.forContext(getContext());
+            largeValues = store;
+        }
+        return store;
+    }
+
+    private ImageStore getImages() {
+        ImageStore store = images;
+        if (store == null) {
+            store = ImageStore.forContext(getContext());
+            images = store;
+        }
+        store.setMaxGroupBytes(imageGroupMaxBytes);
+        return store;
+    }
+
+    /**
+     * Returns the cached value of a key, reading it from its file when the group only holds a
+     * reference and decompressing it when the group stores it compressed.
+     */
+    private Object readItem(String group, GroupReadCache cache, String key) {
+        Object value = cache.get(key);
+        if (!LargeValueStore.isReference(value) && !ValueCompression.isCompressed(value)) {
+            return value;
+        }
+        try {
+            return LargeValueStore.isReference(value)
+                ? getLargeValues().read(group, key)
+                : getCompression().decode(group, (String) value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ValueCompression getCompression() {
+        return ValueCompression.getInstance(getContext());
+    }
+
+    /**
+     * The timeline, writing due entries through this plugin.
+     */
+    private WidgetTimeline getTimeline() {
+        WidgetTimeline timeline = WidgetTimeline.getInstance(getContext());
+        timeline.setWriter(this::writeTimelineValues);
+        return timeline;
+    }
+
+    /**
+     * Writes due timeline values on the lane of their group, so they get the large-value,
+     * compression and expiry handling of a {@code setItems} call and keep their order with it.
+     */
+    private void writeTimelineValues(String group, Map<String, Object> due) {
+        executors.forGroup(group).execute(() -> {
+            try {
+                Map<String, Object> values = new HashMap<>();
+                List<String> removals = new ArrayList<>();
+                for (Map.Entry<String, Object> entry : due.entrySet()) {
+                    if (entry.getValue() == null) {
+                        removals.add(entry.getKey());
+                    } else {
+                        values.put(entry.getKey(), TypedValues.convert(entry.getValue(), null));
+                    }
+                }
+                List<String> changed = writeItems(group, values, removals);
+                setExpiry(group, values.keySet(), null);
+                // Auto reload only reaches providers with declared dependencies.
+                if (!changed.isEmpty() && (!autoReload || getRegistry().getDependencies().isEmpty())) {
+                    WidgetTimeline.updateProviders(getContext(), group, new HashSet<>(changed));
+                }
+            } catch (RuntimeException e) {
+                Logger.warn(getLogTag(), "Timeline write to " + group + " failed: " + e.getMessage());
+            }
+        });
+    }
+
+    private WidgetProviderRegistry getRegistry() {
+        return WidgetProviderRegistry.getInstance(getContext());
     }
 
     @PluginMethod
     public void getItem(PluginCall call) {
+        metrics.begin(call);
         String key = call.getString("key");
-        String group = call.getString(KEY_GROUP);
+        String group = groupOf(call);
 
         if (key == null || group == null) {
-            call.reject("Missing key or group");
+            reject(call, "Missing key or group");
             return;
         }
 
-        SharedPreferences prefs = getPrefs(group);
-        // Handle any primitive type, not just String, to be more robust.
-        Object value = prefs.getAll().get(key);
+        Long ifVersion = call.getLong(KEY_IF_VERSION);
+        String ifNoneMatch = call.getString(KEY_IF_NONE_MATCH);
 
-        JSObject result = new JSObject();
-        result.put(KEY_RESULTS, value != null ? value : JSONObject.NULL);
-        call.resolve(result);
+        runOnGroup(call, group, () -> {
+            GroupReadCache cache = getReadCache(group);
+            expireDue(group);
+            touch(group, Collections.singletonList(key));
+            long version = cache.getVersion(key);
+            if (isNotModified(version, ifVersion, ifNoneMatch)) {
+                resolve(call, versioned(new JSObject().put(KEY_NOT_MODIFIED, true), version));
+                return;
+            }
+
+            // Handle any primitive type, not just String, to be more robust.
+            Object value = readItem(group, cache, key);
+
+            JSObject result = new JSObject();
+            result.put(KEY_RESULTS, toJsValue(value));
+            warmUpStats.onDataResolved();
+            resolve(call, versioned(result, version));
+        });
     }
 
     @PluginMethod
     public void setItem(PluginCall call) {
+        metrics.begin(call);
         String key = call.getString("key");
-        String group = call.getString(KEY_GROUP);
-        String value = call.getString("value");
+        String group = groupOf(call);
+        Object value = call.getData().opt("value");
+        String type = call.getString(KEY_TYPE);
+        Long ttlMs = call.getLong(KEY_TTL_MS);
 
-        if (key == null || group == null || value == null) {
-            call.reject("Missing key, group, or value");
+        if (key == null || group == null || value == null || value == JSONObject.NULL) {
+            reject(call, "Missing key, group, or value");
+            return;
+        }
+
+        boolean structured = TypedValues.TYPE_JSON.equals(type);
+        Map<String, Object> values = new HashMap<>();
+        try {
+            if (structured) {
+                TypedValues.flatten(key, value, values);
+            } else {
+                values.put(key, TypedValues.convert(value, type));
+            }
+        } catch (IllegalArgumentException e) {
+            reject(call, e.getMessage());
             return;
         }
 
-        SharedPreferences.Editor editor = getPrefs(group).edit();
-        editor.putString(key, value);
-        editor.apply();
-        call.resolve(new JSObject().put(KEY_RESULTS, true));
+        runOnGroup(call, group, () -> {
+            List<String> removals = new ArrayList<>();
+            if (structured) {
+                // Leaves of the previous object that the new one no longer has.
+                String prefix = key + TypedValues.SEPARATOR;
+                for (String existing : getReadCache(group).keys()) {
+                    if ((existing.equals(key) || existing.startsWith(prefix)) && !values.containsKey(existing)) {
+                        removals.add(existing);
+                    }
+                }
+            }
+            writeItems(group, values, removals);
+            setExpiry(group, values.keySet(), ttlMs);
+            resolve(call, new JSObject().put(KEY_RESULTS, true));
+        });
+    }
+
+    @PluginMethod
+    public void patchItem(PluginCall call) {
+        metrics.begin(call);
+        String key = call.getString("key");
+        String group = groupOf(call);
+        Object patch = call.getData().opt(KEY_PATCH);
+        String type = call.getString(KEY_TYPE);
+
+        if (key == null || group == null || patch == null) {
+            reject(call, "Missing key, group, or patch");
+            return;
+        }
+        if (type != null && !TypedValues.TYPE_JSON.equals(type)) {
+            reject(call, "Only type json can be patched");
+            return;
+        }
+
+        // Read, merge and write all happen on the group lane, so no other write to the group can
+        // land in between.
+        runOnGroup(call, group, () -> {
+            GroupReadCache cache = getReadCache(group);
+            Map<String, Object> values = new HashMap<>();
+            List<String> removals = new ArrayList<>();
+            if (type != null) {
+                try {
+                    JsonMergePatch.applyFlattened(key, patch, cache.sortedKeys(), values, removals);
+                } catch (IllegalArgumentException e) {
+                    reject(call, e.getMessage());
+                    return;
+                }
+            } else {
+                Object stored = readItem(group, cache, key);
+                if (stored != null && !(stored instanceof String)) {
+                    reject(call, "Value of " + key + " is not a JSON string");
+                    return;
+                }
+                Object patched;
+                try {
+                    Object target = stored != null ? JsonMergePatch.parse((String) stored) : null;
+                    patched = JsonMergePatch.apply(target, patch);
+                } catch (JSONException e) {
+                    reject(call, "Value of " + key + " is not valid JSON: " + e.getMessage());
+                    return;
+                }
+                if (patched == JSONObject.NULL) {
+                    removals.add(key);
+                } else {
+                    values.put(key, JsonMergePatch.toJson(patched));
+                }
+            }
+            long version = cache.getVersion(key);
+            for (String changed : writeItems(group, values, removals)) {
+                version = Math.max(version, cache.getVersion(changed));
+            }
+            resolve(call, versioned(new JSObject().put(KEY_RESULTS, true), version));
+        });
     }
 
     @PluginMethod
     public void removeItem(PluginCall call) {
+        metrics.begin(call);
         String key = call.getString("key");
-        String group = call.getString(KEY_GROUP);
+        String group = groupOf(call);
 
         if (key == null || group == null) {
-            call.reject("Missing key or group");
+            reject(call, "Missing key or group");
             return;
         }
 
-        SharedPreferences.Editor editor = getPrefs(group).edit();
-        editor.remove(key);
-        editor.apply();
-        call.resolve(new JSObject().put(KEY_RESULTS, true));
+        runOnGroup(call, group, () -> {
+            writeItems(group, Collections.<String, Object>emptyMap(), Collections.singletonList(key));
+            resolve(call, new JSObject().put(KEY_RESULTS, true));
+        });
     }
 
     @PluginMethod
-    public void reloadAllTimelines(PluginCall call) {
-        Context context = getContext();
-        List<String> errors = new ArrayList<>();
+    public void getItems(PluginCall call) {
+        metrics.begin(call);
+        String group = groupOf(call);
+        JSArray keys = call.getArray(KEY_KEYS);
+
+        if (group == null || keys == null) {
+            reject(call, "Missing keys or group");
+            return;
+        }
+
+        List<String> requested = toStringList(keys);
+        Long ifVersion = call.getLong(KEY_IF_VERSION);
+        String ifNoneMatch = call.getString(KEY_IF_NONE_MATCH);
+
+        runOnGroup(call, group, () -> {
+            GroupReadCache cache = getReadCache(group);
+            expireDue(group);
+            touch(group, requested);
+            // Versions come from one increasing counter, so the newest one covers every key read.
+            long version = 0;
+            for (String key : requested) {
+                version = Math.max(version, cache.getVersion(key));
+            }
+            if (isNotModified(version, ifVersion, ifNoneMatch)) {
+                resolve(call, versioned(new JSObject().put(KEY_NOT_MODIFIED, true), version));
+                return;
+            }
+
+            JSObject values = new JSObject();
+            for (String key : requested) {
+                values.put(key, toJsValue(readItem(group, cache, key)));
+            }
+            warmUpStats.onDataResolved();
+            resolve(call, versioned(new JSObject().put(KEY_RESULTS, values), version));
+        });
+    }
+
+    @PluginMethod
+    public void setItems(PluginCall call) {
+        metrics.begin(call);
+        String group = groupOf(call);
+        JSObject values = call.getObject(KEY_VALUES);
+        JSArray remove = call.getArray(KEY_REMOVE);
+        Long ttlMs = call.getLong(KEY_TTL_MS);
+
+        if (group == null || (values == null && remove == null)) {
+            reject(call, "Missing group, values, or remove");
+            return;
+        }
+
+        JSObject results = new JSObject();
+        Map<String, Object> written = new HashMap<>();
+        List<String> removed = remove != null ? toStringList(remove) : new ArrayList<>();
+
+        for (String key : removed) {
+            results.put(key, true);
+        }
+
+        if (values != null) {
+            Iterator<String> it = values.keys();
+            while (it.hasNext()) {
+                String key = it.next();
+                try {
+                    written.put(key, TypedValues.convert(values.opt(key), null));
+                    results.put(key, true);
+                } catch (IllegalArgumentException e) {
+                    results.put(key, false);
+                }
+            }
+        }
+
+        runOnGroup(call, group, () -> {
+            writeItems(group, written, removed);
+            setExpiry(group, written.keySet(), ttlMs);
+            resolve(call, new JSObject().put(KEY_RESULTS, results));
+        });
+    }
+
+    @PluginMethod
+    public void removeItems(PluginCall call) {
+        metrics.begin(call);
+        String group = groupOf(call);
+        JSArray keys = call.getArray(KEY_KEYS);
+
+        if (group == null || keys == null) {
+            reject(call, "Missing keys or group");
+            return;
+        }
+
+        List<String> removed = toStringList(keys);
+        runOnGroup(call, group, () -> {
+            GroupReadCache cache = getReadCache(group);
+            JSObject results = new JSObject();
+            for (String key : removed) {
+                results.put(key, cache.get(key) != null);
+            }
+            writeItems(group, Collections.<String, Object>emptyMap(), removed);
+            resolve(call, new JSObject().put(KEY_RESULTS, results));
+        });
+    }
+
+    @PluginMethod
+    public void getKeys(PluginCall call) {
+        metrics.begin(call);
+        String group = groupOf(call);
+        if (group == null) {
+            reject(call, "Missing group");
+            return;
+        }
+
+        runOnGroup(call, group, () -> {
+            GroupReadCache cache = getReadCache(group);
+            expireDue(group);
+            List<String> keys = listKeys(call, cache);
+            int limit = pageLimit(call);
+            JSObject result = new JSObject();
+            result.put(KEY_RESULTS, new JSArray(keys.subList(0, Math.min(limit, keys.size()))));
+            resolve(call, withCursor(result, keys, limit));
+        });
+    }
+
+    @PluginMethod
+    public void getItemsByPrefix(PluginCall call) {
+        metrics.begin(call);
+        String group = groupOf(call);
+        if (group == null || call.getString(KEY_PREFIX) == null) {
+            reject(call, "Missing group or prefix");
+            return;
+        }
+
+        runOnGroup(call, group, () -> {
+            GroupReadCache cache = getReadCache(group);
+            expireDue(group);
+            List<String> keys = listKeys(call, cache);
+            int limit = pageLimit(call);
+            touch(group, keys.subList(0, Math.min(limit, keys.size())));
+            JSObject values = new JSObject();
+            for (String key : keys.subList(0, Math.min(limit, keys.size()))) {
+                values.put(key, toJsValue(readItem(group, cache, key)));
+            }
+            warmUpStats.onDataResolved();
+            resolve(call, withCursor(new JSObject().put(KEY_RESULTS, values), keys, limit));
+        });
+    }
+
+    @PluginMethod
+    public void setGroupQuota(PluginCall call) {
+        metrics.begin(call);
+        String group = groupOf(call);
+        Integer maxEntries = call.getInt(KEY_MAX_ENTRIES);
+        Long maxBytes = call.getLong(KEY_MAX_BYTES);
+
+        if (group == null || (maxEntries == null && maxBytes == null)) {
+            reject(call, "Missing group, maxEntries, or maxBytes");
+            return;
+        }
+
+        runOnGroup(call, group, () -> {
+            GroupRetention retention = getRetention(group);
+            retention.setQuota(maxEntries != null ? maxEntries : 0, maxBytes != null ? maxBytes : 0);
+            evictOverQuota(group, retention, Collections.<String>emptySet());
+            resolve(call, new JSObject().put(KEY_RESULTS, true));
+        });
+    }
 
-        for (String className : registeredWidgetProviders) {
+    @PluginMethod
+    public void setCompression(PluginCall call) {
+        metrics.begin(call);
+        String group = groupOf(call);
+        Integer threshold = call.getInt(KEY_THRESHOLD);
+        JSArray samples = call.getArray(KEY_SAMPLES);
+        int dictionaryBytes = call.getInt(KEY_DICTIONARY_BYTES, ValueCompression.DEFAULT_DICTIONARY_BYTES);
+
+        if (group == null || threshold == null) {
+            reject(call, "Missing group or threshold");
+            return;
+        }
+
+        List<String> sampleList = samples != null ? toStringList(samples) : Collections.<String>emptyList();
+        // Training scans every sample, so it runs on the group lane rather than the bridge thread.
+        runOnGroup(call, group, () -> {
+            int size = getCompression().configure(group, Math.max(0, threshold), sampleList, dictionaryBytes);
+            resolve(call, new JSObject().put(KEY_RESULTS, new JSObject().put(KEY_DICTIONARY_BYTES, size)));
+        });
+    }
+
+    @PluginMethod
+    public void getCompressionStats(PluginCall call) {
+        metrics.begin(call);
+        String group = groupOf(call);
+        if (group == null) {
+            reject(call, "Missing group");
+            return;
+        }
+
+        runOnGroup(call, group, () -> resolve(call, new JSObject().put(KEY_RESULTS, getCompression().getStats(group))));
+    }
+
+    @PluginMethod
+    public void getRetentionStats(PluginCall call) {
+        metrics.begin(call);
+        String group = groupOf(call);
+        if (group == null) {
+            reject(call, "Missing group");
+            return;
+        }
+
+        runOnGroup(call, group, () -> {
+            getReadCache(group);
+            expireDue(group);
+            resolve(call, new JSObject().put(KEY_RESULTS, getRetention(group).getStats()));
+        });
+    }
+
+    @PluginMethod
+    public void setWriteOptions(PluginCall call) {
+        metrics.begin(call);
+        String mode = call.getString(KEY_MODE);
+        Integer flushMs = call.getInt(KEY_FLUSH_MS);
+        Integer maxPendingKeys = call.getInt(KEY_MAX_PENDING_KEYS);
+
+        if (mode == null && flushMs == null && maxPendingKeys == null) {
+            reject(call, "Missing mode, flushMs, or maxPendingKeys");
+            return;
+        }
+        if (mode != null && !WriteBehindPreferences.isMode(mode)) {
+            reject(call, "Unknown write mode: " + mode);
+            return;
+        }
+
+        if (flushMs != null) {
+            writeFlushMs = Math.max(0, flushMs);
+        }
+        if (maxPendingKeys != null) {
+            writeMaxPendingKeys = Math.max(1, maxPendingKeys);
+        }
+        if (mode == null || mode.equals(writeMode)) {
+            resolve(call, new JSObject().put(KEY_RESULTS, true));
+            return;
+        }
+        writeMode = mode;
+        // Leaving buffered mode: write out what is still buffered once the queued writes have run.
+        runAfterPendingWrites(call, () -> {
+            WidgetBridgeStore.flushAll(WriteBehindPreferences.MODE_COMMIT.equals(mode));
+            resolve(call, new JSObject().put(KEY_RESULTS, true));
+        });
+    }
+
+    @PluginMethod
+    public void flush(PluginCall call) {
+        metrics.begin(call);
+        String group = groupOf(call);
+        if (group == null) {
+            runAfterPendingWrites(call, () -> resolve(call, new JSObject().put(KEY_RESULTS, WidgetBridgeStore.flushAll(true))));
+            return;
+        }
+        runOnGroup(call, group, () -> resolve(call, new JSObject().put(KEY_RESULTS, getPrefs(group).flush(true))));
+    }
+
+    @PluginMethod
+    public void setImage(PluginCall call) {
+        metrics.begin(call);
+        String group = call.getString(KEY_GROUP);
+        String name = call.getString(KEY_NAME);
+        String data = call.getString(KEY_DATA);
+        String path = call.getString(KEY_PATH);
+
+        if (group == null || name == null) {
+            reject(call, "Missing group or name");
+            return;
+        }
+        if (data == null && path == null) {
+            reject(call, "Missing data or path");
+            return;
+        }
+
+        runOnGroup(call, group, () -> {
+            byte[] bytes;
             try {
-                Class<?> widgetClass = Class.forName(className);
-                ComponentName componentName = new ComponentName(context, widgetClass);
-                int[] ids = AppWidgetManager.getInstance(context).getAppWidgetIds(componentName);
-                if (ids.length > 0) {
-                    Intent updateIntent = new Intent(context, widgetClass);
-                    updateIntent.setAction(AppWidgetManager.ACTION_APPWIDGET_UPDATE);
-                    updateIntent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS, ids);
-                    context.sendBroadcast(updateIntent);
+                bytes = data != null ? decodeBase64(data) : readFile(path);
+            } catch (IllegalArgumentException e) {
+                reject(call, "Invalid base64 data");
+                return;
+            } catch (IOException e) {
+                reject(call, "Cannot read image file: " + e.getMessage());
+                return;
+            }
+
+            ImageStore store = getImages();
+            List<File> evicted;
+            try {
+                evicted = store.write(group, name, bytes);
+            } catch (IllegalArgumentException e) {
+                reject(call, e.getMessage());
+                return;
+            } catch (IOException e) {
+                reject(call, "Failed to write image: " + e.getMessage(), e);
+                return;
+            }
+            WidgetImages.invalidate(store.fileFor(group, name));
+            List<String> evictedNames = new ArrayList<>();
+            for (File file : evicted) {
+                WidgetImages.invalidate(file);
+                evictedNames.add(ImageStore.nameOf(file));
+            }
+
+            JSObject result = new JSObject();
+            result.put("uri", Uri.fromFile(store.fileFor(group, name)).toString());
+            result.put("size", bytes.length);
+            result.put("evicted", new JSArray(evictedNames));
+            resolve(call, new JSObject().put(KEY_RESULTS, result));
+        });
+    }
+
+    @PluginMethod
+    public void removeImage(PluginCall call) {
+        metrics.begin(call);
+        String group = call.getString(KEY_GROUP);
+        String name = call.getString(KEY_NAME);
+
+        if (group == null || name == null) {
+            reject(call, "Missing group or name");
+            return;
+        }
+
+        runOnGroup(call, group, () -> {
+            ImageStore store = getImages();
+            boolean removed = store.delete(group, name);
+            WidgetImages.invalidate(store.fileFor(group, name));
+            resolve(call, new JSObject().put(KEY_RESULTS, removed));
+        });
+    }
+
+    @PluginMethod
+    public void reloadAllTimelines(PluginCall call) {
+        metrics.begin(call);
+        runAfterPendingWrites(call, () -> {
+            WidgetProviderRegistry registry = getRegistry();
+            List<String> errors = new ArrayList<>();
+
+            for (String className : registry.getRegisteredProviders()) {
+                try {
+                    WidgetProviderRegistry.Entry entry = registry.resolve(className);
+                    reloadScheduler.request(entry, registry.getWidgetIds(entry));
+                } catch (ClassNotFoundException e) {
+                    String errorMsg = "Widget class not found: " + className;
+                    errors.add(errorMsg);
                 }
-            } catch (ClassNotFoundException e) {
-                String errorMsg = "Widget class not found: " + className;
-                errors.add(errorMsg);
             }
+
+            if (errors.isEmpty()) {
+                resolve(call, new JSObject().put(KEY_RESULTS, true));
+            } else {
+                reject(call, "Failed to reload some timelines: " + String.join(", ", errors));
+            }
+        });
+    }
+
+    @PluginMethod
+    public void setTimeline(PluginCall call) {
+        metrics.begin(call);
+        String group = groupOf(call);
+        JSArray entries = call.getArray(KEY_ENTRIES);
+
+        if (group == null || entries == null) {
+            reject(call, "Missing group or entries");
+            return;
         }
 
-        if (errors.isEmpty()) {
-            call.resolve(new JSObject().put(KEY_RESULTS, true));
-        } else {
-            call.reject("Failed to reload some timelines: " + String.join(", ", errors));
+        boolean replace = call.getBoolean(KEY_REPLACE, true);
+        runOnGroup(call, group, () -> {
+            try {
+                int pending = getTimeline().set(group, entries, replace, System.currentTimeMillis());
+                resolve(call, new JSObject().put(KEY_RESULTS, pending));
+            } catch (JSONException | IllegalArgumentException e) {
+                reject(call, "Invalid timeline: " + e.getMessage());
+            }
+        });
+    }
+
+    @PluginMethod
+    public void clearTimeline(PluginCall call) {
+        metrics.begin(call);
+        String group = groupOf(call);
+
+        if (group == null) {
+            reject(call, "Missing group");
+            return;
         }
+
+        runOnGroup(call, group, () -> {
+            getTimeline().clear(group);
+            resolve(call, new JSObject().put(KEY_RESULTS, true));
+        });
     }
 
     @PluginMethod
     public void reloadTimelines(PluginCall call) {
+        metrics.begin(call);
         String kind = call.getString("ofKind");
 
         if (kind == null) {
-            call.reject("Missing ofKind parameter");
+            reject(call, "Missing ofKind parameter");
             return;
         }
 
-        Context context = getContext();
-        try {
-            Class<?> widgetClass = Class.forName(kind);
-            ComponentName componentName = new ComponentName(context, widgetClass);
-            int[] ids = AppWidgetManager.getInstance(context).getAppWidgetIds(componentName);
-            if (ids.length > 0) {
-                Intent updateIntent = new Intent(context, widgetClass);
-                updateIntent.setAction(AppWidgetManager.ACTION_APPWIDGET_UPDATE);
-                updateIntent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS, ids);
-                context.sendBroadcast(updateIntent);
-            }
-            call.resolve(new JSObject().put(KEY_RESULTS, true));
-        } catch (ClassNotFoundException e) {
-            call.reject("Widget class not found: " + kind);
+        runAfterPendingWrites(call, () -> {
+            WidgetProviderRegistry registry = getRegistry();
+            try {
+                WidgetProviderRegistry.Entry entry = registry.resolve(kind);
+                reloadScheduler.request(entry, registry.getWidgetIds(entry));
+                resolve(call, new JSObject().put(KEY_RESULTS, true));
+            } catch (ClassNotFoundException e) {
+                reject(call, "Widget class not found: " + kind);
+            }
+        });
+    }
+
+    @PluginMethod
+    public void updateWidgets(PluginCall call) {
+        metrics.begin(call);
+        JSArray appWidgetIds = call.getArray(KEY_APP_WIDGET_IDS);
+        JSArray keys = call.getArray(KEY_KEYS);
+
+        if (appWidgetIds == null) {
+            reject(call, "Missing appWidgetIds");
+            return;
+        }
+
+        Set<String> changedKeys = keys != null ? new HashSet<>(toStringList(keys)) : null;
+        runAfterPendingWrites(call, () -> {
+            AppWidgetManager manager = AppWidgetManager.getInstance(getContext());
+            WidgetProviderRegistry registry = getRegistry();
+            // Ids of one provider go out in a single broadcast.
+            Map<String, List<Integer>> byProvider = new LinkedHashMap<>();
+            for (int i = 0; i < appWidgetIds.length(); i++) {
+                int id = appWidgetIds.optInt(i, AppWidgetManager.INVALID_APPWIDGET_ID);
+                AppWidgetProviderInfo info = manager.getAppWidgetInfo(id);
+                if (info == null || info.provider == null) {
+                    continue;
+                }
+                String className = info.provider.getClassName();
+                List<Integer> ids = byProvider.get(className);
+                if (ids == null) {
+                    ids = new ArrayList<>();
+                    byProvider.put(className, ids);
+                }
+                ids.add(id);
+            }
+
+            int updated = 0;
+            for (Map.Entry<String, List<Integer>> provider : byProvider.entrySet()) {
+                try {
+                    WidgetProviderRegistry.Entry entry = registry.resolve(provider.getKey());
+                    int[] ids = new int[provider.getValue().size()];
+                    for (int i = 0; i < ids.length; i++) {
+                        ids[i] = provider.getValue().get(i);
+                    }
+                    reloadScheduler.request(entry, ids, changedKeys);
+                    updated += ids.length;
+                } catch (ClassNotFoundException e) {
+                    Logger.warn(getLogTag(), "Widget class not found: " + provider.getKey());
+                }
+            }
+            resolve(call, new JSObject().put(KEY_RESULTS, updated));
+        });
+    }
+
+    @PluginMethod
+    public void setReloadOptions(PluginCall call) {
+        metrics.begin(call);
+        Integer debounceMs = call.getInt(KEY_DEBOUNCE_MS);
+        Integer maxLatencyMs = call.getInt(KEY_MAX_LATENCY_MS);
+
+        if (debounceMs == null && maxLatencyMs == null) {
+            reject(call, "Missing debounceMs or maxLatencyMs");
+            return;
+        }
+
+        reloadScheduler.configure(
+            debounceMs != null ? debounceMs.longValue() : reloadScheduler.getDebounceMs(),
+            maxLatencyMs != null ? maxLatencyMs.longValue() : reloadScheduler.getMaxLatencyMs()
+        );
+        resolve(call, new JSObject().put(KEY_RESULTS, true));
+    }
+
+    @PluginMethod
+    public void getReloadStats(PluginCall call) {
+        metrics.begin(call);
+        resolve(call, new JSObject().put(KEY_RESULTS, reloadScheduler.getStats()));
+    }
+
+    @PluginMethod
+    public void getWarmUpStats(PluginCall call) {
+        metrics.begin(call);
+        resolve(call, new JSObject().put(KEY_RESULTS, warmUpStats.toJson()));
+    }
+
+    @PluginMethod
+    public void getMetrics(PluginCall call) {
+        metrics.begin(call);
+        resolve(call, new JSObject().put(KEY_RESULTS, metrics.toJson()));
+    }
+
+    @PluginMethod
+    public void resetMetrics(PluginCall call) {
+        metrics.begin(call);
+        Boolean enabled = call.getBoolean(KEY_ENABLED);
+        // Resolved before the reset, so this call does not show up in the fresh counts.
+        resolve(call, new JSObject().put(KEY_RESULTS, true));
+        metrics.reset();
+        if (enabled != null) {
+            metrics.setEnabled(enabled);
+        }
+    }
+
+    @PluginMethod
+    public void setWidgetDependencies(PluginCall call) {
+        metrics.begin(call);
+        JSArray dependencies = call.getArray(KEY_DEPENDENCIES);
+        if (dependencies == null) {
+            reject(call, "Missing dependencies array");
+            return;
+        }
+
+        runOnProviders(call, () -> {
+            try {
+                getRegistry().setDependencies(dependencies);
+                resolve(call, new JSObject().put(KEY_RESULTS, true));
+            } catch (JSONException e) {
+                reject(call, "Invalid dependencies: " + e.getMessage());
+            }
+        });
+    }
+
+    @PluginMethod
+    public void setWidgetBindings(PluginCall call) {
+        metrics.begin(call);
+        JSArray bindings = call.getArray(KEY_BINDINGS);
+        if (bindings == null) {
+            reject(call, "Missing bindings array");
+            return;
+        }
+
+        runOnProviders(call, () -> {
+            WidgetProviderRegistry registry = getRegistry();
+            try {
+                registry.setBindings(bindings);
+            } catch (JSONException | IllegalArgumentException e) {
+                reject(call, "Invalid bindings: " + e.getMessage());
+                return;
+            }
+            // Render the new layouts right away instead of on the next write.
+            for (int i = 0; i < bindings.length(); i++) {
+                String className = bindings.optJSONObject(i).optString(KEY_PROVIDER);
+                try {
+                    WidgetProviderRegistry.Entry entry = registry.resolve(className);
+                    reloadScheduler.request(entry, registry.getWidgetIds(entry));
+                } catch (ClassNotFoundException e) {
+                    Logger.warn(getLogTag(), "Widget class not found: " + className);
+                }
+            }
+            resolve(call, new JSObject().put(KEY_RESULTS, true));
+        });
+    }
+
+    @PluginMethod
+    public void setAutoReload(PluginCall call) {
+        metrics.begin(call);
+        Boolean enabled = call.getBoolean(KEY_ENABLED);
+        if (enabled == null) {
+            reject(call, "Missing enabled parameter");
+            return;
+        }
+
+        autoReload = enabled;
+        resolve(call, new JSObject().put(KEY_RESULTS, true));
+    }
+
+    @PluginMethod
+    public void subscribe(PluginCall call) {
+        metrics.begin(call);
+        String group = groupOf(call);
+        JSArray keys = call.getArray(KEY_KEYS);
+
+        if (group == null) {
+            reject(call, "Missing group");
+            return;
+        }
+
+        List<String> patterns = keys != null ? toStringList(keys) : new ArrayList<>();
+        if (patterns.isEmpty()) {
+            patterns.add("*");
+        }
+
+        runOnGroup(call, group, () -> {
+            // Changes are seen by the group's cache, so it has to exist before the first one.
+            getReadCache(group);
+            String id;
+            synchronized (subscriptions) {
+                id = String.valueOf(++lastSubscriptionId);
+                subscriptions.put(id, new Subscription(group, patterns));
+                rebuildSubscriptionIndex();
+            }
+            resolve(call, new JSObject().put(KEY_RESULTS, id));
+        });
+    }
+
+    @PluginMethod
+    public void unsubscribe(PluginCall call) {
+        metrics.begin(call);
+        String id = call.getString(KEY_ID);
+        if (id == null) {
+            reject(call, "Missing id");
+            return;
+        }
+
+        boolean removed;
+        synchronized (subscriptions) {
+            removed = subscriptions.remove(id) != null;
+            rebuildSubscriptionIndex();
         }
+        resolve(call, new JSObject().put(KEY_RESULTS, removed));
     }
 
     @RequiresApi(api = Build.VERSION_CODES.N)
     @PluginMethod
-    public void setRegisteredWidgets(PluginCall call) throws JSONException {
+    public void setRegisteredWidgets(PluginCall call) {
+        metrics.begin(call);
         JSArray widgets = call.getArray("widgets");
         if (widgets == null) {
-            call.reject("Missing widgets array");
+            reject(call, "Missing widgets array");
             return;
         }
 
-        List<String> list = widgets.toList().stream()
-            .filter(String.class::isInstance)
-            .map(String.class::cast)
-            .collect(Collectors.toList());
+        List<String> list;
+        try {
+            list = widgets.toList().stream()
+                .filter(String.class::isInstance)
+                .map(String.class::cast)
+                .collect(Collectors.toList());
+        } catch (JSONException e) {
+            reject(call, "Invalid widgets: " + e.getMessage());
+            return;
+        }
 
-        registeredWidgetProviders = list.toArray(new String[0]);
-        call.resolve(new JSObject().put(KEY_RESULTS, true));
+        runOnProviders(call, () -> {
+            getRegistry().setRegisteredProviders(list);
+            resolve(call, new JSObject().put(KEY_RESULTS, true));
+        });
     }
 
     @PluginMethod
     public void getCurrentConfigurations(PluginCall call) {
+        metrics.begin(call);
         // Nicht direkt umsetzbar wie in iOS
-        call.resolve(new JSObject().put(KEY_RESULTS, "not supported"));
+        resolve(call, new JSObject().put(KEY_RESULTS, "not supported"));
     }
 
     @PluginMethod
     public void requestWidget(PluginCall call) {
+        metrics.begin(call);
         String className = call.getString("className");
 
         if (className == null || className.isEmpty()) {
-            call.reject("Missing or empty 'className' parameter");
+            reject(call, "Missing or empty 'className' parameter");
             return;
         }
 
         Context context = getContext();
 
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
-            call.reject("This feature requires Android O (API level 26) or higher.");
+            reject(call, "This feature requires Android O (API level 26) or higher.");
             return;
         }
 
         try {
-            Class<?> widgetClass = Class.forName(className);
-            ComponentName myWidgetProvider = new ComponentName(context, widgetClass);
+            WidgetProviderRegistry.Entry entry = getRegistry().resolve(className);
+            Class<?> widgetClass = entry.widgetClass;
+            ComponentName myWidgetProvider = entry.componentName;
 
             AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
 
@@ -201,17 +1253,365 @@ public class WidgetBridgePlugin extends Plugin {
                 );
 
                 appWidgetManager.requestPinAppWidget(myWidgetProvider, null, successCallback);
-                call.resolve(new JSObject().put(KEY_RESULTS, true));
+                resolve(call, new JSObject().put(KEY_RESULTS, true));
             } else {
-                call.reject("Pinning not supported");
+                reject(call, "Pinning not supported");
             }
         } catch (ClassNotFoundException e) {
-            call.reject("Widget provider class not found: " + className);
+            reject(call, "Widget provider class not found: " + className);
         } catch (IllegalArgumentException e) {
-            call.reject("Invalid argument: " + e.getMessage());
+            reject(call, "Invalid argument: " + e.getMessage());
         } catch (Exception e) {
-            call.reject("Unexpected error: " + e.getMessage());
+            reject(call, "Unexpected error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs storage work for {@code group} on that group's serial lane, off the bridge thread.
+     */
+    private void runOnGroup(PluginCall call, String group, Runnable task) {
+        String requested = call.getString(KEY_GROUP);
+        if (requested != null && requested.contains(WidgetBridgeStore.INSTANCE_SEPARATOR)) {
+            reject(call, "Group names cannot contain " + WidgetBridgeStore.INSTANCE_SEPARATOR);
+            return;
+        }
+        executors.forGroup(group).execute(guarded(call, task));
+    }
+
+    private void runOnProviders(PluginCall call, Runnable task) {
+        executors.forProviders().execute(guarded(call, task));
+    }
+
+    /**
+     * Runs provider work once the writes queued before this call are applied, so a reload issued
+     * right after a write without awaiting it still renders the new value.
+     */
+    private void runAfterPendingWrites(PluginCall call, Runnable task) {
+        executors.executeAfterPendingWrites(executors.forProviders(), guarded(call, task));
+    }
+
+    private Runnable guarded(PluginCall call, Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                reject(call, "Unexpected error: " + e.getMessage(), e);
+            }
+        };
+    }
+
+    private void resolve(PluginCall call, JSObject result) {
+        metrics.end(call, result);
+        call.resolve(result);
+    }
+
+    private void reject(PluginCall call, String message) {
+        metrics.end(call, null);
+        call.reject(message);
+    }
+
+    private void reject(PluginCall call, String message, Exception e) {
+        metrics.end(call, null);
+        call.reject(message, e);
+    }
+
+    /**
+     * Stages every change of one group on a single editor and applies it once. Values equal to the
+     * cached ones and removals of absent keys are dropped, so identical writes cost no disk write
+     * and trigger no reload. A key present in both {@code values} and {@code removals} ends up set.
+     * Strings from the large-value threshold up are written to their own file first and the group
+     * stores a reference to it. How the group reaches the backend depends on the write mode; changes
+     * to large values always go straight through, so the group never points at a deleted file.
+     *
+     * @return the keys whose stored value actually changed
+     */
+    private List<String> writeItems(String group, Map<String, ?> values, Collection<String> removals) {
+        GroupReadCache cache = getReadCache(group);
+        StagedWrite write = StagedWrite.stage(group, values, removals, cache::get, largeValueThreshold, getLargeValues(), getCompression());
+        if (write.changed.isEmpty()) {
+            return write.changed;
+        }
+        persist(group, write.stored, write.writeThrough);
+        for (String key : write.changed) {
+            cache.put(key, write.stored.get(key));
+        }
+        write.deleteOrphaned(group, getLargeValues());
+
+        onItemsChanged(group, write.changed);
+
+        GroupRetention retention = retentions.get(group);
+        if (retention != null && !values.isEmpty() && retention.hasQuota()) {
+            evictOverQuota(group, retention, values.keySet());
+        }
+        return write.changed;
+    }
+
+    private void evictOverQuota(String group, GroupRetention retention, Set<String> keep) {
+        List<String> victims = retention.overQuota(keep);
+        if (!victims.isEmpty()) {
+            retention.recordEvicted(writeItems(group, Collections.<String, Object>emptyMap(), victims).size());
+        }
+    }
+
+    /**
+     * Sets or clears the expiry of keys just written. Writing a key without a TTL makes it
+     * permanent again.
+     */
+    private void setExpiry(String group, Collection<String> keys, Long ttlMs) {
+        if (ttlMs != null && ttlMs > 0) {
+            getRetention(group).expireAfter(keys, ttlMs);
+            scheduleExpirySweep();
+            return;
+        }
+        GroupRetention retention = retentions.get(group);
+        if (retention != null) {
+            retention.setExpiry(keys, 0);
+        }
+    }
+
+    /**
+     * Removes the keys of a group whose expiry has passed. Runs on the group's lane before every
+     * read, which costs one comparison while nothing is due.
+     */
+    private void expireDue(String group) {
+        GroupRetention retention = retentions.get(group);
+        if (retention == null) {
+            return;
+        }
+        List<String> due = retention.expiredKeys();
+        if (due.isEmpty()) {
+            return;
+        }
+        List<String> removed = writeItems(group, Collections.<String, Object>emptyMap(), due);
+        // Keys removed by someone else in the meantime still have an expiry to drop.
+        retention.setExpiry(due, 0);
+        retention.recordExpired(removed.size());
+    }
+
+    private void touch(String group, Collection<String> keys) {
+        GroupRetention retention = retentions.get(group);
+        if (retention != null) {
+            for (String key : keys) {
+                retention.touch(key);
+            }
+        }
+    }
+
+    private void scheduleExpirySweep() {
+        if (sweepScheduled.compareAndSet(false, true)) {
+            timerHandler.postDelayed(expirySweep, expirySweepMs);
+        }
+    }
+
+    /**
+     * Expires due keys of groups nobody reads, so they do not linger until the next read.
+     */
+    private void sweepExpired() {
+        sweepScheduled.set(false);
+        boolean expiring = false;
+        for (Map.Entry<String, GroupRetention> entry : retentions.entrySet()) {
+            if (entry.getValue().hasExpiringKeys()) {
+                String group = entry.getKey();
+                executors.forGroup(group).execute(() -> expireDue(group));
+                expiring = true;
+            }
+        }
+        if (expiring) {
+            scheduleExpirySweep();
+        }
+    }
+
+    private void persist(String group, Map<String, Object> stored, boolean writeThrough) {
+        WriteBehindPreferences prefs = getPrefs(group);
+        String mode = writeMode;
+        if (!WriteBehindPreferences.MODE_BUFFERED.equals(mode) || writeThrough) {
+            boolean traced = metrics.beginSection("persist");
+            try {
+                prefs.write(stored, WriteBehindPreferences.MODE_COMMIT.equals(mode));
+            } finally {
+                metrics.endSection(traced);
+            }
+            return;
+        }
+        if (prefs.buffer(stored) >= writeMaxPendingKeys) {
+            prefs.flush(false);
+        } else if (scheduledFlushes.add(group)) {
+            timerHandler.postDelayed(() -> {
+                scheduledFlushes.remove(group);
+                executors.forGroup(group).execute(() -> getPrefs(group).flush(false));
+            }, writeFlushMs);
+        }
+    }
+
+    /**
+     * Lists the keys of one page of a {@code getKeys} or {@code getItemsByPrefix} call: those
+     * starting with {@code prefix}, from {@code start} (inclusive) to {@code end} (exclusive) and
+     * after {@code cursor}. One key more than the limit is returned to tell whether a next page exists.
+     */
+    private static List<String> listKeys(PluginCall call, GroupReadCache cache) {
+        String prefix = call.getString(KEY_PREFIX);
+        String start = call.getString(KEY_START);
+        String end = call.getString(KEY_END);
+        String cursor = call.getString(KEY_CURSOR);
+
+        String from = prefix;
+        boolean inclusive = true;
+        if (start != null && (from == null || start.compareTo(from) > 0)) {
+            from = start;
+        }
+        if (cursor != null && (from == null || cursor.compareTo(from) >= 0)) {
+            from = cursor;
+            inclusive = false;
+        }
+        String to = prefix != null ? GroupReadCache.prefixEnd(prefix) : null;
+        if (end != null && (to == null || end.compareTo(to) < 0)) {
+            to = end;
+        }
+        if (from != null && to != null && from.compareTo(to) >= 0) {
+            return Collections.emptyList();
+        }
+        return cache.keys(from, inclusive, to, pageLimit(call) + 1);
+    }
+
+    private static int pageLimit(PluginCall call) {
+        Integer limit = call.getInt(KEY_LIMIT);
+        return limit != null ? Math.max(1, Math.min(MAX_PAGE_LIMIT, limit)) : DEFAULT_PAGE_LIMIT;
+    }
+
+    /**
+     * Adds the cursor of the next page when {@code keys} holds more than one page.
+     */
+    private static JSObject withCursor(JSObject result, List<String> keys, int limit) {
+        if (keys.size() > limit) {
+            result.put(KEY_CURSOR, keys.get(limit - 1));
+        }
+        return result;
+    }
+
+    private static boolean isNotModified(long version, Long ifVersion, String ifNoneMatch) {
+        return (ifVersion != null && ifVersion == version) || etag(version).equals(ifNoneMatch);
+    }
+
+    private static JSObject versioned(JSObject result, long version) {
+        result.put(KEY_VERSION, version);
+        result.put(KEY_ETAG, etag(version));
+        return result;
+    }
+
+    private static String etag(long version) {
+        return "\"" + Long.toString(version, 36) + "\"";
+    }
+
+    /**
+     * String sets go back to JavaScript as arrays.
+     */
+    private static Object toJsValue(Object value) {
+        if (value == null) {
+            return JSONObject.NULL;
+        }
+        return value instanceof Set ? new JSArray((Set<?>) value) : value;
+    }
+
+    private void rebuildSubscriptionIndex() {
+        DependencyIndex.Builder builder = new DependencyIndex.Builder();
+        for (Map.Entry<String, Subscription> entry : subscriptions.entrySet()) {
+            for (String pattern : entry.getValue().patterns) {
+                builder.add(entry.getKey(), entry.getValue().group, pattern);
+            }
+        }
+        subscriptionIndex = builder.build();
+    }
+
+    private void onCacheChanged(String group, String key, long version) {
+        GroupRetention retention = retentions.get(group);
+        if (retention != null) {
+            retention.onChanged(key, readCaches.get(group).get(key));
+        }
+        DependencyIndex index = subscriptionIndex;
+        if (!index.isEmpty() && !index.providersFor(group, Collections.singletonList(key)).isEmpty()) {
+            changeNotifier.onChanged(group, key, version);
+        }
+    }
+
+    private void sendChangeEvent(String group, Map<String, Long> changes) {
+        JSObject versions = new JSObject();
+        for (Map.Entry<String, Long> change : changes.entrySet()) {
+            versions.put(change.getKey(), (long) change.getValue());
+        }
+        JSObject event = new JSObject();
+        event.put(KEY_GROUP, group);
+        event.put(KEY_CHANGES, versions);
+        event.put(KEY_SUBSCRIPTIONS, new JSArray(subscriptionIndex.providersFor(group, changes.keySet())));
+        notifyListeners(EVENT_ITEMS_CHANGED, event);
+    }
+
+    /**
+     * Reloads the providers that depend on the changed keys.
+     */
+    private void onItemsChanged(String group, List<String> keys) {
+        if (!autoReload) {
+            return;
+        }
+        Set<String> changedKeys = new HashSet<>(keys);
+        for (Map.Entry<WidgetProviderRegistry.Entry, int[]> target : getRegistry().targetsFor(group, keys).entrySet()) {
+            reloadScheduler.request(target.getKey(), target.getValue(), changedKeys);
+        }
+    }
+
+    private void sendUpdateBroadcast(WidgetProviderRegistry.Entry entry, int[] ids, Set<String> keys) {
+        getRegistry().sendUpdate(entry, ids, keys);
+    }
+
+    /**
+     * The group a data call works on: the group itself, or the storage of one widget instance
+     * when {@code appWidgetId} is set.
+     */
+    private static String groupOf(PluginCall call) {
+        String group = call.getString(KEY_GROUP);
+        Integer appWidgetId = call.getInt(KEY_APP_WIDGET_ID);
+        return group != null && appWidgetId != null ? WidgetBridgeStore.instanceGroup(group, appWidgetId) : group;
+    }
+
+    /**
+     * Decodes plain base64 or a {@code data:} URL.
+     */
+    private static byte[] decodeBase64(String data) {
+        int comma = data.startsWith("data:") ? data.indexOf(',') : -1;
+        return Base64.decode(comma >= 0 ? data.substring(comma + 1) : data, Base64.DEFAULT);
+    }
+
+    private static byte[] readFile(String path) throws IOException {
+        File file = path.startsWith("file://") ? new File(Uri.parse(path).getPath()) : new File(path);
+        try (FileInputStream in = new FileInputStream(file); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static final class Subscription {
+
+        final String group;
+        final List<String> patterns;
+
+        Subscription(String group, List<String> patterns) {
+            this.group = group;
+            this.patterns = patterns;
+        }
+    }
+
+    private static List<String> toStringList(JSArray array) {
+        List<String> list = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            Object item = array.opt(i);
+            if (item instanceof String) {
+                list.add((String) item);
+            }
         }
+        return list;
     }
 
 }
@@ -0,0 +1,356 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Entry point for widget providers that read the data the app stored through the plugin.
+ *
+ * <pre>
+ * WidgetValue title = WidgetBridgeStore.readValue(context, "group.com.example.app", "title");
+ * int unread = WidgetBridgeStore.open(context, "group.com.example.app").getInt("unread", 0);
+ * </pre>
+ *
+ * {@link #open} returns values as they are stored. Numbers, booleans and string sets read as
+ * written, but a string may be stored as a reference to a file or compressed, so read strings
+ * with {@link #readValue}, which resolves both.
+ *
+ * The backend is chosen by the plugin's {@code storage} option and remembered on disk, so providers
+ * open the same store even when the app's web view has not run in this process. Apps with their
+ * own storage can install a custom {@link WidgetStorageBackend} with {@link #setBackend(WidgetStorageBackend)}
+ * from {@code Application.onCreate}.
+ *
+ * Strings above the plugin's {@code largeValueThreshold} live in their own file and the group only
+ * holds a reference to it; {@link #readValue} maps the file and lets the provider decode just the
+ * fields it renders. Strings of groups with compression enabled are stored compressed.
+ *
+ * Data the app stored for a single widget instance lives in its own group, opened with
+ * {@link #openInstance}.
+ *
+ * Widgets that run in a separate process must use {@link #openRemote}, since preferences opened
+ * there would not see the app's writes.
+ */
+public final class WidgetBridgeStore {
+
+    public static final String BACKEND_SHARED_PREFERENCES = "sharedPreferences";
+    public static final String BACKEND_APPEND_LOG = "appendLog";
+
+    static final String PREFS_NAME = "de.kisimedia.plugins.widgetbridgeplugin.store";
+    private static final String KEY_BACKEND = "backend";
+    private static final String KEY_LARGE_VALUE_THRESHOLD = "largeValueThreshold";
+    private static final String LOG_DIRECTORY = "widget_bridge";
+    private static final int MAX_FILE_NAME_LENGTH = 120;
+    /** Joins a group and a widget id. The plugin rejects group names containing it. */
+    static final String INSTANCE_SEPARATOR = "#widget-";
+
+    private static final WidgetStorageBackend SHARED_PREFERENCES =
+        (context, group) -> context.getSharedPreferences(group, Context.MODE_PRIVATE);
+
+    private static final WidgetStorageBackend APPEND_LOG = new AppendLogBackend();
+
+    private static volatile WidgetStorageBackend backend;
+
+    /** Groups the plugin has written to in this process, with the writes it has not flushed yet. */
+    private static final Map<String, WriteBehindPreferences> buffered = new ConcurrentHashMap<>();
+
+    /** Groups read through {@link WidgetBridgeContentProvider} from this process. */
+    private static final Map<String, RemotePreferences> remote = new ConcurrentHashMap<>();
+
+    private WidgetBridgeStore() {}
+
+    /**
+     * Opens a group with the configured backend. Values the plugin holds in its write buffer are
+     * visible through the returned view, so open the group each time you render instead of keeping
+     * the instance. Keys whose TTL has passed stay visible here until the plugin removes them,
+     * within its {@code expirySweepMs}; {@link #readValue} never returns them.
+     */
+    public static SharedPreferences open(Context context, String group) {
+        WriteBehindPreferences prefs = buffered.get(group);
+        return prefs != null ? prefs : getBackend(context).open(context, group);
+    }
+
+    /**
+     * Opens the data the app stored for one widget instance with {@code appWidgetId} set.
+     */
+    public static SharedPreferences openInstance(Context context, String group, int appWidgetId) {
+        return open(context, instanceGroup(group, appWidgetId));
+    }
+
+    /**
+     * Opens a group through {@link WidgetBridgeContentProvider}, for widgets running in another
+     * process than the app. Reads are served from a copy of the group that is only fetched again
+     * after the app changed it, so a key whose TTL passed stays in the copy until the plugin removes it.
+     */
+    public static SharedPreferences openRemote(Context context, String group) {
+        RemotePreferences prefs = remote.get(group);
+        if (prefs != null) {
+            return prefs;
+        }
+        synchronized (remote) {
+            prefs = remote.get(group);
+            if (prefs == null) {
+                prefs = new RemotePreferences(context.getApplicationContext() != null ? context.getApplicationContext() : context, group);
+                remote.put(group, prefs);
+            }
+        }
+        return prefs;
+    }
+
+    /**
+     * Name of the group holding the data of one widget instance.
+     */
+    public static String instanceGroup(String group, int appWidgetId) {
+        return group + INSTANCE_SEPARATOR + appWidgetId;
+    }
+
+    /**
+     * The widget id of an instance group, or -1 for a plain group.
+     */
+    static int instanceIdOf(String group) {
+        int separator = group.lastIndexOf(INSTANCE_SEPARATOR);
+        if (separator < 0) {
+            return -1;
+        }
+        String id = group.substring(separator + INSTANCE_SEPARATOR.length());
+        for (int i = 0; i < id.length(); i++) {
+            if (!Character.isDigit(id.charAt(i))) {
+                return -1;
+            }
+        }
+        try {
+            return Integer.parseInt(id);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The group an instance group belongs to; plain groups are returned unchanged.
+     */
+    static String baseGroupOf(String group) {
+        return instanceIdOf(group) >= 0 ? group.substring(0, group.lastIndexOf(INSTANCE_SEPARATOR)) : group;
+    }
+
+    /**
+     * Opens the write-behind view of a group that the plugin writes through.
+     */
+    static WriteBehindPreferences openBuffered(Context context, String group) {
+        WriteBehindPreferences prefs = buffered.get(group);
+        if (prefs != null) {
+            return prefs;
+        }
+        synchronized (buffered) {
+            prefs = buffered.get(group);
+            if (prefs == null) {
+                prefs = new WriteBehindPreferences(getBackend(context).open(context, group));
+                // Readers in other processes hear about the plugin's writes from the first one on.
+                WidgetBridgeContentProvider.track(context, group, prefs);
+                buffered.put(group, prefs);
+            }
+        }
+        return prefs;
+    }
+
+    /**
+     * Flushes the write buffer of every group.
+     *
+     * @return the number of keys written
+     */
+    static int flushAll(boolean commit) {
+        int count = 0;
+        for (WriteBehindPreferences prefs : buffered.values()) {
+            count += prefs.flush(commit);
+        }
+        return count;
+    }
+
+    /**
+     * Reads a string value of a group without copying it when the plugin stored it in a file.
+     *
+     * @return the value, or {@code null} when the key is missing, has expired or does not hold a string
+     * @throws IOException when the file of a large value cannot be mapped, or a compressed value
+     *     cannot be decompressed
+     */
+    public static WidgetValue readValue(Context context, String group, String key) throws IOException {
+        if (GroupRetention.isExpired(context, group, key, System.currentTimeMillis())) {
+            return null;
+        }
+        String stored;
+        try {
+            stored = open(context, group).getString(key, null);
+        } catch (ClassCastException e) {
+            return null;
+        }
+        if (stored == null) {
+            return null;
+        }
+        if (LargeValueStore.isReference(stored)) {
+            return LargeValueStore.forContext(context).open(group, key);
+        }
+        return WidgetValue.wrap((String) decompress(context, group, stored));
+    }
+
+    /**
+     * The value as it was written, for a value read from a group that stores strings compressed.
+     * Other values are returned unchanged.
+     *
+     * @throws IOException when a compressed value cannot be decompressed
+     */
+    static Object decompress(Context context, String group, Object stored) throws IOException {
+        return ValueCompression.isCompressed(stored) ? ValueCompression.getInstance(context).decode(group, (String) stored) : stored;
+    }
+
+    /**
+     * Replaces the backend for this process. Not persisted.
+     */
+    public static void setBackend(WidgetStorageBackend custom) {
+        backend = custom;
+    }
+
+    static WidgetStorageBackend getBackend(Context context) {
+        WidgetStorageBackend result = backend;
+        if (result == null) {
+            String name = settings(context).getString(KEY_BACKEND, BACKEND_SHARED_PREFERENCES);
+            result = BACKEND_APPEND_LOG.equals(name) ? APPEND_LOG : SHARED_PREFERENCES;
+            backend = result;
+        }
+        return result;
+    }
+
+    /**
+     * Selects one of the built-in backends and persists the choice for widget providers.
+     *
+     * @throws IllegalArgumentException when the name is not a built-in backend
+     */
+    static void setBackend(Context context, String name) {
+        WidgetStorageBackend selected = forName(name);
+        SharedPreferences settings = settings(context);
+        if (!name.equals(settings.getString(KEY_BACKEND, BACKEND_SHARED_PREFERENCES))) {
+            settings.edit().putString(KEY_BACKEND, name).apply();
+        }
+        backend = selected;
+    }
+
+    /**
+     * The plugin's {@code largeValueThreshold}, for writes made through
+     * {@link WidgetBridgeContentProvider} while the plugin is not loaded.
+     */
+    static int getLargeValueThreshold(Context context) {
+        return settings(context).getInt(KEY_LARGE_VALUE_THRESHOLD, LargeValueStore.DEFAULT_THRESHOLD);
+    }
+
+    static void setLargeValueThreshold(Context context, int threshold) {
+        SharedPreferences settings = settings(context);
+        if (settings.getInt(KEY_LARGE_VALUE_THRESHOLD, LargeValueStore.DEFAULT_THRESHOLD) != threshold) {
+            settings.edit().putInt(KEY_LARGE_VALUE_THRESHOLD, threshold).apply();
+        }
+    }
+
+    static void resetForTesting() {
+        backend = null;
+        buffered.clear();
+        remote.clear();
+        WidgetBridgeContentProvider.groups.clear();
+        WidgetBridgeContentProvider.setWriter(null);
+        AppendLogBackend.stores.clear();
+    }
+
+    private static WidgetStorageBackend forName(String name) {
+        if (BACKEND_SHARED_PREFERENCES.equals(name)) {
+            return SHARED_PREFERENCES;
+        }
+        if (BACKEND_APPEND_LOG.equals(name)) {
+            return APPEND_LOG;
+        }
+        throw new IllegalArgumentException("Unknown storage backend: " + name);
+    }
+
+    /**
+     * A file name for a group or key. Names that would get too long are hashed.
+     */
+    static String fileName(String name) {
+        try {
+            String encoded = URLEncoder.encode(name, "UTF-8");
+            if (encoded.length() <= MAX_FILE_NAME_LENGTH) {
+                return encoded;
+            }
+            StringBuilder hex = new StringBuilder("_");
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(name.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (UnsupportedEncodingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static SharedPreferences settings(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * One {@link AppendLog} per group under {@code files/widget_bridge}. A group that already has
+     * data in {@link SharedPreferences} is copied into its log the first time the log is created.
+     */
+    static final class AppendLogBackend implements WidgetStorageBackend {
+
+        static final Map<String, AppendLogPreferences> stores = new ConcurrentHashMap<>();
+
+        private static final Executor compactionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "WidgetBridge-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        @Override
+        public SharedPreferences open(Context context, String group) {
+            AppendLogPreferences prefs = stores.get(group);
+            if (prefs != null) {
+                return prefs;
+            }
+            synchronized (stores) {
+                prefs = stores.get(group);
+                if (prefs == null) {
+                    prefs = create(context, group);
+                    stores.put(group, prefs);
+                }
+            }
+            return prefs;
+        }
+
+        static File logFile(Context context, String group) {
+            return new File(new File(context.getFilesDir(), LOG_DIRECTORY), fileName(group) + ".log");
+        }
+
+        private static AppendLogPreferences create(Context context, String group) {
+            File file = logFile(context, group);
+            boolean existed = file.exists();
+            AppendLog log;
+            try {
+                log = new AppendLog(file, compactionExecutor);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot open widget data for " + group, e);
+            }
+            AppendLogPreferences prefs = new AppendLogPreferences(log);
+            if (!existed) {
+                Map<String, ?> legacy = context.getSharedPreferences(group, Context.MODE_PRIVATE).getAll();
+                if (!legacy.isEmpty()) {
+                    prefs.importAll(legacy);
+                }
+            }
+            return prefs;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+
+import java.io.File;
+
+/**
+ * Loads the images stored with {@code setImage} for use in widget providers.
+ *
+ * <pre>
+ * Bitmap cover = WidgetImages.load(context, "group.com.example.app", "cover", 300, 300);
+ * views.setImageViewBitmap(R.id.cover, cover);
+ * </pre>
+ *
+ * Images are downsampled while decoding by the largest power of two that keeps them at least as
+ * large as the requested size, then scaled down to fit it, so a bitmap never exceeds the bounds
+ * the widget asked for. Recently decoded bitmaps are kept in a process-wide LRU cache; an image
+ * written again gets a new cache entry.
+ */
+public final class WidgetImages {
+
+    private static final int MAX_CACHE_BYTES = 8 * 1024 * 1024;
+
+    private static final LruCache<String, Bitmap> cache = new LruCache<String, Bitmap>(cacheBytes()) {
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+            return bitmap.getByteCount();
+        }
+    };
+
+    private WidgetImages() {}
+
+    /**
+     * Decodes an image, or returns {@code null} when it does not exist or cannot be decoded.
+     *
+     * @throws IllegalArgumentException when a bound is not positive
+     */
+    public static Bitmap load(Context context, String group, String name, int maxWidth, int maxHeight) {
+        if (maxWidth <= 0 || maxHeight <= 0) {
+            throw new IllegalArgumentException("Bounds must be positive: " + maxWidth + "x" + maxHeight);
+        }
+        File file = ImageStore.forContext(context).fileFor(group, name);
+        long modified = file.lastModified();
+        if (modified == 0) {
+            return null;
+        }
+        String key = cacheKey(file) + maxWidth + "x" + maxHeight + "@" + modified + ":" + file.length();
+        Bitmap bitmap = cache.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, maxWidth, maxHeight);
+        options.inJustDecodeBounds = false;
+        bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        if (bitmap == null) {
+            return null;
+        }
+        bitmap = scaleToFit(bitmap, maxWidth, maxHeight);
+        cache.put(key, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Drops every cached size of the image stored in {@code file}. The plugin calls this when an
+     * image is replaced, removed or evicted.
+     */
+    static void invalidate(File file) {
+        String prefix = cacheKey(file);
+        for (String key : cache.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                cache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Largest power of two that keeps the decoded image at least as large as the requested bounds,
+     * which must be positive.
+     */
+    static int calculateInSampleSize(int width, int height, int maxWidth, int maxHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= maxWidth && height / (sampleSize * 2) >= maxHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Scales a bitmap down, keeping its aspect ratio, until it fits the bounds.
+     */
+    static Bitmap scaleToFit(Bitmap bitmap, int maxWidth, int maxHeight) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (width <= maxWidth && height <= maxHeight) {
+            return bitmap;
+        }
+        float scale = Math.min((float) maxWidth / width, (float) maxHeight / height);
+        int scaledWidth = Math.max(1, Math.min(maxWidth, Math.round(width * scale)));
+        int scaledHeight = Math.max(1, Math.min(maxHeight, Math.round(height * scale)));
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, scaledWidth, scaledHeight, true);
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * Keyed by the stored file rather than the image name, since long names are hashed into file
+     * names and could not be matched back.
+     */
+    private static String cacheKey(File file) {
+        return file.getPath() + '\u0000';
+    }
+
+    private static int cacheBytes() {
+        return (int) Math.min(MAX_CACHE_BYTES, Runtime.getRuntime().maxMemory() / 8);
+    }
+}
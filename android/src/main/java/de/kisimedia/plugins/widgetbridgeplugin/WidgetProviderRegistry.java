@@ -0,0 +1,384 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+
+import com.getcapacitor.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide registry of the widget providers the app asked the plugin to reload.
+ *
+ * Provider classes are resolved once and their {@link ComponentName} is kept. For providers that
+ * extend {@link WidgetBridgeAppWidgetProvider} the active widget ids are cached too, because those
+ * providers report added and removed widgets back to the registry. Ids of any other provider are
+ * fetched from {@link AppWidgetManager} on every request, since nothing would tell us they changed.
+ *
+ * The list passed to {@code setRegisteredWidgets}, the declared dependencies and the widget bindings
+ * are persisted, so reloads keep working after the process has been killed and restarted.
+ */
+public final class WidgetProviderRegistry {
+
+    private static final String TAG = "WidgetProviderRegistry";
+
+    static final String PREFS_NAME = "de.kisimedia.plugins.widgetbridgeplugin.registry";
+    private static final String KEY_PROVIDERS = "providers";
+    private static final String KEY_DEPENDENCIES = "dependencies";
+    private static final String KEY_BINDINGS = "bindings";
+
+    private static volatile WidgetProviderRegistry instance;
+
+    private final Context context;
+    private final SharedPreferences prefs;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile List<String> registeredProviders;
+    private volatile DependencyIndex dependencies;
+    private volatile Map<String, WidgetBinding> bindings;
+
+    /**
+     * A resolved provider class with its component name and, when tracked, its cached widget ids.
+     */
+    static final class Entry {
+
+        final Class<?> widgetClass;
+        final ComponentName componentName;
+        final boolean tracked;
+        volatile int[] widgetIds;
+
+        Entry(Class<?> widgetClass, ComponentName componentName) {
+            this.widgetClass = widgetClass;
+            this.componentName = componentName;
+            this.tracked = WidgetBridgeAppWidgetProvider.class.isAssignableFrom(widgetClass);
+        }
+    }
+
+    public static WidgetProviderRegistry getInstance(Context context) {
+        WidgetProviderRegistry result = instance;
+        if (result == null) {
+            synchronized (WidgetProviderRegistry.class) {
+                result = instance;
+                if (result == null) {
+                    result = new WidgetProviderRegistry(context);
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    static void resetForTesting() {
+        synchronized (WidgetProviderRegistry.class) {
+            instance = null;
+        }
+    }
+
+    WidgetProviderRegistry(Context context) {
+        this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        this.prefs = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Replaces the registered provider class names and persists them.
+     */
+    void setRegisteredProviders(List<String> classNames) {
+        List<String> copy = Collections.unmodifiableList(new ArrayList<>(classNames));
+        prefs.edit().putString(KEY_PROVIDERS, new JSONArray(copy).toString()).apply();
+        registeredProviders = copy;
+    }
+
+    List<String> getRegisteredProviders() {
+        List<String> result = registeredProviders;
+        if (result == null) {
+            result = loadRegisteredProviders();
+            registeredProviders = result;
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the key dependencies of the registered providers and persists them.
+     *
+     * @throws JSONException when an entry lacks {@code provider}, {@code group} or {@code keys}
+     */
+    void setDependencies(JSONArray json) throws JSONException {
+        DependencyIndex index = buildDependencies(json);
+        prefs.edit().putString(KEY_DEPENDENCIES, json.toString()).apply();
+        dependencies = index;
+    }
+
+    /**
+     * Replaces the widget bindings and persists them. The keys of a binding count as dependencies
+     * of its provider.
+     *
+     * @throws JSONException when a binding lacks a required field
+     * @throws IllegalArgumentException when a binding names a resource that does not exist
+     */
+    void setBindings(JSONArray json) throws JSONException {
+        Map<String, WidgetBinding> compiled = new HashMap<>();
+        for (int i = 0; i < json.length(); i++) {
+            WidgetBinding binding = WidgetBinding.compile(context, json.getJSONObject(i));
+            compiled.put(binding.provider, binding);
+        }
+        prefs.edit().putString(KEY_BINDINGS, json.toString()).apply();
+        bindings = Collections.unmodifiableMap(compiled);
+        dependencies = null;
+    }
+
+    WidgetBinding getBinding(String className) {
+        return getBindings().get(className);
+    }
+
+    private Map<String, WidgetBinding> getBindings() {
+        Map<String, WidgetBinding> result = bindings;
+        if (result == null) {
+            result = loadBindings();
+            bindings = result;
+        }
+        return result;
+    }
+
+    DependencyIndex getDependencies() {
+        DependencyIndex result = dependencies;
+        if (result == null) {
+            result = loadDependencies();
+            dependencies = result;
+        }
+        return result;
+    }
+
+    /**
+     * Loads the persisted lists and resolves every registered or bound provider with its widget
+     * ids, so the first reload after a cold start finds them cached.
+     *
+     * @return the number of providers resolved
+     */
+    int warmUp() {
+        getDependencies();
+        Set<String> classNames = new LinkedHashSet<>(getRegisteredProviders());
+        classNames.addAll(getBindings().keySet());
+        int resolved = 0;
+        for (String className : classNames) {
+            try {
+                getWidgetIds(resolve(className));
+                resolved++;
+            } catch (ClassNotFoundException e) {
+                Logger.warn(TAG, "Widget class not found: " + className);
+            }
+        }
+        return resolved;
+    }
+
+    Entry resolve(String className) throws ClassNotFoundException {
+        Entry entry = entries.get(className);
+        if (entry == null) {
+            Class<?> widgetClass = Class.forName(className);
+            entry = new Entry(widgetClass, new ComponentName(context, widgetClass));
+            Entry existing = entries.putIfAbsent(className, entry);
+            if (existing != null) {
+                entry = existing;
+            }
+        }
+        return entry;
+    }
+
+    int[] getWidgetIds(Entry entry) {
+        int[] ids = entry.widgetIds;
+        if (ids == null) {
+            ids = AppWidgetManager.getInstance(context).getAppWidgetIds(entry.componentName);
+            if (entry.tracked) {
+                entry.widgetIds = ids;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * The providers that render at least one of the changed keys, with the ids of their widgets.
+     * Dependencies are declared on the plain group; a change to an instance group only targets
+     * that one widget.
+     */
+    Map<Entry, int[]> targetsFor(String group, Collection<String> keys) {
+        Map<Entry, int[]> targets = new LinkedHashMap<>();
+        int instanceId = WidgetBridgeStore.instanceIdOf(group);
+        for (String className : getDependencies().providersFor(WidgetBridgeStore.baseGroupOf(group), keys)) {
+            try {
+                Entry entry = resolve(className);
+                int[] ids = getWidgetIds(entry);
+                if (instanceId >= 0) {
+                    ids = contains(ids, instanceId) ? new int[] { instanceId } : new int[0];
+                }
+                targets.put(entry, ids);
+            } catch (ClassNotFoundException e) {
+                Logger.warn(TAG, "Widget class not found: " + className);
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Sends a full update, or a partial one naming the changed keys to providers that can handle it.
+     */
+    void sendUpdate(Entry entry, int[] ids, Set<String> keys) {
+        if (ids.length == 0) {
+            return;
+        }
+        Intent updateIntent = new Intent(context, entry.widgetClass);
+        if (keys != null && entry.tracked) {
+            updateIntent.setAction(WidgetBridgeAppWidgetProvider.ACTION_PARTIAL_UPDATE);
+            updateIntent.putExtra(WidgetBridgeAppWidgetProvider.EXTRA_CHANGED_KEYS, keys.toArray(new String[0]));
+        } else {
+            updateIntent.setAction(AppWidgetManager.ACTION_APPWIDGET_UPDATE);
+        }
+        updateIntent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS, ids);
+        context.sendBroadcast(updateIntent);
+        WidgetBridgeMetrics.getInstance().recordBroadcast(entry.componentName.getClassName());
+    }
+
+    /**
+     * Drops the cached widget ids of one provider so the next request asks {@link AppWidgetManager} again.
+     */
+    public static void invalidate(Context context, ComponentName componentName) {
+        getInstance(context).invalidate(componentName);
+    }
+
+    void invalidate(ComponentName componentName) {
+        Entry entry = entries.get(componentName.getClassName());
+        if (entry != null) {
+            entry.widgetIds = null;
+        }
+    }
+
+    /**
+     * Updates the cache from a broadcast that the app widget host sent to a provider.
+     */
+    void onProviderBroadcast(ComponentName componentName, Intent intent) {
+        String action = intent.getAction();
+        if (action == null) {
+            return;
+        }
+        switch (action) {
+            case AppWidgetManager.ACTION_APPWIDGET_ENABLED:
+            case AppWidgetManager.ACTION_APPWIDGET_DELETED:
+            case AppWidgetManager.ACTION_APPWIDGET_DISABLED:
+            case AppWidgetManager.ACTION_APPWIDGET_RESTORED:
+                invalidate(componentName);
+                break;
+            case AppWidgetManager.ACTION_APPWIDGET_UPDATE:
+                // Adding a second instance of a widget only sends an update for the new id.
+                Entry entry = entries.get(componentName.getClassName());
+                int[] updated = intent.getIntArrayExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS);
+                if (entry != null && updated != null && !containsAll(entry.widgetIds, updated)) {
+                    entry.widgetIds = null;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private List<String> loadRegisteredProviders() {
+        String stored = prefs.getString(KEY_PROVIDERS, null);
+        if (stored == null) {
+            return Collections.emptyList();
+        }
+        List<String> list = new ArrayList<>();
+        try {
+            JSONArray array = new JSONArray(stored);
+            for (int i = 0; i < array.length(); i++) {
+                list.add(array.getString(i));
+            }
+        } catch (JSONException e) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    private DependencyIndex loadDependencies() {
+        String stored = prefs.getString(KEY_DEPENDENCIES, null);
+        try {
+            return buildDependencies(stored != null ? new JSONArray(stored) : new JSONArray());
+        } catch (JSONException e) {
+            return DependencyIndex.EMPTY;
+        }
+    }
+
+    /**
+     * The declared dependencies plus the keys each binding renders.
+     */
+    private DependencyIndex buildDependencies(JSONArray declared) throws JSONException {
+        DependencyIndex.Builder builder = new DependencyIndex.Builder().addAll(declared);
+        for (WidgetBinding binding : getBindings().values()) {
+            for (String key : binding.keys()) {
+                builder.add(binding.provider, binding.group, key);
+            }
+        }
+        return builder.build();
+    }
+
+    private Map<String, WidgetBinding> loadBindings() {
+        String stored = prefs.getString(KEY_BINDINGS, null);
+        if (stored == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, WidgetBinding> result = new HashMap<>();
+        try {
+            JSONArray array = new JSONArray(stored);
+            for (int i = 0; i < array.length(); i++) {
+                // An app update may have removed a resource; keep the bindings that still compile.
+                try {
+                    WidgetBinding binding = WidgetBinding.compile(context, array.getJSONObject(i));
+                    result.put(binding.provider, binding);
+                } catch (JSONException | IllegalArgumentException e) {
+                    Logger.warn(TAG, "Dropping widget binding: " + e.getMessage());
+                }
+            }
+        } catch (JSONException e) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static boolean contains(int[] ids, int id) {
+        for (int candidate : ids) {
+            if (candidate == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsAll(int[] cached, int[] ids) {
+        if (cached == null) {
+            return true;
+        }
+        for (int id : ids) {
+            boolean found = false;
+            for (int existing : cached) {
+                if (existing == id) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,16 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Storage behind the plugin's widget groups.
+ *
+ * A backend hands out one {@link SharedPreferences} per group, so the plugin and widget providers
+ * read and write every backend the same way. Implementations must return the same instance for
+ * repeated calls with the same group, otherwise change listeners would miss writes.
+ */
+public interface WidgetStorageBackend {
+
+    SharedPreferences open(Context context, String group);
+}
@@ -0,0 +1,277 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+
+import com.getcapacitor.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Future values of group keys that are written natively when their time comes, the Android
+ * counterpart of a WidgetKit timeline.
+ *
+ * Entries are kept per group, sorted by time, as one compact JSON array of {@code [time, values]}
+ * pairs. A single alarm is set for the earliest entry over all groups. The alarm is inexact and
+ * does not wake the device, so an entry may be applied a little late, but never needs the app.
+ * When it fires, every due entry is written, the providers that render the written keys are
+ * updated and the alarm is set for the next entry. While the plugin is loaded it does the writing,
+ * on the lane of each group and through its normal write path; otherwise the values are written
+ * to the group directly.
+ *
+ * Alarms do not survive a reboot. The chain resumes on the first widget update after boot and
+ * whenever the plugin loads.
+ */
+final class WidgetTimeline {
+
+    static final String PREFS_NAME = "de.kisimedia.plugins.widgetbridgeplugin.timeline";
+    static final String ACTION_APPLY = "de.kisimedia.plugins.widgetbridgeplugin.APPLY_TIMELINE";
+
+    private static final String TAG = "WidgetTimeline";
+    private static final long NONE = Long.MAX_VALUE;
+
+    private static volatile WidgetTimeline instance;
+
+    /**
+     * Writes the due values of one group; {@code null} values remove their key.
+     */
+    interface Writer {
+        void write(String group, Map<String, Object> values);
+    }
+
+    private final Context context;
+    private final SharedPreferences prefs;
+    private volatile Writer writer;
+    /** Earliest pending entry over all groups; {@code -1} until the groups were read once. */
+    private long next = -1;
+
+    static WidgetTimeline getInstance(Context context) {
+        WidgetTimeline result = instance;
+        if (result == null) {
+            synchronized (WidgetTimeline.class) {
+                result = instance;
+                if (result == null) {
+                    result = new WidgetTimeline(context);
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    static void resetForTesting() {
+        synchronized (WidgetTimeline.class) {
+            instance = null;
+        }
+    }
+
+    WidgetTimeline(Context context) {
+        this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        this.prefs = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Routes due values through {@code writer} instead of writing them here.
+     */
+    void setWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Adds entries {@code [{ date, values }]} to a group, replacing entries at the same time, or
+     * every entry of the group with {@code replace}. Entries already due are applied right away.
+     *
+     * @return the number of entries still pending in the group
+     * @throws JSONException when an entry lacks {@code date} or {@code values}
+     * @throws IllegalArgumentException when a value cannot be stored
+     */
+    synchronized int set(String group, JSONArray entries, boolean replace, long now) throws JSONException {
+        TreeMap<Long, JSONObject> timeline = replace ? new TreeMap<>() : read(group);
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.getJSONObject(i);
+            JSONObject values = entry.getJSONObject("values");
+            Iterator<String> keys = values.keys();
+            while (keys.hasNext()) {
+                Object value = values.get(keys.next());
+                if (value != JSONObject.NULL) {
+                    TypedValues.convert(value, null);
+                }
+            }
+            timeline.put(entry.getLong("date"), values);
+        }
+        write(group, timeline);
+        applyDue(now);
+        return read(group).size();
+    }
+
+    synchronized void clear(String group) {
+        prefs.edit().remove(group).apply();
+        next = earliest();
+        schedule();
+    }
+
+    /**
+     * Applies due entries and makes sure the alarm is set for the next one.
+     */
+    synchronized void resume(long now) {
+        if (next < 0) {
+            next = earliest();
+        }
+        if (next <= now) {
+            applyDue(now);
+        } else {
+            schedule();
+        }
+    }
+
+    /**
+     * Writes every entry due at {@code now}, oldest first, and updates the providers of the
+     * written keys. Entries of a group due together are written in one edit.
+     *
+     * @return the number of entries applied
+     */
+    synchronized int applyDue(long now) {
+        int applied = 0;
+        for (String group : new ArrayList<>(prefs.getAll().keySet())) {
+            TreeMap<Long, JSONObject> timeline = read(group);
+            Map<String, Object> values = new LinkedHashMap<>();
+            while (!timeline.isEmpty() && timeline.firstKey() <= now) {
+                JSONObject entry = timeline.pollFirstEntry().getValue();
+                Iterator<String> keys = entry.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    Object value = entry.opt(key);
+                    values.put(key, value == JSONObject.NULL ? null : value);
+                }
+                applied++;
+            }
+            if (!values.isEmpty()) {
+                write(group, timeline);
+                Writer target = writer;
+                if (target != null) {
+                    target.write(group, values);
+                } else {
+                    apply(group, values);
+                }
+            }
+        }
+        next = earliest();
+        schedule();
+        return applied;
+    }
+
+    private void apply(String group, Map<String, Object> values) {
+        SharedPreferences.Editor editor = WidgetBridgeStore.open(context, group).edit();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            if (entry.getValue() == null) {
+                editor.remove(entry.getKey());
+            } else {
+                WriteBehindPreferences.putTyped(editor, entry.getKey(), TypedValues.convert(entry.getValue(), null));
+            }
+        }
+        editor.apply();
+        updateProviders(context, group, values.keySet());
+    }
+
+    /**
+     * Updates the providers that render {@code keys}, or every registered provider when no
+     * dependencies are declared.
+     */
+    static void updateProviders(Context context, String group, Set<String> keys) {
+        WidgetProviderRegistry registry = WidgetProviderRegistry.getInstance(context);
+        if (registry.getDependencies().isEmpty()) {
+            // Without declared dependencies every registered provider may show the keys.
+            for (String className : registry.getRegisteredProviders()) {
+                try {
+                    WidgetProviderRegistry.Entry entry = registry.resolve(className);
+                    registry.sendUpdate(entry, registry.getWidgetIds(entry), null);
+                } catch (ClassNotFoundException e) {
+                    Logger.warn(TAG, "Widget class not found: " + className);
+                }
+            }
+            return;
+        }
+        for (Map.Entry<WidgetProviderRegistry.Entry, int[]> target : registry.targetsFor(group, keys).entrySet()) {
+            registry.sendUpdate(target.getKey(), target.getValue(), keys);
+        }
+    }
+
+    /**
+     * Points the single alarm at the earliest pending entry, or cancels it.
+     */
+    private void schedule() {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent operation = PendingIntent.getBroadcast(
+            context,
+            0,
+            new Intent(context, WidgetTimelineReceiver.class).setAction(ACTION_APPLY),
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+        if (next == NONE) {
+            alarmManager.cancel(operation);
+        } else {
+            alarmManager.set(AlarmManager.RTC, next, operation);
+        }
+    }
+
+    /**
+     * Times of the pending entries of a group, oldest first.
+     */
+    synchronized List<Long> pendingTimes(String group) {
+        return new ArrayList<>(read(group).keySet());
+    }
+
+    private long earliest() {
+        long earliest = NONE;
+        for (String group : prefs.getAll().keySet()) {
+            TreeMap<Long, JSONObject> timeline = read(group);
+            if (!timeline.isEmpty()) {
+                earliest = Math.min(earliest, timeline.firstKey());
+            }
+        }
+        return earliest;
+    }
+
+    private TreeMap<Long, JSONObject> read(String group) {
+        TreeMap<Long, JSONObject> timeline = new TreeMap<>();
+        String stored = prefs.getString(group, null);
+        if (stored == null) {
+            return timeline;
+        }
+        try {
+            JSONArray array = new JSONArray(stored);
+            for (int i = 0; i < array.length(); i++) {
+                JSONArray entry = array.getJSONArray(i);
+                timeline.put(entry.getLong(0), entry.getJSONObject(1));
+            }
+        } catch (JSONException e) {
+            Logger.warn(TAG, "Dropping unreadable timeline of " + group);
+        }
+        return timeline;
+    }
+
+    private void write(String group, TreeMap<Long, JSONObject> timeline) {
+        if (timeline.isEmpty()) {
+            prefs.edit().remove(group).apply();
+            return;
+        }
+        JSONArray array = new JSONArray();
+        for (Map.Entry<Long, JSONObject> entry : timeline.entrySet()) {
+            array.put(new JSONArray().put(entry.getKey()).put(entry.getValue()));
+        }
+        prefs.edit().putString(group, array.toString()).apply();
+    }
+}
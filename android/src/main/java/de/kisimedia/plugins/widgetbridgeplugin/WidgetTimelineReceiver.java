@@ -0,0 +1,18 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Receives the alarm of {@link WidgetTimeline} and applies the entries that are due.
+ */
+public class WidgetTimelineReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (WidgetTimeline.ACTION_APPLY.equals(intent.getAction())) {
+            WidgetTimeline.getInstance(context).applyDue(System.currentTimeMillis());
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only view of a stored string value, usually a JSON object.
+ *
+ * Large values are memory-mapped from the file the plugin wrote, and their top-level fields are
+ * located through an index stored in the file header. {@link #field(String)} returns a slice of the
+ * mapping without copying, so a widget update only decodes the fields it renders. Small values are
+ * wrapped in memory and indexed on first use.
+ */
+public final class WidgetValue {
+
+    private static final byte[] MAGIC = { 'W', 'B', 'V', '1' };
+
+    private final ByteBuffer body;
+    private Map<String, int[]> fields;
+
+    private WidgetValue(ByteBuffer body, Map<String, int[]> fields) {
+        this.body = body;
+        this.fields = fields;
+    }
+
+    /**
+     * Maps a file written by {@link #write}.
+     */
+    static WidgetValue map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] magic = new byte[MAGIC.length];
+            mapped.get(magic);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (magic[i] != MAGIC[i]) {
+                    throw new IOException("Not a widget value: " + file);
+                }
+            }
+            int fieldCount = mapped.getInt();
+            Map<String, int[]> fields = new HashMap<>(fieldCount * 2);
+            for (int i = 0; i < fieldCount; i++) {
+                byte[] name = new byte[mapped.getInt()];
+                mapped.get(name);
+                fields.put(new String(name, StandardCharsets.UTF_8), new int[] { mapped.getInt(), mapped.getInt() });
+            }
+            return new WidgetValue(mapped.slice(), fields);
+        }
+    }
+
+    static WidgetValue wrap(String value) {
+        return new WidgetValue(ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8)), null);
+    }
+
+    /**
+     * Encodes {@code value} with its field index, ready to be written to a file.
+     */
+    static byte[] write(String value) {
+        byte[] body = value.getBytes(StandardCharsets.UTF_8);
+        Map<String, int[]> fields = index(body);
+        byte[][] names = new byte[fields.size()][];
+        int headerBytes = MAGIC.length + 4;
+        int i = 0;
+        for (String name : fields.keySet()) {
+            names[i] = name.getBytes(StandardCharsets.UTF_8);
+            headerBytes += 12 + names[i].length;
+            i++;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(headerBytes + body.length);
+        out.put(MAGIC);
+        out.putInt(fields.size());
+        i = 0;
+        for (int[] range : fields.values()) {
+            out.putInt(names[i].length);
+            out.put(names[i]);
+            out.putInt(range[0]);
+            out.putInt(range[1]);
+            i++;
+        }
+        out.put(body);
+        return out.array();
+    }
+
+    /**
+     * Size of the value in UTF-8 bytes.
+     */
+    public int size() {
+        return body.remaining();
+    }
+
+    /**
+     * The whole value. Decodes every byte, so prefer {@link #field(String)} for large objects.
+     */
+    public String asString() {
+        return decode(body.duplicate());
+    }
+
+    /**
+     * Names of the top-level fields, empty when the value is not a JSON object.
+     */
+    public Set<String> fieldNames() {
+        return Collections.unmodifiableSet(fields().keySet());
+    }
+
+    public boolean has(String name) {
+        return fields().containsKey(name);
+    }
+
+    /**
+     * The raw UTF-8 JSON text of a top-level field as a read-only slice, or {@code null}.
+     */
+    public ByteBuffer field(String name) {
+        int[] range = fields().get(name);
+        if (range == null) {
+            return null;
+        }
+        ByteBuffer slice = body.duplicate();
+        slice.position(range[0]);
+        slice.limit(range[0] + range[1]);
+        return slice.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * The JSON text of a top-level field, for example {@code {"a":1}} or {@code 42}, or {@code null}.
+     */
+    public String getJson(String name) {
+        ByteBuffer field = field(name);
+        return field != null ? decode(field) : null;
+    }
+
+    /**
+     * A top-level field as a string: JSON strings are unescaped, other values are returned as
+     * their JSON text. Returns {@code null} for a missing field or a JSON {@code null}.
+     *
+     * @throws IOException when the string contains a malformed escape
+     */
+    public String getString(String name) throws IOException {
+        String json = getJson(name);
+        if (json == null || json.equals("null")) {
+            return null;
+        }
+        return json.startsWith("\"") ? unescape(json, 1, json.length() - 1) : json;
+    }
+
+    private Map<String, int[]> fields() {
+        if (fields == null) {
+            byte[] bytes = new byte[body.remaining()];
+            body.duplicate().get(bytes);
+            fields = index(bytes);
+        }
+        return fields;
+    }
+
+    private static String decode(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    /**
+     * Locates the value of every top-level field of a JSON object. Returns an empty index for
+     * anything that is not a well-formed object.
+     */
+    static Map<String, int[]> index(byte[] json) {
+        Map<String, int[]> fields = new LinkedHashMap<>();
+        int i = skipWhitespace(json, 0);
+        if (i >= json.length || json[i] != '{') {
+            return fields;
+        }
+        i = skipWhitespace(json, i + 1);
+        if (i < json.length && json[i] == '}') {
+            return fields;
+        }
+        while (i < json.length) {
+            if (json[i] != '"') {
+                return Collections.emptyMap();
+            }
+            int nameEnd = skipString(json, i);
+            if (nameEnd < 0) {
+                return Collections.emptyMap();
+            }
+            String name;
+            try {
+                name = unescape(new String(json, i + 1, nameEnd - i - 2, StandardCharsets.UTF_8), 0, -1);
+            } catch (IOException e) {
+                return Collections.emptyMap();
+            }
+            i = skipWhitespace(json, nameEnd);
+            if (i >= json.length || json[i] != ':') {
+                return Collections.emptyMap();
+            }
+            int valueStart = skipWhitespace(json, i + 1);
+            int valueEnd = skipValue(json, valueStart);
+            if (valueEnd < 0) {
+                return Collections.emptyMap();
+            }
+            fields.remove(name);
+            fields.put(name, new int[] { valueStart, valueEnd - valueStart });
+            i = skipWhitespace(json, valueEnd);
+            if (i >= json.length) {
+                return Collections.emptyMap();
+            }
+            if (json[i] == '}') {
+                return fields;
+            }
+            if (json[i] != ',') {
+                return Collections.emptyMap();
+            }
+            i = skipWhitespace(json, i + 1);
+        }
+        return Collections.emptyMap();
+    }
+
+    private static int skipWhitespace(byte[] json, int i) {
+        while (i < json.length && (json[i] == ' ' || json[i] == '\n' || json[i] == '\r' || json[i] == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the index after the closing quote of the string starting at {@code i}, or -1.
+     */
+    private static int skipString(byte[] json, int i) {
+        for (int j = i + 1; j < json.length; j++) {
+            if (json[j] == '\\') {
+                j++;
+            } else if (json[j] == '"') {
+                return j + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipValue(byte[] json, int i) {
+        if (i >= json.length) {
+            return -1;
+        }
+        if (json[i] == '"') {
+            return skipString(json, i);
+        }
+        if (json[i] == '{' || json[i] == '[') {
+            int depth = 0;
+            for (int j = i; j < json.length; j++) {
+                byte c = json[j];
+                if (c == '"') {
+                    j = skipString(json, j);
+                    if (j < 0) {
+                        return -1;
+                    }
+                    j--;
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                    if (depth == 0) {
+                        return j + 1;
+                    }
+                }
+            }
+            return -1;
+        }
+        int j = i;
+        while (j < json.length && json[j] != ',' && json[j] != '}' && json[j] != ']'
+            && json[j] != ' ' && json[j] != '\n' && json[j] != '\r' && json[j] != '\t') {
+            j++;
+        }
+        return j > i ? j : -1;
+    }
+
+    /**
+     * Resolves JSON escapes in {@code text[start, end)}; a negative {@code end} means the end of the text.
+     *
+     * @throws IOException when an escape is truncated or a unicode escape does not have four hex digits
+     */
+    private static String unescape(String text, int start, int end) throws IOException {
+        if (end < 0) {
+            end = text.length();
+        }
+        int backslash = text.indexOf('\\', start);
+        if (backslash < 0 || backslash >= end) {
+            return text.substring(start, end);
+        }
+        StringBuilder out = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            if (i + 1 >= end) {
+                throw new IOException("Truncated escape at " + i);
+            }
+            char next = text.charAt(++i);
+            switch (next) {
+                case 'n':
+                    out.append('\n');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                case 't':
+                    out.append('\t');
+                    break;
+                case 'b':
+                    out.append('\b');
+                    break;
+                case 'f':
+                    out.append('\f');
+                    break;
+                case 'u': {
+                    if (i + 4 >= end) {
+                        throw new IOException("Truncated escape at " + (i - 1));
+                    }
+                    int code = 0;
+                    for (int j = i + 1; j <= i + 4; j++) {
+                        int digit = Character.digit(text.charAt(j), 16);
+                        if (digit < 0) {
+                            throw new IOException("Malformed escape at " + (i - 1));
+                        }
+                        code = code * 16 + digit;
+                    }
+                    out.append((char) code);
+                    i += 4;
+                    break;
+                }
+                default:
+                    out.append(next);
+                    break;
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,319 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import android.content.SharedPreferences;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link SharedPreferences} view of a group that can hold the plugin's writes in memory until they
+ * are flushed to the backend.
+ *
+ * Repeated writes to a key while it is buffered only keep the last value. Reads see buffered values
+ * first, so providers in the same process render them before they reach disk. Writes made through
+ * {@link #edit()} go straight to the backend and drop buffered values of the keys they touch, so a
+ * later flush cannot overwrite them.
+ */
+class WriteBehindPreferences implements SharedPreferences {
+
+    /** Writes go to the backend with {@code apply()}. */
+    static final String MODE_APPLY = "apply";
+    /** Writes go to the backend with {@code commit()} before the call resolves. */
+    static final String MODE_COMMIT = "commit";
+    /** Writes are buffered and flushed together. */
+    static final String MODE_BUFFERED = "buffered";
+
+    static final long DEFAULT_FLUSH_MS = 1000;
+    static final int DEFAULT_MAX_PENDING_KEYS = 64;
+
+    /** Marks a buffered removal. */
+    private static final Object REMOVED = new Object();
+
+    private final SharedPreferences delegate;
+    /** Buffered values in write order; guarded by this. */
+    private final Map<String, Object> pending = new LinkedHashMap<>();
+
+    WriteBehindPreferences(SharedPreferences delegate) {
+        this.delegate = delegate;
+    }
+
+    static boolean isMode(String mode) {
+        return MODE_APPLY.equals(mode) || MODE_COMMIT.equals(mode) || MODE_BUFFERED.equals(mode);
+    }
+
+    /**
+     * Buffers values; {@code null} removes the key.
+     *
+     * @return the number of keys now waiting for a flush
+     */
+    synchronized int buffer(Map<String, ?> values) {
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            pending.put(entry.getKey(), entry.getValue() != null ? entry.getValue() : REMOVED);
+        }
+        return pending.size();
+    }
+
+    /**
+     * Writes values to the backend right away, replacing buffered values of the same keys.
+     * {@code null} removes the key.
+     */
+    synchronized boolean write(Map<String, ?> values, boolean commit) {
+        Editor editor = delegate.edit();
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            pending.remove(entry.getKey());
+            if (entry.getValue() == null) {
+                editor.remove(entry.getKey());
+            } else {
+                putTyped(editor, entry.getKey(), entry.getValue());
+            }
+        }
+        WidgetBridgeMetrics.getInstance().recordWrite(values);
+        return finish(editor, commit);
+    }
+
+    /**
+     * Writes every buffered value to the backend in one edit.
+     *
+     * @return the number of keys written
+     */
+    synchronized int flush(boolean commit) {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        Editor editor = delegate.edit();
+        for (Map.Entry<String, Object> entry : pending.entrySet()) {
+            if (entry.getValue() == REMOVED) {
+                editor.remove(entry.getKey());
+            } else {
+                putTyped(editor, entry.getKey(), entry.getValue());
+            }
+        }
+        int count = pending.size();
+        WidgetBridgeMetrics.getInstance().recordWrite(pending);
+        // The backend holds the values in memory once the edit is applied, so readers never see
+        // a gap between the buffer and the backend.
+        finish(editor, commit);
+        pending.clear();
+        return count;
+    }
+
+    synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    private static boolean finish(Editor editor, boolean commit) {
+        if (commit) {
+            return editor.commit();
+        }
+        editor.apply();
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    static void putTyped(Editor editor, String key, Object value) {
+        if (value instanceof Integer) {
+            editor.putInt(key, (Integer) value);
+        } else if (value instanceof Long) {
+            editor.putLong(key, (Long) value);
+        } else if (value instanceof Float) {
+            editor.putFloat(key, (Float) value);
+        } else if (value instanceof Boolean) {
+            editor.putBoolean(key, (Boolean) value);
+        } else if (value instanceof Set) {
+            editor.putStringSet(key, (Set<String>) value);
+        } else {
+            editor.putString(key, (String) value);
+        }
+    }
+
+    private synchronized Object buffered(String key) {
+        return pending.get(key);
+    }
+
+    @Override
+    public synchronized Map<String, ?> getAll() {
+        Map<String, Object> all = new HashMap<>(delegate.getAll());
+        for (Map.Entry<String, Object> entry : pending.entrySet()) {
+            if (entry.getValue() == REMOVED) {
+                all.remove(entry.getKey());
+            } else {
+                all.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return all;
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        Object value = buffered(key);
+        if (value == null) {
+            return delegate.getString(key, defValue);
+        }
+        return value != REMOVED ? (String) value : defValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Object value = buffered(key);
+        if (value == null) {
+            return delegate.getStringSet(key, defValues);
+        }
+        return value != REMOVED ? Collections.unmodifiableSet((Set<String>) value) : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Object value = buffered(key);
+        if (value == null) {
+            return delegate.getInt(key, defValue);
+        }
+        return value != REMOVED ? (Integer) value : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Object value = buffered(key);
+        if (value == null) {
+            return delegate.getLong(key, defValue);
+        }
+        return value != REMOVED ? (Long) value : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Object value = buffered(key);
+        if (value == null) {
+            return delegate.getFloat(key, defValue);
+        }
+        return value != REMOVED ? (Float) value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Object value = buffered(key);
+        if (value == null) {
+            return delegate.getBoolean(key, defValue);
+        }
+        return value != REMOVED ? (Boolean) value : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        Object value = buffered(key);
+        return value == null ? delegate.contains(key) : value != REMOVED;
+    }
+
+    @Override
+    public Editor edit() {
+        return new EditorImpl(delegate.edit());
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        delegate.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        delegate.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+
+    /**
+     * Editor of the backend that drops buffered values of the keys it writes.
+     */
+    private final class EditorImpl implements Editor {
+
+        private final Editor editor;
+        private final Set<String> keys = new HashSet<>();
+        private boolean clear;
+
+        EditorImpl(Editor editor) {
+            this.editor = editor;
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            keys.add(key);
+            editor.putString(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            keys.add(key);
+            editor.putStringSet(key, values);
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            keys.add(key);
+            editor.putInt(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            keys.add(key);
+            editor.putLong(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            keys.add(key);
+            editor.putFloat(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            keys.add(key);
+            editor.putBoolean(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            keys.add(key);
+            editor.remove(key);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            clear = true;
+            editor.clear();
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            synchronized (WriteBehindPreferences.this) {
+                discardBuffered();
+                return editor.commit();
+            }
+        }
+
+        @Override
+        public void apply() {
+            synchronized (WriteBehindPreferences.this) {
+                discardBuffered();
+                editor.apply();
+            }
+        }
+
+        private void discardBuffered() {
+            if (clear) {
+                pending.clear();
+            } else {
+                pending.keySet().removeAll(keys);
+            }
+        }
+    }
+}
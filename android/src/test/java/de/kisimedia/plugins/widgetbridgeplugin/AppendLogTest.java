@@ -0,0 +1,169 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for AppendLog.
+ * Values must survive a reopen, a torn tail must only cost the torn record, and compaction must
+ * keep every live value, including writes made while it runs.
+ */
+public class AppendLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "group.log");
+    }
+
+    @Test
+    public void testReopen_replaysAllValueTypes() throws Exception {
+        try (AppendLog log = new AppendLog(file, null)) {
+            AppendLog.Batch batch = new AppendLog.Batch();
+            batch.changes.put("title", "My Widget");
+            batch.changes.put("count", 5);
+            batch.changes.put("timestamp", 1234567890L);
+            batch.changes.put("opacity", 0.8f);
+            batch.changes.put("enabled", true);
+            batch.changes.put("tags", new HashSet<>(Arrays.asList("a", "b")));
+            log.append(batch, true);
+            log.append(remove("count"), true);
+        }
+
+        try (AppendLog log = new AppendLog(file, null)) {
+            assertEquals("My Widget", log.get("title"));
+            assertNull(log.get("count"));
+            assertEquals(1234567890L, log.get("timestamp"));
+            assertEquals(0.8f, (Float) log.get("opacity"), 0.001);
+            assertEquals(true, log.get("enabled"));
+            assertEquals(new HashSet<>(Arrays.asList("a", "b")), log.get("tags"));
+            assertEquals(0, log.getRecoveredBytes());
+        }
+    }
+
+    @Test
+    public void testAppend_skipsUnchangedValues() throws Exception {
+        try (AppendLog log = new AppendLog(file, null)) {
+            log.append(put("title", "A"), false);
+            long size = log.getFileBytes();
+
+            List<String> changed = log.append(put("title", "A"), false);
+
+            assertTrue(changed.isEmpty());
+            assertEquals(size, log.getFileBytes());
+            assertEquals(Arrays.asList("title"), log.append(put("title", "B"), false));
+        }
+    }
+
+    @Test
+    public void testTruncatedTail_isCutOffAndEarlierRecordsKept() throws Exception {
+        long intact;
+        try (AppendLog log = new AppendLog(file, null)) {
+            log.append(put("first", "1"), true);
+            intact = log.getFileBytes();
+            log.append(put("second", "2"), true);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        try (AppendLog log = new AppendLog(file, null)) {
+            assertEquals("1", log.get("first"));
+            assertNull(log.get("second"));
+            assertEquals(intact, file.length());
+            assertTrue(log.getRecoveredBytes() > 0);
+
+            log.append(put("third", "3"), true);
+        }
+
+        try (AppendLog log = new AppendLog(file, null)) {
+            assertEquals("1", log.get("first"));
+            assertEquals("3", log.get("third"));
+        }
+    }
+
+    @Test
+    public void testCorruptRecord_isDropped() throws Exception {
+        try (AppendLog log = new AppendLog(file, null)) {
+            log.append(put("first", "1"), true);
+            log.append(put("second", "2"), true);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 1);
+            raf.write('x');
+        }
+
+        try (AppendLog log = new AppendLog(file, null)) {
+            assertEquals("1", log.get("first"));
+            assertNull(log.get("second"));
+        }
+    }
+
+    @Test
+    public void testCompaction_shrinksFileAndKeepsLiveValues() throws Exception {
+        List<Runnable> scheduled = new ArrayList<>();
+        try (AppendLog log = new AppendLog(file, scheduled::add)) {
+            log.setCompactionThreshold(1024, 0.5f);
+            log.append(put("stable", "keep"), false);
+            for (int i = 0; i < 200; i++) {
+                log.append(put("counter", "value-" + i), false);
+            }
+            assertEquals(1, scheduled.size());
+            long before = log.getFileBytes();
+
+            // Written after the snapshot is taken, so it has to be carried over from the backlog.
+            log.append(put("late", "yes"), false);
+            scheduled.get(0).run();
+
+            assertTrue(file.length() < before);
+            assertEquals(file.length(), log.getFileBytes());
+            log.append(put("after", "compaction"), true);
+        }
+
+        try (AppendLog log = new AppendLog(file, null)) {
+            assertEquals("keep", log.get("stable"));
+            assertEquals("value-199", log.get("counter"));
+            assertEquals("yes", log.get("late"));
+            assertEquals("compaction", log.get("after"));
+        }
+    }
+
+    @Test
+    public void testClear_dropsEarlierValuesOnReplay() throws Exception {
+        try (AppendLog log = new AppendLog(file, null)) {
+            log.append(put("old", "1"), false);
+            AppendLog.Batch batch = put("new", "2");
+            batch.clear = true;
+            log.append(batch, true);
+        }
+
+        try (AppendLog log = new AppendLog(file, null)) {
+            assertNull(log.get("old"));
+            assertEquals("2", log.get("new"));
+        }
+    }
+
+    private static AppendLog.Batch put(String key, Object value) {
+        AppendLog.Batch batch = new AppendLog.Batch();
+        batch.changes.put(key, value);
+        return batch;
+    }
+
+    private static AppendLog.Batch remove(String key) {
+        return put(key, null);
+    }
+}
@@ -0,0 +1,74 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Handler;
+import android.os.Looper;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Unit tests for ChangeNotifier.
+ * Changes within one window must arrive as a single batch per group with the newest versions.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class ChangeNotifierTest {
+
+    private final List<String> dispatched = new ArrayList<>();
+    private ChangeNotifier notifier;
+
+    @Before
+    public void setUp() {
+        notifier = new ChangeNotifier(
+            new Handler(Looper.getMainLooper()),
+            (group, changes) -> dispatched.add(group + changes)
+        );
+    }
+
+    @Test
+    public void testChangesWithinWindow_areMergedPerGroup() {
+        notifier.onChanged("a", "title", 1);
+        notifier.onChanged("b", "count", 2);
+        notifier.onChanged("a", "title", 3);
+        notifier.onChanged("a", "subtitle", 4);
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(99));
+        assertTrue(dispatched.isEmpty());
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(1));
+        assertEquals(2, dispatched.size());
+        assertEquals("a{title=3, subtitle=4}", dispatched.get(0));
+        assertEquals("b{count=2}", dispatched.get(1));
+    }
+
+    @Test
+    public void testNextChange_opensNewWindow() {
+        notifier.onChanged("a", "title", 1);
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100));
+        notifier.onChanged("a", "title", 2);
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100));
+
+        assertEquals(2, dispatched.size());
+        assertEquals("a{title=2}", dispatched.get(1));
+    }
+
+    @Test
+    public void testFlush_sendsPendingChangesImmediately() {
+        notifier.setWindowMs(10_000);
+        notifier.onChanged("a", "title", 1);
+
+        notifier.flush();
+
+        assertEquals(1, dispatched.size());
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(10_000));
+        assertEquals(1, dispatched.size());
+    }
+}
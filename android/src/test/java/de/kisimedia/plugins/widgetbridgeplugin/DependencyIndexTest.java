@@ -0,0 +1,58 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Unit tests for DependencyIndex.
+ * Exact keys, prefix patterns and group scoping decide which providers a write reloads.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class DependencyIndexTest {
+
+    @Test
+    public void testProvidersFor_matchesExactKeysAndPrefixes() throws Exception {
+        DependencyIndex index = DependencyIndex.fromJson(
+            new JSONArray()
+                .put(dependency("a.Title", "g", "title", "subtitle"))
+                .put(dependency("a.List", "g", "item:*"))
+                .put(dependency("a.All", "other", "*"))
+        );
+
+        assertEquals(Collections.singleton("a.Title"), index.providersFor("g", Collections.singletonList("subtitle")));
+        assertEquals(Collections.singleton("a.List"), index.providersFor("g", Collections.singletonList("item:3:name")));
+        assertTrue(index.providersFor("g", Collections.singletonList("unrelated")).isEmpty());
+        assertEquals(Collections.singleton("a.All"), index.providersFor("other", Collections.singletonList("anything")));
+
+        Set<String> both = index.providersFor("g", Arrays.asList("title", "item:1"));
+        assertEquals(Arrays.asList("a.Title", "a.List"), Arrays.asList(both.toArray()));
+    }
+
+    @Test
+    public void testProvidersFor_unknownGroupIsEmpty() throws Exception {
+        DependencyIndex index = DependencyIndex.fromJson(new JSONArray().put(dependency("a.Title", "g", "title")));
+
+        assertTrue(index.providersFor("missing", Collections.singletonList("title")).isEmpty());
+        assertTrue(DependencyIndex.EMPTY.isEmpty());
+    }
+
+    @Test(expected = JSONException.class)
+    public void testFromJson_rejectsEntryWithoutKeys() throws Exception {
+        DependencyIndex.fromJson(new JSONArray().put(new JSONObject().put("provider", "a.B").put("group", "g")));
+    }
+
+    private static JSONObject dependency(String provider, String group, String... keys) throws JSONException {
+        return new JSONObject().put("provider", provider).put("group", group).put("keys", new JSONArray(Arrays.asList(keys)));
+    }
+}
@@ -0,0 +1,152 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for GroupExecutors.
+ * Tasks of one group keep their order, while a blocked group must not hold up another group.
+ */
+public class GroupExecutorsTest {
+
+    private ExecutorService pool;
+    private GroupExecutors executors;
+
+    @Before
+    public void setUp() {
+        pool = Executors.newFixedThreadPool(4);
+        executors = new GroupExecutors(pool);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testSameGroup_runsTasksInSubmissionOrder() throws Exception {
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(100);
+
+        for (int i = 0; i < 100; i++) {
+            int index = i;
+            executors.forGroup("g").execute(() -> {
+                order.add(index);
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+        }
+    }
+
+    @Test
+    public void testBlockedGroup_doesNotDelayOtherGroups() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch otherDone = new CountDownLatch(1);
+
+        executors.forGroup("slow").execute(() -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executors.forGroup("fast").execute(otherDone::countDown);
+
+        assertTrue("Other group ran while the slow group was blocked", otherDone.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void testIdleLanes_areDropped() throws Exception {
+        CountDownLatch done = new CountDownLatch(50);
+
+        for (int i = 0; i < 50; i++) {
+            executors.forGroup("g#widget-" + i).execute(done::countDown);
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executors.laneCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, executors.laneCount());
+    }
+
+    @Test
+    public void testLanesRetiringWhileTasksArrive_keepOrderAndLoseNothing() throws Exception {
+        int submitters = 4;
+        int perSubmitter = 2000;
+        List<List<Integer>> orders = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(submitters * perSubmitter * 2);
+        ExecutorService callers = Executors.newFixedThreadPool(submitters);
+        try {
+            for (int s = 0; s < submitters; s++) {
+                List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+                orders.add(order);
+                String group = "g" + s;
+                callers.execute(() -> {
+                    for (int i = 0; i < perSubmitter; i++) {
+                        int index = i;
+                        // Lanes drain between submissions, so they keep retiring and coming back.
+                        executors.forGroup(group).execute(() -> {
+                            order.add(index);
+                            done.countDown();
+                        });
+                        executors.forGroup("shared").execute(done::countDown);
+                        Thread.yield();
+                    }
+                });
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            callers.shutdownNow();
+        }
+        for (List<Integer> order : orders) {
+            for (int i = 0; i < perSubmitter; i++) {
+                assertEquals(Integer.valueOf(i), order.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testExecuteAfterPendingWrites_waitsForEveryGroup() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch reloaded = new CountDownLatch(1);
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+        executors.forGroup("a").execute(() -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            events.add("write a");
+        });
+        executors.forGroup("b").execute(() -> events.add("write b"));
+        executors.executeAfterPendingWrites(executors.forProviders(), () -> {
+            events.add("reload");
+            reloaded.countDown();
+        });
+
+        assertFalse(reloaded.await(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+
+        assertTrue(reloaded.await(5, TimeUnit.SECONDS));
+        assertEquals("reload", events.get(events.size() - 1));
+        assertEquals(3, events.size());
+    }
+}
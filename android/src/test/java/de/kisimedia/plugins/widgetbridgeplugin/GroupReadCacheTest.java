@@ -0,0 +1,178 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Unit tests for GroupReadCache.
+ * The cache must return the same typed values as getAll() and follow writes made outside the plugin.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class GroupReadCacheTest {
+
+    private SharedPreferences prefs;
+
+    @Before
+    public void setUp() {
+        prefs = RuntimeEnvironment.getApplication().getSharedPreferences("cacheGroup", Context.MODE_PRIVATE);
+        prefs.edit().clear().commit();
+    }
+
+    @Test
+    public void testGet_returnsTypedValuesLoadedOnCreation() {
+        prefs.edit()
+            .putString("title", "My Widget")
+            .putInt("count", 5)
+            .putLong("timestamp", 1234567890L)
+            .putFloat("opacity", 0.8f)
+            .putBoolean("enabled", true)
+            .commit();
+
+        GroupReadCache cache = new GroupReadCache(prefs);
+
+        assertEquals("My Widget", cache.get("title"));
+        assertEquals(5, cache.get("count"));
+        assertEquals(1234567890L, cache.get("timestamp"));
+        assertEquals(0.8f, (Float) cache.get("opacity"), 0.001);
+        assertEquals(true, cache.get("enabled"));
+        assertNull(cache.get("missing"));
+    }
+
+    @Test
+    public void testExternalWrites_areSeenThroughListener() {
+        GroupReadCache cache = new GroupReadCache(prefs);
+
+        prefs.edit().putInt("count", 3).commit();
+        assertEquals(3, cache.get("count"));
+
+        prefs.edit().putString("count", "three").commit();
+        assertEquals("Type change is picked up", "three", cache.get("count"));
+
+        prefs.edit().remove("count").commit();
+        assertNull(cache.get("count"));
+    }
+
+    @Test
+    public void testClear_dropsAllEntries() {
+        prefs.edit().putString("a", "1").putString("b", "2").commit();
+        GroupReadCache cache = new GroupReadCache(prefs);
+
+        prefs.edit().clear().commit();
+
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    public void testWriteThrough_isVisibleBeforeListenerRuns() {
+        GroupReadCache cache = new GroupReadCache(prefs);
+
+        cache.put("key", "value");
+        assertEquals("value", cache.get("key"));
+
+        cache.put("key", null);
+        assertNull(cache.get("key"));
+    }
+
+    @Test
+    public void testListener_dropsAValueReadBeforeAPluginWrite() {
+        SharedPreferences racing = mock(SharedPreferences.class);
+        when(racing.getAll()).thenReturn(new HashMap<>());
+        when(racing.contains("key")).thenReturn(true);
+        AtomicReference<GroupReadCache> cache = new AtomicReference<>(new GroupReadCache(racing));
+        // The plugin's lane writes while the listener is between reading and applying.
+        when(racing.getString("key", null)).thenAnswer(invocation -> {
+            cache.get().put("key", "new");
+            return "old";
+        });
+
+        cache.get().onSharedPreferenceChanged(racing, "key");
+
+        assertEquals("new", cache.get().get("key"));
+    }
+
+    @Test
+    public void testVersions_onlyAdvanceOnRealChanges() {
+        prefs.edit().putString("title", "A").putString("other", "B").commit();
+        GroupReadCache cache = new GroupReadCache(prefs);
+        long loaded = cache.getVersion("title");
+        assertEquals(loaded, cache.getVersion("other"));
+        assertEquals(loaded, cache.getVersion("missing"));
+
+        cache.put("title", "A");
+        assertEquals("Identical value keeps the version", loaded, cache.getVersion("title"));
+
+        prefs.edit().putString("title", "C").commit();
+        long changed = cache.getVersion("title");
+        assertTrue(changed > loaded);
+        assertEquals(loaded, cache.getVersion("other"));
+
+        cache.remove("title");
+        assertTrue("Removal is a change too", cache.getVersion("title") > changed);
+    }
+
+    @Test
+    public void testVersions_increaseAcrossCaches() {
+        long first = new GroupReadCache(prefs).getVersion("key");
+        long second = new GroupReadCache(prefs).getVersion("key");
+
+        assertTrue(second > first);
+    }
+
+    @Test
+    public void testKeys_listsSortedRangesAndFollowsChanges() {
+        prefs.edit().putString("item:2", "b").putString("item:1", "a").putString("other", "x").commit();
+        GroupReadCache cache = new GroupReadCache(prefs);
+
+        assertEquals(Arrays.asList("item:1", "item:2"), cache.keys("item:", true, GroupReadCache.prefixEnd("item:"), 10));
+        assertEquals(Arrays.asList("item:2"), cache.keys("item:1", false, null, 1));
+
+        cache.put("item:0", "z");
+        prefs.edit().remove("item:2").commit();
+        assertEquals(Arrays.asList("item:0", "item:1", "other"), cache.keys(null, true, null, 10));
+    }
+
+    @Test
+    public void testPrefixEnd_boundsEveryKeyWithThePrefix() {
+        assertEquals("item;", GroupReadCache.prefixEnd("item:"));
+        assertEquals("b", GroupReadCache.prefixEnd("a\uffff"));
+        assertNull(GroupReadCache.prefixEnd(""));
+    }
+
+    @Test
+    public void testReadTyped_resolvesEveryPreferenceType() {
+        Set<String> tags = new HashSet<>(Arrays.asList("a", "b"));
+        prefs.edit()
+            .putString("str", "hello")
+            .putInt("int", 123)
+            .putLong("long", 999999L)
+            .putFloat("float", 3.14f)
+            .putBoolean("bool", false)
+            .putStringSet("set", tags)
+            .commit();
+
+        assertEquals("hello", GroupReadCache.readTyped(prefs, "str"));
+        assertEquals(123, GroupReadCache.readTyped(prefs, "int"));
+        assertEquals(999999L, GroupReadCache.readTyped(prefs, "long"));
+        assertEquals(3.14f, (Float) GroupReadCache.readTyped(prefs, "float"), 0.001);
+        assertEquals(false, GroupReadCache.readTyped(prefs, "bool"));
+        assertEquals(tags, GroupReadCache.readTyped(prefs, "set"));
+        assertNull(GroupReadCache.readTyped(prefs, "missing"));
+    }
+}
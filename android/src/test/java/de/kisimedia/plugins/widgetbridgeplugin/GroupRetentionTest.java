@@ -0,0 +1,76 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Unit tests for GroupRetention.
+ * Expired and least recently used keys must be picked for removal, and expiry times must survive restarts.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class GroupRetentionTest {
+
+    private SharedPreferences expiryPrefs;
+
+    @Before
+    public void setUp() {
+        expiryPrefs = RuntimeEnvironment.getApplication().getSharedPreferences("retentionGroup", Context.MODE_PRIVATE);
+        expiryPrefs.edit().clear().commit();
+    }
+
+    @Test
+    public void testExpiredKeys_onlyReturnsDueKeysAndSurvivesRestart() {
+        GroupRetention retention = new GroupRetention(expiryPrefs);
+        retention.setExpiry(Arrays.asList("a", "b"), 1000);
+        retention.setExpiry(Collections.singletonList("c"), 2000);
+
+        assertTrue(retention.expiredKeys(999).isEmpty());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(retention.expiredKeys(1000)));
+
+        GroupRetention restarted = new GroupRetention(expiryPrefs);
+        assertEquals(3, restarted.expiredKeys(5000).size());
+
+        restarted.setExpiry(Arrays.asList("a", "b"), 0);
+        restarted.onChanged("c", "value");
+        restarted.onChanged("c", null);
+        assertFalse(restarted.hasExpiringKeys());
+        assertTrue(expiryPrefs.getAll().isEmpty());
+    }
+
+    @Test
+    public void testOverQuota_picksLeastRecentlyUsedKeys() {
+        GroupRetention retention = new GroupRetention(expiryPrefs);
+        retention.onChanged("a", "1");
+        retention.onChanged("b", "2");
+        retention.onChanged("c", "3");
+        retention.touch("a");
+
+        retention.setQuota(2, 0);
+        assertEquals(Collections.singletonList("b"), retention.overQuota(Collections.<String>emptySet()));
+        assertEquals(Collections.singletonList("c"), retention.overQuota(Collections.singleton("b")));
+
+        retention.setQuota(0, GroupRetention.estimateSize("c", "3"));
+        assertEquals(Arrays.asList("b", "c"), retention.overQuota(Collections.<String>emptySet()));
+    }
+
+    @Test
+    public void testEstimateSize_countsLargeValuesWithTheirFile() {
+        String reference = LargeValueStore.referenceFor("x".repeat(50000));
+
+        assertEquals(2 + 50000, GroupRetention.estimateSize("k", reference));
+        assertEquals(2 + 8, GroupRetention.estimateSize("k", 5L));
+        assertEquals(2 + 6, GroupRetention.estimateSize("k", "abc"));
+    }
+}
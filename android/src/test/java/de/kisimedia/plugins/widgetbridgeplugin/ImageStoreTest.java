@@ -0,0 +1,84 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for ImageStore.
+ * Each group must stay under its byte limit by dropping its oldest images, without touching other groups.
+ */
+public class ImageStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ImageStore store;
+
+    @Before
+    public void setUp() {
+        store = new ImageStore(folder.getRoot());
+        store.setMaxGroupBytes(250);
+    }
+
+    @Test
+    public void testWrite_replacesImageInPlace() throws Exception {
+        store.write("g", "cover", new byte[100]);
+        store.write("g", "cover", new byte[50]);
+
+        assertEquals(50, store.fileFor("g", "cover").length());
+        assertEquals(50, store.groupBytes("g"));
+    }
+
+    @Test
+    public void testWrite_evictsOldestImagesOfTheSameGroupOnly() throws Exception {
+        store.write("g", "a", new byte[100]);
+        store.write("g", "b", new byte[100]);
+        store.write("other", "x", new byte[200]);
+        age(store.fileFor("g", "a"), 3000);
+        age(store.fileFor("g", "b"), 2000);
+
+        assertEquals(Collections.singletonList(store.fileFor("g", "a")), store.write("g", "c", new byte[100]));
+
+        assertFalse(store.fileFor("g", "a").exists());
+        assertTrue(store.fileFor("g", "b").exists());
+        assertTrue(store.fileFor("g", "c").exists());
+        assertTrue(store.fileFor("other", "x").exists());
+    }
+
+    @Test
+    public void testWrite_keepsNewImageEvenIfEverythingElseMustGo() throws Exception {
+        store.write("g", "a", new byte[100]);
+        store.write("g", "b", new byte[100]);
+
+        assertEquals(2, store.write("g", "big", new byte[240]).size());
+        assertEquals(240, store.groupBytes("g"));
+    }
+
+    @Test
+    public void testWrite_reportsEvictedFilesOfHashedNames() throws Exception {
+        StringBuilder longName = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            longName.append('n');
+        }
+        File stored = store.fileFor("g", longName.toString());
+        store.write("g", longName.toString(), new byte[200]);
+        age(stored, 1000);
+
+        assertEquals(Collections.singletonList(stored), store.write("g", "next", new byte[100]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrite_rejectsImagesLargerThanTheGroupLimit() throws Exception {
+        store.write("g", "huge", new byte[300]);
+    }
+
+    private static void age(File file, long millis) {
+        assertTrue(file.setLastModified(System.currentTimeMillis() - millis));
+    }
+}
@@ -0,0 +1,114 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Unit tests for JsonMergePatch.
+ * Patches must follow RFC 7386, whether the document is stored as text or flattened into keys.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class JsonMergePatchTest {
+
+    @Test
+    public void testApply_followsRfcExamples() throws Exception {
+        assertPatch("{\"a\":\"b\"}", "{\"a\":\"c\"}", "{\"a\":\"c\"}");
+        assertPatch("{\"a\":\"b\"}", "{\"b\":\"c\"}", "{\"a\":\"b\",\"b\":\"c\"}");
+        assertPatch("{\"a\":\"b\"}", "{\"a\":null}", "{}");
+        assertPatch("{\"a\":\"b\",\"b\":\"c\"}", "{\"a\":null}", "{\"b\":\"c\"}");
+        assertPatch("{\"a\":[\"b\"]}", "{\"a\":\"c\"}", "{\"a\":\"c\"}");
+        assertPatch("{\"a\":\"c\"}", "{\"a\":[\"b\"]}", "{\"a\":[\"b\"]}");
+        assertPatch("{\"a\":{\"b\":\"c\"}}", "{\"a\":{\"b\":\"d\",\"c\":null}}", "{\"a\":{\"b\":\"d\"}}");
+        assertPatch("{\"a\":[{\"b\":\"c\"}]}", "{\"a\":[1]}", "{\"a\":[1]}");
+        assertPatch("[\"a\",\"b\"]", "[\"c\",\"d\"]", "[\"c\",\"d\"]");
+        assertPatch("{\"a\":\"b\"}", "[\"c\"]", "[\"c\"]");
+        assertPatch("{\"e\":null}", "{\"a\":1}", "{\"e\":null,\"a\":1}");
+        assertPatch("[1,2]", "{\"a\":\"b\",\"c\":null}", "{\"a\":\"b\"}");
+        assertPatch("{}", "{\"a\":{\"bb\":{\"ccc\":null}}}", "{\"a\":{\"bb\":{}}}");
+        assertEquals(JSONObject.NULL, JsonMergePatch.apply(parse("{\"a\":\"foo\"}"), JSONObject.NULL));
+        assertEquals("\"bar\"", JsonMergePatch.toJson(JsonMergePatch.apply(parse("{\"a\":\"foo\"}"), "bar")));
+    }
+
+    @Test
+    public void testApply_createsDocumentWhenTargetIsMissing() throws Exception {
+        assertPatch(null, "{\"a\":1,\"b\":null}", "{\"a\":1}");
+    }
+
+    @Test
+    public void testApplyFlattened_touchesOnlyPatchedLeaves() throws Exception {
+        NavigableSet<String> existing = new TreeSet<>(Arrays.asList("w.city", "w.now.temp", "w.now.code", "w.hours.0", "w.hours.1", "w.hours.length", "other"));
+        Map<String, Object> values = new HashMap<>();
+        Set<String> removals = new HashSet<>();
+
+        JsonMergePatch.applyFlattened("w", parse("{\"now\":{\"code\":null},\"hours\":[7],\"city\":{\"name\":\"Oslo\"}}"), existing, values, removals);
+
+        Map<String, Object> expectedValues = new HashMap<>();
+        expectedValues.put("w.hours.0", 7);
+        expectedValues.put("w.hours.length", 1);
+        expectedValues.put("w.city.name", "Oslo");
+        assertEquals(expectedValues, values);
+        assertEquals(new HashSet<>(Arrays.asList("w.now.code", "w.hours.0", "w.hours.1", "w.hours.length", "w.city")), removals);
+    }
+
+    @Test
+    public void testApplyFlattened_replacesArrayWithObject() throws Exception {
+        NavigableSet<String> existing = new TreeSet<>(Arrays.asList("k.a.0", "k.a.1.x", "k.a.length", "k.b"));
+        Map<String, Object> values = new HashMap<>();
+        Set<String> removals = new HashSet<>();
+
+        JsonMergePatch.applyFlattened("k", parse("{\"a\":{\"x\":1,\"0\":null}}"), existing, values, removals);
+
+        Map<String, Object> expectedValues = new HashMap<>();
+        expectedValues.put("k.a.x", 1);
+        assertEquals(expectedValues, values);
+        assertEquals(new HashSet<>(Arrays.asList("k.a.0", "k.a.1.x", "k.a.length")), removals);
+    }
+
+    @Test
+    public void testApplyFlattened_mergesIntoObjectWithLengthMember() throws Exception {
+        NavigableSet<String> existing = new TreeSet<>(Arrays.asList("k.size.length", "k.size.unit"));
+        Map<String, Object> values = new HashMap<>();
+        Set<String> removals = new HashSet<>();
+
+        JsonMergePatch.applyFlattened("k", parse("{\"size\":{\"length\":3}}"), existing, values, removals);
+
+        assertEquals(3, values.get("k.size.length"));
+        assertEquals(new HashSet<>(Arrays.asList("k.size.length")), removals);
+    }
+
+    @Test
+    public void testParse_rejectsTextThatIsNotJson() {
+        for (String text : new String[] { "not json {", "{\"a\":1} tail", "" }) {
+            try {
+                JsonMergePatch.parse(text);
+                fail("Parsed " + text);
+            } catch (JSONException expected) {
+                // Rejected as it should be.
+            }
+        }
+    }
+
+    private static void assertPatch(String target, String patch, String expected) throws Exception {
+        Object result = JsonMergePatch.apply(target != null ? parse(target) : null, parse(patch));
+        assertEquals(parse(expected).toString(), JsonMergePatch.toJson(result));
+    }
+
+    private static Object parse(String json) throws Exception {
+        return new JSONTokener(json).nextValue();
+    }
+}
@@ -0,0 +1,208 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Decides whether a history of reads and writes of one key is linearizable: whether every
+ * operation can be placed at one instant between its call and its return so that each read returns
+ * the value of the latest write placed before it.
+ *
+ * This is the search of Wing and Gong with the memoization of Lowe. Operations are placed one at a
+ * time, any of those called before the earliest pending return first; when no operation fits, the
+ * search backtracks. Combinations of placed operations and value that were explored before are
+ * skipped, which keeps the search small while only a few calls overlap.
+ */
+final class LinearizabilityChecker {
+
+    /**
+     * One call of a history. A write of {@code null} is a removal; a read of {@code null} found no
+     * value. Times are ticks of a clock shared by the whole history.
+     */
+    static final class Operation {
+
+        final boolean write;
+        final long calledAt;
+        String value;
+        long returnedAt = -1;
+
+        private Operation(boolean write, String value, long calledAt) {
+            this.write = write;
+            this.value = value;
+            this.calledAt = calledAt;
+        }
+
+        static Operation write(String value, long calledAt) {
+            return new Operation(true, value, calledAt);
+        }
+
+        static Operation read(long calledAt) {
+            return new Operation(false, null, calledAt);
+        }
+
+        /**
+         * @param result the value a read returned; ignored for writes
+         */
+        void complete(String result, long returnedAt) {
+            if (!write) {
+                value = result;
+            }
+            this.returnedAt = returnedAt;
+        }
+
+        @Override
+        public String toString() {
+            return (write ? "write(" : "read(") + value + ")@" + calledAt + ".." + returnedAt;
+        }
+    }
+
+    private static final class Event {
+
+        final Operation operation;
+        final int index;
+        final boolean call;
+        Event match;
+        Event prev;
+        Event next;
+
+        Event(Operation operation, int index, boolean call) {
+            this.operation = operation;
+            this.index = index;
+            this.call = call;
+        }
+
+        long time() {
+            return call ? operation.calledAt : operation.returnedAt;
+        }
+    }
+
+    private static final class Placed {
+
+        final Event call;
+        final String previous;
+
+        Placed(Event call, String previous) {
+            this.call = call;
+            this.previous = previous;
+        }
+    }
+
+    private static final class Explored {
+
+        final BitSet placed;
+        final String value;
+
+        Explored(BitSet placed, String value) {
+            this.placed = placed;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Explored)) {
+                return false;
+            }
+            Explored that = (Explored) other;
+            return placed.equals(that.placed) && Objects.equals(value, that.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return placed.hashCode() * 31 + Objects.hashCode(value);
+        }
+    }
+
+    private LinearizabilityChecker() {}
+
+    /**
+     * @param history completed operations of one key
+     * @param initial the value before the first operation, or {@code null} when the key was absent
+     */
+    static boolean isLinearizable(List<Operation> history, String initial) {
+        List<Event> events = new ArrayList<>(2 * history.size());
+        for (int i = 0; i < history.size(); i++) {
+            Operation operation = history.get(i);
+            if (operation.returnedAt < operation.calledAt) {
+                throw new IllegalArgumentException("Operation never returned: " + operation);
+            }
+            Event call = new Event(operation, i, true);
+            Event ret = new Event(operation, i, false);
+            call.match = ret;
+            events.add(call);
+            events.add(ret);
+        }
+        events.sort(Comparator.comparingLong(Event::time));
+
+        Event head = new Event(null, -1, false);
+        Event last = head;
+        for (Event event : events) {
+            last.next = event;
+            event.prev = last;
+            last = event;
+        }
+
+        BitSet placed = new BitSet(history.size());
+        String value = initial;
+        Set<Explored> explored = new HashSet<>();
+        Deque<Placed> stack = new ArrayDeque<>();
+        Event entry = head.next;
+        while (head.next != null) {
+            if (entry.call) {
+                Operation operation = entry.operation;
+                if (operation.write || Objects.equals(operation.value, value)) {
+                    String next = operation.write ? operation.value : value;
+                    BitSet withEntry = (BitSet) placed.clone();
+                    withEntry.set(entry.index);
+                    if (explored.add(new Explored(withEntry, next))) {
+                        stack.push(new Placed(entry, value));
+                        placed = withEntry;
+                        value = next;
+                        lift(entry);
+                        entry = head.next;
+                        continue;
+                    }
+                }
+                entry = entry.next;
+            } else {
+                // An operation returned before any order could place it: undo the latest choice.
+                if (stack.isEmpty()) {
+                    return false;
+                }
+                Placed undone = stack.pop();
+                placed = (BitSet) placed.clone();
+                placed.clear(undone.call.index);
+                value = undone.previous;
+                unlift(undone.call);
+                entry = undone.call.next;
+            }
+        }
+        return true;
+    }
+
+    private static void lift(Event call) {
+        call.prev.next = call.next;
+        call.next.prev = call.prev;
+        Event ret = call.match;
+        ret.prev.next = ret.next;
+        if (ret.next != null) {
+            ret.next.prev = ret.prev;
+        }
+    }
+
+    private static void unlift(Event call) {
+        Event ret = call.match;
+        ret.prev.next = ret;
+        if (ret.next != null) {
+            ret.next.prev = ret;
+        }
+        call.prev.next = call;
+        call.next.prev = call;
+    }
+}
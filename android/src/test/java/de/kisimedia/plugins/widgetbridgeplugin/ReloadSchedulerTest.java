@@ -0,0 +1,146 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.appwidget.AppWidgetProvider;
+import android.content.ComponentName;
+import android.os.Handler;
+import android.os.Looper;
+import com.getcapacitor.JSObject;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Unit tests for ReloadScheduler.
+ * Verifies that bursts of reload requests are merged per provider within the debounce window.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class ReloadSchedulerTest {
+
+    public static class FirstProvider extends AppWidgetProvider {}
+
+    public static class SecondProvider extends AppWidgetProvider {}
+
+    private final List<String> dispatched = new ArrayList<>();
+    private ReloadScheduler scheduler;
+    private WidgetProviderRegistry.Entry first;
+    private WidgetProviderRegistry.Entry second;
+
+    @Before
+    public void setUp() {
+        scheduler = new ReloadScheduler(
+            new Handler(Looper.getMainLooper()),
+            (entry, ids, keys) -> dispatched.add(entry.widgetClass.getSimpleName() + Arrays.toString(ids) + (keys != null ? keys : ""))
+        );
+        first = new WidgetProviderRegistry.Entry(
+            FirstProvider.class,
+            new ComponentName(RuntimeEnvironment.getApplication(), FirstProvider.class)
+        );
+        second = new WidgetProviderRegistry.Entry(
+            SecondProvider.class,
+            new ComponentName(RuntimeEnvironment.getApplication(), SecondProvider.class)
+        );
+    }
+
+    @Test
+    public void testRequest_withoutDebounceDispatchesImmediately() {
+        scheduler.configure(0, 1000);
+
+        scheduler.request(first, new int[] { 1 });
+        scheduler.request(first, new int[] { 1 });
+
+        assertEquals(2, dispatched.size());
+    }
+
+    @Test
+    public void testDefaultWindow_mergesBurst() {
+        scheduler.request(first, new int[] { 1 });
+        scheduler.request(first, new int[] { 2 });
+        assertTrue(dispatched.isEmpty());
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(ReloadScheduler.DEFAULT_DEBOUNCE_MS));
+
+        assertEquals(Collections.singletonList("FirstProvider[1, 2]"), dispatched);
+    }
+
+    @Test
+    public void testRequest_mergesBurstIntoOneBroadcastPerProvider() throws Exception {
+        scheduler.configure(200, 1000);
+
+        scheduler.request(first, new int[] { 1, 2 });
+        scheduler.request(first, new int[] { 2, 3 });
+        scheduler.request(second, new int[] { 7 });
+        scheduler.request(first, new int[] { 1 });
+        assertTrue("Nothing is sent inside the window", dispatched.isEmpty());
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(200));
+
+        assertEquals(2, dispatched.size());
+        assertTrue(dispatched.contains("FirstProvider[1, 2, 3]"));
+        assertTrue(dispatched.contains("SecondProvider[7]"));
+
+        JSObject stats = scheduler.getStats();
+        assertEquals(4, stats.getInt("requested"));
+        assertEquals(2, stats.getInt("broadcasts"));
+        assertEquals(2, stats.getInt("coalesced"));
+        assertEquals(0, stats.getInt("pending"));
+    }
+
+    @Test
+    public void testRequest_maxLatencyBoundsContinuousBursts() {
+        scheduler.configure(100, 250);
+
+        for (int i = 0; i < 5; i++) {
+            scheduler.request(first, new int[] { 1 });
+            shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(60));
+        }
+
+        assertEquals("Flushed once the oldest request hit the latency bound", 1, dispatched.size());
+    }
+
+    @Test
+    public void testFlush_sendsPendingRequestsImmediately() {
+        scheduler.configure(10_000, 10_000);
+        scheduler.request(first, new int[] { 4 });
+
+        scheduler.flush();
+
+        assertEquals(1, dispatched.size());
+        assertEquals("FirstProvider[4]", dispatched.get(0));
+    }
+
+    @Test
+    public void testRequest_mergesChangedKeysUnlessOneRequestIsFull() {
+        scheduler.configure(10_000, 10_000);
+        scheduler.request(first, new int[] { 1 }, Collections.singleton("b"));
+        scheduler.request(first, new int[] { 2 }, Collections.singleton("a"));
+        scheduler.request(second, new int[] { 7 }, Collections.singleton("a"));
+        scheduler.request(second, new int[] { 7 });
+
+        scheduler.flush();
+
+        assertTrue(dispatched.contains("FirstProvider[1, 2][a, b]"));
+        assertTrue(dispatched.contains("SecondProvider[7]"));
+    }
+
+    @Test
+    public void testRequest_withoutWidgetsSendsNothing() {
+        scheduler.configure(50, 100);
+        scheduler.request(first, new int[0]);
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(50));
+
+        assertTrue(dispatched.isEmpty());
+    }
+}
@@ -0,0 +1,82 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Unit tests for TypedValues.
+ * JavaScript values must map onto the native SharedPreferences types without going through strings.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class TypedValuesTest {
+
+    @Test
+    public void testConvert_infersNativeTypes() {
+        assertEquals("a", TypedValues.convert("a", null));
+        assertEquals(true, TypedValues.convert(true, null));
+        assertEquals(3, TypedValues.convert(3, null));
+        assertEquals(3, TypedValues.convert(3.0, null));
+        assertEquals(4102444800000L, TypedValues.convert(4102444800000d, null));
+        assertEquals(0.25f, TypedValues.convert(0.25, null));
+        assertEquals(new HashSet<>(Arrays.asList("x", "y")), TypedValues.convert(new JSONArray().put("x").put("y"), null));
+    }
+
+    @Test
+    public void testConvert_honoursExplicitTypes() {
+        assertEquals(7L, TypedValues.convert(7, TypedValues.TYPE_LONG));
+        assertEquals(7f, TypedValues.convert(7, TypedValues.TYPE_FLOAT));
+        assertEquals(7, TypedValues.convert(7.0, TypedValues.TYPE_INT));
+        assertRejected(7.5, TypedValues.TYPE_INT);
+        assertRejected(4102444800000d, TypedValues.TYPE_INT);
+        assertRejected("7", TypedValues.TYPE_INT);
+        assertRejected(1, TypedValues.TYPE_BOOLEAN);
+        assertRejected(new JSONArray().put(1), TypedValues.TYPE_STRING_SET);
+        assertRejected("a", "double");
+    }
+
+    @Test
+    public void testConvert_rejectsObjectsWithoutJsonType() {
+        assertRejected(new JSONObject(), null);
+        assertRejected(new JSONArray().put(1), null);
+    }
+
+    @Test
+    public void testFlatten_createsOneTypedKeyPerLeaf() throws Exception {
+        JSONObject value = new JSONObject()
+            .put("title", "Inbox")
+            .put("unread", 4)
+            .put("muted", JSONObject.NULL)
+            .put("items", new JSONArray().put(new JSONObject().put("id", 1)).put("second"));
+        Map<String, Object> out = new HashMap<>();
+
+        TypedValues.flatten("mail", value, out);
+
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("mail.title", "Inbox");
+        expected.put("mail.unread", 4);
+        expected.put("mail.items.0.id", 1);
+        expected.put("mail.items.1", "second");
+        expected.put("mail.items.length", 2);
+        assertEquals(expected, out);
+    }
+
+    private static void assertRejected(Object value, String type) {
+        try {
+            TypedValues.convert(value, type);
+            fail("Expected " + value + " to be rejected as " + type);
+        } catch (IllegalArgumentException expected) {
+            // Expected.
+        }
+    }
+}
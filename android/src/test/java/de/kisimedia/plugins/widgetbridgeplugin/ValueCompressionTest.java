@@ -0,0 +1,151 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+import com.getcapacitor.JSObject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Unit tests for ValueCompression.
+ * Compressed values must round-trip, shrink with a trained dictionary and never be confused with plain strings.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class ValueCompressionTest {
+
+    private static final String GROUP = "compressedGroup";
+
+    private SharedPreferences prefs;
+    private ValueCompression compression;
+
+    @Before
+    public void setUp() {
+        prefs = RuntimeEnvironment.getApplication().getSharedPreferences(ValueCompression.PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().clear().commit();
+        compression = new ValueCompression(prefs);
+    }
+
+    @Test
+    public void testEncode_roundTripsValuesAboveThresholdOnly() throws Exception {
+        compression.configure(GROUP, 100, null, 0);
+        String small = "{\"title\":\"short\"}";
+        String large = timeline(0);
+
+        assertSame(small, compression.encode(GROUP, small));
+        String stored = compression.encode(GROUP, large);
+        assertTrue(ValueCompression.isCompressed(stored));
+        assertTrue(stored.length() < large.length());
+        assertEquals(large, compression.decode(GROUP, stored));
+    }
+
+    @Test
+    public void testTrainedDictionary_shrinksValuesFurtherAndIsPersisted() throws Exception {
+        List<String> samples = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            samples.add(timeline(i));
+        }
+        String value = timeline(99);
+        compression.configure(GROUP, 100, null, 0);
+        String plain = compression.encode(GROUP, value);
+
+        int size = compression.configure(GROUP, 100, samples, ValueCompression.DEFAULT_DICTIONARY_BYTES);
+        String trained = compression.encode(GROUP, value);
+
+        assertTrue(size > 0 && size <= ValueCompression.DEFAULT_DICTIONARY_BYTES);
+        assertTrue("dictionary " + trained.length() + " vs plain " + plain.length(), trained.length() < plain.length());
+        // A provider process only has what is on disk.
+        ValueCompression coldStart = new ValueCompression(prefs);
+        assertEquals(value, coldStart.decode(GROUP, trained));
+        assertEquals(value, coldStart.decode(GROUP, plain));
+        assertEquals(100, coldStart.settingsFor(GROUP).threshold);
+    }
+
+    @Test
+    public void testEncode_alwaysWrapsStringsThatLookCompressed() throws Exception {
+        String lookalike = "widgetbridge:deflate:v1:0:3:abc";
+
+        String stored = compression.encode(GROUP, lookalike);
+
+        assertNotEquals(lookalike, stored);
+        assertEquals(lookalike, compression.decode(GROUP, stored));
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecode_failsWithoutDictionary() throws Exception {
+        compression.configure(GROUP, 100, Collections.nCopies(3, timeline(1)), 1024);
+        String stored = compression.encode(GROUP, timeline(2));
+        prefs.edit().clear().commit();
+
+        new ValueCompression(prefs).decode(GROUP, stored);
+    }
+
+    @Test
+    public void testStats_reportRatioAndCpuTime() throws Exception {
+        compression.configure(GROUP, 100, null, 0);
+        String stored = compression.encode(GROUP, timeline(1));
+        compression.decode(GROUP, stored);
+
+        JSObject stats = compression.getStats(GROUP);
+        assertEquals(1, stats.getInt("compressed"));
+        assertEquals(1, stats.getInt("decompressed"));
+        assertTrue(stats.getDouble("ratio") > 1);
+        assertTrue(stats.getDouble("compressCpuMs") >= 0);
+    }
+
+    @Test
+    public void testConfigure_zeroThresholdTurnsCompressionOff() {
+        compression.configure(GROUP, 100, null, 0);
+        compression.configure(GROUP, 0, null, 0);
+
+        assertEquals(timeline(1), compression.encode(GROUP, timeline(1)));
+        assertEquals(0, new ValueCompression(prefs).settingsFor(GROUP).threshold);
+    }
+
+    @Test
+    public void testConfigure_refusesToReplaceADictionaryWithTheSameId() throws Exception {
+        List<String> samples = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            samples.add(timeline(i));
+        }
+        String id = ValueCompression.idOf(ValueCompression.train(samples, ValueCompression.DEFAULT_DICTIONARY_BYTES));
+        prefs.edit().putString(ValueCompression.KEY_DICTIONARY_PREFIX + id, Base64.encodeToString(new byte[] { 1, 2, 3 }, Base64.NO_WRAP)).commit();
+
+        try {
+            compression.configure(GROUP, 100, samples, ValueCompression.DEFAULT_DICTIONARY_BYTES);
+            fail("Replaced dictionary " + id);
+        } catch (IllegalStateException expected) {
+            // Rejected as it should be.
+        }
+        assertEquals(0, compression.settingsFor(GROUP).threshold);
+        assertEquals(32, id.length());
+    }
+
+    /**
+     * A timeline payload like the ones apps store: repeated entries that differ in a few fields.
+     */
+    static String timeline(int seed) {
+        StringBuilder json = new StringBuilder("{\"entries\":[");
+        for (int i = 0; i < 30; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"date\":").append(1700000000000L + (seed * 31L + i) * 60000)
+                .append(",\"title\":\"Match ").append(seed * 7 + i)
+                .append("\",\"status\":\"").append(i % 3 == 0 ? "live" : "scheduled")
+                .append("\",\"score\":{\"home\":").append((seed + i) % 5).append(",\"away\":").append(i % 4).append("}}");
+        }
+        return json.append("]}").toString();
+    }
+}
@@ -0,0 +1,158 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.RemoteViews;
+import android.widget.TextView;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Unit tests for WidgetBinding.
+ * Bindings must resolve their resources once and render stored values without any JavaScript.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class WidgetBindingTest {
+
+    private static final String LAYOUT = "android:layout/simple_list_item_1";
+    private static final String TEXT_VIEW = "android:id/text1";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        WidgetBridgeStore.resetForTesting();
+        ValueCompression.resetForTesting();
+    }
+
+    @Test
+    public void testRender_formatsValueIntoBoundView() throws Exception {
+        WidgetBinding binding = WidgetBinding.compile(context, spec(view("temperature").put("format", "%.1f°")));
+        Map<String, Object> values = new HashMap<>();
+        values.put("temperature", 21.25f);
+
+        assertEquals("21.3°", render(binding, values, null).getText().toString());
+        assertEquals(Collections.singleton("temperature"), binding.keys());
+    }
+
+    @Test
+    public void testRender_usesFallbackForMissingKey() throws Exception {
+        WidgetBinding binding = WidgetBinding.compile(context, spec(view("title").put("fallback", "No data")));
+
+        assertEquals("No data", render(binding, new HashMap<>(), null).getText().toString());
+    }
+
+    @Test
+    public void testRender_partialUpdateOnlySetsViewsOfChangedKeys() throws Exception {
+        WidgetBinding binding = WidgetBinding.compile(context, spec(view("title")));
+        Map<String, Object> values = new HashMap<>();
+        values.put("title", "Hello");
+
+        assertEquals("Hello", render(binding, values, Collections.singleton("title")).getText().toString());
+        assertEquals("", render(binding, values, Collections.singleton("other")).getText().toString());
+    }
+
+    @Test
+    public void testRender_decompressesValuesOfCompressedGroups() throws Exception {
+        WidgetBinding binding = WidgetBinding.compile(context, spec(view("summary")));
+        String summary = ValueCompressionTest.timeline(1);
+        ValueCompression compression = ValueCompression.getInstance(context);
+        compression.configure("bindingGroup", 100, null, 0);
+        String stored = compression.encode("bindingGroup", summary);
+        WidgetBridgeStore.open(context, "bindingGroup").edit().putString("summary", stored).commit();
+
+        assertTrue(ValueCompression.isCompressed(stored));
+        assertEquals(summary, render(binding, Collections.singletonMap("summary", stored), null).getText().toString());
+    }
+
+    @Test
+    public void testRead_onlyReadsBoundKeys() throws Exception {
+        WidgetBinding binding = WidgetBinding.compile(context, spec(view("title")));
+        SharedPreferences prefs = spy(WidgetBridgeStore.open(context, "bindingGroup"));
+        prefs.edit().putString("title", "Hello").putInt("count", 3).commit();
+
+        assertEquals(Collections.singletonMap("title", "Hello"), binding.read(prefs, null));
+        assertTrue(binding.read(prefs, Collections.singleton("count")).isEmpty());
+        verify(prefs, never()).getAll();
+    }
+
+    @Test
+    public void testRender_visibilityFollowsTruthiness() throws Exception {
+        WidgetBinding binding = WidgetBinding.compile(context, spec(view("badge").put("attribute", "visibility")));
+        Map<String, Object> values = new HashMap<>();
+
+        values.put("badge", 0);
+        assertEquals(View.GONE, render(binding, values, null).getVisibility());
+        values.put("badge", 3);
+        assertEquals(View.VISIBLE, render(binding, values, null).getVisibility());
+    }
+
+    @Test
+    public void testFormat_fallsBackToPlainValueWhenPatternDoesNotFitType() throws Exception {
+        WidgetBinding.ViewBinding view = new WidgetBinding.ViewBinding(1, "count", WidgetBinding.ATTRIBUTE_TEXT, "%d items", null, 100);
+
+        assertEquals("3 items", WidgetBinding.format(view, 3).toString());
+        assertEquals("three", WidgetBinding.format(view, "three").toString());
+    }
+
+    @Test
+    public void testCompile_rejectsUnknownResourcesAttributesAndPatterns() throws Exception {
+        assertInvalid(spec(view("title")).put("layout", "no_such_layout"));
+        assertInvalid(spec(view("title").put("view", "no_such_view")));
+        assertInvalid(spec(view("title").put("attribute", "color")));
+        assertInvalid(spec(view("title").put("format", "%q")));
+    }
+
+    @Test(expected = JSONException.class)
+    public void testCompile_requiresGroup() throws Exception {
+        JSONObject spec = spec(view("title"));
+        spec.remove("group");
+        WidgetBinding.compile(context, spec);
+    }
+
+    private void assertInvalid(JSONObject spec) throws JSONException {
+        try {
+            WidgetBinding.compile(context, spec);
+            fail("Expected IllegalArgumentException for " + spec);
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    private TextView render(WidgetBinding binding, Map<String, ?> values, Collection<String> changedKeys) {
+        RemoteViews views = binding.render(context, "bindingGroup", values, changedKeys);
+        return (TextView) views.apply(context, new FrameLayout(context));
+    }
+
+    private static JSONObject spec(JSONObject view) throws JSONException {
+        return new JSONObject()
+            .put("provider", "com.example.Widget")
+            .put("group", "bindingGroup")
+            .put("layout", LAYOUT)
+            .put("views", new JSONArray().put(view));
+    }
+
+    private static JSONObject view(String key) throws JSONException {
+        return new JSONObject().put("view", TEXT_VIEW).put("key", key);
+    }
+}
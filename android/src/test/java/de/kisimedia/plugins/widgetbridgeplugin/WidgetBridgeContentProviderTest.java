@@ -0,0 +1,327 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Looper;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Unit tests for WidgetBridgeContentProvider and RemotePreferences.
+ * Other processes must read and write the store in batches and only refetch a group after it changed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class WidgetBridgeContentProviderTest {
+
+    private static final String GROUP = "remoteGroup";
+
+    /**
+     * Holds reads until the test releases them.
+     */
+    public static class BlockingProvider extends WidgetBridgeContentProvider {
+
+        static final CountDownLatch entered = new CountDownLatch(1);
+        static final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public Bundle call(String method, String group, Bundle extras) {
+            if (METHOD_READ.equals(method)) {
+                entered.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.call(method, group, extras);
+        }
+    }
+
+    private Context context;
+    private ContentResolver resolver;
+    private Uri groupUri;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        WidgetBridgeStore.resetForTesting();
+        Robolectric.setupContentProvider(WidgetBridgeContentProvider.class, context.getPackageName() + WidgetBridgeContentProvider.AUTHORITY_SUFFIX);
+        resolver = context.getContentResolver();
+        groupUri = WidgetBridgeContentProvider.groupUri(context, GROUP);
+    }
+
+    @Test
+    public void testQuery_returnsTypedRowsForSelectedKeys() {
+        store().edit().putString("title", "Hello").putInt("count", 3).putBoolean("done", true).commit();
+
+        try (Cursor cursor = resolver.query(groupUri, null, null, new String[] { "count", "done", "missing" }, null)) {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("count", cursor.getString(0));
+            assertEquals(TypedValues.TYPE_INT, cursor.getString(1));
+            assertEquals(3, cursor.getInt(2));
+            cursor.moveToNext();
+            assertEquals(TypedValues.TYPE_BOOLEAN, cursor.getString(1));
+            assertEquals(1, cursor.getInt(2));
+        }
+    }
+
+    @Test
+    public void testRead_skipsValuesWhileVersionIsCurrent() {
+        store().edit().putString("title", "A").commit();
+        Bundle first = resolver.call(groupUri, WidgetBridgeContentProvider.METHOD_READ, GROUP, null);
+        assertEquals("A", first.getBundle(WidgetBridgeContentProvider.EXTRA_VALUES).getString("title"));
+
+        Bundle extras = new Bundle();
+        extras.putLong(WidgetBridgeContentProvider.EXTRA_IF_VERSION, first.getLong(WidgetBridgeContentProvider.EXTRA_VERSION));
+        Bundle unchanged = resolver.call(groupUri, WidgetBridgeContentProvider.METHOD_READ, GROUP, extras);
+        assertFalse(unchanged.getBoolean(WidgetBridgeContentProvider.EXTRA_MODIFIED));
+        assertNull(unchanged.getBundle(WidgetBridgeContentProvider.EXTRA_VALUES));
+
+        store().edit().putString("title", "B").commit();
+        shadowOf(Looper.getMainLooper()).idle();
+        Bundle changed = resolver.call(groupUri, WidgetBridgeContentProvider.METHOD_READ, GROUP, extras);
+        assertTrue(changed.getBoolean(WidgetBridgeContentProvider.EXTRA_MODIFIED));
+        assertEquals("B", changed.getBundle(WidgetBridgeContentProvider.EXTRA_VALUES).getString("title"));
+    }
+
+    @Test
+    public void testPluginWrites_areAnnouncedBeforeTheProviderServedTheGroup() {
+        AtomicInteger notifications = new AtomicInteger();
+        resolver.registerContentObserver(groupUri, false, new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                notifications.incrementAndGet();
+            }
+        });
+
+        WidgetBridgeStore.openBuffered(context, GROUP).write(Collections.singletonMap("title", "A"), true);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertEquals(1, notifications.get());
+    }
+
+    @Test
+    public void testRead_selectedKeysKeepTheirTypesAndVersionsNeverRepeat() {
+        store().edit().putLong("timestamp", 42L).putStringSet("tags", new HashSet<>(Arrays.asList("x"))).putString("title", "A").commit();
+        Bundle extras = new Bundle();
+        extras.putStringArray(WidgetBridgeContentProvider.EXTRA_KEYS, new String[] { "timestamp", "tags", "missing" });
+
+        Bundle result = resolver.call(groupUri, WidgetBridgeContentProvider.METHOD_READ, GROUP, extras);
+        Map<String, Object> values = WidgetBridgeContentProvider.getValues(result);
+
+        assertEquals(2, values.size());
+        assertEquals(42L, values.get("timestamp"));
+        assertEquals(new HashSet<>(Arrays.asList("x")), values.get("tags"));
+        // Versions started from milliseconds could be reused by a process that restarts quickly.
+        assertTrue(result.getLong(WidgetBridgeContentProvider.EXTRA_VERSION) > System.currentTimeMillis() * 100);
+    }
+
+    @Test
+    public void testApplyBatch_writesEachGroupInOneEditWithOneNotification() throws Exception {
+        AtomicInteger notifications = new AtomicInteger();
+        resolver.registerContentObserver(groupUri, false, new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                notifications.incrementAndGet();
+            }
+        });
+        store().edit().putString("old", "x").commit();
+        shadowOf(Looper.getMainLooper()).idle();
+        notifications.set(0);
+
+        ContentValues first = new ContentValues();
+        first.put("title", "Batch");
+        ContentValues second = new ContentValues();
+        second.put("count", 2);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(Arrays.asList(
+            ContentProviderOperation.newInsert(groupUri).withValues(first).build(),
+            ContentProviderOperation.newUpdate(groupUri).withValues(second).build(),
+            ContentProviderOperation.newDelete(groupUri).withSelection(null, new String[] { "old" }).build()
+        ));
+
+        resolver.applyBatch(context.getPackageName() + WidgetBridgeContentProvider.AUTHORITY_SUFFIX, operations);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertEquals("Batch", store().getString("title", null));
+        assertEquals(2, store().getInt("count", 0));
+        assertFalse(store().contains("old"));
+        assertEquals(1, notifications.get());
+    }
+
+    @Test
+    public void testUpdate_spillsLargeValuesAndDeletesTheirFileWhenReplaced() throws Exception {
+        String large = "x".repeat(LargeValueStore.DEFAULT_THRESHOLD * 2);
+        ContentValues values = new ContentValues();
+        values.put("body", large);
+
+        resolver.update(groupUri, values, null, null);
+
+        File file = LargeValueStore.forContext(context).fileFor(GROUP, "body");
+        assertTrue(LargeValueStore.isReference(store().getString("body", null)));
+        assertTrue(file.exists());
+        assertEquals(large, WidgetBridgeStore.readValue(context, GROUP, "body").asString());
+
+        values.put("body", "small");
+        resolver.update(groupUri, values, null, null);
+
+        assertEquals("small", store().getString("body", null));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testDelete_countsOnlyKeysThatWereStored() {
+        store().edit().putString("a", "1").commit();
+
+        assertEquals(1, resolver.delete(groupUri, null, new String[] { "a", "missing" }));
+        assertFalse(store().contains("a"));
+    }
+
+    @Test
+    public void testWrite_clearsTheExpiryOfKeysWrittenWithoutTtl() {
+        SharedPreferences expiryPrefs = GroupRetention.expiryPrefs(context, GROUP);
+        expiryPrefs.edit().putLong("title", System.currentTimeMillis() + 60000).commit();
+
+        assertTrue(WidgetBridgeStore.openRemote(context, GROUP).edit().putString("title", "Kept").commit());
+
+        assertEquals("Kept", store().getString("title", null));
+        assertFalse(expiryPrefs.contains("title"));
+    }
+
+    @Test
+    public void testRead_leavesOutKeysWhoseTtlPassedBeforeTheSweep() throws Exception {
+        store().edit().putString("title", "Stale").putString("body", "Fresh").commit();
+        GroupRetention.expiryPrefs(context, GROUP).edit().putLong("title", System.currentTimeMillis() - 1).commit();
+
+        try (Cursor cursor = resolver.query(groupUri, null, null, null, null)) {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("body", cursor.getString(0));
+        }
+        assertNull(WidgetBridgeStore.readValue(context, GROUP, "title"));
+        assertEquals("Fresh", WidgetBridgeStore.readValue(context, GROUP, "body").asString());
+    }
+
+    @Test
+    public void testWrite_goesThroughThePluginOnTheGroupLane() {
+        List<String> lanes = new ArrayList<>();
+        Map<String, Object> written = new HashMap<>();
+        WidgetBridgeContentProvider.setWriter(new WidgetBridgeContentProvider.Writer() {
+            @Override
+            public Executor laneOf(String group) {
+                return task -> {
+                    lanes.add(group);
+                    task.run();
+                };
+            }
+
+            @Override
+            public List<String> write(String group, Map<String, ?> values, Collection<String> removals) {
+                written.putAll(values);
+                return new ArrayList<>(values.keySet());
+            }
+        });
+        ContentValues values = new ContentValues();
+        values.put("title", "Routed");
+
+        resolver.insert(groupUri, values);
+
+        assertEquals(Collections.singletonList(GROUP), lanes);
+        assertEquals("Routed", written.get("title"));
+        assertFalse(store().contains("title"));
+    }
+
+    @Test
+    public void testOpenRemote_servesRepeatReadsFromCopyUntilGroupChanges() {
+        store().edit().putString("title", "A").putStringSet("tags", new HashSet<>(Arrays.asList("x", "y"))).commit();
+        RemotePreferences remote = (RemotePreferences) WidgetBridgeStore.openRemote(context, GROUP);
+
+        assertEquals("A", remote.getString("title", null));
+        assertEquals(new HashSet<>(Arrays.asList("x", "y")), remote.getStringSet("tags", null));
+        assertEquals(1, remote.fetchCount());
+
+        store().edit().putString("title", "B").commit();
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertEquals("B", remote.getString("title", null));
+        assertEquals(2, remote.fetchCount());
+    }
+
+    @Test
+    public void testOpenRemote_slowFetchNeitherBlocksNorOverwritesAnApply() throws Exception {
+        store().edit().putString("title", "Old").commit();
+        Robolectric.setupContentProvider(BlockingProvider.class, context.getPackageName() + WidgetBridgeContentProvider.AUTHORITY_SUFFIX);
+        SharedPreferences remote = WidgetBridgeStore.openRemote(context, GROUP);
+        AtomicReference<String> read = new AtomicReference<>();
+
+        Thread reader = new Thread(() -> read.set(remote.getString("title", null)));
+        reader.start();
+        assertTrue(BlockingProvider.entered.await(5, TimeUnit.SECONDS));
+        Thread applier = new Thread(() -> remote.edit().putString("title", "Local").apply());
+        applier.start();
+        applier.join(5000);
+        assertFalse("apply waited for the fetch", applier.isAlive());
+
+        BlockingProvider.release.countDown();
+        reader.join(5000);
+
+        assertEquals("Local", read.get());
+        assertEquals("Local", remote.getString("title", null));
+    }
+
+    @Test
+    public void testOpenRemote_readsCompressedValuesDecompressed() throws Exception {
+        ValueCompression.resetForTesting();
+        ValueCompression compression = ValueCompression.getInstance(context);
+        compression.configure(GROUP, 100, null, 0);
+        String timeline = ValueCompressionTest.timeline(2);
+        store().edit().putString("timeline", compression.encode(GROUP, timeline)).commit();
+
+        assertEquals(timeline, WidgetBridgeStore.openRemote(context, GROUP).getString("timeline", null));
+    }
+
+    @Test
+    public void testOpenRemote_editorWritesThroughProvider() {
+        SharedPreferences remote = WidgetBridgeStore.openRemote(context, GROUP);
+
+        assertTrue(remote.edit().putLong("timestamp", 42L).putFloat("ratio", 0.5f).commit());
+
+        assertEquals(42L, store().getLong("timestamp", 0));
+        assertEquals(0.5f, store().getFloat("ratio", 0), 0f);
+        assertEquals(42L, remote.getLong("timestamp", 0));
+    }
+
+    private SharedPreferences store() {
+        return WidgetBridgeStore.open(context, GROUP);
+    }
+}
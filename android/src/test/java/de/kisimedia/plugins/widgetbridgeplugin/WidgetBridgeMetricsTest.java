@@ -0,0 +1,133 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+import com.getcapacitor.JSObject;
+import com.getcapacitor.MessageHandler;
+import com.getcapacitor.PluginCall;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Unit tests for WidgetBridgeMetrics.
+ * Calls, writes and broadcasts must be counted while recording is on and cost nothing while it is off.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class WidgetBridgeMetricsTest {
+
+    private final WidgetBridgeMetrics metrics = WidgetBridgeMetrics.getInstance();
+
+    @Before
+    public void setUp() {
+        metrics.reset();
+        metrics.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        metrics.setEnabled(false);
+        metrics.reset();
+    }
+
+    @Test
+    public void testHistogram_bucketsAreAQuarterOfAPowerOfTwoWide() {
+        for (long value : new long[] { 0, 3, 4, 7, 8, 15, 1000, 123456789 }) {
+            int bucket = WidgetBridgeMetrics.LatencyHistogram.bucketOf(value);
+            assertTrue(value + " below its bucket", WidgetBridgeMetrics.LatencyHistogram.lowerBound(bucket) <= value);
+            assertTrue(value + " above its bucket", WidgetBridgeMetrics.LatencyHistogram.lowerBound(bucket + 1) > value);
+        }
+        assertEquals(8, WidgetBridgeMetrics.LatencyHistogram.bucketOf(8));
+        assertEquals(14, WidgetBridgeMetrics.LatencyHistogram.lowerBound(WidgetBridgeMetrics.LatencyHistogram.bucketOf(15)));
+    }
+
+    @Test
+    public void testHistogram_percentilesStayWithinBucketPrecision() {
+        WidgetBridgeMetrics.LatencyHistogram histogram = new WidgetBridgeMetrics.LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 100L);
+        }
+
+        assertEquals(100, histogram.getCount());
+        long p50 = histogram.percentile(0.5);
+        assertTrue("p50 " + p50, p50 >= 5000 && p50 <= 5000 * 1.25);
+        assertEquals(10000, histogram.percentile(1.0));
+    }
+
+    @Test
+    public void testEnd_recordsLatencyPayloadsAndErrorsPerMethod() throws Exception {
+        PluginCall call = call("getItem", new JSObject().put("key", "title"));
+        metrics.begin(call);
+        metrics.end(call, new JSObject().put("results", "é"));
+        PluginCall rejected = call("getItem", new JSObject());
+        metrics.begin(rejected);
+        metrics.end(rejected, null);
+
+        JSONObject stats = metrics.toJson().getJSONObject("calls").getJSONObject("getItem");
+        assertEquals(2, stats.getInt("count"));
+        assertEquals(1, stats.getInt("errors"));
+        assertEquals("{\"key\":\"title\"}".length() + "{}".length(), stats.getLong("requestBytes"));
+        assertEquals("{\"results\":\"é\"}".length() + 1, stats.getLong("responseBytes"));
+    }
+
+    @Test
+    public void testRecordWrite_countsEditsKeysAndBytes() throws Exception {
+        Map<String, Object> values = new HashMap<>();
+        values.put("ab", "cd");
+        values.put("gone", null);
+        metrics.recordWrite(values);
+        metrics.recordBroadcast("com.example.Widget");
+        metrics.recordBroadcast("com.example.Widget");
+
+        JSObject json = metrics.toJson();
+        JSONObject writes = json.getJSONObject("writes");
+        assertEquals(1, writes.getInt("count"));
+        assertEquals(2, writes.getInt("keys"));
+        assertEquals(2 * 2 + 2 * 2 + 2 * 4, writes.getLong("bytes"));
+        assertEquals(2, json.getJSONObject("broadcasts").getInt("com.example.Widget"));
+    }
+
+    @Test
+    public void testDisabled_recordsNothing() throws Exception {
+        metrics.setEnabled(false);
+        PluginCall call = call("setItem", new JSObject());
+
+        metrics.begin(call);
+        metrics.end(call, new JSObject());
+        metrics.recordWrite(Collections.singletonMap("key", "value"));
+        metrics.recordBroadcast("com.example.Widget");
+
+        JSObject json = metrics.toJson();
+        assertFalse(json.getBoolean("enabled"));
+        assertEquals(0, json.getJSONObject("calls").length());
+        assertEquals(0, json.getJSONObject("writes").getInt("count"));
+        assertEquals(0, json.getJSONObject("broadcasts").length());
+    }
+
+    @Test
+    public void testBegin_skipsKeptAliveCallsAndDisablingForgetsOpenOnes() {
+        PluginCall kept = call("getItem", new JSObject());
+        kept.setKeepAlive(true);
+        metrics.begin(kept);
+        assertEquals(0, metrics.inFlight());
+
+        metrics.begin(call("getItem", new JSObject()));
+        assertEquals(1, metrics.inFlight());
+
+        metrics.setEnabled(false);
+        assertEquals(0, metrics.inFlight());
+    }
+
+    private static PluginCall call(String method, JSObject data) {
+        return new PluginCall(mock(MessageHandler.class), "WidgetBridgePlugin", "1", method, data);
+    }
+}
@@ -5,14 +5,36 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
 import static org.mockito.Mockito.*;
+import static org.robolectric.Shadows.shadowOf;
 
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.appwidget.AppWidgetProviderInfo;
+import android.content.ComponentName;
 import android.content.Context;
+import android.content.Intent;
 import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Looper;
+import com.getcapacitor.Bridge;
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
+import com.getcapacitor.MessageHandler;
 import com.getcapacitor.PluginCall;
+import com.getcapacitor.PluginConfig;
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
@@ -21,6 +43,7 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
 /**
@@ -32,6 +55,12 @@ import org.robolectric.annotation.Config;
 @Config(sdk = 33)
 public class WidgetBridgePluginTest {
 
+    public static class TitleWidget extends AppWidgetProvider {}
+
+    public static class ListWidget extends AppWidgetProvider {}
+
+    public static class InstanceWidget extends WidgetBridgeAppWidgetProvider {}
+
     @Mock
     private Context mockContext;
 
@@ -59,6 +88,10 @@ public class WidgetBridgePluginTest {
         
         // Create plugin instance
         plugin = new WidgetBridgePlugin();
+        WidgetProviderRegistry.resetForTesting();
+        WidgetBridgeStore.resetForTesting();
+        ValueCompression.resetForTesting();
+        WidgetTimeline.resetForTesting();
         
         // Use reflection to inject mock context (plugin expects to be initialized by Capacitor)
         try {
@@ -326,5 +359,810 @@ public class WidgetBridgePluginTest {
         assertTrue("JSObject should contain 'results'", result.has("results"));
         assertEquals("Value should be true", true, result.getBool("results"));
     }
-}
 
+    @Test
+    public void testSetItems_appliesValuesAndRemovalsInOneBatch() throws Exception {
+        SharedPreferences prefs = realPrefs("batchGroup");
+        prefs.edit().putString("a", "1").putString("b", "2").commit();
+
+        JSObject values = new JSObject();
+        values.put("c", "3");
+        values.put("d", 4);
+        values.put("e", new JSONObject().put("nested", true));
+        JSObject data = new JSObject();
+        data.put("group", "batchGroup");
+        data.put("values", values);
+        data.put("remove", new JSArray(new String[] { "a" }));
+
+        JSObject results = resolvedResults(newRealPlugin(), "setItems", data);
+
+        assertTrue("Removed key is reported", results.getBoolean("a"));
+        assertTrue("String value is stored", results.getBoolean("c"));
+        assertTrue("Number is stored as int", results.getBoolean("d"));
+        assertFalse("Object is rejected per key", results.getBoolean("e"));
+        assertFalse(prefs.contains("a"));
+        assertEquals("2", prefs.getString("b", null));
+        assertEquals("3", prefs.getString("c", null));
+        assertEquals(4, prefs.getInt("d", 0));
+        assertFalse(prefs.contains("e"));
+    }
+
+    @Test
+    public void testSetItem_storesNativeTypes() throws Exception {
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        SharedPreferences prefs = realPrefs("typedGroup");
+
+        resolvedResult(realPlugin, "setItem", typedData("count", 7, null));
+        resolvedResult(realPlugin, "setItem", typedData("timestamp", 5, "long"));
+        resolvedResult(realPlugin, "setItem", typedData("opacity", 0.5, null));
+        resolvedResult(realPlugin, "setItem", typedData("enabled", true, null));
+        resolvedResult(realPlugin, "setItem", typedData("tags", new JSONArray().put("a").put("b"), "stringSet"));
+
+        assertEquals(7, prefs.getInt("count", 0));
+        assertEquals(5L, prefs.getLong("timestamp", 0L));
+        assertEquals(0.5f, prefs.getFloat("opacity", 0f), 0.0001);
+        assertTrue(prefs.getBoolean("enabled", false));
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), prefs.getStringSet("tags", null));
+
+        JSONArray tags = (JSONArray) resolvedResult(realPlugin, "getItem", typedData("tags", "", null));
+        assertEquals(2, tags.length());
+    }
+
+    @Test
+    public void testSetItem_rejectsGroupsContainingTheInstanceSeparator() throws Exception {
+        JSObject data = new JSObject();
+        data.put("group", WidgetBridgeStore.instanceGroup("inst", 3));
+        data.put("key", "title");
+        data.put("value", "Three");
+        PluginCall call = spy(new PluginCall(mock(MessageHandler.class), "WidgetBridgePlugin", "1", "setItem", data));
+
+        newRealPlugin().setItem(call);
+
+        verify(call).reject("Group names cannot contain " + WidgetBridgeStore.INSTANCE_SEPARATOR);
+    }
+
+    @Test
+    public void testSetItem_rejectsValuesThatDoNotMatchType() throws Exception {
+        PluginCall call = spy(new PluginCall(mock(MessageHandler.class), "WidgetBridgePlugin", "1", "setItem", typedData("count", "seven", "int")));
+
+        newRealPlugin().setItem(call);
+
+        verify(call).reject("Value does not match type int");
+        assertFalse(realPrefs("typedGroup").contains("count"));
+    }
+
+    @Test
+    public void testSetItem_jsonFlattensIntoTypedKeysAndDropsStaleLeaves() throws Exception {
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        SharedPreferences prefs = realPrefs("typedGroup");
+        JSONObject weather = new JSONObject()
+            .put("city", "Berlin")
+            .put("current", new JSONObject().put("temp", 21.5).put("code", 3))
+            .put("hours", new JSONArray().put(20).put(19));
+
+        resolvedResult(realPlugin, "setItem", typedData("weather", weather, "json"));
+
+        assertEquals("Berlin", prefs.getString("weather.city", null));
+        assertEquals(21.5f, prefs.getFloat("weather.current.temp", 0f), 0.0001);
+        assertEquals(3, prefs.getInt("weather.current.code", 0));
+        assertEquals(2, prefs.getInt("weather.hours.length", 0));
+        assertEquals(19, prefs.getInt("weather.hours.1", 0));
+
+        resolvedResult(realPlugin, "setItem", typedData("weather", new JSONObject().put("city", "Paris"), "json"));
+
+        assertEquals("Paris", prefs.getString("weather.city", null));
+        assertFalse(prefs.contains("weather.current.temp"));
+        assertFalse(prefs.contains("weather.hours.1"));
+        assertFalse(prefs.contains("weather.hours.length"));
+    }
+
+    @Test
+    public void testGetItem_returnsNotModifiedForCurrentVersion() throws Exception {
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        realPrefs("versionGroup").edit().putString("feed", "v1").commit();
+        JSObject data = new JSObject();
+        data.put("group", "versionGroup");
+        data.put("key", "feed");
+
+        JSObject first = resolvedResponse(realPlugin, "getItem", data);
+        assertEquals("v1", first.getString("results"));
+        long version = first.getLong("version");
+
+        data.put("ifVersion", version);
+        JSObject unchanged = resolvedResponse(realPlugin, "getItem", data);
+        assertTrue(unchanged.getBoolean("notModified"));
+        assertFalse("Value is not sent again", unchanged.has("results"));
+
+        data.remove("ifVersion");
+        data.put("ifNoneMatch", first.getString("etag"));
+        assertTrue(resolvedResponse(realPlugin, "getItem", data).getBoolean("notModified"));
+
+        realPrefs("versionGroup").edit().putString("feed", "v2").commit();
+        JSObject changed = resolvedResponse(realPlugin, "getItem", data);
+        assertEquals("v2", changed.getString("results"));
+        assertTrue(changed.getLong("version") > version);
+    }
+
+    @Test
+    public void testGetItems_versionOnlyCoversRequestedKeys() throws Exception {
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        realPrefs("versionGroup").edit().putString("a", "1").putString("b", "2").commit();
+        JSObject data = new JSObject();
+        data.put("group", "versionGroup");
+        data.put("keys", new JSArray(new String[] { "a" }));
+
+        long version = resolvedResponse(realPlugin, "getItems", data).getLong("version");
+        data.put("ifVersion", version);
+
+        realPrefs("versionGroup").edit().putString("b", "3").commit();
+        assertTrue(resolvedResponse(realPlugin, "getItems", data).getBoolean("notModified"));
+
+        realPrefs("versionGroup").edit().remove("a").commit();
+        JSObject changed = resolvedResponse(realPlugin, "getItems", data);
+        assertTrue(changed.getJSONObject("results").isNull("a"));
+    }
+
+    private static JSObject typedData(String key, Object value, String type) throws Exception {
+        JSObject data = new JSObject();
+        data.put("group", "typedGroup");
+        data.put("key", key);
+        data.put("value", value);
+        if (type != null) {
+            data.put("type", type);
+        }
+        return data;
+    }
+
+    @Test
+    public void testGetItems_returnsRequestedKeysWithNullForMissing() throws Exception {
+        realPrefs("batchGroup").edit().putString("title", "Hello").putInt("count", 7).commit();
+
+        JSObject data = new JSObject();
+        data.put("group", "batchGroup");
+        data.put("keys", new JSArray(new String[] { "title", "count", "missing" }));
+
+        JSObject results = resolvedResults(newRealPlugin(), "getItems", data);
+
+        assertEquals("Hello", results.getString("title"));
+        assertEquals(7, results.getInt("count"));
+        assertTrue("Missing key resolves to null", results.isNull("missing"));
+        assertEquals(3, results.length());
+    }
+
+    @Test
+    public void testRemoveItems_reportsWhichKeysExisted() throws Exception {
+        SharedPreferences prefs = realPrefs("batchGroup");
+        prefs.edit().putString("a", "1").putString("b", "2").commit();
+
+        JSObject data = new JSObject();
+        data.put("group", "batchGroup");
+        data.put("keys", new JSArray(new String[] { "a", "missing" }));
+
+        JSObject results = resolvedResults(newRealPlugin(), "removeItems", data);
+
+        assertTrue(results.getBoolean("a"));
+        assertFalse(results.getBoolean("missing"));
+        assertFalse(prefs.contains("a"));
+        assertTrue(prefs.contains("b"));
+    }
+
+    @Test
+    public void testGetItem_seesNativeWritesAfterGroupIsCached() throws Exception {
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        JSObject data = new JSObject();
+        data.put("group", "cachedGroup");
+        data.put("key", "count");
+
+        assertTrue(resolvedResult(realPlugin, "getItem", data) == JSONObject.NULL);
+
+        realPrefs("cachedGroup").edit().putInt("count", 42).commit();
+
+        assertEquals(42, resolvedResult(realPlugin, "getItem", data));
+    }
+
+    @Test
+    public void testAutoReload_onlyReloadsProvidersOfChangedKeys() throws Exception {
+        Context context = RuntimeEnvironment.getApplication();
+        shadowOf(AppWidgetManager.getInstance(context)).bindAppWidgetId(1, new ComponentName(context, TitleWidget.class));
+        shadowOf(AppWidgetManager.getInstance(context)).bindAppWidgetId(2, new ComponentName(context, ListWidget.class));
+
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        JSONArray dependencies = new JSONArray()
+            .put(new JSONObject().put("provider", TitleWidget.class.getName()).put("group", "deps").put("keys", new JSONArray().put("title")))
+            .put(new JSONObject().put("provider", ListWidget.class.getName()).put("group", "deps").put("keys", new JSONArray().put("item:*")));
+        JSObject dependencyData = new JSObject();
+        dependencyData.put("dependencies", dependencies);
+        resolvedResult(realPlugin, "setWidgetDependencies", dependencyData);
+        JSObject autoReloadData = new JSObject();
+        autoReloadData.put("enabled", true);
+        resolvedResult(realPlugin, "setAutoReload", autoReloadData);
+
+        JSObject data = new JSObject();
+        data.put("group", "deps");
+        data.put("key", "title");
+        data.put("value", "Hello");
+        resolvedResult(realPlugin, "setItem", data);
+        idleForReloads();
+
+        List<Intent> broadcasts = shadowOf(RuntimeEnvironment.getApplication()).getBroadcastIntents();
+        assertEquals(1, broadcasts.size());
+        assertEquals(TitleWidget.class.getName(), broadcasts.get(0).getComponent().getClassName());
+
+        resolvedResult(realPlugin, "setItem", data);
+        idleForReloads();
+        assertEquals("Identical write is skipped", 1, broadcasts.size());
+
+        data.put("key", "item:7");
+        resolvedResult(realPlugin, "setItem", data);
+        idleForReloads();
+        assertEquals(2, broadcasts.size());
+        assertEquals(ListWidget.class.getName(), broadcasts.get(1).getComponent().getClassName());
+
+        data.put("key", "unrelated");
+        resolvedResult(realPlugin, "setItem", data);
+        idleForReloads();
+        assertEquals("Keys without dependents reload nothing", 2, broadcasts.size());
+    }
+
+    @Test
+    public void testAutoReload_instanceWriteSendsPartialUpdateToThatWidgetOnly() throws Exception {
+        Context context = RuntimeEnvironment.getApplication();
+        shadowOf(AppWidgetManager.getInstance(context)).bindAppWidgetId(3, new ComponentName(context, InstanceWidget.class));
+        shadowOf(AppWidgetManager.getInstance(context)).bindAppWidgetId(4, new ComponentName(context, InstanceWidget.class));
+
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        JSONArray dependencies = new JSONArray()
+            .put(new JSONObject().put("provider", InstanceWidget.class.getName()).put("group", "inst").put("keys", new JSONArray().put("title")));
+        JSObject dependencyData = new JSObject();
+        dependencyData.put("dependencies", dependencies);
+        resolvedResult(realPlugin, "setWidgetDependencies", dependencyData);
+        JSObject autoReloadData = new JSObject();
+        autoReloadData.put("enabled", true);
+        resolvedResult(realPlugin, "setAutoReload", autoReloadData);
+
+        JSObject data = new JSObject();
+        data.put("group", "inst");
+        data.put("appWidgetId", 3);
+        data.put("key", "title");
+        data.put("value", "Three");
+        resolvedResult(realPlugin, "setItem", data);
+        idleForReloads();
+
+        assertEquals("Three", realPrefs(WidgetBridgeStore.instanceGroup("inst", 3)).getString("title", null));
+        assertNull(realPrefs("inst").getString("title", null));
+        List<Intent> broadcasts = shadowOf(RuntimeEnvironment.getApplication()).getBroadcastIntents();
+        assertEquals(1, broadcasts.size());
+        Intent update = broadcasts.get(0);
+        assertEquals(WidgetBridgeAppWidgetProvider.ACTION_PARTIAL_UPDATE, update.getAction());
+        assertArrayEquals(new int[] { 3 }, update.getIntArrayExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS));
+        assertArrayEquals(new String[] { "title" }, update.getStringArrayExtra(WidgetBridgeAppWidgetProvider.EXTRA_CHANGED_KEYS));
+
+        data.remove("value");
+        assertEquals("Three", resolvedResponse(realPlugin, "getItem", data).getString("results"));
+    }
+
+    @Test
+    public void testUpdateWidgets_groupsIdsPerProviderAndSkipsUnknownIds() throws Exception {
+        Context context = RuntimeEnvironment.getApplication();
+        AppWidgetProviderInfo info = new AppWidgetProviderInfo();
+        info.provider = new ComponentName(context, InstanceWidget.class);
+        shadowOf(AppWidgetManager.getInstance(context)).addInstalledProvider(info);
+        shadowOf(AppWidgetManager.getInstance(context)).bindAppWidgetId(5, info.provider);
+        shadowOf(AppWidgetManager.getInstance(context)).bindAppWidgetId(6, info.provider);
+
+        JSObject data = new JSObject();
+        data.put("appWidgetIds", new JSArray().put(5).put(6).put(99));
+
+        assertEquals(2, resolvedResult(newRealPlugin(), "updateWidgets", data));
+        idleForReloads();
+        List<Intent> broadcasts = shadowOf(RuntimeEnvironment.getApplication()).getBroadcastIntents();
+        assertEquals(1, broadcasts.size());
+        assertEquals(AppWidgetManager.ACTION_APPWIDGET_UPDATE, broadcasts.get(0).getAction());
+        assertArrayEquals(new int[] { 5, 6 }, broadcasts.get(0).getIntArrayExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS));
+    }
+
+    @Test
+    public void testSetItem_movesLargeValuesToMappedFile() throws Exception {
+        Context context = RuntimeEnvironment.getApplication();
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < 1000; i++) {
+            items.put("item number " + i);
+        }
+        String payload = new JSONObject().put("title", "Inbox").put("items", items).toString();
+
+        JSObject data = new JSObject();
+        data.put("group", "largeGroup");
+        data.put("key", "payload");
+        data.put("value", payload);
+        resolvedResult(realPlugin, "setItem", data);
+
+        assertTrue(LargeValueStore.isReference(realPrefs("largeGroup").getString("payload", null)));
+        assertEquals(payload, resolvedResult(realPlugin, "getItem", data));
+        WidgetValue value = WidgetBridgeStore.readValue(context, "largeGroup", "payload");
+        assertEquals("Inbox", value.getString("title"));
+
+        data.put("value", "small");
+        resolvedResult(realPlugin, "setItem", data);
+
+        assertEquals("small", realPrefs("largeGroup").getString("payload", null));
+        assertFalse(LargeValueStore.forContext(context).fileFor("largeGroup", "payload").exists());
+        assertEquals("small", WidgetBridgeStore.readValue(context, "largeGroup", "payload").asString());
+    }
+
+    @Test
+    public void testSetItem_keepsLargeValuesWhoseChecksumsCollide() throws Exception {
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        String padding = "x".repeat(20000);
+        // "plumless" and "buckeroo" share a CRC32, and so do these values.
+        JSObject data = new JSObject();
+        data.put("group", "largeGroup");
+        data.put("key", "payload");
+        data.put("value", padding + "plumless");
+        resolvedResult(realPlugin, "setItem", data);
+
+        data.put("value", padding + "buckeroo");
+        resolvedResult(realPlugin, "setItem", data);
+
+        assertEquals(padding + "buckeroo", resolvedResult(realPlugin, "getItem", data));
+    }
+
+    @Test
+    public void testLoad_writesOverdueTimelineEntriesToTheConfiguredBackend() throws Exception {
+        Context context = RuntimeEnvironment.getApplication();
+        JSONArray entries = new JSONArray().put(new JSONObject().put("date", 1000).put("values", new JSONObject().put("title", "Due")));
+        WidgetTimeline.getInstance(context).set("logGroup", entries, true, 0);
+        WidgetBridgePlugin realPlugin = spy(newRealPlugin());
+        PluginConfig config = mock(PluginConfig.class, invocation -> invocation.getArguments().length > 1 ? invocation.getArgument(1) : null);
+        doReturn("appendLog").when(config).getString(eq("storage"), anyString());
+        doReturn(config).when(realPlugin).getConfig();
+
+        realPlugin.load();
+
+        assertEquals("Due", WidgetBridgeStore.open(context, "logGroup").getString("title", null));
+        assertFalse(context.getSharedPreferences("logGroup", Context.MODE_PRIVATE).contains("title"));
+    }
+
+    @Test
+    public void testSetTimeline_writesDueEntriesThroughThePluginWritePath() throws Exception {
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        String payload = "y".repeat(20000);
+        JSObject data = new JSObject();
+        data.put("group", "largeGroup");
+        data.put("entries", new JSArray().put(new JSONObject().put("date", 0).put("values", new JSONObject().put("payload", payload))));
+        resolvedResult(realPlugin, "setTimeline", data);
+
+        assertTrue(LargeValueStore.isReference(realPrefs("largeGroup").getString("payload", null)));
+        data.remove("entries");
+        data.put("key", "payload");
+        assertEquals(payload, resolvedResult(realPlugin, "getItem", data));
+    }
+
+    @Test
+    public void testPatchItem_mergesIntoStoredDocument() throws Exception {
+        Context context = RuntimeEnvironment.getApplication();
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < 1000; i++) {
+            items.put("item number " + i);
+        }
+        JSObject data = new JSObject();
+        data.put("group", "largeGroup");
+        data.put("key", "timeline");
+        data.put("value", new JSONObject().put("title", "Inbox").put("unread", 3).put("items", items).toString());
+        resolvedResult(realPlugin, "setItem", data);
+
+        data.remove("value");
+        data.put("patch", new JSONObject().put("unread", 4).put("title", JSONObject.NULL));
+        long version = resolvedResponse(realPlugin, "patchItem", data).getLong("version");
+
+        WidgetValue value = WidgetBridgeStore.readValue(context, "largeGroup", "timeline");
+        assertEquals("4", value.getJson("unread"));
+        assertFalse(value.has("title"));
+        assertEquals(1000, new JSONArray(value.getJson("items")).length());
+        assertEquals(version, resolvedResponse(realPlugin, "getItem", data).getLong("version"));
+    }
+
+    @Test
+    public void testPatchItem_onlyRewritesPatchedLeavesOfJsonValues() throws Exception {
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        SharedPreferences prefs = realPrefs("typedGroup");
+        JSONObject weather = new JSONObject()
+            .put("city", "Berlin")
+            .put("current", new JSONObject().put("temp", 21.5).put("code", 3))
+            .put("hours", new JSONArray().put(20).put(19));
+        resolvedResult(realPlugin, "setItem", typedData("weather", weather, "json"));
+
+        JSObject data = typedData("weather", null, "json");
+        data.put("patch", new JSONObject()
+            .put("current", new JSONObject().put("code", JSONObject.NULL))
+            .put("hours", new JSONArray().put(18)));
+        resolvedResult(realPlugin, "patchItem", data);
+
+        assertEquals("Berlin", prefs.getString("weather.city", null));
+        assertEquals(21.5f, prefs.getFloat("weather.current.temp", 0f), 0.0001);
+        assertFalse(prefs.contains("weather.current.code"));
+        assertEquals(1, prefs.getInt("weather.hours.length", 0));
+        assertEquals(18, prefs.getInt("weather.hours.0", 0));
+        assertFalse(prefs.contains("weather.hours.1"));
+    }
+
+    @Test
+    public void testPatchItem_rejectsValuesThatAreNotJson() throws Exception {
+        realPrefs("typedGroup").edit().putString("plain", "not json {").commit();
+        JSObject data = typedData("plain", null, null);
+        data.put("patch", new JSONObject().put("a", 1));
+        PluginCall call = spy(new PluginCall(mock(MessageHandler.class), "WidgetBridgePlugin", "1", "patchItem", data));
+
+        newRealPlugin().patchItem(call);
+
+        verify(call).reject(startsWith("Value of plain is not valid JSON"));
+        assertEquals("not json {", realPrefs("typedGroup").getString("plain", null));
+    }
+
+    @Test
+    public void testBufferedWrites_areVisibleToProvidersAndFlushedOnPause() throws Exception {
+        Context context = RuntimeEnvironment.getApplication();
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        JSObject options = new JSObject();
+        options.put("mode", "buffered");
+        options.put("flushMs", 60000);
+        resolvedResult(realPlugin, "setWriteOptions", options);
+
+        resolvedResult(realPlugin, "setItem", typedData("score", 1, null));
+        resolvedResult(realPlugin, "setItem", typedData("score", 2, null));
+
+        assertFalse("Not written to disk yet", realPrefs("typedGroup").contains("score"));
+        assertEquals(2, WidgetBridgeStore.open(context, "typedGroup").getInt("score", 0));
+        assertEquals(2, resolvedResult(realPlugin, "getItem", typedData("score", null, null)));
+
+        realPlugin.handleOnPause();
+
+        assertEquals(2, realPrefs("typedGroup").getInt("score", 0));
+    }
+
+    @Test
+    public void testBufferedWrites_flushAfterDelayOrExplicitFlush() throws Exception {
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        JSObject options = new JSObject();
+        options.put("mode", "buffered");
+        options.put("flushMs", 500);
+        resolvedResult(realPlugin, "setWriteOptions", options);
+
+        resolvedResult(realPlugin, "setItem", typedData("a", "1", null));
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(500));
+        assertEquals("1", realPrefs("typedGroup").getString("a", null));
+
+        resolvedResult(realPlugin, "setItem", typedData("b", "2", null));
+        JSObject flush = new JSObject();
+        flush.put("group", "typedGroup");
+        assertEquals(1, resolvedResult(realPlugin, "flush", flush));
+        assertEquals("2", realPrefs("typedGroup").getString("b", null));
+    }
+
+    @Test
+    public void testGetItemsByPrefix_pagesThroughMatchingKeys() throws Exception {
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        SharedPreferences.Editor editor = realPrefs("listGroup").edit();
+        for (int i = 0; i < 5; i++) {
+            editor.putString("item:" + i + ":title", "Item " + i);
+        }
+        editor.putString("itemCount", "5").commit();
+
+        JSObject data = new JSObject();
+        data.put("group", "listGroup");
+        data.put("prefix", "item:");
+        data.put("limit", 2);
+
+        JSObject page = resolvedResponse(realPlugin, "getItemsByPrefix", data);
+        assertEquals("Item 0", page.getJSONObject("results").getString("item:0:title"));
+        assertEquals(2, page.getJSONObject("results").length());
+        assertEquals("item:1:title", page.getString("cursor"));
+
+        List<String> keys = new ArrayList<>();
+        data.remove("cursor");
+        do {
+            page = resolvedResponse(realPlugin, "getKeys", data);
+            JSONArray results = page.getJSONArray("results");
+            for (int i = 0; i < results.length(); i++) {
+                keys.add(results.getString(i));
+            }
+            data.put("cursor", page.optString("cursor", null));
+        } while (page.has("cursor"));
+
+        assertEquals(Arrays.asList("item:0:title", "item:1:title", "item:2:title", "item:3:title", "item:4:title"), keys);
+    }
+
+    @Test
+    public void testGetKeys_limitsToRange() throws Exception {
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        realPrefs("listGroup").edit().putString("a", "1").putString("b", "2").putString("c", "3").commit();
+        JSObject data = new JSObject();
+        data.put("group", "listGroup");
+        data.put("start", "b");
+        data.put("end", "c");
+
+        JSObject page = resolvedResponse(realPlugin, "getKeys", data);
+
+        assertEquals(1, page.getJSONArray("results").length());
+        assertEquals("b", page.getJSONArray("results").getString(0));
+        assertFalse(page.has("cursor"));
+    }
+
+    @Test
+    public void testTtl_expiresKeysOnReadAndInTheSweep() throws Exception {
+        AtomicLong now = new AtomicLong(1700000000000L);
+        WidgetBridgePlugin realPlugin = newRealPlugin(now::get);
+        JSObject data = typedData("score", "1:0", null);
+        data.put("ttlMs", 20);
+        resolvedResult(realPlugin, "setItem", data);
+        resolvedResult(realPlugin, "setItem", typedData("title", "Final", null));
+        JSObject other = typedData("other", "x", null);
+        other.put("ttlMs", 20);
+        other.put("group", "otherGroup");
+        resolvedResult(realPlugin, "setItem", other);
+
+        now.addAndGet(40);
+
+        assertEquals(JSONObject.NULL, resolvedResult(realPlugin, "getItem", typedData("score", null, null)));
+        assertEquals("Final", resolvedResult(realPlugin, "getItem", typedData("title", null, null)));
+        assertFalse(realPrefs("typedGroup").contains("score"));
+        JSObject group = new JSObject();
+        group.put("group", "typedGroup");
+        assertEquals(1, resolvedResults(realPlugin, "getRetentionStats", group).getInt("expired"));
+
+        assertTrue("Not read yet", realPrefs("otherGroup").contains("other"));
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(WidgetBridgePlugin.DEFAULT_EXPIRY_SWEEP_MS));
+        assertFalse(realPrefs("otherGroup").contains("other"));
+    }
+
+    @Test
+    public void testGroupQuota_evictsLeastRecentlyUsedKeys() throws Exception {
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        JSObject quota = new JSObject();
+        quota.put("group", "typedGroup");
+        quota.put("maxEntries", 2);
+        resolvedResult(realPlugin, "setGroupQuota", quota);
+
+        resolvedResult(realPlugin, "setItem", typedData("a", "1", null));
+        resolvedResult(realPlugin, "setItem", typedData("b", "2", null));
+        resolvedResult(realPlugin, "getItem", typedData("a", null, null));
+        resolvedResult(realPlugin, "setItem", typedData("c", "3", null));
+
+        SharedPreferences prefs = realPrefs("typedGroup");
+        assertTrue(prefs.contains("a"));
+        assertFalse(prefs.contains("b"));
+        assertTrue(prefs.contains("c"));
+        JSObject stats = resolvedResults(realPlugin, "getRetentionStats", quota);
+        assertEquals(1, stats.getInt("evicted"));
+        assertEquals(2, stats.getInt("entries"));
+    }
+
+    @Test
+    public void testSetImage_writesFileAndRemoveImageDeletesIt() throws Exception {
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        JSObject data = new JSObject();
+        data.put("group", "imageGroup");
+        data.put("name", "cover");
+        data.put("data", "data:image/png;base64," + WidgetImagesTest.PNG_BASE64);
+
+        JSObject result = resolvedResults(realPlugin, "setImage", data);
+
+        File file = ImageStore.forContext(RuntimeEnvironment.getApplication()).fileFor("imageGroup", "cover");
+        assertEquals(Uri.fromFile(file).toString(), result.getString("uri"));
+        assertEquals(file.length(), result.getInt("size"));
+        assertEquals(0, result.getJSONArray("evicted").length());
+        assertFalse("Images never land in the group", realPrefs("imageGroup").contains("cover"));
+
+        JSObject removeData = new JSObject();
+        removeData.put("group", "imageGroup");
+        removeData.put("name", "cover");
+        assertEquals(true, resolvedResult(realPlugin, "removeImage", removeData));
+        assertFalse(file.exists());
+        assertEquals(false, resolvedResult(realPlugin, "removeImage", removeData));
+    }
+
+    @Test
+    public void testSubscribe_pushesBatchedChangesOfMatchingKeys() throws Exception {
+        List<JSObject> events = new ArrayList<>();
+        WidgetBridgePlugin realPlugin = new WidgetBridgePlugin(new GroupExecutors(Runnable::run)) {
+            @Override
+            protected void notifyListeners(String eventName, JSObject data) {
+                assertEquals("itemsChanged", eventName);
+                events.add(data);
+            }
+        };
+        Bridge bridge = mock(Bridge.class);
+        when(bridge.getContext()).thenReturn(RuntimeEnvironment.getApplication());
+        realPlugin.setBridge(bridge);
+
+        JSObject data = new JSObject();
+        data.put("group", "subscribedGroup");
+        data.put("keys", new JSArray(new String[] { "score:*" }));
+        String id = (String) resolvedResult(realPlugin, "subscribe", data);
+
+        // Written by native code, e.g. a widget click handler.
+        realPrefs("subscribedGroup").edit().putInt("score:home", 1).putInt("unrelated", 1).commit();
+        realPrefs("subscribedGroup").edit().putInt("score:home", 2).putInt("score:away", 1).commit();
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100));
+
+        assertEquals(1, events.size());
+        JSObject event = events.get(0);
+        assertEquals("subscribedGroup", event.getString("group"));
+        JSONObject changes = event.getJSONObject("changes");
+        assertEquals(2, changes.length());
+        assertTrue(changes.getLong("score:home") < changes.getLong("score:away"));
+        assertEquals(id, event.getJSONArray("subscriptions").getString(0));
+
+        JSObject unsubscribeData = new JSObject();
+        unsubscribeData.put("id", id);
+        assertEquals(true, resolvedResult(realPlugin, "unsubscribe", unsubscribeData));
+        realPrefs("subscribedGroup").edit().putInt("score:home", 3).commit();
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100));
+        assertEquals(1, events.size());
+    }
+
+    @Test
+    public void testGetMetrics_countsCallsAndWritesOnceEnabled() throws Exception {
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        resolvedResult(realPlugin, "resetMetrics", new JSObject().put("enabled", true));
+        try {
+            JSObject data = new JSObject();
+            data.put("group", "metricsGroup");
+            data.put("key", "title");
+            data.put("value", "Hello");
+            resolvedResult(realPlugin, "setItem", data);
+
+            JSObject metrics = resolvedResults(realPlugin, "getMetrics", new JSObject());
+            assertTrue(metrics.getBoolean("enabled"));
+            JSONObject setItem = metrics.getJSONObject("calls").getJSONObject("setItem");
+            assertEquals(1, setItem.getInt("count"));
+            assertEquals(data.toString().length(), setItem.getInt("requestBytes"));
+            assertFalse("The reset call is not counted", metrics.getJSONObject("calls").has("resetMetrics"));
+            assertEquals(1, metrics.getJSONObject("writes").getInt("count"));
+        } finally {
+            resolvedResult(realPlugin, "resetMetrics", new JSObject().put("enabled", false));
+        }
+    }
+
+    @Test
+    public void testSetRegisteredWidgets_rejectsUnreadableWidgetsAndEndsItsTiming() throws Exception {
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        resolvedResult(realPlugin, "resetMetrics", new JSObject().put("enabled", true));
+        try {
+            JSArray widgets = mock(JSArray.class);
+            when(widgets.toList()).thenThrow(new JSONException("Value at 0 is null."));
+            PluginCall call = spy(new PluginCall(mock(MessageHandler.class), "WidgetBridgePlugin", "1", "setRegisteredWidgets", new JSObject()));
+            doReturn(widgets).when(call).getArray("widgets");
+
+            realPlugin.setRegisteredWidgets(call);
+
+            verify(call).reject("Invalid widgets: Value at 0 is null.");
+            JSObject metrics = resolvedResults(realPlugin, "getMetrics", new JSObject());
+            assertEquals(1, metrics.getJSONObject("calls").getJSONObject("setRegisteredWidgets").getInt("errors"));
+        } finally {
+            resolvedResult(realPlugin, "resetMetrics", new JSObject().put("enabled", false));
+        }
+    }
+
+    @Test
+    public void testWarmUp_loadsGroupsBeforeQueuedCallsAndReportsFirstData() throws Exception {
+        realPrefs("warmGroup").edit().putString("title", "Warm").commit();
+        List<Runnable> queued = new ArrayList<>();
+        WidgetBridgePlugin realPlugin = new WidgetBridgePlugin(new GroupExecutors(queued::add));
+        Bridge bridge = mock(Bridge.class);
+        when(bridge.getContext()).thenReturn(RuntimeEnvironment.getApplication());
+        realPlugin.setBridge(bridge);
+
+        realPlugin.warmUp(Arrays.asList("warmGroup"), true);
+        JSObject data = new JSObject();
+        data.put("group", "warmGroup");
+        data.put("key", "title");
+        PluginCall call = spy(new PluginCall(mock(MessageHandler.class), "WidgetBridgePlugin", "1", "getItem", data));
+        realPlugin.getItem(call);
+
+        // The lanes hand one task at a time to the pool; the warm-up of each lane comes first.
+        assertEquals(2, queued.size());
+        queued.remove(0).run();
+        JSObject stats = resolvedResults(realPlugin, "getWarmUpStats", new JSObject());
+        assertTrue(stats.getJSONObject("groups").getLong("warmGroup") >= 0);
+        assertEquals(-1, stats.getLong("firstDataMs"));
+
+        while (!queued.isEmpty()) {
+            queued.remove(0).run();
+        }
+        verify(call).resolve(any(JSObject.class));
+        stats = resolvedResults(realPlugin, "getWarmUpStats", new JSObject());
+        assertTrue(stats.getLong("providersMs") >= 0);
+        assertTrue(stats.getLong("firstDataMs") >= 0);
+    }
+
+    @Test
+    public void testWarmUp_skipsGroupNamesTheBridgeWouldReject() throws Exception {
+        List<Runnable> queued = new ArrayList<>();
+        WidgetBridgePlugin realPlugin = new WidgetBridgePlugin(new GroupExecutors(queued::add));
+        Bridge bridge = mock(Bridge.class);
+        when(bridge.getContext()).thenReturn(RuntimeEnvironment.getApplication());
+        realPlugin.setBridge(bridge);
+
+        realPlugin.warmUp(Arrays.asList("warmGroup" + WidgetBridgeStore.INSTANCE_SEPARATOR + "7", "warmGroup"), false);
+
+        assertEquals(1, queued.size());
+        queued.remove(0).run();
+        JSONObject groups = resolvedResults(realPlugin, "getWarmUpStats", new JSObject()).getJSONObject("groups");
+        assertEquals(1, groups.length());
+        assertTrue(groups.has("warmGroup"));
+    }
+
+    @Test
+    public void testSetCompression_storesCompressedAndReadsBackTransparently() throws Exception {
+        WidgetBridgePlugin realPlugin = newRealPlugin();
+        String value = ValueCompressionTest.timeline(1);
+        JSObject options = new JSObject();
+        options.put("group", "zipGroup");
+        options.put("threshold", 256);
+        options.put("samples", new JSArray(Arrays.asList(ValueCompressionTest.timeline(2), ValueCompressionTest.timeline(3))));
+        assertTrue(resolvedResults(realPlugin, "setCompression", options).getInt("dictionaryBytes") > 0);
+
+        JSObject data = new JSObject();
+        data.put("group", "zipGroup");
+        data.put("key", "timeline");
+        data.put("value", value);
+        resolvedResult(realPlugin, "setItem", data);
+
+        String stored = realPrefs("zipGroup").getString("timeline", null);
+        assertTrue(ValueCompression.isCompressed(stored));
+        assertTrue(stored.length() < value.length());
+        JSObject get = new JSObject();
+        get.put("group", "zipGroup");
+        get.put("key", "timeline");
+        assertEquals(value, resolvedResult(realPlugin, "getItem", get));
+        assertEquals(value, WidgetBridgeStore.readValue(RuntimeEnvironment.getApplication(), "zipGroup", "timeline").asString());
+
+        JSObject stats = resolvedResults(realPlugin, "getCompressionStats", new JSObject().put("group", "zipGroup"));
+        assertEquals(1, stats.getInt("compressed"));
+        assertTrue(stats.getDouble("ratio") > 1);
+    }
+
+    private SharedPreferences realPrefs(String group) {
+        return RuntimeEnvironment.getApplication().getSharedPreferences(group, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Lets the reload scheduler send what it merged in its default window.
+     */
+    private static void idleForReloads() {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(ReloadScheduler.DEFAULT_DEBOUNCE_MS));
+    }
+
+    private WidgetBridgePlugin newRealPlugin() {
+        return newRealPlugin(GroupRetention.SYSTEM_CLOCK);
+    }
+
+    private WidgetBridgePlugin newRealPlugin(GroupRetention.Clock clock) {
+        Bridge bridge = mock(Bridge.class);
+        when(bridge.getContext()).thenReturn(RuntimeEnvironment.getApplication());
+        // Run every lane inline so calls resolve before the test inspects them.
+        WidgetBridgePlugin realPlugin = new WidgetBridgePlugin(new GroupExecutors(Runnable::run), clock);
+        realPlugin.setBridge(bridge);
+        return realPlugin;
+    }
+
+    private JSObject resolvedResults(WidgetBridgePlugin target, String method, JSObject data) throws Exception {
+        return (JSObject) resolvedResult(target, method, data);
+    }
+
+    private Object resolvedResult(WidgetBridgePlugin target, String method, JSObject data) throws Exception {
+        Object results = resolvedResponse(target, method, data).get("results");
+        return results instanceof JSONObject ? JSObject.fromJSONObject((JSONObject) results) : results;
+    }
+
+    private JSObject resolvedResponse(WidgetBridgePlugin target, String method, JSObject data) throws Exception {
+        PluginCall call = spy(new PluginCall(mock(MessageHandler.class), "WidgetBridgePlugin", "1", method, data));
+        WidgetBridgePlugin.class.getMethod(method, PluginCall.class).invoke(target, call);
+
+        ArgumentCaptor<JSObject> captor = ArgumentCaptor.forClass(JSObject.class);
+        verify(call).resolve(captor.capture());
+        return captor.getValue();
+    }
+}
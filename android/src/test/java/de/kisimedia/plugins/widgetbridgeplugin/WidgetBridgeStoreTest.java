@@ -0,0 +1,102 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Unit tests for WidgetBridgeStore.
+ * Providers must open the backend the plugin was configured with, and the append-log backend must
+ * behave like SharedPreferences for readers and listeners.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class WidgetBridgeStoreTest {
+
+    private static final String GROUP = "storeGroup";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        WidgetBridgeStore.resetForTesting();
+        WidgetBridgeStore.AppendLogBackend.logFile(context, GROUP).delete();
+        context.getSharedPreferences(GROUP, Context.MODE_PRIVATE).edit().clear().commit();
+        context.getSharedPreferences(WidgetBridgeStore.PREFS_NAME, Context.MODE_PRIVATE).edit().clear().commit();
+    }
+
+    @Test
+    public void testOpen_defaultsToSharedPreferences() {
+        WidgetBridgeStore.open(context, GROUP).edit().putString("title", "A").commit();
+
+        assertEquals("A", context.getSharedPreferences(GROUP, Context.MODE_PRIVATE).getString("title", null));
+        assertFalse(WidgetBridgeStore.AppendLogBackend.logFile(context, GROUP).exists());
+    }
+
+    @Test
+    public void testAppendLog_isRememberedForProviders() {
+        WidgetBridgeStore.setBackend(context, WidgetBridgeStore.BACKEND_APPEND_LOG);
+        WidgetBridgeStore.open(context, GROUP).edit().putString("title", "A").putInt("count", 2).commit();
+
+        // A provider in a fresh process only has what was persisted.
+        WidgetBridgeStore.resetForTesting();
+        SharedPreferences prefs = WidgetBridgeStore.open(context, GROUP);
+
+        assertTrue(prefs instanceof AppendLogPreferences);
+        assertEquals("A", prefs.getString("title", null));
+        assertEquals(2, prefs.getInt("count", 0));
+        assertNull(context.getSharedPreferences(GROUP, Context.MODE_PRIVATE).getString("title", null));
+    }
+
+    @Test
+    public void testAppendLog_importsExistingSharedPreferences() {
+        context.getSharedPreferences(GROUP, Context.MODE_PRIVATE).edit().putString("title", "Legacy").commit();
+
+        WidgetBridgeStore.setBackend(context, WidgetBridgeStore.BACKEND_APPEND_LOG);
+
+        assertEquals("Legacy", WidgetBridgeStore.open(context, GROUP).getString("title", null));
+    }
+
+    @Test
+    public void testAppendLog_notifiesListenersSoReadCachesFollowWrites() {
+        WidgetBridgeStore.setBackend(context, WidgetBridgeStore.BACKEND_APPEND_LOG);
+        SharedPreferences prefs = WidgetBridgeStore.open(context, GROUP);
+        GroupReadCache cache = new GroupReadCache(prefs);
+
+        prefs.edit().putLong("timestamp", 42L).commit();
+        assertEquals(42L, cache.get("timestamp"));
+
+        prefs.edit().clear().putString("title", "B").commit();
+        assertNull(cache.get("timestamp"));
+        assertEquals("B", cache.get("title"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetBackend_rejectsUnknownNames() {
+        WidgetBridgeStore.setBackend(context, "sqlite");
+    }
+
+    @Test
+    public void testInstanceGroup_roundTripsToBaseGroupAndId() {
+        String instance = WidgetBridgeStore.instanceGroup(GROUP, 12);
+
+        assertEquals(12, WidgetBridgeStore.instanceIdOf(instance));
+        assertEquals(GROUP, WidgetBridgeStore.baseGroupOf(instance));
+        assertEquals(-1, WidgetBridgeStore.instanceIdOf(GROUP));
+        assertEquals("tag#pinned", WidgetBridgeStore.baseGroupOf("tag#pinned"));
+        assertEquals(-1, WidgetBridgeStore.instanceIdOf("release#2024"));
+        assertEquals("release#2024", WidgetBridgeStore.baseGroupOf("release#2024"));
+
+        WidgetBridgeStore.openInstance(context, GROUP, 12).edit().putString("title", "A").commit();
+        assertEquals("A", context.getSharedPreferences(instance, Context.MODE_PRIVATE).getString("title", null));
+        assertNull(WidgetBridgeStore.open(context, GROUP).getString("title", null));
+    }
+}
@@ -0,0 +1,418 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Looper;
+import com.getcapacitor.Bridge;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Stress tests for WidgetBridgePlugin.
+ * Overlapping calls from many threads must read and write every key as if the calls ran one at a
+ * time, and nothing written may be lost on the way to disk.
+ *
+ * The soak test only runs when {@value #PROPERTY_SOAK_MS} is set, for example
+ * {@code ./gradlew test -Dwidgetbridge.soak.ms=600000}. It repeats rounds of the same workload and
+ * fails when heap growth, broadcasts per change or write amplification exceed their budgets.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class WidgetBridgeStressTest {
+
+    public static class StressWidget extends WidgetBridgeAppWidgetProvider {}
+
+    /** How long the soak runs, in milliseconds. */
+    static final String PROPERTY_SOAK_MS = "widgetbridge.soak.ms";
+    /** Seed of the random workload, to replay a failure. */
+    static final String PROPERTY_SEED = "widgetbridge.stress.seed";
+    static final String PROPERTY_MAX_HEAP_GROWTH_MB = "widgetbridge.soak.maxHeapGrowthMb";
+    static final String PROPERTY_MAX_BROADCASTS_PER_CHANGE = "widgetbridge.soak.maxBroadcastsPerChange";
+    static final String PROPERTY_MAX_WRITE_AMPLIFICATION = "widgetbridge.soak.maxWriteAmplification";
+
+    private static final String[] GROUPS = { "stressA", "stressB", "stressC" };
+    private static final int KEYS_PER_GROUP = 4;
+    private static final int WIDGET_ID = 901;
+    private static final int THREADS = 8;
+    /** Calls a thread fires before it awaits them, like JavaScript that does not await every call. */
+    private static final int MAX_BURST = 4;
+    private static final int OPS_PER_THREAD = 300;
+    private static final long CALL_TIMEOUT_MS = 10000;
+
+    private final AtomicLong clock = new AtomicLong();
+    private final WidgetBridgeMetrics metrics = WidgetBridgeMetrics.getInstance();
+    private Context context;
+    private WidgetBridgePlugin plugin;
+    private ExecutorService callers;
+    private long seed;
+    private int rounds;
+
+    @Before
+    public void setUp() throws Exception {
+        WidgetProviderRegistry.resetForTesting();
+        WidgetBridgeStore.resetForTesting();
+        ValueCompression.resetForTesting();
+        metrics.reset();
+        metrics.setEnabled(true);
+        seed = Long.getLong(PROPERTY_SEED, System.nanoTime());
+
+        context = RuntimeEnvironment.getApplication();
+        shadowOf(AppWidgetManager.getInstance(context)).bindAppWidgetId(WIDGET_ID, new ComponentName(context, StressWidget.class));
+        // Stub only: a mock that records every getContext() call would grow without bound.
+        Bridge bridge = mock(Bridge.class, withSettings().stubOnly());
+        when(bridge.getContext()).thenReturn(context);
+        plugin = new WidgetBridgePlugin(GroupExecutors.createDefault());
+        plugin.setBridge(bridge);
+        callers = Executors.newFixedThreadPool(THREADS);
+
+        JSONArray dependencies = new JSONArray();
+        for (String group : GROUPS) {
+            dependencies.put(new JSONObject().put("provider", StressWidget.class.getName()).put("group", group).put("keys", new JSONArray().put("*")));
+        }
+        call("setWidgetDependencies", new JSObject().put("dependencies", dependencies)).await();
+        call("setRegisteredWidgets", new JSObject().put("widgets", new JSArray().put(StressWidget.class.getName()))).await();
+        call("setAutoReload", new JSObject().put("enabled", true)).await();
+    }
+
+    @After
+    public void tearDown() {
+        callers.shutdownNow();
+        metrics.setEnabled(false);
+        metrics.reset();
+    }
+
+    @Test
+    public void testChecker_acceptsOverlappingWritesInEitherOrder() {
+        LinearizabilityChecker.Operation first = write("a", 1, 4);
+        LinearizabilityChecker.Operation second = write("b", 2, 3);
+        List<LinearizabilityChecker.Operation> history = new ArrayList<>();
+        history.add(first);
+        history.add(second);
+        history.add(read("a", 5, 6));
+
+        assertTrue(LinearizabilityChecker.isLinearizable(history, null));
+        history.add(read("b", 7, 8));
+        assertFalse("a cannot come back after b", LinearizabilityChecker.isLinearizable(history, null));
+    }
+
+    @Test
+    public void testChecker_rejectsStaleReadsAndLostWrites() {
+        List<LinearizabilityChecker.Operation> stale = new ArrayList<>();
+        stale.add(write("a", 1, 2));
+        stale.add(write("b", 3, 4));
+        stale.add(read("a", 5, 6));
+        List<LinearizabilityChecker.Operation> lost = new ArrayList<>();
+        lost.add(write("a", 1, 2));
+        lost.add(read(null, 3, 4));
+
+        assertFalse(LinearizabilityChecker.isLinearizable(stale, null));
+        assertFalse(LinearizabilityChecker.isLinearizable(lost, null));
+        assertTrue(LinearizabilityChecker.isLinearizable(lost.subList(1, 2), null));
+    }
+
+    @Test
+    public void testConcurrentCalls_areLinearizablePerKey() throws Exception {
+        Map<String, String> values = new TreeMap<>();
+
+        Round round = runRound(values, OPS_PER_THREAD);
+
+        assertTrue(round.describe(), round.changes > 0 && round.reads > 0 && round.reloads > 0);
+        assertPersisted(values);
+    }
+
+    @Test
+    public void testConcurrentCalls_areLinearizablePerKeyWithBufferedWrites() throws Exception {
+        call("setWriteOptions", new JSObject().put("mode", WriteBehindPreferences.MODE_BUFFERED).put("flushMs", 50)).await();
+        Map<String, String> values = new TreeMap<>();
+
+        runRound(values, OPS_PER_THREAD);
+        runRound(values, OPS_PER_THREAD);
+
+        assertPersisted(values);
+    }
+
+    @Test
+    public void testSoak_staysWithinHeapBroadcastAndWriteBudgets() throws Exception {
+        long durationMs = Long.getLong(PROPERTY_SOAK_MS, 0);
+        assumeTrue("Set -D" + PROPERTY_SOAK_MS + " to run the soak", durationMs > 0);
+        long maxHeapGrowthBytes = Long.getLong(PROPERTY_MAX_HEAP_GROWTH_MB, 16) << 20;
+        double maxBroadcastsPerChange = Double.parseDouble(System.getProperty(PROPERTY_MAX_BROADCASTS_PER_CHANGE, "1.0"));
+        double maxWriteAmplification = Double.parseDouble(System.getProperty(PROPERTY_MAX_WRITE_AMPLIFICATION, "1.0"));
+        Map<String, String> values = new TreeMap<>();
+
+        // Classes, caches and lanes are in place after the first round.
+        runRound(values, OPS_PER_THREAD);
+        long baseline = usedHeapAfterGc();
+        metrics.reset();
+        Round total = new Round();
+        long peak = baseline;
+        int soakRounds = 0;
+        long end = System.currentTimeMillis() + durationMs;
+        while (System.currentTimeMillis() < end) {
+            total.add(runRound(values, OPS_PER_THREAD));
+            soakRounds++;
+            // Robolectric keeps every broadcast; the plugin does not.
+            shadowOf(RuntimeEnvironment.getApplication()).clearBroadcastIntents();
+            if (soakRounds % 10 == 0) {
+                peak = Math.max(peak, usedHeapAfterGc());
+            }
+        }
+        long growth = usedHeapAfterGc() - baseline;
+
+        JSObject recorded = metrics.toJson();
+        long broadcasts = 0;
+        JSONObject perProvider = recorded.getJSONObject("broadcasts");
+        for (Iterator<String> it = perProvider.keys(); it.hasNext();) {
+            broadcasts += perProvider.getLong(it.next());
+        }
+        double broadcastsPerChange = (double) broadcasts / Math.max(1, total.changes + total.reloads);
+        double writeAmplification = (double) recorded.getJSONObject("writes").getLong("bytes") / Math.max(1, total.changedBytes);
+        String summary = soakRounds + " rounds, " + total.describe()
+            + ", heap growth " + (growth >> 10) + " KiB (peak +" + ((peak - baseline) >> 10) + " KiB)"
+            + ", " + broadcasts + " broadcasts (" + String.format("%.3f", broadcastsPerChange) + " per change)"
+            + ", write amplification " + String.format("%.3f", writeAmplification)
+            + ", seed " + seed;
+
+        assertTrue("Heap grew past budget: " + summary, growth <= maxHeapGrowthBytes);
+        assertTrue("Too many broadcasts: " + summary, broadcastsPerChange <= maxBroadcastsPerChange);
+        assertTrue("Too many bytes written: " + summary, writeAmplification <= maxWriteAmplification);
+        assertPersisted(values);
+    }
+
+    /**
+     * Counts of one or more rounds.
+     */
+    private static final class Round {
+
+        long reads;
+        long changes;
+        /** Estimated bytes of the values and removals the calls asked for. */
+        long changedBytes;
+        long reloads;
+
+        synchronized void add(Round other) {
+            reads += other.reads;
+            changes += other.changes;
+            changedBytes += other.changedBytes;
+            reloads += other.reloads;
+        }
+
+        String describe() {
+            return reads + " reads, " + changes + " changes, " + reloads + " reloads";
+        }
+    }
+
+    /**
+     * Fires a random mix of calls from every caller thread, waits for all of them and checks the
+     * history of every key, continuing from and updating {@code values}.
+     */
+    private Round runRound(Map<String, String> values, int opsPerThread) throws Exception {
+        long roundSeed = seed + 1000L * rounds++;
+        Map<String, List<LinearizabilityChecker.Operation>> histories = new HashMap<>();
+        for (String group : GROUPS) {
+            for (int k = 0; k < KEYS_PER_GROUP; k++) {
+                histories.put(group + "/key" + k, new ArrayList<>());
+            }
+        }
+        Round round = new Round();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            workers.add(callers.submit(() -> {
+                work(thread, new Random(roundSeed + thread), opsPerThread, histories, round);
+                return null;
+            }));
+        }
+        for (Future<?> worker : workers) {
+            // Buffered writes and change events are flushed on the main looper.
+            while (!worker.isDone()) {
+                shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(10));
+                Thread.sleep(1);
+            }
+            worker.get();
+        }
+
+        for (String group : GROUPS) {
+            for (int k = 0; k < KEYS_PER_GROUP; k++) {
+                String id = group + "/key" + k;
+                List<LinearizabilityChecker.Operation> history = histories.get(id);
+                LinearizabilityChecker.Operation last = LinearizabilityChecker.Operation.read(clock.incrementAndGet());
+                history.add(last);
+                StressCall read = call("getItem", new JSObject().put("group", group).put("key", "key" + k), last);
+                read.await();
+                assertTrue(
+                    "Not linearizable: " + id + " from " + values.get(id) + " in round " + rounds + " with seed " + seed + ": " + history,
+                    LinearizabilityChecker.isLinearizable(history, values.get(id))
+                );
+                values.put(id, last.value);
+            }
+        }
+        return round;
+    }
+
+    private void work(
+        int thread,
+        Random random,
+        int ops,
+        Map<String, List<LinearizabilityChecker.Operation>> histories,
+        Round round
+    ) throws Exception {
+        List<StressCall> burst = new ArrayList<>();
+        Round counts = new Round();
+        int n = 0;
+        while (n < ops) {
+            int size = Math.min(ops - n, 1 + random.nextInt(MAX_BURST));
+            for (int i = 0; i < size; i++, n++) {
+                String group = GROUPS[random.nextInt(GROUPS.length)];
+                String key = "key" + random.nextInt(KEYS_PER_GROUP);
+                List<LinearizabilityChecker.Operation> history = histories.get(group + "/" + key);
+                JSObject data = new JSObject().put("group", group).put("key", key);
+                int dice = random.nextInt(100);
+                LinearizabilityChecker.Operation operation;
+                String method;
+                if (dice < 45) {
+                    method = "getItem";
+                    operation = LinearizabilityChecker.Operation.read(clock.incrementAndGet());
+                    counts.reads++;
+                } else if (dice < 80) {
+                    String value = "t" + thread + "." + clock.get() + "." + n;
+                    data.put("value", value);
+                    method = "setItem";
+                    operation = LinearizabilityChecker.Operation.write(value, clock.incrementAndGet());
+                    counts.changes++;
+                    counts.changedBytes += GroupRetention.estimateSize(key, value);
+                } else if (dice < 95) {
+                    method = "removeItem";
+                    operation = LinearizabilityChecker.Operation.write(null, clock.incrementAndGet());
+                    counts.changes++;
+                    counts.changedBytes += 2L * key.length();
+                } else {
+                    burst.add(call("reloadAllTimelines", new JSObject()));
+                    counts.reloads++;
+                    continue;
+                }
+                synchronized (history) {
+                    history.add(operation);
+                }
+                burst.add(call(method, data, operation));
+            }
+            for (StressCall call : burst) {
+                call.await();
+            }
+            burst.clear();
+        }
+        round.add(counts);
+    }
+
+    /**
+     * Every value is on disk once buffered writes are flushed, as another process would read it.
+     */
+    private void assertPersisted(Map<String, String> values) {
+        plugin.handleOnPause();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            String[] id = entry.getKey().split("/");
+            String stored = context.getSharedPreferences(WidgetBridgeStore.fileName(id[0]), Context.MODE_PRIVATE).getString(id[1], null);
+            assertEquals("Lost write of " + entry.getKey() + " with seed " + seed, entry.getValue(), stored);
+        }
+    }
+
+    private StressCall call(String method, JSObject data) throws Exception {
+        return call(method, data, null);
+    }
+
+    private StressCall call(String method, JSObject data, LinearizabilityChecker.Operation operation) throws Exception {
+        StressCall call = new StressCall(method, data, operation);
+        WidgetBridgePlugin.class.getMethod(method, PluginCall.class).invoke(plugin, call);
+        return call;
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    private static LinearizabilityChecker.Operation write(String value, long calledAt, long returnedAt) {
+        LinearizabilityChecker.Operation operation = LinearizabilityChecker.Operation.write(value, calledAt);
+        operation.complete(null, returnedAt);
+        return operation;
+    }
+
+    private static LinearizabilityChecker.Operation read(String value, long calledAt, long returnedAt) {
+        LinearizabilityChecker.Operation operation = LinearizabilityChecker.Operation.read(calledAt);
+        operation.complete(value, returnedAt);
+        return operation;
+    }
+
+    /**
+     * A call as the bridge would pass it, completed by the plugin from whichever lane it runs on.
+     */
+    private final class StressCall extends PluginCall {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final LinearizabilityChecker.Operation operation;
+        private volatile String error;
+
+        StressCall(String method, JSObject data, LinearizabilityChecker.Operation operation) {
+            super(null, "WidgetBridgePlugin", String.valueOf(clock.get()), method, data);
+            this.operation = operation;
+        }
+
+        @Override
+        public void resolve(JSObject data) {
+            if (operation != null) {
+                Object result = data.opt("results");
+                operation.complete(result instanceof String ? (String) result : null, clock.incrementAndGet());
+            }
+            done.countDown();
+        }
+
+        @Override
+        public void reject(String msg, String code, Exception ex, JSObject data) {
+            error = msg;
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(getMethodName() + " never completed", done.await(CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            assertNull(getMethodName() + " rejected", error);
+        }
+    }
+}
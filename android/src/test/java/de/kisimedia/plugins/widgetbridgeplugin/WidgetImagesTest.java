@@ -0,0 +1,67 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Base64;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Unit tests for WidgetImages.
+ * Decoding must downsample to the requested bounds and reuse cached bitmaps until the image changes.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class WidgetImagesTest {
+
+    /** An 8x4 PNG. */
+    static final String PNG_BASE64 = "iVBORw0KGgoAAAANSUhEUgAAAAgAAAAECAIAAAA8r+mnAAAAEklEQVR4nGP4z8CAFWEXJUsCAFpeH+EeQoQoAAAAAElFTkSuQmCC";
+
+    @Test
+    public void testCalculateInSampleSize_keepsBitmapAtLeastAsLargeAsRequested() {
+        assertEquals(1, WidgetImages.calculateInSampleSize(400, 300, 400, 300));
+        assertEquals(2, WidgetImages.calculateInSampleSize(800, 600, 400, 300));
+        assertEquals(4, WidgetImages.calculateInSampleSize(2000, 1600, 400, 300));
+        assertEquals("Limited by the narrower side", 2, WidgetImages.calculateInSampleSize(4000, 600, 400, 300));
+    }
+
+    @Test
+    public void testLoad_scalesDownToFitTheBounds() throws Exception {
+        Context context = RuntimeEnvironment.getApplication();
+        ImageStore.forContext(context).write("imagesGroup", "wide", Base64.decode(PNG_BASE64, Base64.DEFAULT));
+
+        Bitmap bitmap = WidgetImages.load(context, "imagesGroup", "wide", 4, 4);
+
+        assertEquals(4, bitmap.getWidth());
+        assertEquals(2, bitmap.getHeight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLoad_rejectsBoundsThatAreNotPositive() {
+        WidgetImages.load(RuntimeEnvironment.getApplication(), "imagesGroup", "cover", 0, 100);
+    }
+
+    @Test
+    public void testLoad_cachesUntilImageIsWrittenAgain() throws Exception {
+        Context context = RuntimeEnvironment.getApplication();
+        ImageStore store = ImageStore.forContext(context);
+        store.write("imagesGroup", "cover", Base64.decode(PNG_BASE64, Base64.DEFAULT));
+
+        Bitmap first = WidgetImages.load(context, "imagesGroup", "cover", 100, 100);
+        assertNotNull(first);
+        assertSame(first, WidgetImages.load(context, "imagesGroup", "cover", 100, 100));
+
+        WidgetImages.invalidate(store.fileFor("imagesGroup", "cover"));
+        assertNotSame(first, WidgetImages.load(context, "imagesGroup", "cover", 100, 100));
+    }
+
+    @Test
+    public void testLoad_returnsNullForMissingImages() {
+        assertNull(WidgetImages.load(RuntimeEnvironment.getApplication(), "imagesGroup", "missing", 100, 100));
+    }
+}
@@ -0,0 +1,150 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import java.util.Arrays;
+import java.util.Collections;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowAppWidgetManager;
+
+/**
+ * Unit tests for WidgetProviderRegistry.
+ * Covers the persisted provider list and bindings, the class cache and widget id invalidation.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class WidgetProviderRegistryTest {
+
+    public static class TrackedProvider extends WidgetBridgeAppWidgetProvider {}
+
+    public static class PlainProvider extends AppWidgetProvider {}
+
+    private Context context;
+    private ShadowAppWidgetManager shadowManager;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        shadowManager = shadowOf(AppWidgetManager.getInstance(context));
+    }
+
+    @Test
+    public void testRegisteredProviders_surviveNewInstance() {
+        new WidgetProviderRegistry(context).setRegisteredProviders(Arrays.asList("a.B", "c.D"));
+
+        WidgetProviderRegistry coldStart = new WidgetProviderRegistry(context);
+
+        assertEquals(Arrays.asList("a.B", "c.D"), coldStart.getRegisteredProviders());
+    }
+
+    @Test
+    public void testRegisteredProviders_emptyByDefault() {
+        assertTrue(new WidgetProviderRegistry(context).getRegisteredProviders().isEmpty());
+    }
+
+    @Test
+    public void testResolve_cachesEntry() throws Exception {
+        WidgetProviderRegistry registry = new WidgetProviderRegistry(context);
+
+        WidgetProviderRegistry.Entry first = registry.resolve(TrackedProvider.class.getName());
+        WidgetProviderRegistry.Entry second = registry.resolve(TrackedProvider.class.getName());
+
+        assertSame(first, second);
+        assertEquals(new ComponentName(context, TrackedProvider.class), first.componentName);
+        assertTrue(first.tracked);
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void testResolve_unknownClassThrows() throws Exception {
+        new WidgetProviderRegistry(context).resolve("com.example.DoesNotExist");
+    }
+
+    @Test
+    public void testWidgetIds_cachedUntilProviderReportsChange() throws Exception {
+        WidgetProviderRegistry registry = new WidgetProviderRegistry(context);
+        ComponentName component = new ComponentName(context, TrackedProvider.class);
+        WidgetProviderRegistry.Entry entry = registry.resolve(TrackedProvider.class.getName());
+
+        shadowManager.bindAppWidgetId(1, component);
+        assertArrayEquals(new int[] { 1 }, registry.getWidgetIds(entry));
+
+        shadowManager.bindAppWidgetId(2, component);
+        assertArrayEquals("Ids are served from the cache", new int[] { 1 }, registry.getWidgetIds(entry));
+
+        Intent update = new Intent(AppWidgetManager.ACTION_APPWIDGET_UPDATE);
+        update.putExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS, new int[] { 2 });
+        registry.onProviderBroadcast(component, update);
+
+        assertEquals(2, registry.getWidgetIds(entry).length);
+    }
+
+    @Test
+    public void testWidgetIds_invalidatedOnDeleted() throws Exception {
+        WidgetProviderRegistry registry = new WidgetProviderRegistry(context);
+        ComponentName component = new ComponentName(context, TrackedProvider.class);
+        WidgetProviderRegistry.Entry entry = registry.resolve(TrackedProvider.class.getName());
+
+        assertEquals(0, registry.getWidgetIds(entry).length);
+        shadowManager.bindAppWidgetId(3, component);
+
+        registry.onProviderBroadcast(component, new Intent(AppWidgetManager.ACTION_APPWIDGET_DELETED));
+
+        assertArrayEquals(new int[] { 3 }, registry.getWidgetIds(entry));
+    }
+
+    @Test
+    public void testWidgetIds_notCachedForPlainProviders() throws Exception {
+        WidgetProviderRegistry registry = new WidgetProviderRegistry(context);
+        ComponentName component = new ComponentName(context, PlainProvider.class);
+        WidgetProviderRegistry.Entry entry = registry.resolve(PlainProvider.class.getName());
+
+        assertFalse(entry.tracked);
+        assertEquals(0, registry.getWidgetIds(entry).length);
+
+        shadowManager.bindAppWidgetId(4, component);
+
+        assertArrayEquals(new int[] { 4 }, registry.getWidgetIds(entry));
+    }
+
+    @Test
+    public void testBindings_surviveNewInstanceAndCountAsDependencies() throws Exception {
+        JSONArray bindings = new JSONArray().put(new JSONObject()
+            .put("provider", "a.B")
+            .put("group", "bound")
+            .put("layout", "android:layout/simple_list_item_1")
+            .put("views", new JSONArray().put(new JSONObject().put("view", "android:id/text1").put("key", "title"))));
+        new WidgetProviderRegistry(context).setBindings(bindings);
+
+        WidgetProviderRegistry coldStart = new WidgetProviderRegistry(context);
+
+        assertNotNull(coldStart.getBinding("a.B"));
+        assertEquals(Collections.singleton("a.B"), coldStart.getDependencies().providersFor("bound", Collections.singletonList("title")));
+    }
+
+    @Test
+    public void testWarmUp_resolvesPersistedProvidersAndCachesTheirIds() throws Exception {
+        new WidgetProviderRegistry(context).setRegisteredProviders(Arrays.asList(TrackedProvider.class.getName(), "a.Missing"));
+        ComponentName component = new ComponentName(context, TrackedProvider.class);
+        shadowManager.bindAppWidgetId(1, component);
+
+        WidgetProviderRegistry coldStart = new WidgetProviderRegistry(context);
+        assertEquals(1, coldStart.warmUp());
+
+        shadowManager.bindAppWidgetId(2, component);
+        WidgetProviderRegistry.Entry entry = coldStart.resolve(TrackedProvider.class.getName());
+        assertArrayEquals("Ids were fetched during warm-up", new int[] { 1 }, coldStart.getWidgetIds(entry));
+    }
+}
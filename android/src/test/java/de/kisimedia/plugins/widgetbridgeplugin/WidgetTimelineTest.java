@@ -0,0 +1,144 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.AlarmManager;
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowAlarmManager;
+
+/**
+ * Unit tests for WidgetTimeline.
+ * Entries must be applied in order by a single alarm chain and reload only the providers of their keys.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class WidgetTimelineTest {
+
+    private static final String GROUP = "timelineGroup";
+    private static final long NOW = 1_000_000L;
+
+    public static class TimelineWidget extends WidgetBridgeAppWidgetProvider {}
+
+    private Context context;
+    private ShadowAlarmManager alarms;
+    private WidgetTimeline timeline;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        alarms = shadowOf((AlarmManager) context.getSystemService(Context.ALARM_SERVICE));
+        WidgetProviderRegistry.resetForTesting();
+        WidgetBridgeStore.resetForTesting();
+        WidgetTimeline.resetForTesting();
+        timeline = WidgetTimeline.getInstance(context);
+    }
+
+    @Test
+    public void testSet_schedulesOneAlarmForEarliestEntry() throws Exception {
+        timeline.set(GROUP, entries(entry(NOW + 2000, "title", "Later"), entry(NOW + 1000, "title", "Soon")), true, NOW);
+
+        assertEquals(1, alarms.getScheduledAlarms().size());
+        ShadowAlarmManager.ScheduledAlarm alarm = alarms.getNextScheduledAlarm();
+        assertEquals(NOW + 1000, alarm.triggerAtTime);
+        assertEquals(AlarmManager.RTC, alarm.type);
+        assertEquals(Arrays.asList(NOW + 1000, NOW + 2000), timeline.pendingTimes(GROUP));
+    }
+
+    @Test
+    public void testApplyDue_writesValuesInOrderAndChainsNextAlarm() throws Exception {
+        timeline.set(GROUP, entries(entry(NOW + 1000, "title", "Soon"), entry(NOW + 2000, "title", "Later")), true, NOW);
+
+        assertEquals(1, timeline.applyDue(NOW + 1500));
+        assertEquals("Soon", store().getString("title", null));
+        assertEquals(NOW + 2000, alarms.getNextScheduledAlarm().triggerAtTime);
+
+        new WidgetTimelineReceiver().onReceive(context, new Intent(WidgetTimeline.ACTION_APPLY));
+        assertEquals("Later", store().getString("title", null));
+        assertTrue(timeline.pendingTimes(GROUP).isEmpty());
+        assertNull("Chain ends with the last entry", alarms.getNextScheduledAlarm());
+    }
+
+    @Test
+    public void testSet_appliesPastEntriesRightAwayWithNativeTypes() throws Exception {
+        JSONObject values = new JSONObject().put("count", 3).put("stale", JSONObject.NULL);
+        store().edit().putString("stale", "x").commit();
+
+        int pending = timeline.set(GROUP, new JSONArray().put(new JSONObject().put("date", NOW - 1).put("values", values)), true, NOW);
+
+        assertEquals(0, pending);
+        assertEquals(3, store().getInt("count", 0));
+        assertFalse(store().contains("stale"));
+    }
+
+    @Test
+    public void testApplyDue_reloadsProvidersOfWrittenKeysWithPartialUpdate() throws Exception {
+        shadowOf(AppWidgetManager.getInstance(context)).bindAppWidgetId(7, new ComponentName(context, TimelineWidget.class));
+        WidgetProviderRegistry.getInstance(context).setDependencies(new JSONArray().put(
+            new JSONObject().put("provider", TimelineWidget.class.getName()).put("group", GROUP).put("keys", new JSONArray().put("title"))
+        ));
+        timeline.set(GROUP, entries(entry(NOW + 1000, "title", "Soon")), true, NOW);
+
+        timeline.applyDue(NOW + 1000);
+
+        List<Intent> broadcasts = shadowOf(RuntimeEnvironment.getApplication()).getBroadcastIntents();
+        assertEquals(1, broadcasts.size());
+        assertEquals(WidgetBridgeAppWidgetProvider.ACTION_PARTIAL_UPDATE, broadcasts.get(0).getAction());
+        assertArrayEquals(new int[] { 7 }, broadcasts.get(0).getIntArrayExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS));
+    }
+
+    @Test
+    public void testClear_cancelsAlarm() throws Exception {
+        timeline.set(GROUP, entries(entry(NOW + 1000, "title", "Soon")), true, NOW);
+
+        timeline.clear(GROUP);
+
+        assertNull(alarms.getNextScheduledAlarm());
+        assertEquals(Collections.emptyList(), timeline.pendingTimes(GROUP));
+    }
+
+    @Test
+    public void testResume_reschedulesFromPersistedEntries() throws Exception {
+        timeline.set(GROUP, entries(entry(NOW + 1000, "title", "Soon")), false, NOW);
+        alarms.getScheduledAlarms().clear();
+
+        // A fresh process after a reboot only has the persisted entries.
+        WidgetTimeline.resetForTesting();
+        WidgetTimeline.getInstance(context).resume(NOW);
+
+        assertEquals(NOW + 1000, alarms.getNextScheduledAlarm().triggerAtTime);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSet_rejectsValuesThatCannotBeStored() throws Exception {
+        JSONObject values = new JSONObject().put("nested", new JSONObject().put("a", 1));
+        timeline.set(GROUP, new JSONArray().put(new JSONObject().put("date", NOW + 1000).put("values", values)), true, NOW);
+    }
+
+    private SharedPreferences store() {
+        return WidgetBridgeStore.open(context, GROUP);
+    }
+
+    private static JSONArray entries(JSONObject... entries) {
+        return new JSONArray(Arrays.asList(entries));
+    }
+
+    private static JSONObject entry(long date, String key, Object value) throws Exception {
+        return new JSONObject().put("date", date).put("values", new JSONObject().put(key, value));
+    }
+}
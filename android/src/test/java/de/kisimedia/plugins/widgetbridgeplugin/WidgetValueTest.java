@@ -0,0 +1,81 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for WidgetValue.
+ * Fields of a mapped value must come straight from the header index and match the JSON text.
+ */
+public class WidgetValueTest {
+
+    private static final String JSON =
+        "{ \"title\": \"Caf\\u00e9 \\\"Central\\\"\", \"count\": 42, \"nested\": {\"a\": [1, \"}\"]}, \"empty\": null }";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMap_readsFieldsThroughHeaderIndex() throws Exception {
+        File file = folder.newFile("value.wbv");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(WidgetValue.write(JSON));
+        }
+
+        WidgetValue value = WidgetValue.map(file);
+
+        assertEquals(JSON, value.asString());
+        assertEquals(new HashSet<>(Arrays.asList("title", "count", "nested", "empty")), value.fieldNames());
+        assertEquals("Café \"Central\"", value.getString("title"));
+        assertEquals("42", value.getString("count"));
+        assertEquals("{\"a\": [1, \"}\"]}", value.getJson("nested"));
+        assertNull(value.getString("empty"));
+        assertNull(value.field("missing"));
+
+        ByteBuffer count = value.field("count");
+        assertTrue(count.isReadOnly());
+        assertEquals("42", StandardCharsets.UTF_8.decode(count).toString());
+    }
+
+    @Test
+    public void testWrap_indexesSmallValuesOnDemand() throws Exception {
+        WidgetValue value = WidgetValue.wrap(JSON);
+
+        assertEquals("Café \"Central\"", value.getString("title"));
+        assertEquals(JSON.getBytes(StandardCharsets.UTF_8).length, value.size());
+    }
+
+    @Test
+    public void testGetString_rejectsMalformedEscapes() throws Exception {
+        WidgetValue value = WidgetValue.wrap("{\"short\": \"\\u00\", \"sign\": \"\\u+041\", \"ok\": \"\\u0041\"}");
+
+        assertEquals("A", value.getString("ok"));
+        for (String name : Arrays.asList("short", "sign")) {
+            try {
+                value.getString(name);
+                fail("Unescaped " + name);
+            } catch (IOException expected) {
+                // Rejected as it should be.
+            }
+        }
+        assertTrue(WidgetValue.wrap("{\"\\u12\": 1}").fieldNames().isEmpty());
+    }
+
+    @Test
+    public void testNonObjects_haveNoFields() {
+        assertTrue(WidgetValue.wrap("plain text").fieldNames().isEmpty());
+        assertTrue(WidgetValue.wrap("[1, 2]").fieldNames().isEmpty());
+        assertTrue(WidgetValue.wrap("{\"broken\": ").fieldNames().isEmpty());
+        assertEquals("plain text", WidgetValue.wrap("plain text").asString());
+    }
+}
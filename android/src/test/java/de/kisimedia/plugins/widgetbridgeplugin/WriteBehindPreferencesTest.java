@@ -0,0 +1,88 @@
+package de.kisimedia.plugins.widgetbridgeplugin;
+
+import static org.junit.Assert.*;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Unit tests for WriteBehindPreferences.
+ * Buffered writes must be readable right away and reach the backend only when flushed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class WriteBehindPreferencesTest {
+
+    private SharedPreferences backend;
+    private WriteBehindPreferences prefs;
+
+    @Before
+    public void setUp() {
+        backend = RuntimeEnvironment.getApplication().getSharedPreferences("writeBehindGroup", Context.MODE_PRIVATE);
+        backend.edit().clear().commit();
+        prefs = new WriteBehindPreferences(backend);
+    }
+
+    @Test
+    public void testBuffer_collapsesRepeatedWritesAndIsReadableBeforeFlush() {
+        backend.edit().putString("gone", "x").commit();
+
+        prefs.buffer(Collections.singletonMap("score", 1));
+        prefs.buffer(Collections.singletonMap("score", 2));
+        assertEquals(2, prefs.buffer(Collections.singletonMap("gone", null)));
+
+        assertEquals(2, prefs.getInt("score", 0));
+        assertFalse(prefs.contains("gone"));
+        assertEquals(Collections.singletonMap("score", 2), prefs.getAll());
+        assertFalse("Backend is untouched", backend.contains("score"));
+        assertTrue(backend.contains("gone"));
+
+        assertEquals(2, prefs.flush(true));
+
+        assertEquals(2, backend.getInt("score", 0));
+        assertFalse(backend.contains("gone"));
+        assertEquals(0, prefs.pendingCount());
+        assertEquals(0, prefs.flush(true));
+    }
+
+    @Test
+    public void testEdit_dropsBufferedValuesOfTheKeysItWrites() {
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", "buffered");
+        values.put("b", new HashSet<>(Arrays.asList("x", "y")));
+        prefs.buffer(values);
+
+        prefs.edit().putString("a", "direct").apply();
+        prefs.flush(true);
+
+        assertEquals("direct", backend.getString("a", null));
+        assertEquals(new HashSet<>(Arrays.asList("x", "y")), backend.getStringSet("b", null));
+    }
+
+    @Test
+    public void testWrite_replacesBufferedValueOfTheSameKey() {
+        prefs.buffer(Collections.singletonMap("a", "old"));
+
+        prefs.write(Collections.singletonMap("a", "new"), false);
+        prefs.flush(false);
+
+        assertEquals("new", backend.getString("a", null));
+    }
+
+    @Test(expected = ClassCastException.class)
+    public void testTypedGetters_throwOnMismatchLikeTheFramework() {
+        prefs.buffer(Collections.singletonMap("a", "text"));
+        prefs.getInt("a", 0);
+    }
+}
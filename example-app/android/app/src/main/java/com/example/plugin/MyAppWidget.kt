@@ -2,11 +2,13 @@ package com.example.plugin;
 
 import android.app.PendingIntent
 import android.appwidget.AppWidgetManager
-import android.appwidget.AppWidgetProvider
 import android.content.Context
 import android.widget.RemoteViews
+import de.kisimedia.plugins.widgetbridgeplugin.WidgetBridgeAppWidgetProvider
+import de.kisimedia.plugins.widgetbridgeplugin.WidgetBridgeStore
+import java.io.IOException
 
-class MyAppWidget : AppWidgetProvider() {
+class MyAppWidget : WidgetBridgeAppWidgetProvider() {
     override fun onUpdate(context: Context, appWidgetManager: AppWidgetManager, appWidgetIds: IntArray) {
         for (appWidgetId in appWidgetIds) {
             updateAppWidget(context, appWidgetManager, appWidgetId)
@@ -15,8 +17,12 @@ class MyAppWidget : AppWidgetProvider() {
 
     companion object {
         fun updateAppWidget(context: Context, appWidgetManager: AppWidgetManager, appWidgetId: Int) {
-            val prefs = context.getSharedPreferences("group.de.kisimedia.WidgetBridgePluginExample", Context.MODE_PRIVATE)
-            val widgetText = prefs.getString("widgetText", "No text set") ?: "No text"
+            // readValue resolves large and compressed strings, which getString would return encoded.
+            val widgetText = try {
+                WidgetBridgeStore.readValue(context, "group.de.kisimedia.WidgetBridgePluginExample", "widgetText")?.asString()
+            } catch (e: IOException) {
+                null
+            } ?: "No text set"
 
             val views = RemoteViews(context.packageName, R.layout.my_app_widget)
             views.setTextViewText(R.id.appwidget_text, widgetText)
@@ -1,21 +1,27 @@
+import type { PluginListenerHandle } from '@capacitor/core';
+
 export interface WidgetBridgePlugin {
   /**
-   * Returns the value from the user’s defaults/shared preferences associated with the specified key.
+   * Returns the value from the user's defaults/shared preferences associated with the specified key.
    *
    * - iOS: Uses UserDefaults with app group support.
-   * - Android: Uses SharedPreferences with private app storage.
+   * - Android: Uses SharedPreferences with private app storage. Returns any primitive type (String, Number, Boolean), not just String.
+   *   Also returns the key's `version` and `etag`. Passing either back as `ifVersion` or `ifNoneMatch`
+   *   resolves with `notModified: true` and no value while the key is unchanged.
    *
    * @param {UserDefaultsOptions} options
    * @since 7.0.0
-   * @returns {Promise<DataResults<any>>} Promise resolving to the stored value.
+   * @returns {Promise<VersionedResults<any>>} Promise resolving to the stored value.
    */
-  getItem(options: UserDefaultsOptions): Promise<DataResults<any>>;
+  getItem(options: UserDefaultsOptions): Promise<VersionedResults<any>>;
 
   /**
    * Sets the value to the user’s defaults/shared preferences associated with the specified key.
    *
    * - iOS: Uses UserDefaults with app group support.
-   * - Android: Uses SharedPreferences with private app storage.
+   * - Android: Uses SharedPreferences with private app storage. Numbers, booleans and string arrays
+   *   are stored as native types, so providers read them with `getInt`, `getBoolean` and friends.
+   *   With `type: 'json'` an object is stored as one typed key per leaf, e.g. `weather.current.temp`.
    *
    * @param {UserDefaultsOptions} options
    * @since 7.0.0
@@ -23,6 +29,19 @@ export interface WidgetBridgePlugin {
    */
   setItem(options: UserDefaultsOptions): Promise<DataResults<boolean>>;
 
+  /**
+   * Applies a JSON merge patch (RFC 7386) to a stored JSON value, so only the change crosses the bridge.
+   *
+   * - iOS: Not supported.
+   * - Android: Patches the JSON text stored under `key`, or with `type: 'json'` only the flattened
+   *   leaves the patch touches. Reading, merging and writing are atomic for the key.
+   *
+   * @param {PatchItemOptions} options
+   * @since 7.1.0
+   * @returns {Promise<VersionedResults<boolean>>} Promise resolving to the new version of the value.
+   */
+  patchItem(options: PatchItemOptions): Promise<VersionedResults<boolean>>;
+
   /**
    * Removes the value from the user’s defaults/shared preferences associated with the specified key.
    *
@@ -35,6 +54,213 @@ export interface WidgetBridgePlugin {
    */
   removeItem(options: UserDefaultsOptions): Promise<DataResults<boolean>>;
 
+  /**
+   * Returns the values of several keys of one group in a single call.
+   *
+   * - iOS: Not supported.
+   * - Android: Reads all keys from one snapshot of the group. Missing keys resolve to `null`.
+   *   The `version` is the newest version among the requested keys, so writes to other keys of the
+   *   group do not invalidate it.
+   *
+   * @param {GetItemsOptions} options
+   * @since 7.1.0
+   * @returns {Promise<VersionedResults<{ [key: string]: any }>>} Promise resolving to a map of key to stored value.
+   */
+  getItems(options: GetItemsOptions): Promise<VersionedResults<{ [key: string]: any }>>;
+
+  /**
+   * Sets and removes several keys of one group in a single editor transaction.
+   *
+   * - iOS: Not supported.
+   * - Android: Stages all removals and writes on one `SharedPreferences.Editor` and applies it once.
+   *   A key that appears in both `remove` and `values` ends up set. Value types are inferred as in
+   *   `setItem`; objects are reported as `false`.
+   *
+   * @param {SetItemsOptions} options
+   * @since 7.1.0
+   * @returns {Promise<DataResults<{ [key: string]: boolean }>>} Promise resolving to a per-key success map.
+   */
+  setItems(options: SetItemsOptions): Promise<DataResults<{ [key: string]: boolean }>>;
+
+  /**
+   * Removes several keys of one group in a single editor transaction.
+   *
+   * - iOS: Not supported.
+   * - Android: Removes all keys with one `SharedPreferences.Editor` and applies it once.
+   *
+   * @param {RemoveItemsOptions} options
+   * @since 7.1.0
+   * @returns {Promise<DataResults<{ [key: string]: boolean }>>} Promise resolving to a map of key to whether it existed.
+   */
+  removeItems(options: RemoveItemsOptions): Promise<DataResults<{ [key: string]: boolean }>>;
+
+  /**
+   * Chooses how writes reach disk.
+   *
+   * - iOS: Not supported.
+   * - Android: `apply` (default) writes in the background, `commit` waits for the disk before the
+   *   call resolves and `buffered` keeps writes in memory, keeping only the last value per key,
+   *   until `flushMs` passes, `maxPendingKeys` keys are waiting, `flush` is called or the app is
+   *   paused. Widget providers in the app process read buffered values through `WidgetBridgeStore`.
+   *
+   * @param {WriteOptions} options
+   * @since 7.1.0
+   * @returns {Promise<DataResults<boolean>>} Promise indicating success.
+   */
+  setWriteOptions(options: WriteOptions): Promise<DataResults<boolean>>;
+
+  /**
+   * Writes buffered values to disk and waits for them to be stored.
+   *
+   * - iOS: Not supported.
+   * - Android: Flushes one group, or every group when `group` is omitted.
+   *
+   * @param {FlushOptions} options
+   * @since 7.1.0
+   * @returns {Promise<DataResults<number>>} Promise resolving to the number of keys written.
+   */
+  flush(options?: FlushOptions): Promise<DataResults<number>>;
+
+  /**
+   * Lists the keys of a group in sorted order, one page at a time.
+   *
+   * - iOS: Not supported.
+   * - Android: Served from a sorted index kept up to date on every write, so large groups are
+   *   neither copied nor sorted per call. Pass the returned `cursor` to get the next page.
+   *
+   * @param {KeyRangeOptions} options
+   * @since 7.1.0
+   * @returns {Promise<PagedResults<string[]>>} Promise resolving to one page of keys.
+   */
+  getKeys(options: KeyRangeOptions): Promise<PagedResults<string[]>>;
+
+  /**
+   * Returns the keys starting with `prefix` together with their values, one page at a time.
+   *
+   * - iOS: Not supported.
+   * - Android: Uses the same sorted index as `getKeys`. Pass the returned `cursor` to get the next page.
+   *
+   * @param {KeyRangeOptions} options
+   * @since 7.1.0
+   * @returns {Promise<PagedResults<{ [key: string]: any }>>} Promise resolving to one page of values.
+   */
+  getItemsByPrefix(options: KeyRangeOptions): Promise<PagedResults<{ [key: string]: any }>>;
+
+  /**
+   * Limits how many keys or bytes a group may hold.
+   *
+   * - iOS: Not supported.
+   * - Android: When a write pushes the group over a limit, the least recently read or written keys
+   *   are removed until it fits again. Keys written by that call are kept. Recency is tracked per app
+   *   process. The quota applies until the app process ends.
+   *
+   * @param {GroupQuotaOptions} options
+   * @since 7.1.0
+   * @returns {Promise<DataResults<boolean>>} Promise indicating success.
+   */
+  setGroupQuota(options: GroupQuotaOptions): Promise<DataResults<boolean>>;
+
+  /**
+   * Returns size and eviction counters of a group.
+   *
+   * - iOS: Not supported.
+   * - Android: Expired keys are removed on the next read of the group and by a sweep every
+   *   `expirySweepMs`. Counters cover the current app process.
+   *
+   * @param {GroupOptions} options
+   * @since 7.1.0
+   * @returns {Promise<DataResults<RetentionStats>>} Promise resolving to the statistics.
+   */
+  getRetentionStats(options: GroupOptions): Promise<DataResults<RetentionStats>>;
+
+  /**
+   * Compresses string values of a group from a size threshold up.
+   *
+   * - iOS: Not supported.
+   * - Android: Values are stored with Deflate, using a preset dictionary trained from `samples` when given.
+   *   Applies to values written from now on; `getItem` and `WidgetBridgeStore.readValue` decompress them
+   *   transparently. Values below `largeValueThreshold` only, since larger ones live in their own file.
+   *   The setting and dictionaries are persisted.
+   *
+   * @param {CompressionOptions} options
+   * @since 7.1.0
+   * @returns {Promise<DataResults<CompressionResult>>} Promise resolving to the trained dictionary size.
+   */
+  setCompression(options: CompressionOptions): Promise<DataResults<CompressionResult>>;
+
+  /**
+   * Returns how well a group's values compress.
+   *
+   * - iOS: Not supported.
+   * - Android: Counters cover the current app process.
+   *
+   * @param {GroupOptions} options
+   * @since 7.1.0
+   * @returns {Promise<DataResults<CompressionStats>>} Promise resolving to the statistics.
+   */
+  getCompressionStats(options: GroupOptions): Promise<DataResults<CompressionStats>>;
+
+  /**
+   * Stores an image for widgets as a file instead of a base64 string in the group.
+   *
+   * - iOS: Not supported.
+   * - Android: Writes the bytes once into the plugin's image directory of the group. When the group
+   *   grows past `imageGroupMaxBytes`, its least recently written images are deleted. Providers
+   *   decode the image with `WidgetImages.load`.
+   *
+   * @param {SetImageOptions} options
+   * @since 7.1.0
+   * @returns {Promise<DataResults<ImageResult>>} Promise resolving to the stored image.
+   */
+  setImage(options: SetImageOptions): Promise<DataResults<ImageResult>>;
+
+  /**
+   * Deletes an image stored with `setImage`.
+   *
+   * - iOS: Not supported.
+   * - Android: Deletes the file and drops any decoded copies from the provider cache.
+   *
+   * @param {ImageOptions} options
+   * @since 7.1.0
+   * @returns {Promise<DataResults<boolean>>} Promise resolving to whether the image existed.
+   */
+  removeImage(options: ImageOptions): Promise<DataResults<boolean>>;
+
+  /**
+   * Subscribes to changes of keys in a group. Changes are delivered as `itemsChanged` events.
+   *
+   * - iOS: Not supported.
+   * - Android: Sees every change made in the app process, including writes from widget providers.
+   *   Changes are batched for `changeEventWindowMs` and sent as one event per group.
+   *
+   * @param {SubscribeOptions} options
+   * @since 7.1.0
+   * @returns {Promise<DataResults<string>>} Promise resolving to the subscription id.
+   */
+  subscribe(options: SubscribeOptions): Promise<DataResults<string>>;
+
+  /**
+   * Ends a subscription created with `subscribe`.
+   *
+   * - iOS: Not supported.
+   * - Android: Stops including the subscription in `itemsChanged` events.
+   *
+   * @param {UnsubscribeOptions} options
+   * @since 7.1.0
+   * @returns {Promise<DataResults<boolean>>} Promise resolving to whether the subscription existed.
+   */
+  unsubscribe(options: UnsubscribeOptions): Promise<DataResults<boolean>>;
+
+  /**
+   * Listens for changes to subscribed keys.
+   *
+   * - iOS: Not supported.
+   * - Android: Fired at most once per `changeEventWindowMs` and group.
+   *
+   * @since 7.1.0
+   */
+  addListener(eventName: 'itemsChanged', listenerFunc: (event: ItemsChangedEvent) => void): Promise<PluginListenerHandle>;
+
   /**
    * Reloads timelines for all configured widgets in the app.
    *
@@ -58,11 +284,157 @@ export interface WidgetBridgePlugin {
    */
   reloadTimelines(options: TimelinesOptions): Promise<DataResults<boolean>>;
 
+  /**
+   * Schedules future values of group keys, like the entries of a WidgetKit timeline.
+   *
+   * - iOS: Not supported.
+   * - Android: When an entry's `date` arrives its values are written and the providers that depend on the written
+   *   keys are updated, without starting the WebView. A single inexact alarm is kept for the earliest entry of all groups,
+   *   so entries may be applied a little late while the device sleeps. Entries in the past are applied right away.
+   *
+   * @param {SetTimelineOptions} options
+   * @since 7.1.0
+   * @returns {Promise<DataResults<number>>} Promise resolving to the number of entries still pending in the group.
+   */
+  setTimeline(options: SetTimelineOptions): Promise<DataResults<number>>;
+
+  /**
+   * Drops the pending timeline entries of a group.
+   *
+   * - iOS: Not supported.
+   * - Android: Values already applied stay in the group.
+   *
+   * @param {GroupOptions} options
+   * @since 7.1.0
+   * @returns {Promise<DataResults<boolean>>} Promise indicating success.
+   */
+  clearTimeline(options: GroupOptions): Promise<DataResults<boolean>>;
+
+  /**
+   * Updates specific widget instances.
+   *
+   * - iOS: Not supported.
+   * - Android: Sends an update to the providers of `appWidgetIds`, coalesced like other reloads. With `keys`,
+   *   providers extending `WidgetBridgeAppWidgetProvider` get a partial update naming those keys. Unknown ids
+   *   are skipped.
+   *
+   * @param {UpdateWidgetsOptions} options
+   * @since 7.1.0
+   * @returns {Promise<DataResults<number>>} Promise resolving to the number of widgets updated.
+   */
+  updateWidgets(options: UpdateWidgetsOptions): Promise<DataResults<number>>;
+
+  /**
+   * Configures how timeline reloads are coalesced.
+   *
+   * - iOS: Not supported.
+   * - Android: Reload requests that arrive within `debounceMs` of each other are merged into one update
+   *   broadcast per provider that carries the union of widget ids. A request never waits longer than
+   *   `maxLatencyMs`. `debounceMs` defaults to `150`; `0` sends every reload immediately.
+   *
+   * @param {ReloadOptions} options
+   * @since 7.1.0
+   * @returns {Promise<DataResults<boolean>>} Promise indicating success.
+   */
+  setReloadOptions(options: ReloadOptions): Promise<DataResults<boolean>>;
+
+  /**
+   * Returns counters of the reload scheduler.
+   *
+   * - iOS: Not supported.
+   * - Android: Reports how many reloads were requested, how many broadcasts were sent and how many requests were coalesced.
+   *
+   * @since 7.1.0
+   * @returns {Promise<DataResults<ReloadStats>>} Promise resolving to the reload counters.
+   */
+  getReloadStats(): Promise<DataResults<ReloadStats>>;
+
+  /**
+   * Returns how long the cold start took to get widget data ready.
+   *
+   * - iOS: Not supported.
+   * - Android: Times are milliseconds since the plugin loaded. Groups listed in `warmUpGroups` and, with
+   *   `warmUpProviders`, the registered providers are loaded in the background right away; calls for them
+   *   wait for that work instead of repeating it.
+   *
+   * @since 7.1.0
+   * @returns {Promise<DataResults<WarmUpStats>>} Promise resolving to the warm-up times.
+   */
+  getWarmUpStats(): Promise<DataResults<WarmUpStats>>;
+
+  /**
+   * Returns what the plugin recorded since the last reset: latency and payload sizes per method,
+   * writes to storage and update broadcasts per provider.
+   *
+   * - iOS: Not supported.
+   * - Android: Recording is off unless the `metrics` option or `resetMetrics` turns it on. While on,
+   *   calls also appear as `WidgetBridge#<method>` sections in system traces. Counters cover the
+   *   current app process.
+   *
+   * @since 7.1.0
+   * @returns {Promise<DataResults<Metrics>>} Promise resolving to the recorded metrics.
+   */
+  getMetrics(): Promise<DataResults<Metrics>>;
+
+  /**
+   * Clears the recorded metrics and optionally turns recording on or off.
+   *
+   * - iOS: Not supported.
+   * - Android: Supported.
+   *
+   * @param {ResetMetricsOptions} options
+   * @since 7.1.0
+   * @returns {Promise<DataResults<boolean>>} Promise indicating success.
+   */
+  resetMetrics(options?: ResetMetricsOptions): Promise<DataResults<boolean>>;
+
+  /**
+   * Declares which group keys each widget provider renders.
+   *
+   * - iOS: Not supported.
+   * - Android: Used by auto-reload to decide which providers a write affects. Replaces any previously
+   *   declared dependencies and is persisted across app restarts.
+   *
+   * @param {WidgetDependenciesOptions} options
+   * @since 7.1.0
+   * @returns {Promise<DataResults<boolean>>} Promise indicating success.
+   */
+  setWidgetDependencies(options: WidgetDependenciesOptions): Promise<DataResults<boolean>>;
+
+  /**
+   * Registers layouts that the plugin renders natively from stored values.
+   *
+   * - iOS: Not supported.
+   * - Android: Providers extending `WidgetBindingProvider` fill their layout from the bound keys whenever they update,
+   *   without starting the WebView. The keys of a binding count as dependencies of its provider, so auto-reload only
+   *   updates the views of the keys that changed. Replaces any previous bindings, is persisted across app restarts and
+   *   renders the bound widgets right away. Rejects bindings naming unknown resources.
+   *
+   * @param {WidgetBindingsOptions} options
+   * @since 7.1.0
+   * @returns {Promise<DataResults<boolean>>} Promise indicating success.
+   */
+  setWidgetBindings(options: WidgetBindingsOptions): Promise<DataResults<boolean>>;
+
+  /**
+   * Enables or disables automatic reloads after writes.
+   *
+   * - iOS: Not supported.
+   * - Android: When enabled, `setItem`, `setItems`, `removeItem` and `removeItems` reload only the providers
+   *   whose declared keys actually changed. Writes of identical values are skipped entirely.
+   *
+   * @param {AutoReloadOptions} options
+   * @since 7.1.0
+   * @returns {Promise<DataResults<boolean>>} Promise indicating success.
+   */
+  setAutoReload(options: AutoReloadOptions): Promise<DataResults<boolean>>;
+
   /**
    * Registers widget provider class names for dynamic timeline updates on Android.
    *
    * - iOS: No-op.
-   * - Android: Used to register widget classes for reloadAllTimelines.
+   * - Android: Used to register widget classes for reloadAllTimelines. The list is persisted, so reloads
+   *   keep working after a cold start without registering again.
    *
    * @param {RegisteredWidgetsOptions} options
    * @since 7.0.0
@@ -109,48 +481,1128 @@ export interface UserDefaultsOptions {
    */
   group: string;
 
+  /**
+   * Works on the data of this one widget instance instead of the whole group. Read it on Android
+   * with `WidgetBridgeStore.openInstance(context, group, appWidgetId)`.
+   *
+   * @since 7.1.0
+   */
+  appWidgetId?: number;
+
   /**
    * The value to set in storage with the associated key
    *
    * @since 7.0.0
    */
-  value?: string;
+  value?: any;
+
+  /**
+   * Storage type of `value` on Android. Inferred when omitted: integers become `int` (or `long`
+   * beyond 32 bits), other numbers `float` and arrays of strings `stringSet`. `json` flattens
+   * objects and arrays into one key per leaf and removes leaves the previous value had.
+   *
+   * @since 7.1.0
+   */
+  type?: 'string' | 'int' | 'long' | 'float' | 'boolean' | 'stringSet' | 'json';
+
+  /**
+   * `setItem` only: removes the key this many milliseconds after the write. Writing the key again
+   * without `ttlMs` keeps it until removed.
+   *
+   * @since 7.1.0
+   */
+  ttlMs?: number;
+
+  /**
+   * `getItem` only: skip the value if the key still has this `version`.
+   *
+   * @since 7.1.0
+   */
+  ifVersion?: number;
+
+  /**
+   * `getItem` only: skip the value if the key still has this `etag`.
+   *
+   * @since 7.1.0
+   */
+  ifNoneMatch?: string;
 }
 
-export interface TimelinesOptions {
+export interface PatchItemOptions {
   /**
-   * A string that identifies the widget and matches the value you used when you created the widget’s configuration
+   * The key whose value to patch.
    *
-   * @since 7.0.0
+   * @since 7.1.0
    */
-  ofKind: string;
+  key: string;
+
+  /**
+   * User defaults database name which holds and organizes key/value pairs
+   *
+   * @since 7.1.0
+   */
+  group: string;
+
+  /**
+   * Works on the data of this one widget instance instead of the whole group. Read it on Android
+   * with `WidgetBridgeStore.openInstance(context, group, appWidgetId)`.
+   *
+   * @since 7.1.0
+   */
+  appWidgetId?: number;
+
+  /**
+   * Merge patch to apply. Members set to `null` are removed, objects are merged and any other
+   * value, arrays included, replaces what was there.
+   *
+   * @since 7.1.0
+   */
+  patch: any;
+
+  /**
+   * `json` for values stored with `setItem` and `type: 'json'`. Omit for values stored as JSON text.
+   *
+   * @since 7.1.0
+   */
+  type?: 'json';
 }
 
-export interface RegisteredWidgetsOptions {
+export interface GetItemsOptions {
   /**
-   * Fully qualified class names of widgets to register for updates.
+   * User defaults database name which holds and organizes key/value pairs
    *
-   * @since 7.0.0
+   * @since 7.1.0
    */
-  widgets: string[];
+  group: string;
+
+  /**
+   * Works on the data of this one widget instance instead of the whole group. Read it on Android
+   * with `WidgetBridgeStore.openInstance(context, group, appWidgetId)`.
+   *
+   * @since 7.1.0
+   */
+  appWidgetId?: number;
+
+  /**
+   * The keys whose values to retrieve from storage.
+   *
+   * @since 7.1.0
+   */
+  keys: string[];
+
+  /**
+   * Skip the values if none of the keys changed since this `version`.
+   *
+   * @since 7.1.0
+   */
+  ifVersion?: number;
+
+  /**
+   * Skip the values if none of the keys changed since this `etag`.
+   *
+   * @since 7.1.0
+   */
+  ifNoneMatch?: string;
 }
 
-export interface RequestWidgetOptions {
+export interface SetItemsOptions {
   /**
-   * Fully qualified class name of the widget provider to pin.
-   * 
-   * Example: "com.example.app.MyWidgetProvider"
+   * User defaults database name which holds and organizes key/value pairs
    *
-   * @since 7.0.0
+   * @since 7.1.0
    */
-  className: string;
+  group: string;
+
+  /**
+   * Works on the data of this one widget instance instead of the whole group. Read it on Android
+   * with `WidgetBridgeStore.openInstance(context, group, appWidgetId)`.
+   *
+   * @since 7.1.0
+   */
+  appWidgetId?: number;
+
+  /**
+   * The values to set in storage, keyed by their storage key.
+   *
+   * @since 7.1.0
+   */
+  values?: { [key: string]: any };
+
+  /**
+   * Keys to remove from storage in the same transaction.
+   *
+   * @since 7.1.0
+   */
+  remove?: string[];
+
+  /**
+   * Removes the written keys this many milliseconds after the write.
+   *
+   * @since 7.1.0
+   */
+  ttlMs?: number;
 }
 
-export interface DataResults<T> {
+export interface RemoveItemsOptions {
   /**
-   * Holds response results from native code
+   * User defaults database name which holds and organizes key/value pairs
    *
-   * @since 7.0.0
+   * @since 7.1.0
    */
-  results: T;
+  group: string;
+
+  /**
+   * Works on the data of this one widget instance instead of the whole group. Read it on Android
+   * with `WidgetBridgeStore.openInstance(context, group, appWidgetId)`.
+   *
+   * @since 7.1.0
+   */
+  appWidgetId?: number;
+
+  /**
+   * The keys to remove from storage.
+   *
+   * @since 7.1.0
+   */
+  keys: string[];
+}
+
+export interface WriteOptions {
+  /**
+   * How writes reach disk.
+   *
+   * @since 7.1.0
+   * @default 'apply'
+   */
+  mode?: 'apply' | 'commit' | 'buffered';
+
+  /**
+   * `buffered` only: longest time a write stays in memory.
+   *
+   * @since 7.1.0
+   * @default 1000
+   */
+  flushMs?: number;
+
+  /**
+   * `buffered` only: number of waiting keys that triggers a flush.
+   *
+   * @since 7.1.0
+   * @default 64
+   */
+  maxPendingKeys?: number;
+}
+
+export interface FlushOptions {
+  /**
+   * The group to flush. Omit to flush every group.
+   *
+   * @since 7.1.0
+   */
+  group?: string;
+
+  /**
+   * Works on the data of this one widget instance instead of the whole group. Read it on Android
+   * with `WidgetBridgeStore.openInstance(context, group, appWidgetId)`.
+   *
+   * @since 7.1.0
+   */
+  appWidgetId?: number;
+}
+
+export interface KeyRangeOptions {
+  /**
+   * User defaults database name which holds and organizes key/value pairs
+   *
+   * @since 7.1.0
+   */
+  group: string;
+
+  /**
+   * Works on the data of this one widget instance instead of the whole group. Read it on Android
+   * with `WidgetBridgeStore.openInstance(context, group, appWidgetId)`.
+   *
+   * @since 7.1.0
+   */
+  appWidgetId?: number;
+
+  /**
+   * Only list keys starting with this prefix. Required for `getItemsByPrefix`.
+   *
+   * @since 7.1.0
+   */
+  prefix?: string;
+
+  /**
+   * Only list keys from this one on.
+   *
+   * @since 7.1.0
+   */
+  start?: string;
+
+  /**
+   * Only list keys before this one.
+   *
+   * @since 7.1.0
+   */
+  end?: string;
+
+  /**
+   * `cursor` of the previous page.
+   *
+   * @since 7.1.0
+   */
+  cursor?: string;
+
+  /**
+   * Most keys per page, up to 1000.
+   *
+   * @since 7.1.0
+   * @default 100
+   */
+  limit?: number;
+}
+
+export interface GroupOptions {
+  /**
+   * User defaults database name which holds and organizes key/value pairs
+   *
+   * @since 7.1.0
+   */
+  group: string;
+
+  /**
+   * Works on the data of this one widget instance instead of the whole group. Read it on Android
+   * with `WidgetBridgeStore.openInstance(context, group, appWidgetId)`.
+   *
+   * @since 7.1.0
+   */
+  appWidgetId?: number;
+}
+
+export interface GroupQuotaOptions {
+  /**
+   * User defaults database name which holds and organizes key/value pairs
+   *
+   * @since 7.1.0
+   */
+  group: string;
+
+  /**
+   * Works on the data of this one widget instance instead of the whole group. Read it on Android
+   * with `WidgetBridgeStore.openInstance(context, group, appWidgetId)`.
+   *
+   * @since 7.1.0
+   */
+  appWidgetId?: number;
+
+  /**
+   * Most keys the group may hold. `0` for no limit.
+   *
+   * @since 7.1.0
+   */
+  maxEntries?: number;
+
+  /**
+   * Most bytes the group may hold, estimated from the stored values. Large values count with the
+   * size of their file. `0` for no limit.
+   *
+   * @since 7.1.0
+   */
+  maxBytes?: number;
+}
+
+export interface CompressionOptions {
+  /**
+   * User defaults database name which holds and organizes key/value pairs
+   *
+   * @since 7.1.0
+   */
+  group: string;
+
+  /**
+   * Works on the data of this one widget instance instead of the whole group. Read it on Android
+   * with `WidgetBridgeStore.openInstance(context, group, appWidgetId)`.
+   *
+   * @since 7.1.0
+   */
+  appWidgetId?: number;
+
+  /**
+   * Strings with at least this many characters are compressed. `0` turns compression off.
+   *
+   * @since 7.1.0
+   */
+  threshold: number;
+
+  /**
+   * Typical values to train a preset dictionary from. Without samples, plain Deflate is used.
+   *
+   * @since 7.1.0
+   */
+  samples?: string[];
+
+  /**
+   * Largest dictionary to train, at most 32768.
+   *
+   * @default 16384
+   * @since 7.1.0
+   */
+  dictionaryBytes?: number;
+}
+
+export interface CompressionResult {
+  /**
+   * Size of the trained dictionary, `0` without samples.
+   *
+   * @since 7.1.0
+   */
+  dictionaryBytes: number;
+}
+
+export interface CompressionStats {
+  /**
+   * Current threshold, `0` when compression is off.
+   *
+   * @since 7.1.0
+   */
+  threshold: number;
+
+  /**
+   * Size of the current dictionary, `0` if none.
+   *
+   * @since 7.1.0
+   */
+  dictionaryBytes: number;
+
+  /**
+   * Values stored compressed.
+   *
+   * @since 7.1.0
+   */
+  compressed: number;
+
+  /**
+   * UTF-8 bytes of those values before compression.
+   *
+   * @since 7.1.0
+   */
+  rawBytes: number;
+
+  /**
+   * Characters stored for those values.
+   *
+   * @since 7.1.0
+   */
+  storedBytes: number;
+
+  /**
+   * `rawBytes` divided by `storedBytes`.
+   *
+   * @since 7.1.0
+   */
+  ratio: number;
+
+  /**
+   * CPU time spent compressing, in milliseconds.
+   *
+   * @since 7.1.0
+   */
+  compressCpuMs: number;
+
+  /**
+   * Values decompressed on read.
+   *
+   * @since 7.1.0
+   */
+  decompressed: number;
+
+  /**
+   * CPU time spent decompressing, in milliseconds.
+   *
+   * @since 7.1.0
+   */
+  decompressCpuMs: number;
+}
+
+export interface RetentionStats {
+  /**
+   * Keys in the group.
+   *
+   * @since 7.1.0
+   */
+  entries: number;
+
+  /**
+   * Estimated size of the group in bytes.
+   *
+   * @since 7.1.0
+   */
+  bytes: number;
+
+  /**
+   * Keys with a TTL.
+   *
+   * @since 7.1.0
+   */
+  expiring: number;
+
+  /**
+   * Keys removed because their TTL passed.
+   *
+   * @since 7.1.0
+   */
+  expired: number;
+
+  /**
+   * Keys removed to stay within the quota.
+   *
+   * @since 7.1.0
+   */
+  evicted: number;
+
+  /**
+   * Current entry limit, `0` if none.
+   *
+   * @since 7.1.0
+   */
+  maxEntries: number;
+
+  /**
+   * Current byte limit, `0` if none.
+   *
+   * @since 7.1.0
+   */
+  maxBytes: number;
+}
+
+export interface TimelinesOptions {
+  /**
+   * A string that identifies the widget and matches the value you used when you created the widget’s configuration
+   *
+   * @since 7.0.0
+   */
+  ofKind: string;
+}
+
+export interface TimelineEntry {
+  /**
+   * When to apply the values, in milliseconds since the epoch.
+   *
+   * @since 7.1.0
+   */
+  date: number;
+
+  /**
+   * The values to write, keyed by their storage key. `null` removes the key.
+   *
+   * @since 7.1.0
+   */
+  values: { [key: string]: any };
+}
+
+export interface SetTimelineOptions {
+  /**
+   * User defaults database name which holds and organizes key/value pairs
+   *
+   * @since 7.1.0
+   */
+  group: string;
+
+  /**
+   * Applies the entries to the data of this one widget instance.
+   *
+   * @since 7.1.0
+   */
+  appWidgetId?: number;
+
+  /**
+   * The entries to schedule. An entry at the same `date` as a pending one replaces it.
+   *
+   * @since 7.1.0
+   */
+  entries: TimelineEntry[];
+
+  /**
+   * Drop the pending entries of the group first.
+   *
+   * @since 7.1.0
+   * @default true
+   */
+  replace?: boolean;
+}
+
+export interface RegisteredWidgetsOptions {
+  /**
+   * Fully qualified class names of widgets to register for updates.
+   *
+   * @since 7.0.0
+   */
+  widgets: string[];
+}
+
+export interface UpdateWidgetsOptions {
+  /**
+   * The widget instances to update.
+   *
+   * @since 7.1.0
+   */
+  appWidgetIds: number[];
+
+  /**
+   * The keys that changed. Omit for a full update.
+   *
+   * @since 7.1.0
+   */
+  keys?: string[];
+}
+
+export interface ReloadOptions {
+  /**
+   * Quiet period in milliseconds after the last reload request before the merged broadcast is sent.
+   *
+   * @since 7.1.0
+   */
+  debounceMs?: number;
+
+  /**
+   * Upper bound in milliseconds between the oldest pending reload request and its broadcast.
+   *
+   * @since 7.1.0
+   */
+  maxLatencyMs?: number;
+}
+
+export interface ReloadStats {
+  /**
+   * Number of reload requests received.
+   *
+   * @since 7.1.0
+   */
+  requested: number;
+
+  /**
+   * Number of update broadcasts sent.
+   *
+   * @since 7.1.0
+   */
+  broadcasts: number;
+
+  /**
+   * Number of requests that were merged into another request's broadcast.
+   *
+   * @since 7.1.0
+   */
+  coalesced: number;
+
+  /**
+   * Number of requests waiting for the debounce window to close.
+   *
+   * @since 7.1.0
+   */
+  pending: number;
+
+  /**
+   * Current debounce window in milliseconds.
+   *
+   * @since 7.1.0
+   */
+  debounceMs: number;
+
+  /**
+   * Current latency bound in milliseconds.
+   *
+   * @since 7.1.0
+   */
+  maxLatencyMs: number;
+}
+
+export interface WarmUpStats {
+  /**
+   * Time at which each warmed-up group was in memory.
+   *
+   * @since 7.1.0
+   */
+  groups: { [group: string]: number };
+
+  /**
+   * Time at which the registered providers and their widget ids were resolved, or `-1`.
+   *
+   * @since 7.1.0
+   */
+  providersMs: number;
+
+  /**
+   * Number of providers resolved by the warm-up.
+   *
+   * @since 7.1.0
+   */
+  providers: number;
+
+  /**
+   * Time at which the first `getItem`, `getItems` or `getItemsByPrefix` call returned values, or `-1`.
+   *
+   * @since 7.1.0
+   */
+  firstDataMs: number;
+}
+
+export interface CallMetrics {
+  /**
+   * Number of completed calls.
+   *
+   * @since 7.1.0
+   */
+  count: number;
+
+  /**
+   * Number of rejected calls.
+   *
+   * @since 7.1.0
+   */
+  errors: number;
+
+  /**
+   * Mean time from the call reaching native code to its result, in microseconds.
+   *
+   * @since 7.1.0
+   */
+  meanUs: number;
+
+  /**
+   * Median latency in microseconds, within 25%.
+   *
+   * @since 7.1.0
+   */
+  p50Us: number;
+
+  /**
+   * 90th percentile latency in microseconds, within 25%.
+   *
+   * @since 7.1.0
+   */
+  p90Us: number;
+
+  /**
+   * 99th percentile latency in microseconds, within 25%.
+   *
+   * @since 7.1.0
+   */
+  p99Us: number;
+
+  /**
+   * Highest latency in microseconds.
+   *
+   * @since 7.1.0
+   */
+  maxUs: number;
+
+  /**
+   * UTF-8 bytes of the options passed over the bridge.
+   *
+   * @since 7.1.0
+   */
+  requestBytes: number;
+
+  /**
+   * UTF-8 bytes of the results passed back over the bridge.
+   *
+   * @since 7.1.0
+   */
+  responseBytes: number;
+}
+
+export interface WriteMetrics {
+  /**
+   * Number of edits applied to the storage backend.
+   *
+   * @since 7.1.0
+   */
+  count: number;
+
+  /**
+   * Number of keys written or removed by those edits.
+   *
+   * @since 7.1.0
+   */
+  keys: number;
+
+  /**
+   * Estimated bytes of the written keys and values.
+   *
+   * @since 7.1.0
+   */
+  bytes: number;
+}
+
+export interface Metrics {
+  /**
+   * Whether recording is on.
+   *
+   * @since 7.1.0
+   */
+  enabled: boolean;
+
+  /**
+   * Time of the last reset, in milliseconds since the epoch.
+   *
+   * @since 7.1.0
+   */
+  since: number;
+
+  /**
+   * Metrics per plugin method name.
+   *
+   * @since 7.1.0
+   */
+  calls: { [method: string]: CallMetrics };
+
+  /**
+   * Writes to the storage backend.
+   *
+   * @since 7.1.0
+   */
+  writes: WriteMetrics;
+
+  /**
+   * Update broadcasts sent per provider class name.
+   *
+   * @since 7.1.0
+   */
+  broadcasts: { [provider: string]: number };
+}
+
+export interface ResetMetricsOptions {
+  /**
+   * Turns recording on or off; unchanged when omitted.
+   *
+   * @since 7.1.0
+   */
+  enabled?: boolean;
+}
+
+export interface WidgetDependency {
+  /**
+   * Fully qualified class name of the widget provider.
+   *
+   * @since 7.1.0
+   */
+  provider: string;
+
+  /**
+   * User defaults database name which holds the keys the provider reads.
+   *
+   * @since 7.1.0
+   */
+  group: string;
+
+  /**
+   * Keys the provider reads. A key ending in `*` matches every key with that prefix.
+   *
+   * @since 7.1.0
+   */
+  keys: string[];
+}
+
+export interface WidgetDependenciesOptions {
+  /**
+   * Key dependencies of the widget providers.
+   *
+   * @since 7.1.0
+   */
+  dependencies: WidgetDependency[];
+}
+
+export interface ViewBinding {
+  /**
+   * Name of the view id in the layout, e.g. `title` for `R.id.title`.
+   *
+   * @since 7.1.0
+   */
+  view: string;
+
+  /**
+   * Key whose value the view shows.
+   *
+   * @since 7.1.0
+   */
+  key: string;
+
+  /**
+   * What the value sets: the text, the visibility (shown for values other than `false`, `0` and
+   * empty), an image stored with `setImage` under the name the key holds, or the progress.
+   *
+   * @since 7.1.0
+   * @default 'text'
+   */
+  attribute?: 'text' | 'visibility' | 'image' | 'progress';
+
+  /**
+   * `text` only: Java format pattern applied to the value, e.g. `%.1f°`.
+   *
+   * @since 7.1.0
+   */
+  format?: string;
+
+  /**
+   * `text` only: shown when the key is missing.
+   *
+   * @since 7.1.0
+   */
+  fallback?: string;
+
+  /**
+   * `progress` only: the value of a full bar.
+   *
+   * @since 7.1.0
+   * @default 100
+   */
+  max?: number;
+}
+
+export interface WidgetBinding {
+  /**
+   * Fully qualified class name of the provider, a subclass of `WidgetBindingProvider`.
+   *
+   * @since 7.1.0
+   */
+  provider: string;
+
+  /**
+   * User defaults database name which holds the bound keys.
+   *
+   * @since 7.1.0
+   */
+  group: string;
+
+  /**
+   * Name of the layout resource, e.g. `weather_widget` for `R.layout.weather_widget`.
+   *
+   * @since 7.1.0
+   */
+  layout: string;
+
+  /**
+   * Read the keys from the data stored for each widget with `appWidgetId`.
+   *
+   * @since 7.1.0
+   * @default false
+   */
+  perInstance?: boolean;
+
+  /**
+   * The views to fill and the keys they show.
+   *
+   * @since 7.1.0
+   */
+  views: ViewBinding[];
+}
+
+export interface WidgetBindingsOptions {
+  /**
+   * One binding per provider.
+   *
+   * @since 7.1.0
+   */
+  bindings: WidgetBinding[];
+}
+
+export interface ImageOptions {
+  /**
+   * The app group the image belongs to.
+   *
+   * @since 7.1.0
+   */
+  group: string;
+
+  /**
+   * Name of the image within the group.
+   *
+   * @since 7.1.0
+   */
+  name: string;
+}
+
+export interface SetImageOptions {
+  /**
+   * The app group the image belongs to.
+   *
+   * @since 7.1.0
+   */
+  group: string;
+
+  /**
+   * Name of the image within the group.
+   *
+   * @since 7.1.0
+   */
+  name: string;
+
+  /**
+   * Image bytes as base64 or a `data:` URL. Either `data` or `path` is required.
+   *
+   * @since 7.1.0
+   */
+  data?: string;
+
+  /**
+   * Path or `file://` URI of an image file to copy.
+   *
+   * @since 7.1.0
+   */
+  path?: string;
+}
+
+export interface ImageResult {
+  /**
+   * `file://` URI of the stored image.
+   *
+   * @since 7.1.0
+   */
+  uri: string;
+
+  /**
+   * Size of the stored image in bytes.
+   *
+   * @since 7.1.0
+   */
+  size: number;
+
+  /**
+   * Names of the images of the same group that were deleted to stay within the limit.
+   *
+   * @since 7.1.0
+   */
+  evicted: string[];
+}
+
+export interface SubscribeOptions {
+  /**
+   * The group to watch.
+   *
+   * @since 7.1.0
+   */
+  group: string;
+
+  /**
+   * Works on the data of this one widget instance instead of the whole group. Read it on Android
+   * with `WidgetBridgeStore.openInstance(context, group, appWidgetId)`.
+   *
+   * @since 7.1.0
+   */
+  appWidgetId?: number;
+
+  /**
+   * Keys to watch. A trailing `*` matches every key with that prefix. Omit to watch the whole group.
+   *
+   * @since 7.1.0
+   */
+  keys?: string[];
+}
+
+export interface UnsubscribeOptions {
+  /**
+   * Subscription id returned by `subscribe`.
+   *
+   * @since 7.1.0
+   */
+  id: string;
+}
+
+export interface ItemsChangedEvent {
+  /**
+   * The group the keys belong to.
+   *
+   * @since 7.1.0
+   */
+  group: string;
+
+  /**
+   * Changed keys with their new version. Removed keys are included too.
+   *
+   * @since 7.1.0
+   */
+  changes: { [key: string]: number };
+
+  /**
+   * Ids of the subscriptions that matched at least one changed key.
+   *
+   * @since 7.1.0
+   */
+  subscriptions: string[];
+}
+
+export interface AutoReloadOptions {
+  /**
+   * Whether writes reload the providers that depend on the changed keys.
+   *
+   * @since 7.1.0
+   */
+  enabled: boolean;
+}
+
+export interface RequestWidgetOptions {
+  /**
+   * Fully qualified class name of the widget provider to pin.
+   * 
+   * Example: "com.example.app.MyWidgetProvider"
+   *
+   * @since 7.0.0
+   */
+  className: string;
+}
+
+export interface DataResults<T> {
+  /**
+   * Holds response results from native code
+   *
+   * @since 7.0.0
+   */
+  results: T;
+}
+
+export interface PagedResults<T> {
+  /**
+   * Holds response results from native code
+   *
+   * @since 7.1.0
+   */
+  results: T;
+
+  /**
+   * Pass as `cursor` to get the next page. Not set on the last page.
+   *
+   * @since 7.1.0
+   */
+  cursor?: string;
+}
+
+export interface VersionedResults<T> {
+  /**
+   * Holds response results from native code. Not set when `notModified` is `true`.
+   *
+   * @since 7.1.0
+   */
+  results?: T;
+
+  /**
+   * Version of the data read. Versions only increase, also across app restarts.
+   *
+   * @since 7.1.0
+   */
+  version: number;
+
+  /**
+   * Opaque tag of the data read, for `ifNoneMatch`.
+   *
+   * @since 7.1.0
+   */
+  etag: string;
+
+  /**
+   * `true` when the data still matches `ifVersion` or `ifNoneMatch`.
+   *
+   * @since 7.1.0
+   */
+  notModified?: boolean;
 }